@@ -0,0 +1,86 @@
+package org.texttechnologylab.duui.benchmarks;
+
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.controllers.events.DUUIEventController;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sets up the storage used by the benchmarks. The collections are held in memory (STORAGE_ENGINE=memory),
+ * so the benchmarks measure the cost of building and applying writes and queries in the service without
+ * depending on a running MongoDB instance. Writes are synchronous, so their cost is part of the measurement.
+ * <p>
+ * Like the process_path index of MongoDB, the in-memory engine finds documents by process_id and path with
+ * a hash index, so a write of a single document does not scan the collection and the cost of a tick grows
+ * linearly with the number of written documents.
+ */
+final class DUUIBenchmarkStorage {
+
+    static final String PROCESS_ID = "65a000000000000000000001";
+
+    private static final String CONFIG = String.join(System.lineSeparator(), List.of(
+        "STORAGE_ENGINE=memory",
+        "MONGO_ASYNC_DOCUMENT_WRITES=false",
+        "MONGO_BULK_BATCH_SIZE=500",
+        "EVENT_BUFFER_SIZE=1000000",
+        "EVENT_BACKPRESSURE_TIMEOUT=60000"));
+
+    private DUUIBenchmarkStorage() {
+    }
+
+    /**
+     * Select a new, empty in-memory storage and create the event sink.
+     */
+    static void init() {
+        try {
+            Path path = Files.createTempFile("duui-benchmark", ".properties");
+            Files.writeString(path, CONFIG);
+
+            Config config = new Config(path.toString());
+            DUUIMongoDBStorage.init(config);
+            DUUIEventController.init(config);
+
+            Files.deleteIfExists(path);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Write the remaining events and stop the event sink.
+     */
+    static void shutdown() {
+        DUUIEventController.shutdown();
+    }
+
+    /**
+     * Create documents in the state of a running process. Every document has a few annotation counts.
+     *
+     * @param count The number of documents.
+     * @return the documents in insertion order.
+     */
+    static Set<DUUIDocument> documents(int count) {
+        Set<DUUIDocument> documents = new LinkedHashSet<>(count);
+
+        for (int index = 0; index < count; index++) {
+            DUUIDocument document = new DUUIDocument(
+                String.format("document-%06d.txt", index),
+                String.format("/input/document-%06d.txt", index));
+
+            document.setStatus(index % 3 == 0 ? "Completed" : "Processing");
+            document.getAnnotations().put("de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token", 100 + index % 50);
+            document.getAnnotations().put("de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence", 10 + index % 5);
+            documents.add(document);
+        }
+
+        return documents;
+    }
+}
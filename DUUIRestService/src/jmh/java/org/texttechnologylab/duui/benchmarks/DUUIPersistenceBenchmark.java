@@ -0,0 +1,90 @@
+package org.texttechnologylab.duui.benchmarks;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIEvent;
+import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentController;
+import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentStateTracker;
+import org.texttechnologylab.duui.api.controllers.events.DUUIEventController;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the writes a process performs on every tick of its update loop: the state and annotations of
+ * its documents and the events that have been added since the last tick.
+ * <p>
+ * Documents are written once during setup, so the document benchmarks measure updates of existing
+ * documents like they occur during processing. The events benchmark inserts all events of the process
+ * and waits until they have been written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class DUUIPersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int documentCount;
+
+    private Set<DUUIDocument> documents;
+    private List<DUUIEvent> events;
+    private DUUIDocumentStateTracker tracker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DUUIBenchmarkStorage.init();
+
+        documents = DUUIBenchmarkStorage.documents(documentCount);
+        DUUIDocumentController.updateMany(DUUIBenchmarkStorage.PROCESS_ID, documents);
+        DUUIProcessController.insertAnnotations(DUUIBenchmarkStorage.PROCESS_ID, documents);
+
+        tracker = new DUUIDocumentStateTracker();
+        tracker.diff(documents);
+
+        events = new ArrayList<>(documentCount);
+        for (DUUIDocument document : documents) {
+            events.add(new DUUIEvent(
+                DUUIEvent.Sender.DOCUMENT,
+                String.format("%s has been processed", document.getPath())));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DUUIBenchmarkStorage.shutdown();
+    }
+
+    /**
+     * Remove the inserted events, so every invocation of {@link #insertEvents()} starts from an empty
+     * collection and a process without a high-water mark. Each invocation takes milliseconds, so the
+     * overhead of an invocation level fixture is negligible.
+     */
+    @TearDown(Level.Invocation)
+    public void clearEvents() {
+        DUUIEventController.release(DUUIBenchmarkStorage.PROCESS_ID);
+        DUUIEventController.deleteMany(new Document());
+    }
+
+    @Benchmark
+    public void updateDocuments() {
+        DUUIDocumentController.updateMany(DUUIBenchmarkStorage.PROCESS_ID, documents);
+    }
+
+    @Benchmark
+    public void insertAnnotations() {
+        DUUIProcessController.insertAnnotations(DUUIBenchmarkStorage.PROCESS_ID, documents);
+    }
+
+    @Benchmark
+    public boolean insertEvents() {
+        DUUIEventController.insertMany(DUUIBenchmarkStorage.PROCESS_ID, events, tracker);
+        return DUUIEventController.flush();
+    }
+}
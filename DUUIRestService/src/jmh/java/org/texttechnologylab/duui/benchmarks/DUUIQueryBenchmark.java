@@ -0,0 +1,131 @@
+package org.texttechnologylab.duui.benchmarks;
+
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentController;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
+import org.texttechnologylab.duui.api.storage.MongoDBFilters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the documents of a process: the aggregation built from {@link MongoDBFilters} for a
+ * page of documents including the total count, a page in the middle of the process selected by skip and by
+ * cursor and the conversion of ObjectIds for the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class DUUIQueryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int documentCount;
+
+    private List<Document> templates;
+    private String middle;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DUUIBenchmarkStorage.init();
+        DUUIDocumentController.updateMany(
+            DUUIBenchmarkStorage.PROCESS_ID,
+            DUUIBenchmarkStorage.documents(documentCount));
+
+        templates = new ArrayList<>(documentCount);
+        for (int index = 0; index < documentCount; index++) {
+            templates.add(new Document("_id", new ObjectId())
+                .append("name", String.format("document-%06d.txt", index))
+                .append("process_id", DUUIBenchmarkStorage.PROCESS_ID));
+        }
+
+        middle = DUUIDocumentController.findMany(byName()
+                .limit(documentCount / 2)
+                .count(false))
+            .getString("next");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DUUIBenchmarkStorage.shutdown();
+    }
+
+    /**
+     * The first page of documents sorted by name as requested by the process view.
+     */
+    @Benchmark
+    public Document findPage() {
+        return DUUIDocumentController.findMany(new MongoDBFilters()
+            .addFilter(Filters.eq("process_id", DUUIBenchmarkStorage.PROCESS_ID))
+            .sort("name")
+            .order(1)
+            .limit(25));
+    }
+
+    /**
+     * A page of documents filtered by status, so the count differs from the number of documents.
+     */
+    @Benchmark
+    public Document findPageByStatus() {
+        return DUUIDocumentController.findMany(new MongoDBFilters()
+            .addFilter(Filters.eq("process_id", DUUIBenchmarkStorage.PROCESS_ID))
+            .addFilter(Filters.in("status", List.of("Completed")))
+            .sort("progress")
+            .order(-1)
+            .skip(50)
+            .limit(25));
+    }
+
+    /**
+     * A page in the middle of the process selected by skip. Its cost grows with the skipped documents.
+     */
+    @Benchmark
+    public Document findMiddlePageBySkip() {
+        return DUUIDocumentController.findMany(byName()
+            .skip(documentCount / 2)
+            .limit(25)
+            .count(false));
+    }
+
+    /**
+     * The same page as {@link #findMiddlePageBySkip()} selected by the cursor of the previous page.
+     */
+    @Benchmark
+    public Document findMiddlePageByCursor() {
+        return DUUIDocumentController.findMany(byName()
+            .cursor(middle)
+            .limit(25)
+            .count(false));
+    }
+
+    private static MongoDBFilters byName() {
+        return new MongoDBFilters()
+            .addFilter(Filters.eq("process_id", DUUIBenchmarkStorage.PROCESS_ID))
+            .sort("name")
+            .order(1);
+    }
+
+    /**
+     * Copying the documents only. The baseline for {@link #convertObjectIds(Blackhole)}.
+     */
+    @Benchmark
+    public void copyDocuments(Blackhole blackhole) {
+        for (Document template : templates) {
+            blackhole.consume(new Document(template));
+        }
+    }
+
+    @Benchmark
+    public void convertObjectIds(Blackhole blackhole) {
+        for (Document template : templates) {
+            blackhole.consume(DUUIMongoDBStorage.convertObjectIdToString(new Document(template)));
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package org.texttechnologylab.duui.loadtest;
+
+import org.bson.Document;
+import org.bson.json.JsonWriterSettings;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
+import org.texttechnologylab.duui.analysis.document.Provider;
+import org.texttechnologylab.duui.api.Main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static spark.Spark.awaitInitialization;
+import static spark.Spark.port;
+
+/**
+ * An end-to-end load test of the service that runs on a single machine without Docker.
+ * <p>
+ * The service is started in the same JVM with the in-memory storage engine, unless a config selects
+ * MongoDB. A user and a pipeline with a single {@link DUUILoadTestEngine} component run by the DUUIUIMADriver
+ * are created through the REST routes. Then a fixed number of processes is started through POST /processes,
+ * each reading its own directory of generated text files. A fixed number of clients submit the processes
+ * concurrently and poll GET /processes/:id until the process has finished. Processes that are rejected with
+ * 429 are submitted again after the time given by Retry-After.
+ * <p>
+ * The run reports the throughput in documents per second, the p50 and p99 latency from the request to start
+ * a process until it is active, the p50 and p99 lag of the periodic process updates, the heap usage and the
+ * number of storage operations per second. The report is printed and written as JSON.
+ * <p>
+ * Options are passed as --name=value:
+ * <ul>
+ *     <li>processes: The number of processes to run. Default 100.</li>
+ *     <li>concurrency: The number of processes submitted and polled at the same time. Default 20.</li>
+ *     <li>documents: The number of documents per process. Default 10.</li>
+ *     <li>document_size: The number of characters per document. Default 1000.</li>
+ *     <li>latency: The time in milliseconds the engine takes per document. Default 10.</li>
+ *     <li>output_size: The number of annotations the engine adds per document. Default 100.</li>
+ *     <li>workers: The worker_count of every process. Default 1.</li>
+ *     <li>poll: The interval in milliseconds at which clients poll a process. Default 50.</li>
+ *     <li>config: A config file whose entries replace the defaults of the load test, for example to use
+ *     MongoDB. Optional.</li>
+ *     <li>result: The file the JSON report is written to. Default target/loadtest-result.json.</li>
+ * </ul>
+ */
+public class DUUILoadTest {
+
+    private final int processes;
+    private final int concurrency;
+    private final int documents;
+    private final int documentSize;
+    private final long latency;
+    private final int outputSize;
+    private final int workers;
+    private final long poll;
+    private final Path result;
+    private final Path workingDirectory;
+
+    private final DUUILoadTestRecorder recorder = new DUUILoadTestRecorder();
+    private DUUILoadTestClient client;
+
+    DUUILoadTest(Map<String, String> options) throws IOException {
+        processes = Integer.parseInt(options.getOrDefault("processes", "100"));
+        concurrency = Integer.parseInt(options.getOrDefault("concurrency", "20"));
+        documents = Integer.parseInt(options.getOrDefault("documents", "10"));
+        documentSize = Integer.parseInt(options.getOrDefault("document_size", "1000"));
+        latency = Long.parseLong(options.getOrDefault("latency", "10"));
+        outputSize = Integer.parseInt(options.getOrDefault("output_size", "100"));
+        workers = Integer.parseInt(options.getOrDefault("workers", "1"));
+        poll = Long.parseLong(options.getOrDefault("poll", "50"));
+        result = Paths.get(options.getOrDefault("result", "target/loadtest-result.json"));
+        workingDirectory = Files.createTempDirectory("duui-loadtest");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String argument : args) {
+            if (!argument.startsWith("--") || !argument.contains("=")) {
+                System.err.printf("Unknown argument %s. Options are passed as --name=value.%n", argument);
+                System.exit(1);
+            }
+            options.put(argument.substring(2, argument.indexOf('=')), argument.substring(argument.indexOf('=') + 1));
+        }
+
+        DUUILoadTest loadTest = new DUUILoadTest(options);
+        loadTest.startService(options.get("config"));
+
+        Document report = loadTest.run();
+        System.out.println(report.toJson(JsonWriterSettings.builder().indent(true).build()));
+
+        Path parent = loadTest.result.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Files.writeString(loadTest.result, report.toJson());
+        System.out.printf("The report has been written to %s%n", loadTest.result.toAbsolutePath());
+
+        System.exit(0);
+    }
+
+    /**
+     * Start the service in this JVM. The service listens on a random port and stores its data in memory
+     * unless the config says otherwise.
+     *
+     * @param config The path to a config file that replaces the defaults or null.
+     */
+    void startService(String config) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("PORT", "0");
+        properties.setProperty("STORAGE_ENGINE", "memory");
+        properties.setProperty("FILE_UPLOAD_DIRECTORY", workingDirectory.resolve("upload").toString());
+
+        if (config != null) {
+            try (InputStream input = Files.newInputStream(Paths.get(config))) {
+                properties.load(input);
+            }
+        }
+
+        Path path = workingDirectory.resolve("config.properties");
+        try (OutputStream output = Files.newOutputStream(path)) {
+            properties.store(output, "DUUI load test");
+        }
+
+        // The engine runs in this JVM and falls back to these properties.
+        System.setProperty("duui.loadtest.latency", String.valueOf(latency));
+        System.setProperty("duui.loadtest.output_size", String.valueOf(outputSize));
+
+        Main.main(new String[]{path.toString()});
+        awaitInitialization();
+
+        client = new DUUILoadTestClient(port());
+    }
+
+    /**
+     * Create the user and pipeline and run all processes.
+     *
+     * @return the report of the run.
+     */
+    Document run() throws Exception {
+        String pipelineId = createPipeline();
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        List<Future<?>> runs = new ArrayList<>();
+
+        recorder.start();
+        for (int index = 0; index < processes; index++) {
+            int number = index;
+            runs.add(clients.submit(() -> {
+                runProcess(pipelineId, number);
+                return null;
+            }));
+        }
+
+        for (Future<?> run : runs) {
+            try {
+                run.get();
+            } catch (Exception exception) {
+                System.err.printf("A process failed: %s%n", exception.getMessage());
+                recorder.recordFinished(false, 0);
+            }
+        }
+        recorder.stop();
+        clients.shutdown();
+
+        return recorder.report(new Document("processes", processes)
+            .append("concurrency", concurrency)
+            .append("documents", documents)
+            .append("document_size", documentSize)
+            .append("latency", latency)
+            .append("output_size", outputSize)
+            .append("workers", workers)
+            .append("poll", poll)
+            .append("storage_engine", Main.config.getStorageEngine()));
+    }
+
+    private String createPipeline() throws IOException, InterruptedException {
+        String session = UUID.randomUUID().toString();
+
+        DUUILoadTestClient.Response user = client.post("/users", new Document("email", String.format("loadtest-%s@localhost", session))
+            .append("password", session)
+            .append("session", session));
+        if (user.status() != 200) {
+            throw new IllegalStateException(String.format("Creating the user failed: %d %s", user.status(), user.body()));
+        }
+        client.setAuthorization(session);
+
+        Document component = new Document("name", "Load Test Engine")
+            .append("driver", "DUUIUIMADriver")
+            .append("target", DUUILoadTestEngine.DESCRIPTOR)
+            .append("parameters", new Document(DUUILoadTestEngine.PARAM_LATENCY, String.valueOf(latency))
+                .append(DUUILoadTestEngine.PARAM_OUTPUT_SIZE, String.valueOf(outputSize)));
+
+        DUUILoadTestClient.Response pipeline = client.post("/pipelines", new Document("name", "Load Test")
+            .append("description", "A pipeline created by the load test.")
+            .append("tags", List.of("loadtest"))
+            .append("settings", new Document())
+            .append("components", List.of(component)));
+        if (pipeline.status() != 201) {
+            throw new IllegalStateException(String.format("Creating the pipeline failed: %d %s", pipeline.status(), pipeline.body()));
+        }
+
+        return pipeline.json().getString("oid");
+    }
+
+    /**
+     * Start a process and poll it until it has finished.
+     */
+    private void runProcess(String pipelineId, int number) throws IOException, InterruptedException {
+        Path input = createInput(number);
+
+        Document body = new Document("pipeline_id", pipelineId)
+            .append("input", new Document("provider", Provider.FILE)
+                .append("path", input.toString())
+                .append("file_extension", ".txt"))
+            .append("output", new Document("provider", Provider.NONE))
+            .append("settings", new Document("worker_count", workers)
+                .append("recursive", false));
+
+        long requestedAt = System.nanoTime();
+        DUUILoadTestClient.Response response = client.post("/processes", body);
+        while (response.status() == 429) {
+            recorder.recordRejected();
+            Thread.sleep(Math.max(1, response.retryAfter()) * 1_000);
+            response = client.post("/processes", body);
+        }
+
+        if (response.status() != 200 && response.status() != 202) {
+            throw new IllegalStateException(String.format("Starting a process failed: %d %s", response.status(), response.body()));
+        }
+
+        String processId = response.json().getString("oid");
+        boolean started = false;
+
+        while (true) {
+            Document process = client.get("/processes/" + processId).json();
+            String status = process.getString("status");
+            boolean finished = process.getBoolean("is_finished", false);
+
+            if (!started && (finished || DUUIStatus.ACTIVE.equals(status))) {
+                started = true;
+                recorder.recordStart((System.nanoTime() - requestedAt) / 1e9);
+            }
+
+            if (finished) {
+                recorder.recordFinished(DUUIStatus.COMPLETED.equals(status), documents);
+                return;
+            }
+
+            Thread.sleep(poll);
+        }
+    }
+
+    /**
+     * Write the documents of a process to a directory of its own. The directory of a process with file
+     * input is deleted once the process has finished.
+     */
+    private Path createInput(int number) throws IOException {
+        Path directory = Files.createDirectories(workingDirectory.resolve(String.format("input-%06d", number)));
+
+        for (int index = 0; index < documents; index++) {
+            Files.writeString(
+                directory.resolve(String.format("document-%06d.txt", index)),
+                text(documentSize),
+                StandardCharsets.UTF_8);
+        }
+        return directory;
+    }
+
+    private static String text(int size) {
+        StringBuilder text = new StringBuilder(size);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (text.length() < size) {
+            int length = 1 + random.nextInt(10);
+            for (int index = 0; index < length && text.length() < size; index++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return text.substring(0, size);
+    }
+}
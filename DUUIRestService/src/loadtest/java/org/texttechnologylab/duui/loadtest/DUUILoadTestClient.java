@@ -0,0 +1,83 @@
+package org.texttechnologylab.duui.loadtest;
+
+import org.bson.Document;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * A minimal client for the REST routes in {@link org.texttechnologylab.duui.api.Methods} used by the
+ * {@link DUUILoadTest}.
+ */
+class DUUILoadTestClient {
+
+    private final HttpClient client = HttpClient
+        .newBuilder()
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+
+    private final String baseUrl;
+    private String authorization;
+
+    /**
+     * A response of the service.
+     *
+     * @param status     The HTTP status code.
+     * @param body       The body of the response.
+     * @param retryAfter The value of the Retry-After header in seconds or 0.
+     */
+    record Response(int status, String body, long retryAfter) {
+
+        Document json() {
+            return Document.parse(body);
+        }
+    }
+
+    DUUILoadTestClient(int port) {
+        this.baseUrl = String.format("http://localhost:%d", port);
+    }
+
+    void setAuthorization(String authorization) {
+        this.authorization = authorization;
+    }
+
+    Response get(String path) throws IOException, InterruptedException {
+        return send(request(path).GET());
+    }
+
+    Response post(String path, Document body) throws IOException, InterruptedException {
+        return send(request(path).POST(HttpRequest.BodyPublishers.ofString(body.toJson())));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest
+            .newBuilder(URI.create(baseUrl + path))
+            .timeout(Duration.ofSeconds(60))
+            .header("Content-Type", "application/json");
+
+        if (authorization != null) builder.header("Authorization", authorization);
+        return builder;
+    }
+
+    private Response send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+
+        long retryAfter = response
+            .headers()
+            .firstValue("Retry-After")
+            .map(value -> {
+                try {
+                    return Long.parseLong(value.trim());
+                } catch (NumberFormatException exception) {
+                    return 0L;
+                }
+            })
+            .orElse(0L);
+
+        return new Response(response.statusCode(), response.body(), retryAfter);
+    }
+}
@@ -0,0 +1,74 @@
+package org.texttechnologylab.duui.loadtest;
+
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.fit.component.JCasAnnotator_ImplBase;
+import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.apache.uima.resource.ResourceInitializationException;
+
+/**
+ * A trivial analysis engine for load tests. It waits for a fixed time per document and adds a fixed number
+ * of annotations, so the cost of the analysis is known and the load test measures the service.
+ * <p>
+ * The engine is used through the {@link org.texttechnologylab.DockerUnifiedUIMAInterface.driver.DUUIUIMADriver}
+ * with the descriptor org/texttechnologylab/duui/loadtest/DUUILoadTestEngine.xml. The parameters are set as
+ * component parameters of the pipeline. Parameters that are not set are read from the system properties
+ * duui.loadtest.latency and duui.loadtest.output_size, which the {@link DUUILoadTest} sets in the same JVM.
+ */
+public class DUUILoadTestEngine extends JCasAnnotator_ImplBase {
+
+    public static final String DESCRIPTOR = "org.texttechnologylab.duui.loadtest.DUUILoadTestEngine";
+
+    /**
+     * The time in milliseconds the engine waits for every document.
+     */
+    public static final String PARAM_LATENCY = "latency";
+    @ConfigurationParameter(name = PARAM_LATENCY, mandatory = false, defaultValue = "")
+    private String latencyParameter;
+
+    /**
+     * The number of annotations the engine adds to every document.
+     */
+    public static final String PARAM_OUTPUT_SIZE = "output_size";
+    @ConfigurationParameter(name = PARAM_OUTPUT_SIZE, mandatory = false, defaultValue = "")
+    private String outputSizeParameter;
+
+    private long latency;
+    private int outputSize;
+
+    @Override
+    public void initialize(UimaContext context) throws ResourceInitializationException {
+        super.initialize(context);
+
+        latency = Math.max(0, Long.parseLong(valueOf(latencyParameter, "duui.loadtest.latency", "0")));
+        outputSize = Math.max(0, Integer.parseInt(valueOf(outputSizeParameter, "duui.loadtest.output_size", "0")));
+    }
+
+    @Override
+    public void process(JCas jCas) throws AnalysisEngineProcessException {
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new AnalysisEngineProcessException(exception);
+            }
+        }
+
+        int length = jCas.getDocumentText() == null ? 0 : jCas.getDocumentText().length();
+        for (int index = 0; index < outputSize; index++) {
+            int begin = (int) ((long) length * index / outputSize);
+            int end = (int) ((long) length * (index + 1) / outputSize);
+            new Annotation(jCas, begin, end).addToIndexes();
+        }
+    }
+
+    private static String valueOf(String parameter, String property, String defaultValue) {
+        if (parameter != null && !parameter.isBlank()) return parameter.trim();
+
+        String value = System.getProperty(property);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+}
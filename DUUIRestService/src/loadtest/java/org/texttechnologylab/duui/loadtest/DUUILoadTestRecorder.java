@@ -0,0 +1,206 @@
+package org.texttechnologylab.duui.loadtest;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.bson.Document;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the measurements of a {@link DUUILoadTest} run.
+ * <p>
+ * Start latencies and finished documents are reported by the clients. Heap usage and the rate of storage
+ * operations are sampled every second. The update lag and the storage operations are read from the metrics
+ * the service exports (duui_process_update_lag_seconds and duui_storage_operations_total), counting only
+ * what happened during the run.
+ */
+class DUUILoadTestRecorder {
+
+    private static final String STORAGE_OPERATIONS = "duui_storage_operations_total";
+    private static final String UPDATE_LAG = "duui_process_update_lag_seconds_bucket";
+
+    private final List<Double> startLatencies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "duui-loadtest-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long startedAt;
+    private long finishedAt;
+    private double initialOperations;
+    private double lastOperations;
+    private double peakOperationsPerSecond;
+    private Map<Double, Double> initialLag;
+    private long peakHeap;
+    private long heapSum;
+    private long heapSamples;
+
+    void start() {
+        startedAt = System.nanoTime();
+        initialOperations = lastOperations = sum(STORAGE_OPERATIONS);
+        initialLag = buckets(UPDATE_LAG);
+
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        finishedAt = System.nanoTime();
+        sampler.shutdownNow();
+        sample();
+    }
+
+    /**
+     * @param seconds The time between the request to start a process and the process becoming active.
+     */
+    void recordStart(double seconds) {
+        startLatencies.add(seconds);
+    }
+
+    /**
+     * @param success   If the process completed.
+     * @param documents The number of documents the process analyzed.
+     */
+    void recordFinished(boolean success, int documents) {
+        if (success) {
+            completed.incrementAndGet();
+            this.documents.addAndGet(documents);
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Count a request to start a process that was rejected with 429 Too Many Requests.
+     */
+    void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    private synchronized void sample() {
+        long heap = memory.getHeapMemoryUsage().getUsed();
+        peakHeap = Math.max(peakHeap, heap);
+        heapSum += heap;
+        heapSamples++;
+
+        double operations = sum(STORAGE_OPERATIONS);
+        peakOperationsPerSecond = Math.max(peakOperationsPerSecond, operations - lastOperations);
+        lastOperations = operations;
+    }
+
+    /**
+     * Summarize the run.
+     *
+     * @param parameters The parameters of the run.
+     * @return the parameters and the measurements.
+     */
+    synchronized Document report(Document parameters) {
+        double seconds = Math.max(1e-9, (finishedAt - startedAt) / 1e9);
+
+        List<Double> latencies;
+        synchronized (startLatencies) {
+            latencies = new ArrayList<>(startLatencies);
+        }
+        Collections.sort(latencies);
+
+        Map<Double, Double> lag = buckets(UPDATE_LAG);
+        lag.replaceAll((bound, count) -> count - initialLag.getOrDefault(bound, 0.0));
+
+        return new Document("parameters", parameters)
+            .append("duration_seconds", seconds)
+            .append("processes", new Document("completed", completed.get())
+                .append("failed", failed.get())
+                .append("rejected", rejected.get()))
+            .append("documents", documents.get())
+            .append("documents_per_second", documents.get() / seconds)
+            .append("start_latency_seconds", new Document("p50", percentile(latencies, 0.5))
+                .append("p99", percentile(latencies, 0.99))
+                .append("max", latencies.isEmpty() ? 0.0 : latencies.get(latencies.size() - 1)))
+            .append("update_lag_seconds", new Document("p50", quantile(lag, 0.5))
+                .append("p99", quantile(lag, 0.99))
+                .append("updates", lag.getOrDefault(Double.POSITIVE_INFINITY, 0.0).longValue()))
+            .append("heap_bytes", new Document("peak", peakHeap)
+                .append("mean", heapSamples == 0 ? 0 : heapSum / heapSamples))
+            .append("storage_operations", new Document("total", (long) (lastOperations - initialOperations))
+                .append("per_second", (lastOperations - initialOperations) / seconds)
+                .append("peak_per_second", peakOperationsPerSecond));
+    }
+
+    /**
+     * The nearest-rank percentile of sorted values.
+     */
+    static double percentile(List<Double> sorted, double percentile) {
+        if (sorted.isEmpty()) return 0;
+        int rank = (int) Math.ceil(percentile * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+
+    /**
+     * Estimate a quantile from the cumulative counts of histogram buckets by linear interpolation within
+     * the bucket, like histogram_quantile in Prometheus.
+     */
+    static double quantile(Map<Double, Double> buckets, double quantile) {
+        double total = buckets.getOrDefault(Double.POSITIVE_INFINITY, 0.0);
+        if (total <= 0) return 0;
+
+        double rank = quantile * total;
+        double lowerBound = 0;
+        double lowerCount = 0;
+
+        for (Map.Entry<Double, Double> bucket : buckets.entrySet()) {
+            if (bucket.getValue() >= rank) {
+                if (bucket.getKey().isInfinite()) return lowerBound;
+
+                double width = bucket.getValue() - lowerCount;
+                return width <= 0
+                    ? bucket.getKey()
+                    : lowerBound + (bucket.getKey() - lowerBound) * (rank - lowerCount) / width;
+            }
+            lowerBound = bucket.getKey();
+            lowerCount = bucket.getValue();
+        }
+        return lowerBound;
+    }
+
+    private static double sum(String name) {
+        double sum = 0;
+        for (Collector.MetricFamilySamples.Sample sample : samples(name)) sum += sample.value;
+        return sum;
+    }
+
+    private static TreeMap<Double, Double> buckets(String name) {
+        TreeMap<Double, Double> buckets = new TreeMap<>();
+        for (Collector.MetricFamilySamples.Sample sample : samples(name)) {
+            int index = sample.labelNames.indexOf("le");
+            if (index < 0) continue;
+
+            String bound = sample.labelValues.get(index);
+            buckets.merge(bound.equals("+Inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(bound), sample.value, Double::sum);
+        }
+        return buckets;
+    }
+
+    private static List<Collector.MetricFamilySamples.Sample> samples(String name) {
+        List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+
+        Enumeration<Collector.MetricFamilySamples> families = CollectorRegistry.defaultRegistry.metricFamilySamples();
+        while (families.hasMoreElements()) {
+            for (Collector.MetricFamilySamples.Sample sample : families.nextElement().samples) {
+                if (sample.name.equals(name)) samples.add(sample);
+            }
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,154 @@
+package org.texttechnologylab.duui.analysis.process;
+
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIProcessMetrics;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor running the lifecycle of every {@link IDUUIProcessHandler}.
+ * <p>
+ * In the default platform mode every process gets its own platform thread, unless a limit of concurrent
+ * processes is configured. In that case a fixed number of threads is used and further processes are queued.
+ * <p>
+ * In the virtual mode every process runs on a virtual thread and at most the configured number of processes
+ * run concurrently, while the remaining ones wait without occupying a platform thread. Virtual threads require
+ * Java 21. On older runtimes the executor falls back to the platform mode.
+ */
+public class DUUIProcessExecutor {
+
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static ExecutorService executor;
+    private static Semaphore permits;
+    private static String mode = PLATFORM;
+
+    /**
+     * Create the executor using the execution mode and concurrency limit in the config.
+     *
+     * @param config The application config.
+     */
+    public static synchronized void init(Config config) {
+        if (executor != null) executor.shutdown();
+
+        int limit = config.getProcessConcurrencyLimit();
+        permits = null;
+        mode = PLATFORM;
+
+        if (config.getProcessExecutionMode().equalsIgnoreCase(VIRTUAL)) {
+            executor = createVirtualExecutor();
+            if (executor != null) {
+                mode = VIRTUAL;
+                if (limit > 0) permits = new Semaphore(limit, true);
+                return;
+            }
+
+            System.err.println("Virtual threads are not supported by this runtime, using platform threads instead.");
+        }
+
+        executor = createPlatformExecutor(limit);
+    }
+
+    private static ExecutorService createPlatformExecutor(int limit) {
+        ThreadFactory factory = runnable -> new Thread(runnable, "duui-process-" + threadCounter.incrementAndGet());
+
+        return limit > 0
+            ? Executors.newFixedThreadPool(limit, factory)
+            : Executors.newCachedThreadPool(factory);
+    }
+
+    /**
+     * Looked up reflectively, since the application is compiled for Java 17.
+     *
+     * @return an executor starting a virtual thread per task or null if virtual threads are not available.
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            return null;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) executor = createPlatformExecutor(0);
+        return executor;
+    }
+
+    /**
+     * @return the execution mode that is actually used.
+     */
+    public static synchronized String getMode() {
+        return mode;
+    }
+
+    /**
+     * Create the task running the process lifecycle of the handler. The task is started with
+     * {@link #execute(RunnableFuture)}, so the handler can store it before it runs and is able to cancel it
+     * from the first moment on.
+     *
+     * @param handler The handler to run.
+     * @return a {@link RunnableFuture} that can be used to interrupt the process.
+     */
+    public static RunnableFuture<Void> task(IDUUIProcessHandler handler) {
+        Semaphore limit;
+        synchronized (DUUIProcessExecutor.class) {
+            limit = permits;
+        }
+
+        AtomicBoolean dequeued = new AtomicBoolean(false);
+        Runnable dequeue = () -> {
+            if (dequeued.compareAndSet(false, true)) DUUIProcessMetrics.decrementQueuedProcesses();
+        };
+
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                if (limit != null) limit.acquire();
+            } catch (InterruptedException exception) {
+                return;
+            }
+
+            dequeue.run();
+            DUUIProcessMetrics.incrementRunningProcesses();
+            try {
+                handler.run();
+            } finally {
+                DUUIProcessMetrics.decrementRunningProcesses();
+                if (limit != null) limit.release();
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                // Processes that are cancelled while waiting never start running.
+                dequeue.run();
+            }
+        };
+
+        DUUIProcessMetrics.incrementQueuedProcesses();
+        return task;
+    }
+
+    /**
+     * Start a task created by {@link #task(IDUUIProcessHandler)}. A task that has been cancelled in the
+     * meantime does not run.
+     *
+     * @param task The task to start.
+     */
+    public static void execute(RunnableFuture<Void> task) {
+        getExecutor().execute(task);
+    }
+
+    /**
+     * Stop accepting new processes.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+}
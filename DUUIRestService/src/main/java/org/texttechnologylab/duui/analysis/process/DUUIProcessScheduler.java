@@ -0,0 +1,136 @@
+package org.texttechnologylab.duui.analysis.process;
+
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIProcessMetrics;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A single scheduler with a fixed number of threads that runs the periodic updates of all active processes.
+ * <p>
+ * Every process has at most one pending tick. The next tick is scheduled after the previous one completed,
+ * so ticks of a slow process are coalesced instead of piling up. The first tick of a process is placed at a
+ * random offset within the interval to spread the writes of processes started at the same time.
+ * The interval adapts to the activity of a process: it is reset to the minimum interval after a tick that
+ * reported changes and doubles after every idle tick until the maximum interval is reached.
+ * The delay between the time a tick is due and the time it starts is exported as the update lag, which grows
+ * once the threads of the scheduler can not keep up with the number of processes.
+ */
+public class DUUIProcessScheduler {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static ScheduledThreadPoolExecutor executor;
+    private static long minimumInterval = 2_000;
+    private static long maximumInterval = 10_000;
+
+    /**
+     * Create the shared scheduler using the settings in the config.
+     *
+     * @param config The application config.
+     */
+    public static synchronized void init(Config config) {
+        minimumInterval = config.getProcessUpdateMinimumInterval();
+        maximumInterval = Math.max(minimumInterval, config.getProcessUpdateMaximumInterval());
+
+        if (executor != null) executor.shutdown();
+        executor = createExecutor(config.getProcessUpdateThreads());
+    }
+
+    private static ScheduledThreadPoolExecutor createExecutor(int threads) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+            Math.max(1, threads),
+            runnable -> {
+                Thread thread = new Thread(runnable, "duui-process-updater-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getExecutor() {
+        if (executor == null) executor = createExecutor(2);
+        return executor;
+    }
+
+    /**
+     * Start running the tick periodically until the returned {@link Updater} is cancelled.
+     *
+     * @param tick The update of a process. Returns true if the process made progress since the last tick.
+     * @return a handle to cancel the periodic updates.
+     */
+    public static Updater schedule(BooleanSupplier tick) {
+        Updater updater = new Updater(tick);
+        DUUIProcessMetrics.incrementScheduledUpdaters();
+        updater.scheduleNext(ThreadLocalRandom.current().nextLong(minimumInterval));
+        return updater;
+    }
+
+    /**
+     * Stop the scheduler. Pending ticks are discarded.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /**
+     * The periodic updates of a single process.
+     */
+    public static class Updater {
+
+        private final BooleanSupplier tick;
+        private long interval = minimumInterval;
+        private ScheduledFuture<?> future;
+        private boolean cancelled = false;
+        private volatile long due;
+
+        private Updater(BooleanSupplier tick) {
+            this.tick = tick;
+        }
+
+        private synchronized void scheduleNext(long delay) {
+            if (cancelled) return;
+
+            ScheduledThreadPoolExecutor executor = getExecutor();
+            if (executor.isShutdown()) return;
+
+            due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            future = executor.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void run() {
+            DUUIProcessMetrics.observeUpdateLag(Math.max(0, System.nanoTime() - due) / 1e9);
+
+            boolean active;
+            try {
+                active = tick.getAsBoolean();
+            } catch (Exception exception) {
+                System.err.printf("Process update failed: %s%n", exception.getMessage());
+                active = false;
+            }
+
+            DUUIProcessMetrics.incrementUpdates(active);
+            interval = active ? minimumInterval : Math.min(maximumInterval, interval * 2);
+            scheduleNext(interval);
+        }
+
+        /**
+         * Stop the periodic updates. A tick that is currently running is not interrupted.
+         */
+        public synchronized void cancel() {
+            if (cancelled) return;
+
+            cancelled = true;
+            if (future != null) future.cancel(false);
+            DUUIProcessMetrics.decrementScheduledUpdaters();
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package org.texttechnologylab.duui.analysis.process;
 
+import org.texttechnologylab.duui.api.Main;
 import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentController;
+import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentStateTracker;
 import org.texttechnologylab.duui.api.controllers.events.DUUIEventController;
 import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineController;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineMultiplexer;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelinePool;
 import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessQueue;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessStream;
 import org.texttechnologylab.duui.api.metrics.providers.DUUIProcessMetrics;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
 import org.texttechnologylab.duui.analysis.document.DUUIDocumentProvider;
 import org.texttechnologylab.duui.analysis.document.Provider;
-import org.texttechnologylab.duui.api.controllers.users.DUUIUserController;
+import org.texttechnologylab.duui.api.controllers.users.DUUIWorkerLeases;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.v2.files.WriteMode;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
@@ -30,12 +37,10 @@ import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.util.List;
-import java.util.Set;
-import java.util.Vector;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The default ProcessHandler implementing the {@link IDUUIProcessHandler} interface.
@@ -43,14 +48,16 @@ import java.util.concurrent.TimeUnit;
  *
  * @author Cedric Borkowski
  */
-public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHandler {
+public class DUUISimpleProcessHandler implements IDUUIProcessHandler {
 
-    private final ScheduledFuture<?> updater;
+    private final DUUIProcessScheduler.Updater updater;
+    private volatile Future<?> execution;
     private final DUUIComposer composer;
     private final Document process;
     private final Document pipeline;
     private final Document settings;
-    private String status = DUUIStatus.SETUP;
+    private final DUUIDocumentStateTracker documentTracker = new DUUIDocumentStateTracker();
+    private volatile String status = DUUIStatus.SETUP;
     private DUUIDocumentProvider input;
     private DUUIDocumentProvider output;
     private IDUUIDocumentHandler inputHandler;
@@ -59,6 +66,12 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
     private int threadCount = 0;
     private int maximumWorkerCount = 1;
     private final boolean shutdownOnExit;
+    private final AtomicBoolean exited = new AtomicBoolean(false);
+    private final AtomicBoolean countedActive = new AtomicBoolean(false);
+    private final Object updateLock = new Object();
+    private boolean closed = false;
+    private boolean changedSinceVersion = false;
+    private int publishedEvents = 0;
 
     /**
      * Run a process using the specified settings and pipeline. The pipeline is instantiated specifically
@@ -87,12 +100,12 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
 //                    DUUIMongoDBStorage.getConnectionURI()))
             .withLuaContext(new DUUILuaContext().withJsonLibrary());
 
-        updater = Executors
-            .newScheduledThreadPool(1)
-            .scheduleAtFixedRate(this::update, 0, 2, TimeUnit.SECONDS);
+        updater = DUUIProcessScheduler.schedule(this::tick);
 
         shutdownOnExit = true;
-        start();
+        RunnableFuture<Void> task = DUUIProcessExecutor.task(this);
+        execution = task;
+        DUUIProcessExecutor.execute(task);
     }
 
     /**
@@ -126,12 +139,12 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
         input = new DUUIDocumentProvider(process.get("input", Document.class));
         output = new DUUIDocumentProvider(process.get("output", Document.class));
 
-        updater = Executors
-            .newScheduledThreadPool(1)
-            .scheduleAtFixedRate(this::update, 0, 2, TimeUnit.SECONDS);
+        updater = DUUIProcessScheduler.schedule(this::tick);
 
         shutdownOnExit = false;
-        start();
+        RunnableFuture<Void> task = DUUIProcessExecutor.task(this);
+        execution = task;
+        DUUIProcessExecutor.execute(task);
     }
 
 
@@ -270,24 +283,136 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
     public void update() {
         if (composer == null) return;
 
-        DUUIProcessController.updatePipelineStatus(getProcessID(), composer.getPipelineStatus());
-        DUUIProcessController.setProgress(getProcessID(), composer.getProgress());
-        DUUIDocumentController.updateMany(getProcessID(), composer.getDocuments());
-        DUUIEventController.insertMany(getProcessID(), composer.getEvents());
-        DUUIProcessController.insertAnnotations(getProcessID(), composer.getDocuments());
+        synchronized (updateLock) {
+            if (closed) return;
+
+            DUUIProcessController.updatePipelineStatus(getProcessID(), composer.getPipelineStatus());
+            DUUIProcessController.setProgress(getProcessID(), composer.getProgress());
+            DUUIDocumentStateTracker.Changes changes = syncDocuments();
+            boolean changed = !changes.isEmpty();
+            changed |= DUUIEventController.insertMany(getProcessID(), composer.getEvents(), documentTracker);
+
+            // Documents and events may be written asynchronously, so the version is incremented again on the
+            // next update. Otherwise a client could cache a response that misses the latest changes.
+            if (changed || changedSinceVersion) DUUIProcessController.incrementVersion(getProcessID());
+            changedSinceVersion = changed;
+
+            publish(changes);
+        }
+    }
+
+    @Override
+    public void subscribe(DUUIProcessStream.Subscriber subscriber) {
+        synchronized (updateLock) {
+            Document snapshot = new Document("type", DUUIProcessStream.SNAPSHOT)
+                .append("process_id", getProcessID())
+                .append("status", status);
+
+            if (composer != null) {
+                snapshot.putAll(getState());
+                snapshot.append("documents", composer.getDocuments().stream()
+                    .map(DUUIDocumentController::toDocument)
+                    .toList());
+                // Only the newest events are sent, older ones are read through the REST API.
+                int from = Math.max(0, publishedEvents - Main.config.getProcessStreamMaximumPendingEvents());
+                snapshot.append("events", toDocuments(composer.getEvents(), from, publishedEvents));
+                if (from > 0) snapshot.append("events_truncated", true);
+            }
+
+            subscriber.offer(snapshot);
+
+            if (closed) {
+                subscriber.offer(new Document("type", DUUIProcessStream.CLOSED)
+                    .append("process_id", getProcessID())
+                    .append("status", status));
+            } else {
+                DUUIProcessStream.subscribe(getProcessID(), subscriber);
+            }
+        }
+    }
+
+    /**
+     * Publish the changes of the last update to the subscribers of the process. Must be called while
+     * holding the update lock.
+     *
+     * @param changes The documents written in the last update.
+     */
+    private void publish(DUUIDocumentStateTracker.Changes changes) {
+        List<DUUIEvent> events = composer.getEvents();
+        int size = events == null ? 0 : events.size();
+
+        if (DUUIProcessStream.hasSubscribers(getProcessID())) {
+            DUUIProcessStream.publish(getProcessID(), getState()
+                .append("documents", changes.getDocuments().stream()
+                    .map(DUUIDocumentController::toDocument)
+                    .toList())
+                .append("events", toDocuments(events, publishedEvents, size)));
+        }
+
+        publishedEvents = size;
+    }
+
+    /**
+     * @return the status, progress and pipeline status of the process.
+     */
+    private Document getState() {
+        Map<String, String> pipelineStatus = composer.getPipelineStatus();
+
+        return new Document("status", status)
+            .append("progress", composer.getProgress())
+            .append("pipeline_status", pipelineStatus == null ? null : new Document(new TreeMap<>(pipelineStatus)));
+    }
+
+    private List<Document> toDocuments(List<DUUIEvent> events, int from, int to) {
+        if (events == null || from >= to) return List.of();
+
+        List<DUUIEvent> range;
+        try {
+            range = new ArrayList<>(events.subList(from, Math.min(to, events.size())));
+        } catch (ConcurrentModificationException | IndexOutOfBoundsException exception) {
+            return List.of();
+        }
+
+        List<Document> documents = new ArrayList<>();
+        for (DUUIEvent event : range) {
+            Document document = DUUIEventController.toDocument(getProcessID(), event, documentTracker);
+            DUUIMongoDBStorage.convertDateToTimestamp(document, "timestamp");
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    /**
+     * Called periodically by the {@link DUUIProcessScheduler}.
+     *
+     * @return if any documents changed since the last tick.
+     */
+    private boolean tick() {
+        long written = documentTracker.getWrittenCount();
+        update();
+        return documentTracker.getWrittenCount() != written;
+    }
+
+    /**
+     * Write the state and annotations of documents that changed since the last update to the database.
+     *
+     * @return the changes that have been written.
+     */
+    private DUUIDocumentStateTracker.Changes syncDocuments() {
+        DUUIDocumentStateTracker.Changes changes = documentTracker.diff(composer.getDocuments());
+        DUUIDocumentController.updateMany(getProcessID(), changes.getDocuments());
+        DUUIProcessController.insertAnnotations(getProcessID(), changes.getAnnotated());
+        documentTracker.commit(changes);
+        return changes;
     }
 
     @Override
     public void onException(Exception exception) {
-        DUUIProcessController.setStatus(getProcessID(), DUUIStatus.FAILED);
+        status = DUUIStatus.FAILED;
         DUUIProcessController.setError(
             getProcessID(),
             String.format("%s - %s", exception.getClass().getCanonicalName(), exception.getMessage()));
 
-        DUUIProcessController.setFinishedAt(getProcessID());
-        DUUIProcessController.setFinished(getProcessID(), true);
-
-
         composer.getDocuments().stream().filter(document ->
             !document.isFinished() || DUUIDocumentController.isActive(document)).forEach(document -> {
                 document.setStatus(DUUIStatus.FAILED);
@@ -303,15 +428,11 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
 
     @Override
     public void onCompletion() {
-        if (status.equals(DUUIStatus.CANCELLED)) return;
+        if (DUUIStatus.oneOf(status, DUUIStatus.CANCELLED, DUUIStatus.FAILED)) return;
 
         status = DUUIStatus.COMPLETED;
-        DUUIProcessController.setStatus(getProcessID(), DUUIStatus.COMPLETED);
         DUUIProcessMetrics.incrementCompletedProcesses();
 
-        DUUIProcessController.setFinished(getProcessID(), true);
-        DUUIProcessController.setFinishedAt(getProcessID());
-
         composer
             .getDocuments()
             .stream()
@@ -328,10 +449,6 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
         DUUIProcessController.setStatus(getProcessID(), DUUIStatus.SHUTDOWN);
         composer.interrupt();
 
-        DUUIProcessController.setStatus(getProcessID(), DUUIStatus.CANCELLED);
-        DUUIProcessController.setFinishedAt(getProcessID());
-        DUUIProcessController.setFinished(getProcessID(), true);
-
         composer.setFinished(true);
         composer.getDocuments().stream().filter(document ->
             !document.isFinished() || DUUIDocumentController.isActive(document)).forEach(document -> {
@@ -351,7 +468,10 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
 
     @Override
     public void exit() {
-        DUUIProcessMetrics.decrementActiveProcesses();
+        if (!exited.compareAndSet(false, true)) return;
+
+        // Processes cancelled before they ran have never been counted as active.
+        if (countedActive.compareAndSet(true, false)) DUUIProcessMetrics.decrementActiveProcesses();
 
         if (input.getProvider().equals(Provider.FILE)) {
             try {
@@ -365,7 +485,7 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
         }
 
         if (composer != null) {
-            DUUIUserController.addToWorkerCount(getUserID(), threadCount);
+            DUUIWorkerLeases.release(getUserID(), getProcessID());
             DUUIProcessMetrics.decrementThreads(threadCount);
 
             try {
@@ -376,18 +496,51 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
             }
 
             DUUIProcessController.removeProcess(getProcessID());
-            DUUIProcessController.updatePipelineStatus(getProcessID(), composer.getPipelineStatus());
-            DUUIEventController.insertMany(getProcessID(), composer.getEvents());
-            DUUIProcessController.insertAnnotations(getProcessID(), composer.getDocuments());
+
+            synchronized (updateLock) {
+                DUUIProcessController.updatePipelineStatus(getProcessID(), composer.getPipelineStatus());
+                DUUIDocumentStateTracker.Changes changes = syncDocuments();
+                DUUIEventController.insertMany(getProcessID(), composer.getEvents(), documentTracker);
+                DUUIEventController.release(getProcessID());
+                publish(changes);
+                closed = true;
+            }
+            DUUIMongoDBStorage.DocumentsWriter().flush();
+            DUUIEventController.flush();
 
             // TODO: Add a method to the DUUIComposer to remove the installed shutdown hook...
         }
 
         if (updater != null) {
-            updater.cancel(true);
+            updater.cancel();
+        }
+
+        finish();
+        synchronized (updateLock) {
+            closed = true;
+            DUUIProcessStream.close(getProcessID(), status);
         }
+
+        DUUIPipelineMultiplexer.release(getPipelineID(), getProcessID());
+        DUUIPipelinePool.release(getProcessID());
+        DUUIProcessQueue.release(getProcessID());
         threadCount = 0;
-        interrupt();
+        if (execution != null) execution.cancel(true);
+    }
+
+    /**
+     * Store the final status of the process. Called by {@link #exit()} after the last documents and events
+     * have been written, so clients that see a finished process also find all of its events.
+     */
+    private void finish() {
+        String current = status;
+        if (DUUIStatus.oneOf(current, DUUIStatus.COMPLETED, DUUIStatus.FAILED, DUUIStatus.CANCELLED)) {
+            DUUIProcessController.setStatus(getProcessID(), current);
+            DUUIProcessController.setFinishedAt(getProcessID());
+            DUUIProcessController.setFinished(getProcessID(), true);
+        }
+
+        DUUIProcessController.incrementVersion(getProcessID());
     }
 
     @Override
@@ -417,10 +570,18 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
 
     @Override
     public void run() {
+        if (exited.get()) return;
+
         DUUIProcessMetrics.incrementActiveProcesses();
+        countedActive.set(true);
+        // The process may have exited before the flag was set. Exactly one side decrements the gauge.
+        if (exited.get() && countedActive.compareAndSet(true, false)) {
+            DUUIProcessMetrics.decrementActiveProcesses();
+            return;
+        }
 
-        startInput();
-        if (status.equals(DUUIStatus.COMPLETED)) return;
+        timed("input", this::startInput);
+        if (status.equals(DUUIStatus.COMPLETED) || exited.get()) return;
 
         if (shutdownOnExit) {
             DUUIProcessController.setStatus(getProcessID(), DUUIStatus.SETUP);
@@ -429,22 +590,49 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
                 DUUIPipelineController.setupComponents(composer, pipeline);
             } catch (Exception exception) {
                 onException(exception);
+                return;
             }
         }
 
         int requestedWorkers = settings.getInteger("worker_count");
-        int availableWorkers = DUUIUserController
-            .getUserById(getUserID(), List.of("worker_count"))
-            .getInteger("worker_count");
+        requestedWorkers = Math.max(1, Math.min(input.isText() ? 1 : requestedWorkers, maximumWorkerCount));
 
-        if (availableWorkers == 0) {
+        // Processes sharing an instantiated pipeline take their workers from the pipeline's slots. The process
+        // has been dispatched already, so the queue does not pick it up again while it waits for a slot.
+        if (!shutdownOnExit) {
+            DUUIProcessController.setStatus(getProcessID(), DUUIStatus.WAITING);
+            try {
+                requestedWorkers = DUUIPipelineMultiplexer.acquire(pipeline, getProcessID(), requestedWorkers);
+            } catch (InterruptedException exception) {
+                status = DUUIStatus.CANCELLED;
+                exit();
+                return;
+            }
+
+            if (exited.get()) {
+                DUUIPipelineMultiplexer.release(getPipelineID(), getProcessID());
+                return;
+            }
+        }
+
+        // A process that failed or was cancelled has released its lease in exit() already.
+        if (exited.get()) return;
+
+        threadCount = DUUIWorkerLeases.acquire(getUserID(), getProcessID(), requestedWorkers);
+        if (exited.get()) {
+            DUUIWorkerLeases.release(getUserID(), getProcessID());
+            threadCount = 0;
+            return;
+        }
+
+        if (threadCount == 0) {
             onException(new IllegalStateException(
                 "This Account is out of workers for now. Wait until your other processes have finished."));
+            return;
         }
 
-        threadCount = Math.max(1, Math.min(input.isText() ? 1 : requestedWorkers, availableWorkers));
-        threadCount = Math.min(threadCount, maximumWorkerCount);
-        DUUIUserController.addToWorkerCount(getUserID(), -threadCount);
+        if (!shutdownOnExit) DUUIPipelineMultiplexer.reduce(getPipelineID(), getProcessID(), threadCount);
+
         composer.withWorkers(threadCount);
         DUUIProcessMetrics.incrementThreads(threadCount);
 
@@ -455,8 +643,8 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
 
         DUUIProcessController.setStatus(getProcessID(), DUUIStatus.ACTIVE);
 
-        if (input.isText()) processText();
-        else process();
+        if (input.isText()) timed("process", this::processText);
+        else timed("process", this::process);
 
         DUUIProcessController.setInstantiationDuration(getProcessID(), composer.getInstantiationDuration());
 
@@ -465,8 +653,23 @@ public class DUUISimpleProcessHandler extends Thread implements IDUUIProcessHand
             return;
         }
 
-        onCompletion();
+        timed("completion", this::onCompletion);
 
-        exit();
+        timed("exit", this::exit);
+    }
+
+    /**
+     * Run a phase of the process lifecycle and record its duration.
+     *
+     * @param phase  The name of the phase.
+     * @param action The phase to run.
+     */
+    private void timed(String phase, Runnable action) {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            DUUIProcessMetrics.observeLifecyclePhase(phase, (System.nanoTime() - start) / 1e9);
+        }
     }
 }
@@ -1,5 +1,6 @@
 package org.texttechnologylab.duui.analysis.process;
 
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessStream;
 
 /**
  * An interface for running processes with DUUI.
@@ -39,6 +40,14 @@ public interface IDUUIProcessHandler extends Runnable {
      */
     void onException(Exception exception);
 
+    /**
+     * Send a snapshot of the in-memory state of the process to a subscriber and register the subscriber for
+     * the deltas published on every update. See {@link DUUIProcessStream}.
+     *
+     * @param subscriber The subscriber.
+     */
+    void subscribe(DUUIProcessStream.Subscriber subscriber);
+
     /**
      * Called when the process is completed.
      */
@@ -4,6 +4,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
@@ -32,7 +33,7 @@ public class Config {
     }
 
     public int getMongoPort() {
-        return Integer.parseInt(properties.getProperty("MONGO_PORT", "27017"));
+        return getInteger("MONGO_PORT", 27017);
     }
 
     public String getMongoUser() {
@@ -59,8 +60,15 @@ public class Config {
         return properties.getProperty("DBX_REDIRECT_URL", null);
     }
 
+    /**
+     * @return the origins of the web interface (e.g. https://duui.example.org) separated by semicolons.
+     * Empty if only connections from the host of the request are allowed.
+     */
     public List<String> getAllowedOrigins() {
-        return List.of(properties.getProperty("ALLOWED_ORIGINS", "").split(";"));
+        return Arrays.stream(properties.getProperty("ALLOWED_ORIGINS", "").split(";"))
+            .map(String::trim)
+            .filter(origin -> !origin.isEmpty())
+            .toList();
     }
 
     public int getPort() {
@@ -75,4 +83,353 @@ public class Config {
         return properties.getProperty("FILE_UPLOAD_DIRECTORY", "files/upload");
     }
 
+    /**
+     * @return the maximum number of write operations sent to the database in a single bulk write.
+     */
+    public int getMongoBulkBatchSize() {
+        return Math.max(1, getInteger("MONGO_BULK_BATCH_SIZE", 500));
+    }
+
+    /**
+     * @return if document updates should be written by a background thread instead of the caller.
+     */
+    public boolean useAsyncDocumentWrites() {
+        return getBoolean("MONGO_ASYNC_DOCUMENT_WRITES", false);
+    }
+
+    /**
+     * @return the maximum number of events buffered before they are written to the database.
+     */
+    public int getEventBufferSize() {
+        return Math.max(1, getInteger("EVENT_BUFFER_SIZE", 10000));
+    }
+
+    /**
+     * @return the time in milliseconds to wait for space in the full event buffer before dropping events.
+     */
+    public long getEventBackpressureTimeout() {
+        return Math.max(0, getInteger("EVENT_BACKPRESSURE_TIMEOUT", 100));
+    }
+
+    /**
+     * @return the number of threads shared by all processes for periodic updates.
+     */
+    public int getProcessUpdateThreads() {
+        return Math.max(1, getInteger("PROCESS_UPDATE_THREADS", 2));
+    }
+
+    /**
+     * @return the time in milliseconds between updates of a process whose documents are changing.
+     */
+    public long getProcessUpdateMinimumInterval() {
+        return Math.max(100, getInteger("PROCESS_UPDATE_MIN_INTERVAL", 2000));
+    }
+
+    /**
+     * @return the maximum time in milliseconds between updates of an idle process.
+     */
+    public long getProcessUpdateMaximumInterval() {
+        return Math.max(100, getInteger("PROCESS_UPDATE_MAX_INTERVAL", 10000));
+    }
+
+    /**
+     * @return the threads processes run on. Either "platform" or "virtual".
+     */
+    public String getProcessExecutionMode() {
+        String mode = properties.getProperty("PROCESS_EXECUTION_MODE");
+        return mode == null || mode.isBlank() ? "platform" : mode.trim();
+    }
+
+    /**
+     * @return the maximum number of processes running at the same time. 0 means no limit.
+     */
+    public int getProcessConcurrencyLimit() {
+        return Math.max(0, getInteger("PROCESS_CONCURRENCY_LIMIT", 0));
+    }
+
+    /**
+     * @return the number of workers that may run at the same time across all processes.
+     * 0 means the budget is derived from the number of cores and the available memory.
+     */
+    public int getWorkerBudget() {
+        return Math.max(0, getInteger("WORKER_BUDGET", 0));
+    }
+
+    /**
+     * @return the memory in megabytes planned for a single worker when deriving the worker budget.
+     */
+    public int getWorkerMemory() {
+        return Math.max(1, getInteger("WORKER_MEMORY_MB", 512));
+    }
+
+    /**
+     * @return the maximum number of waiting processes per user.
+     */
+    public int getProcessQueueUserLimit() {
+        return Math.max(1, getInteger("PROCESS_QUEUE_USER_LIMIT", 50));
+    }
+
+    /**
+     * @return the number of seconds sent in the Retry-After header for waiting or rejected processes.
+     */
+    public int getProcessQueueRetryAfter() {
+        return Math.max(1, getInteger("PROCESS_QUEUE_RETRY_AFTER", 10));
+    }
+
+    /**
+     * @return the time in milliseconds after which a worker lease that has not been renewed is reclaimed.
+     */
+    public long getWorkerLeaseTTL() {
+        return Math.max(3_000, getInteger("WORKER_LEASE_TTL", 60000));
+    }
+
+    /**
+     * @return if frequently used pipelines are kept instantiated automatically.
+     */
+    public boolean isWarmPoolEnabled() {
+        return getBoolean("WARM_POOL_ENABLED", false);
+    }
+
+    /**
+     * @return the maximum number of containers started by automatically instantiated pipelines.
+     */
+    public int getWarmPoolMaximumContainers() {
+        return Math.max(0, getInteger("WARM_POOL_MAX_CONTAINERS", 8));
+    }
+
+    /**
+     * @return the maximum memory in megabytes used by automatically instantiated pipelines.
+     */
+    public int getWarmPoolMaximumMemory() {
+        return Math.max(0, getInteger("WARM_POOL_MAX_MEMORY_MB", 8192));
+    }
+
+    /**
+     * @return the estimated memory in megabytes of a single container.
+     */
+    public int getWarmPoolContainerMemory() {
+        return Math.max(1, getInteger("WARM_POOL_CONTAINER_MEMORY_MB", 1024));
+    }
+
+    /**
+     * @return the number of times a pipeline has to be used before it is kept instantiated.
+     */
+    public int getWarmPoolMinimumUses() {
+        return Math.max(1, getInteger("WARM_POOL_MIN_USES", 2));
+    }
+
+    /**
+     * @return the time in milliseconds after which an unused pipeline is shut down.
+     */
+    public long getWarmPoolIdleTimeout() {
+        return Math.max(10_000, getInteger("WARM_POOL_IDLE_TIMEOUT", 1800000));
+    }
+
+    /**
+     * @return the number of most used pipelines instantiated when the server starts.
+     */
+    public int getWarmPoolPrewarmCount() {
+        return Math.max(0, getInteger("WARM_POOL_PREWARM", 0));
+    }
+
+    /**
+     * @return the eviction policy of the warm pool. Either "lru" or "lfu".
+     */
+    public String getWarmPoolEviction() {
+        String eviction = properties.getProperty("WARM_POOL_EVICTION");
+        return eviction == null || eviction.isBlank() ? "lru" : eviction.trim();
+    }
+
+    /**
+     * @return the maximum number of sessions and API keys in the authentication cache.
+     */
+    public int getAuthCacheSize() {
+        return Math.max(0, getInteger("AUTH_CACHE_SIZE", 10000));
+    }
+
+    /**
+     * @return the time in milliseconds an authenticated session or API key is cached. 0 disables the cache.
+     */
+    public long getAuthCacheTTL() {
+        return Math.max(0, getInteger("AUTH_CACHE_TTL", 30000));
+    }
+
+    /**
+     * @return if the indexes declared by the application are created and updated at startup.
+     */
+    public boolean reconcileIndexes() {
+        return getBoolean("MONGO_RECONCILE_INDEXES", true);
+    }
+
+    /**
+     * @return if the query plans of the controller queries are checked for collection scans at startup.
+     */
+    public boolean isQuerySelfTestEnabled() {
+        return getBoolean("MONGO_QUERY_SELF_TEST", false);
+    }
+
+    /**
+     * @return the maximum number of connections in the MongoDB connection pool.
+     */
+    public int getMongoPoolMaximumSize() {
+        return Math.max(1, getInteger("MONGO_POOL_MAX_SIZE", 100));
+    }
+
+    /**
+     * @return the number of connections the MongoDB connection pool keeps open.
+     */
+    public int getMongoPoolMinimumSize() {
+        return Math.min(getMongoPoolMaximumSize(), Math.max(0, getInteger("MONGO_POOL_MIN_SIZE", 0)));
+    }
+
+    /**
+     * @return the time in milliseconds an operation waits for a free connection before it fails.
+     */
+    public long getMongoPoolMaximumWaitTime() {
+        return Math.max(0, getInteger("MONGO_POOL_MAX_WAIT_TIME", 120000));
+    }
+
+    /**
+     * @return the time in milliseconds an idle connection is kept open. 0 keeps connections open.
+     */
+    public long getMongoPoolMaximumIdleTime() {
+        return Math.max(0, getInteger("MONGO_POOL_MAX_IDLE_TIME", 0));
+    }
+
+    /**
+     * @return the timeout in milliseconds for opening a connection.
+     */
+    public int getMongoConnectTimeout() {
+        return Math.max(0, getInteger("MONGO_CONNECT_TIMEOUT", 10000));
+    }
+
+    /**
+     * @return the timeout in milliseconds for reading from a connection. 0 disables the timeout.
+     */
+    public int getMongoSocketTimeout() {
+        return Math.max(0, getInteger("MONGO_SOCKET_TIMEOUT", 0));
+    }
+
+    /**
+     * @return the time in milliseconds to wait for a suitable server.
+     */
+    public long getMongoServerSelectionTimeout() {
+        return Math.max(0, getInteger("MONGO_SERVER_SELECTION_TIMEOUT", 30000));
+    }
+
+    /**
+     * @return the read preference (for example primary or secondaryPreferred) or null to use the default.
+     */
+    public String getMongoReadPreference() {
+        String value = properties.getProperty("MONGO_READ_PREFERENCE");
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    /**
+     * @return the write concern (for example majority, acknowledged or a number of nodes) or null to use
+     * the default.
+     */
+    public String getMongoWriteConcern() {
+        String value = properties.getProperty("MONGO_WRITE_CONCERN");
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    /**
+     * @return the time in milliseconds after which an idle process stream connection is closed.
+     */
+    public int getProcessStreamIdleTimeout() {
+        return Math.max(10_000, getInteger("PROCESS_STREAM_IDLE_TIMEOUT", 300000));
+    }
+
+    /**
+     * @return the maximum number of events queued for a slow process stream connection.
+     */
+    public int getProcessStreamMaximumPendingEvents() {
+        return Math.max(1, getInteger("PROCESS_STREAM_MAX_PENDING_EVENTS", 1000));
+    }
+
+    /**
+     * @return the maximum size in bytes of a single upload request.
+     */
+    public long getUploadMaximumRequestSize() {
+        return Math.max(1, getInteger("UPLOAD_MAX_REQUEST_SIZE_MB", 1024)) * 1024L * 1024L;
+    }
+
+    /**
+     * @return the maximum size in bytes of a single uploaded file.
+     */
+    public long getUploadMaximumFileSize() {
+        return Math.max(1, getInteger("UPLOAD_MAX_FILE_SIZE_MB", 1024)) * 1024L * 1024L;
+    }
+
+    /**
+     * @return the maximum number of bytes a user can keep in uploads that have not expired.
+     */
+    public long getUploadUserQuota() {
+        return Math.max(1, getInteger("UPLOAD_USER_QUOTA_MB", 4096)) * 1024L * 1024L;
+    }
+
+    /**
+     * @return the time in milliseconds after which an upload that has not been modified expires.
+     */
+    public long getUploadSessionTimeout() {
+        return Math.max(60_000, getInteger("UPLOAD_SESSION_TIMEOUT", 86400000));
+    }
+
+    /**
+     * @return if downloads are compressed with gzip for clients that accept it.
+     */
+    public boolean getDownloadCompression() {
+        return getBoolean("DOWNLOAD_COMPRESSION", true);
+    }
+
+    /**
+     * @return the minimum size in bytes of a file to be compressed.
+     */
+    public long getDownloadCompressionMinimumSize() {
+        return Math.max(0, getInteger("DOWNLOAD_COMPRESSION_MIN_SIZE", 1024));
+    }
+
+    /**
+     * @return the maximum number of pipelines including their components in the pipeline cache.
+     */
+    public int getPipelineCacheSize() {
+        return Math.max(0, getInteger("PIPELINE_CACHE_SIZE", 1000));
+    }
+
+    /**
+     * @return the time in milliseconds a pipeline is cached. 0 disables the cache.
+     */
+    public long getPipelineCacheTTL() {
+        return Math.max(0, getInteger("PIPELINE_CACHE_TTL", 300000));
+    }
+
+    /**
+     * @return if the statistics of pipelines without statistics are rebuilt in the background on startup.
+     */
+    public boolean getPipelineStatisticsRebuildOnStartup() {
+        return getBoolean("PIPELINE_STATISTICS_REBUILD_ON_STARTUP", true);
+    }
+
+    /**
+     * @return the storage engine. Either "mongodb" or "memory". The memory engine runs the service as a single
+     * node without a database, its content is lost on shutdown.
+     */
+    public String getStorageEngine() {
+        String engine = properties.getProperty("STORAGE_ENGINE");
+        return engine == null || engine.isBlank() ? "mongodb" : engine.trim().toLowerCase();
+    }
+
+    private int getInteger(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) return defaultValue;
+        return Integer.parseInt(value.trim());
+    }
+
+    private boolean getBoolean(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+
 }
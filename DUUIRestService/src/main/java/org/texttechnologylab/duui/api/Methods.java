@@ -5,8 +5,10 @@ import org.texttechnologylab.duui.api.metrics.DUUIMetricsManager;
 import org.texttechnologylab.duui.api.metrics.providers.DUUIHTTPMetrics;
 import org.texttechnologylab.duui.api.routes.DUUIRequestHelper;
 import org.texttechnologylab.duui.api.routes.components.DUUIComponentRequestHandler;
+import org.texttechnologylab.duui.api.routes.files.DUUIFileRequestHandler;
 import org.texttechnologylab.duui.api.routes.pipelines.DUUIPipelineRequestHandler;
 import org.texttechnologylab.duui.api.routes.processes.DUUIProcessRequestHandler;
+import org.texttechnologylab.duui.api.routes.processes.DUUIProcessSocket;
 
 
 import static spark.Spark.*;
@@ -23,6 +25,10 @@ public class Methods {
      * Initializes all endpoints including filters and options.
      */
     public static void init() {
+        // Web sockets have to be mapped before any other route.
+        webSocketIdleTimeoutMillis(Main.config.getProcessStreamIdleTimeout());
+        webSocket("/ws/processes", DUUIProcessSocket.class);
+
         options(
             "/*",
             (request, response) -> {
@@ -55,6 +61,7 @@ public class Methods {
                 DUUIHTTPMetrics.incrementActiveRequests();
             }
             response.header("Access-Control-Allow-Origin", "*");
+            response.header("Access-Control-Expose-Headers", "ETag, Retry-After");
         });
 
         after((request, response) -> {
@@ -118,6 +125,7 @@ public class Methods {
             put("/:id", DUUIPipelineRequestHandler::updateOne);
             post("/:id/start", DUUIPipelineRequestHandler::start);
             put("/:id/stop", DUUIPipelineRequestHandler::stop);
+            post("/:id/statistics", DUUIPipelineRequestHandler::rebuildStatistics);
             delete("/:id", DUUIPipelineRequestHandler::deleteOne);
         });
 
@@ -139,6 +147,7 @@ public class Methods {
             delete("/:id", DUUIProcessRequestHandler::deleteOne);
             get("/:id/events", DUUIProcessRequestHandler::findEvents);
             get("/:id/documents", DUUIProcessRequestHandler::findDocuments);
+            get("/:id/output", DUUIProcessRequestHandler::downloadOutput);
         });
 
         /* Metrics */
@@ -148,8 +157,16 @@ public class Methods {
             }
         );
 
-        get("/files", Main::downloadFile);
-        post("/files", Main::uploadFile);
+        /* Files */
+        path("/files", () -> {
+            get("", DUUIFileRequestHandler::downloadFile);
+            post("", DUUIFileRequestHandler::uploadFile);
+            post("/uploads", DUUIFileRequestHandler::createUpload);
+            get("/uploads/:id", DUUIFileRequestHandler::findUpload);
+            put("/uploads/:id", DUUIFileRequestHandler::uploadChunk);
+            post("/uploads/:id/complete", DUUIFileRequestHandler::completeUpload);
+            delete("/uploads/:id", DUUIFileRequestHandler::deleteUpload);
+        });
     }
 
 }
@@ -1,5 +1,7 @@
 package org.texttechnologylab.duui.api.controllers.components;
 
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineCache;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelinePool;
 import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
 import org.texttechnologylab.duui.api.storage.MongoDBFilters;
 import com.mongodb.client.model.*;
@@ -11,6 +13,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -204,6 +207,8 @@ public class DUUIComponentController {
         DUUIMongoDBStorage
             .Components()
             .insertOne(component);
+        DUUIPipelineCache.invalidate(component.getString("pipeline_id"));
+        DUUIPipelinePool.invalidate(component.getString("pipeline_id"));
 
         DUUIMongoDBStorage.convertObjectIdToString(component);
         return component;
@@ -232,7 +237,12 @@ public class DUUIComponentController {
                 Filters.eq(oid),
                 Updates.set("modified_at", Instant.now().toEpochMilli()));
 
-        return DUUIComponentController.findOneById(id);
+        Document component = DUUIComponentController.findOneById(id);
+        if (component != null) {
+            DUUIPipelineCache.invalidate(component.getString("pipeline_id"));
+            DUUIPipelinePool.invalidate(component.getString("pipeline_id"));
+        }
+        return component;
     }
 
     /**
@@ -242,10 +252,17 @@ public class DUUIComponentController {
      * @return a confirmation flag.
      */
     public static boolean deleteOne(String id) {
-        return DUUIMongoDBStorage
+        String pipelineId = findPipelineId(id);
+
+        boolean deleted = DUUIMongoDBStorage
             .Components()
             .deleteOne(Filters.eq(new ObjectId(id)))
             .getDeletedCount() > 0;
+        if (deleted) {
+            DUUIPipelineCache.invalidate(pipelineId);
+            DUUIPipelinePool.invalidate(pipelineId);
+        }
+        return deleted;
     }
 
 
@@ -258,6 +275,7 @@ public class DUUIComponentController {
         DUUIMongoDBStorage
             .Components()
             .deleteMany(filter);
+        DUUIPipelineCache.invalidateAll();
     }
 
     /**
@@ -267,11 +285,30 @@ public class DUUIComponentController {
      * @param index The index in the pipeline.
      */
     public static void setIndex(String id, int index) {
-        DUUIMongoDBStorage
+        Document previous = DUUIMongoDBStorage
             .Components()
-            .updateOne(
+            .findOneAndUpdate(
                 Filters.eq(new ObjectId(id)),
                 Updates.set("index", index));
+
+        if (previous != null && !Objects.equals(previous.get("index"), index)) {
+            DUUIPipelineCache.invalidate(previous.getString("pipeline_id"));
+            DUUIPipelinePool.invalidate(previous.getString("pipeline_id"));
+        }
+    }
+
+    /**
+     * @param id The component's id.
+     * @return the id of the pipeline the component belongs to or null.
+     */
+    private static String findPipelineId(String id) {
+        Document component = DUUIMongoDBStorage
+            .Components()
+            .find(Filters.eq(new ObjectId(id)))
+            .projection(Projections.include("pipeline_id"))
+            .first();
+
+        return component == null ? null : component.getString("pipeline_id");
     }
 
 }
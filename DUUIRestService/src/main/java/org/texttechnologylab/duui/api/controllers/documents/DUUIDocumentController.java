@@ -1,9 +1,9 @@
 package org.texttechnologylab.duui.api.controllers.documents;
 
 import org.texttechnologylab.duui.api.controllers.events.DUUIEventController;
+import org.texttechnologylab.duui.api.storage.DUUIBulkWriter;
 import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
 import org.texttechnologylab.duui.api.storage.MongoDBFilters;
-import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.model.*;
 import org.texttechnologylab.duui.analysis.document.DUUIDocumentProvider;
 import org.texttechnologylab.duui.analysis.document.Provider;
@@ -13,9 +13,7 @@ import org.bson.types.ObjectId;
 import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument;
 import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 import static org.texttechnologylab.duui.api.routes.DUUIRequestHelper.*;
 
@@ -105,21 +103,33 @@ public class DUUIDocumentController {
             .first();
     }
 
+    /**
+     * See {@link #findMany(MongoDBFilters, boolean)}.
+     */
+    public static Document findMany(MongoDBFilters filters) {
+        return findMany(filters, true);
+    }
+
     /**
      * Retrieve one or more documents from the database given a{@link MongoDBFilters} object.
+     * <p>
+     * The page of documents and the events of the documents are read in a single aggregation without a
+     * $facet, so the filters and the cursor of the page can use the indexes of the documents collection. The
+     * total count is read in a separate query and is left out if the filters do not ask for it, so pages read
+     * with a cursor do not touch the other matches. Events are joined by their document_path. For processes whose events
+     * have been recorded without a document_path, the events are matched by
+     * {@link DUUIEventController#findManyByDocuments}.
      *
-     * @param filters A {@link MongoDBFilters} object that contains filter options.
-     * @return A Document containing a list of matched documents.
+     * @param filters      A {@link MongoDBFilters} object that contains filter options.
+     * @param linkedEvents If the events of the documents have a document_path.
+     * @return A Document containing a list of matched documents, the count if requested and the cursor of
+     * the next page.
      */
-    public static Document findMany(MongoDBFilters filters) {
-        List<Bson> aggregationPipeline = new ArrayList<>();
-        List<Bson> documentFacet = new ArrayList<>();
+    public static Document findMany(MongoDBFilters filters, boolean linkedEvents) {
+        Bson filter = filters.getFilters().isEmpty() ? new Document() : Filters.and(filters.getFilters());
 
-        if (!filters.getFilters().isEmpty()) {
-            aggregationPipeline.add(Aggregates.match(
-                Filters.and(filters.getFilters())
-            ));
-        }
+        List<Bson> aggregationPipeline = new ArrayList<>();
+        aggregationPipeline.add(Aggregates.match(filter));
 
         aggregationPipeline.add(Aggregates.addFields(new Field<>(
             "duration",
@@ -131,82 +141,161 @@ public class DUUIDocumentController {
                     "$duration_wait",
                     "$duration_process")))));
 
+        aggregationPipeline.addAll(filters.toPageStages());
 
-        if (filters.getSort() != null) {
-            documentFacet.add(Aggregates.sort(
-                filters.getOrder() == 1
-                    ? Sorts.ascending(filters.getSort())
-                    : Sorts.descending(filters.getSort())));
+        // Join the events after the page has been cut, so only the events of visible documents are read.
+        if (linkedEvents) {
+            aggregationPipeline.add(Aggregates.lookup(
+                "events",
+                List.of(
+                    new Variable<>("process_id", "$process_id"),
+                    new Variable<>("path", "$path")),
+                List.of(
+                    Aggregates.match(Filters.expr(new Document("$and", List.of(
+                        new Document("$eq", List.of("$event.process_id", "$$process_id")),
+                        new Document("$eq", List.of("$event.document_path", "$$path")))))),
+                    Aggregates.sort(Sorts.ascending("timestamp"))),
+                "events"));
         }
 
-        if (filters.getSkip() > 0) documentFacet.add(Aggregates.skip(filters.getSkip()));
-        if (filters.getLimit() > 0) documentFacet.add(Aggregates.limit(filters.getLimit()));
+        List<Document> documents = DUUIMongoDBStorage
+            .Documents()
+            .aggregate(aggregationPipeline)
+            .into(new ArrayList<>());
 
-        aggregationPipeline.add(Aggregates.facet(
-            new Facet("documents", documentFacet),
-            new Facet("count", Aggregates.count())
-        ));
+        String next = filters.nextCursor(documents);
 
-        AggregateIterable<Document> aggregated = DUUIMongoDBStorage
-            .Documents()
-            .aggregate(aggregationPipeline);
+        if (!linkedEvents) appendEvents(documents);
 
+        documents.forEach(document -> {
+            DUUIMongoDBStorage.convertObjectIdToString(document);
+            List<Document> events = document.getList("events", Document.class);
+            events.forEach(DUUIMongoDBStorage::convertObjectIdToString);
+            events.forEach(event -> DUUIMongoDBStorage.convertDateToTimestamp(event, "timestamp"));
+        });
 
-        List<Document> result = aggregated.into(new ArrayList<>());
-        try {
-            List<Document> documents = result.get(0).getList("documents", Document.class);
-            int count = result.get(0).getList("count", Document.class).get(0).getInteger("count");
+        Document result = new Document("documents", documents);
+        if (filters.isCount()) result.append("count", DUUIMongoDBStorage.Documents().countDocuments(filter));
+        return result.append("next", next);
+    }
 
-            documents.forEach(document -> {
-                DUUIMongoDBStorage.convertObjectIdToString(document);
-                List<Document> events = DUUIEventController.findManyByDocument(document.getString("oid"));
-                events.forEach(DUUIMongoDBStorage::convertObjectIdToString);
-                events.forEach(event -> DUUIMongoDBStorage.convertDateToTimestamp(event, "timestamp"));
-                document.append("events", events).toJson();
-            });
+    /**
+     * Fetch the events of all documents with one query per process and append them to the documents.
+     *
+     * @param documents The documents.
+     */
+    private static void appendEvents(List<Document> documents) {
+        Map<String, Set<String>> paths = new HashMap<>();
+        documents.forEach(document -> paths
+            .computeIfAbsent(document.getString("process_id"), key -> new HashSet<>())
+            .add(document.getString("path")));
 
-            return new Document("documents", documents).append("count", count);
-        } catch (IndexOutOfBoundsException exception) {
-            return new Document("documents", new ArrayList<>()).append("count", 0);
-        }
+        Map<String, Map<String, List<Document>>> events = new HashMap<>();
+        paths.forEach((processId, processPaths) ->
+            events.put(processId, DUUIEventController.findManyByDocuments(processId, processPaths)));
 
+        documents.forEach(document -> document.append("events", events
+            .get(document.getString("process_id"))
+            .getOrDefault(document.getString("path"), new ArrayList<>())
+            .stream()
+            .map(Document::new)
+            .toList()));
     }
 
 
     /**
-     * Update the status of documents in the database.
+     * Update the status of documents in the database. The updates are sent in unordered bulk writes through
+     * the {@link DUUIBulkWriter} of the documents collection. Documents that do not exist yet are inserted.
      *
      * @param processId the id of the process associated with the documents.
      * @param documents a list of {@link DUUIDocument}s to update.
      */
     public static void updateMany(String processId, Set<DUUIDocument> documents) {
+        Map<String, UpdateOneModel<Document>> updates = new LinkedHashMap<>();
+
         for (DUUIDocument document : documents) {
-            DUUIMongoDBStorage
-                .Documents()
-                .updateOne(
+            updates.put(
+                getWriteKey(processId, document.getPath(), "state"),
+                new UpdateOneModel<>(
                     Filters.and(
                         Filters.eq("process_id", processId),
                         Filters.eq("path", document.getPath())
                     ),
-                    Updates.combine(
-                        Updates.set("name", document.getName()),
-                        Updates.set("path", document.getPath()),
-                        Updates.set("size", document.getSize()),
-                        Updates.set("progress", document.getProgess().get()),
-                        Updates.set("status", document.getStatus()),
-                        Updates.set("error", document.getError()),
-                        Updates.set("is_finished", document.isFinished()),
-                        Updates.set("duration_decode", document.getDurationDecode()),
-                        Updates.set("duration_deserialize", document.getDurationDeserialize()),
-                        Updates.set("duration_wait", document.getDurationWait()),
-                        Updates.set("duration_process", document.getDurationProcess()),
-                        Updates.set("progress_upload", document.getUploadProgress()),
-                        Updates.set("progress_download", document.getDownloadProgress()),
-                        Updates.set("started_at", document.getStartedAt()),
-                        Updates.set("finished_at", document.getFinishedAt())
+                    new Document("$set", toDocument(document)),
+                    new UpdateOptions().upsert(true)
+                ));
+        }
+
+        DUUIMongoDBStorage.DocumentsWriter().submit(updates);
+    }
+
+    /**
+     * Write the paths of the input documents of a process to the documents collection. Each path becomes a
+     * document with the given status unless a document with the path exists already. The
+     * writes are sent through the {@link DUUIBulkWriter} of the documents collection, so they are ordered
+     * before later state updates of the same documents.
+     *
+     * @param processId The id of the process.
+     * @param paths     The paths of the documents.
+     * @param status    The status of documents that are inserted, usually {@link DUUIStatus#WAITING}.
+     */
+    public static void insertPaths(String processId, Collection<String> paths, String status) {
+        Map<String, UpdateOneModel<Document>> inserts = new LinkedHashMap<>();
+
+        for (String path : paths) {
+            inserts.put(
+                getWriteKey(processId, path, "path"),
+                new UpdateOneModel<>(
+                    Filters.and(
+                        Filters.eq("process_id", processId),
+                        Filters.eq("path", path)
                     ),
+                    Updates.combine(
+                        Updates.setOnInsert("name", path.substring(path.lastIndexOf('/') + 1)),
+                        Updates.setOnInsert("status", status),
+                        Updates.setOnInsert("progress", 0),
+                        Updates.setOnInsert("is_finished", false)),
                     new UpdateOptions().upsert(true)
-                );
+                ));
         }
+
+        DUUIMongoDBStorage.DocumentsWriter().submit(inserts);
+    }
+
+    /**
+     * Convert the state of a {@link DUUIDocument} to the fields stored in the documents collection.
+     *
+     * @param document The document.
+     * @return the state of the document without process_id and annotations.
+     */
+    public static Document toDocument(DUUIDocument document) {
+        return new Document("name", document.getName())
+            .append("path", document.getPath())
+            .append("size", document.getSize())
+            .append("progress", document.getProgess().get())
+            .append("status", document.getStatus())
+            .append("error", document.getError())
+            .append("is_finished", document.isFinished())
+            .append("duration_decode", document.getDurationDecode())
+            .append("duration_deserialize", document.getDurationDeserialize())
+            .append("duration_wait", document.getDurationWait())
+            .append("duration_process", document.getDurationProcess())
+            .append("progress_upload", document.getUploadProgress())
+            .append("progress_download", document.getDownloadProgress())
+            .append("started_at", document.getStartedAt())
+            .append("finished_at", document.getFinishedAt());
+    }
+
+    /**
+     * Construct the key used to coalesce queued writes for a document.
+     * See {@link DUUIBulkWriter#submit(Map)}.
+     *
+     * @param processId The id of the process the document belongs to.
+     * @param path      The path of the document.
+     * @param field     The group of fields the write updates.
+     * @return a key unique to the document and group of fields.
+     */
+    public static String getWriteKey(String processId, String path, String field) {
+        return String.format("%s:%s:%s", processId, field, path);
     }
 }
@@ -0,0 +1,195 @@
+package org.texttechnologylab.duui.api.controllers.documents;
+
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+
+import java.util.*;
+
+/**
+ * Remembers the last persisted state of every {@link DUUIDocument} in a process. Only documents whose
+ * state or annotations changed since the last successful write are returned by {@link #diff(Set)}, which
+ * prevents rewriting unchanged documents on every update of a process.
+ * <p>
+ * Usage: call {@link #diff(Set)}, write the returned documents and call {@link #commit(Changes)} once the
+ * write succeeded. If the write fails, the changes are detected again on the next call to {@link #diff(Set)}.
+ */
+public class DUUIDocumentStateTracker {
+
+    private final Map<String, State> persistedStates = new HashMap<>();
+    private final Map<String, Map<String, Object>> persistedAnnotations = new HashMap<>();
+    private final Set<String> paths = new HashSet<>();
+    private final Set<String> pathsWithWhitespace = new HashSet<>();
+
+    private long writtenCount = 0;
+    private long skippedCount = 0;
+
+    /**
+     * Compare the current state of the documents to the last persisted state.
+     *
+     * @param documents The documents of a process.
+     * @return the documents that have to be written to the database.
+     */
+    public synchronized Changes diff(Set<DUUIDocument> documents) {
+        Changes changes = new Changes();
+        if (documents == null) return changes;
+
+        for (DUUIDocument document : documents) {
+            String path = document.getPath();
+            if (path != null && paths.add(path) && path.chars().anyMatch(Character::isWhitespace)) {
+                pathsWithWhitespace.add(path);
+            }
+
+            State state = State.of(document);
+            if (!state.equals(persistedStates.get(path))) {
+                changes.documents.add(document);
+                changes.states.put(path, state);
+            }
+
+            Map<String, Object> annotations = document.getAnnotations() == null
+                ? Map.of()
+                : new HashMap<String, Object>(document.getAnnotations());
+
+            if (!annotations.equals(persistedAnnotations.getOrDefault(path, Map.of()))) {
+                changes.annotated.add(document);
+                changes.annotations.put(path, annotations);
+            }
+        }
+
+        changes.skipped = documents.size() - changes.documents.size();
+        return changes;
+    }
+
+    /**
+     * Mark the changes returned by {@link #diff(Set)} as persisted.
+     *
+     * @param changes The changes that have been written to the database.
+     */
+    public synchronized void commit(Changes changes) {
+        persistedStates.putAll(changes.states);
+        persistedAnnotations.putAll(changes.annotations);
+
+        writtenCount += changes.documents.size();
+        skippedCount += changes.skipped;
+
+        DUUIStorageMetrics.incrementDocumentSyncWritten(changes.documents.size());
+        DUUIStorageMetrics.incrementDocumentSyncSkipped(changes.skipped);
+    }
+
+    /**
+     * Find the document an event message refers to. The tokens of the message are looked up in the set of
+     * known paths, so the cost does not depend on the number of documents. Paths containing whitespace can
+     * not be found as a single token and are searched in the message directly.
+     *
+     * @param message The message of an event.
+     * @return the path of the document or null if the message does not mention a known document.
+     */
+    public synchronized String findPath(String message) {
+        if (message == null || paths.isEmpty()) return null;
+
+        for (String token : message.split("\\s+")) {
+            if (paths.contains(token)) return token;
+
+            String stripped = strip(token);
+            if (!stripped.isEmpty() && paths.contains(stripped)) return stripped;
+        }
+
+        for (String path : pathsWithWhitespace) {
+            if (message.contains(path)) return path;
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove quotes, brackets and trailing punctuation surrounding a token.
+     */
+    private static String strip(String token) {
+        int start = 0;
+        int end = token.length();
+        while (start < end && "\"'([{<".indexOf(token.charAt(start)) >= 0) start++;
+        while (end > start && "\"')]}>,;:.!?".indexOf(token.charAt(end - 1)) >= 0) end--;
+        return token.substring(start, end);
+    }
+
+    /**
+     * @return the total number of documents that have been written since the tracker was created.
+     */
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return the total number of document writes that have been skipped because nothing changed.
+     */
+    public synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * The result of a call to {@link #diff(Set)}.
+     */
+    public static class Changes {
+        private final Set<DUUIDocument> documents = new HashSet<>();
+        private final Set<DUUIDocument> annotated = new HashSet<>();
+        private final Map<String, State> states = new HashMap<>();
+        private final Map<String, Map<String, Object>> annotations = new HashMap<>();
+        private int skipped = 0;
+
+        /**
+         * @return the documents whose status, progress, durations or error changed.
+         */
+        public Set<DUUIDocument> getDocuments() {
+            return documents;
+        }
+
+        /**
+         * @return the documents whose annotations changed.
+         */
+        public Set<DUUIDocument> getAnnotated() {
+            return annotated;
+        }
+
+        public boolean isEmpty() {
+            return documents.isEmpty() && annotated.isEmpty();
+        }
+    }
+
+    /**
+     * The persisted fields of a document. See {@link DUUIDocumentController#updateMany(String, Set)}.
+     */
+    private record State(
+        String name,
+        long size,
+        long progress,
+        String status,
+        String error,
+        boolean finished,
+        long durationDecode,
+        long durationDeserialize,
+        long durationWait,
+        long durationProcess,
+        long progressUpload,
+        long progressDownload,
+        long startedAt,
+        long finishedAt) {
+
+        static State of(DUUIDocument document) {
+            return new State(
+                document.getName(),
+                document.getSize(),
+                document.getProgess().get(),
+                document.getStatus(),
+                document.getError(),
+                document.isFinished(),
+                document.getDurationDecode(),
+                document.getDurationDeserialize(),
+                document.getDurationWait(),
+                document.getDurationProcess(),
+                document.getUploadProgress(),
+                document.getDownloadProgress(),
+                document.getStartedAt(),
+                document.getFinishedAt()
+            );
+        }
+    }
+}
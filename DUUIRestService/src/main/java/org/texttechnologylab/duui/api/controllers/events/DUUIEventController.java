@@ -1,9 +1,11 @@
 package org.texttechnologylab.duui.api.controllers.events;
 
+import org.texttechnologylab.duui.api.Config;
 import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentController;
+import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentStateTracker;
 import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
-import com.mongodb.client.AggregateIterable;
-import com.mongodb.client.FindIterable;
+import org.texttechnologylab.duui.api.storage.IDUUIFindIterable;
+import org.texttechnologylab.duui.api.storage.MongoDBFilters;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
@@ -11,10 +13,7 @@ import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIEvent;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.regex.Pattern;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -24,6 +23,9 @@ import java.util.stream.Collectors;
  */
 public class DUUIEventController {
 
+    private static final Map<String, Integer> watermarks = new HashMap<>();
+    private static DUUIEventSink sink;
+
     /**
      * Delete all events matching a given filter
      *
@@ -45,31 +47,100 @@ public class DUUIEventController {
         Document document = DUUIDocumentController.findOne(documentId);
         if (document == null) return new ArrayList<>();
 
-        String processId = document.getString("process_id");
         String path = document.getString("path");
-        AggregateIterable<Document> result = DUUIMongoDBStorage
+        return findManyByDocuments(document.getString("process_id"), List.of(path))
+            .getOrDefault(path, new ArrayList<>());
+    }
+
+    /**
+     * Find the events of several documents of a process with a single query.
+     * <p>
+     * Events recorded before events were linked to documents have no document_path. For those processes
+     * the events are matched by searching the path in the message.
+     *
+     * @param processId The id of the process.
+     * @param paths     The paths of the documents.
+     * @return the events of every document by path, sorted by timestamp.
+     */
+    public static Map<String, List<Document>> findManyByDocuments(String processId, Collection<String> paths) {
+        Map<String, List<Document>> events = new HashMap<>();
+        if (paths.isEmpty()) return events;
+
+        boolean linked = DUUIMongoDBStorage
             .Events()
-            .aggregate(
-                List.of(
-                    Aggregates.match(
-                        Filters.and(
-                            Filters.eq("event.process_id", processId),
-                            new Document(
-                                "event.message",
-                                Pattern.compile(path, Pattern.CASE_INSENSITIVE))
-                        )
-                    ),
-                    Aggregates.sort(Sorts.ascending("timestamp"))
-                )
-            );
+            .find(Filters.and(
+                Filters.eq("event.process_id", processId),
+                Filters.exists("event.document_path")))
+            .projection(new Document("_id", 1))
+            .first() != null;
+
+        if (linked) {
+            DUUIMongoDBStorage
+                .Events()
+                .find(Filters.and(
+                    Filters.eq("event.process_id", processId),
+                    Filters.in("event.document_path", paths)))
+                .sort(Sorts.ascending("timestamp"))
+                .forEach(event -> events
+                    .computeIfAbsent(event.get("event", Document.class).getString("document_path"),
+                        key -> new ArrayList<>())
+                    .add(event));
+
+            return events;
+        }
+
+        Map<String, String> lowercase = new HashMap<>();
+        paths.forEach(path -> lowercase.put(path, path.toLowerCase()));
+
+        DUUIMongoDBStorage
+            .Events()
+            .find(Filters.eq("event.process_id", processId))
+            .sort(Sorts.ascending("timestamp"))
+            .forEach(event -> {
+                String message = event.get("event", Document.class).getString("message");
+                if (message == null) return;
+
+                String lower = message.toLowerCase();
+                lowercase.forEach((path, lowerPath) -> {
+                    if (lower.contains(lowerPath)) events.computeIfAbsent(path, key -> new ArrayList<>()).add(event);
+                });
+            });
 
-        return result.into(new ArrayList<>());
+        return events;
+    }
+
+    /**
+     * Retrieve a page of events given a {@link MongoDBFilters} object. The count is left out if the filters
+     * do not ask for it.
+     *
+     * @param filters A {@link MongoDBFilters} object that contains filter options.
+     * @return A Document containing the timeline, the count if requested and the cursor of the next page.
+     */
+    public static Document findMany(MongoDBFilters filters) {
+        Bson filter = filters.getFilters().isEmpty() ? new Document() : Filters.and(filters.getFilters());
+
+        List<Bson> aggregationPipeline = new ArrayList<>();
+        aggregationPipeline.add(Aggregates.match(filter));
+        aggregationPipeline.addAll(filters.toPageStages());
+
+        List<Document> events = DUUIMongoDBStorage
+            .Events()
+            .aggregate(aggregationPipeline)
+            .into(new ArrayList<>());
+
+        String next = filters.nextCursor(events);
+        events.forEach(DUUIMongoDBStorage::convertObjectIdToString);
+
+        Document result = new Document("timeline", events);
+        if (filters.isCount()) result.append("count", DUUIMongoDBStorage.Events().countDocuments(filter));
+        return result.append("next", next);
     }
 
     public static List<Document> findManyByProcess(String process_id) {
-        FindIterable<Document> timeline = DUUIMongoDBStorage
+        IDUUIFindIterable timeline = DUUIMongoDBStorage
             .Events()
-            .find(Filters.eq("process_id", process_id));
+            .find(Filters.eq("event.process_id", process_id))
+            .sort(Sorts.ascending("timestamp"));
 
         List<Document> events = timeline.into(new ArrayList<>());
         events.forEach(DUUIMongoDBStorage::convertObjectIdToString);
@@ -77,45 +148,107 @@ public class DUUIEventController {
     }
 
     /**
-     * Insert one or more events that reference a process.
+     * Insert the events of a process that have not been inserted yet. The events are added to the
+     * {@link DUUIEventSink} and written in batches by a background thread. Since the list of events of a
+     * process only grows, the number of events already handed to the sink is stored as a high-water mark
+     * for each process and only events past that mark are inserted.
      *
      * @param processId The id of the process an event must reference
-     * @param events    The list of events to insert.
+     * @param events    The list of all events of the process.
+     * @param documents The documents of the process used to link events to the document they mention or
+     *                  null.
+     * @return if new events have been inserted.
      */
-    public static void insertMany(String processId, List<DUUIEvent> events) {
-
-//        Document latestInsert = DUUIMongoDBStorage
-//            .Events()
-//            .find(Filters.eq("event.process_id", processId))
-//            .sort(Sorts.descending("timestamp"))
-//            .limit(1)
-//            .first();
-//
-//        if (latestInsert != null) {
-//            String message = latestInsert.get("event", Document.class).getString("message");
-//            long timestamp = latestInsert.get("timestamp", Date.class).toInstant().toEpochMilli();
-//            events = events.stream().filter(event -> event.getTimestamp() >= timestamp
-//                && !event.getMessage().equals(message)).toList();
-//        }
-
-        List<DUUIEvent> inserts = new ArrayList<>(events);
-
-        if (events.isEmpty()) return;
+    public static boolean insertMany(String processId, List<DUUIEvent> events, DUUIDocumentStateTracker documents) {
+        if (events == null) return false;
 
-        DUUIMongoDBStorage
-            .Events()
-            .insertMany(
-                events
-                    .stream()
-                    .map(event -> new Document(
-                        "timestamp", new Date(event.getTimestamp()))
-                        .append("event",
-                            new Document("process_id", processId)
-                                .append("sender", event.getSender())
-                                .append("message", event.getMessage())
-                        ))
-                    .collect(Collectors.toList()));
-
-        events.removeAll(inserts);
+        List<DUUIEvent> inserts;
+        synchronized (watermarks) {
+            int size = events.size();
+            int watermark = watermarks.getOrDefault(processId, 0);
+            if (watermark > size) watermark = 0;
+            if (watermark == size) return false;
+
+            try {
+                inserts = new ArrayList<>(events.subList(watermark, size));
+            } catch (ConcurrentModificationException exception) {
+                return false;
+            }
+
+            watermarks.put(processId, size);
+        }
+
+        getSink().offer(
+            inserts
+                .stream()
+                .map(event -> toDocument(processId, event, documents))
+                .collect(Collectors.toList()));
+        return true;
+    }
+
+    /**
+     * Convert an event to the format stored in the events collection.
+     *
+     * @param processId The id of the process the event belongs to.
+     * @param event     The event.
+     * @param documents The documents of the process used to find the document the event mentions or null.
+     * @return the event as a Document.
+     */
+    public static Document toDocument(String processId, DUUIEvent event, DUUIDocumentStateTracker documents) {
+        return new Document("timestamp", new Date(event.getTimestamp()))
+            .append("event",
+                new Document("process_id", processId)
+                    .append("document_path",
+                        documents == null ? null : documents.findPath(event.getMessage()))
+                    .append("sender", event.getSender())
+                    .append("message", event.getMessage())
+            );
+    }
+
+    /**
+     * Remove the high-water mark of a process after its last events have been inserted.
+     *
+     * @param processId The id of the process.
+     */
+    public static void release(String processId) {
+        synchronized (watermarks) {
+            watermarks.remove(processId);
+        }
+    }
+
+    /**
+     * Block until all events inserted before this call have been written to the database.
+     * See {@link DUUIEventSink#flush()}.
+     *
+     * @return if all buffered events have been written.
+     */
+    public static boolean flush() {
+        return getSink().flush();
+    }
+
+    /**
+     * Create the {@link DUUIEventSink} that buffers events before they are written to the database.
+     *
+     * @param config The application configuration.
+     */
+    public static void init(Config config) {
+        sink = new DUUIEventSink(
+            config.getEventBufferSize(),
+            config.getMongoBulkBatchSize(),
+            config.getEventBackpressureTimeout());
+    }
+
+    /**
+     * Write all buffered events and stop the {@link DUUIEventSink}.
+     */
+    public static void shutdown() {
+        if (sink != null) sink.shutdown();
+    }
+
+    private static DUUIEventSink getSink() {
+        if (sink == null) {
+            throw new IllegalStateException("The event sink has not been initialized.");
+        }
+        return sink;
     }
 }
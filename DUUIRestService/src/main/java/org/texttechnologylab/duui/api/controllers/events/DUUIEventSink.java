@@ -0,0 +1,194 @@
+package org.texttechnologylab.duui.api.controllers.events;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded buffer for events that is written to the events collection in batches by a background thread.
+ * <p>
+ * When the buffer is full, producers wait for up to the backpressure timeout for the flusher to free space.
+ * If the buffer is still full after that, the oldest buffered events are dropped to make room, so that a slow
+ * or unavailable database never blocks the processes producing events.
+ */
+public class DUUIEventSink {
+
+    private static final long RETRY_DELAY = 1_000;
+    private static final long FLUSH_TIMEOUT = 30_000;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final ArrayBlockingQueue<Document> buffer;
+    private final int batchSize;
+    private final long backpressureTimeout;
+    private final Thread flusher;
+
+    private final Object lock = new Object();
+    private long accepted = 0;
+    private long completed = 0;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param capacity            The maximum number of buffered events.
+     * @param batchSize           The maximum number of events written in a single insert.
+     * @param backpressureTimeout The time in milliseconds producers wait for space before events are dropped.
+     */
+    public DUUIEventSink(int capacity, int batchSize, long backpressureTimeout) {
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.backpressureTimeout = Math.max(0, backpressureTimeout);
+
+        flusher = new Thread(this::run, "duui-event-sink");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Add events to the buffer.
+     *
+     * @param events The events to be inserted into the events collection.
+     */
+    public void offer(List<Document> events) {
+        long deadline = System.currentTimeMillis() + backpressureTimeout;
+
+        for (Document event : events) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (buffer.offer(event, remaining, TimeUnit.MILLISECONDS)) {
+                    accept(0);
+                    continue;
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+
+            int dropped = 0;
+            while (!buffer.offer(event)) {
+                if (buffer.poll() != null) dropped++;
+            }
+            DUUIStorageMetrics.incrementEventsDropped(dropped);
+            accept(dropped);
+        }
+
+        DUUIStorageMetrics.setEventsBuffered(buffer.size());
+    }
+
+    /**
+     * Count an event that has been added to the buffer and events that have been dropped in its place.
+     */
+    private void accept(int dropped) {
+        synchronized (lock) {
+            accepted++;
+            completed += dropped;
+        }
+    }
+
+    /**
+     * Count events that have been written and wake up threads waiting in {@link #flush()}.
+     */
+    private void complete(int count) {
+        synchronized (lock) {
+            completed += count;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Block until all events added before this call have been written or the timeout has passed.
+     *
+     * @return if all buffered events have been written.
+     */
+    public boolean flush() {
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+
+        synchronized (lock) {
+            long target = accepted;
+            while (completed < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !flusher.isAlive()) return false;
+
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write all buffered events and stop the background thread.
+     */
+    public void shutdown() {
+        flush();
+        stopped = true;
+        flusher.interrupt();
+    }
+
+    /**
+     * @return the number of events waiting to be written.
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * The loop of the background thread. Takes up to {@link #batchSize} events from the buffer and inserts them.
+     * A failed batch is retried until it has been written, while new events keep being buffered.
+     */
+    private void run() {
+        while (!stopped) {
+            List<Document> batch = new ArrayList<>(batchSize);
+
+            try {
+                Document first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                DUUIStorageMetrics.setEventsBuffered(buffer.size());
+
+                while (!stopped) {
+                    try {
+                        DUUIMongoDBStorage
+                            .Events()
+                            .insertMany(batch, new InsertManyOptions().ordered(false));
+
+                        DUUIStorageMetrics.incrementEventsFlushed(batch.size());
+                        complete(batch.size());
+                        break;
+                    } catch (MongoBulkWriteException exception) {
+                        // Events that have been inserted by a previous attempt fail with a duplicate key error.
+                        List<Document> failed = new ArrayList<>();
+                        for (BulkWriteError error : exception.getWriteErrors()) {
+                            if (error.getCode() != DUPLICATE_KEY) failed.add(batch.get(error.getIndex()));
+                        }
+
+                        DUUIStorageMetrics.incrementEventsFlushed(batch.size() - failed.size());
+                        complete(batch.size() - failed.size());
+                        if (failed.isEmpty()) break;
+
+                        System.err.printf("Inserting %d events failed, retrying: %s%n", failed.size(), exception.getMessage());
+                        batch = failed;
+                        Thread.sleep(RETRY_DELAY);
+                    } catch (MongoException exception) {
+                        System.err.printf("Inserting %d events failed, retrying: %s%n", batch.size(), exception.getMessage());
+                        Thread.sleep(RETRY_DELAY);
+                    }
+                }
+            } catch (InterruptedException exception) {
+                if (stopped) return;
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package org.texttechnologylab.duui.api.controllers.files;
+
+import org.eclipse.jetty.server.HttpConnection;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.IDUUIDocumentHandler;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIHTTPMetrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams files to the client without reading them into memory.
+ * <p>
+ * Local files are sent with {@link FileChannel#transferTo(long, long, WritableByteChannel)}. Single byte
+ * ranges (Range: bytes=start-end) are answered with 206 - Partial Content and a Content-Length is always
+ * sent for uncompressed responses. If the client accepts gzip and no range is requested, compressible
+ * files are compressed on the fly. Multiple documents can be streamed as a single ZIP archive that is
+ * written while the documents are read.
+ */
+public class DUUIDownloadController {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+        "gz", "zip", "bz2", "xz", "zst", "7z", "jar", "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "pdf"
+    );
+
+    private static boolean compression = true;
+    private static long compressionMinimumSize = 1024;
+
+    /**
+     * A range of bytes including start and end.
+     */
+    public record Range(long start, long end) {
+        public long length() {
+            return end - start + 1;
+        }
+    }
+
+    /**
+     * Configure the content negotiation.
+     *
+     * @param config The application config.
+     */
+    public static void init(Config config) {
+        compression = config.getDownloadCompression();
+        compressionMinimumSize = config.getDownloadCompressionMinimumSize();
+    }
+
+    /**
+     * Stream a local file.
+     *
+     * @param file     The path to the file.
+     * @param request  The servlet request containing the Range and Accept-Encoding headers.
+     * @param response The servlet response.
+     * @throws RangeNotSatisfiableException if the requested range lies outside the file. The response has
+     *                                      already been prepared for a 416 - Range Not Satisfiable.
+     */
+    public static void streamFile(Path file, HttpServletRequest request, HttpServletResponse response)
+        throws IOException, RangeNotSatisfiableException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Range range = prepare(file.getFileName().toString(), size, request, response);
+
+            OutputStream output = response.getOutputStream();
+            if (isCompressed(response)) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(output, BUFFER_SIZE)) {
+                    Files.copy(file, gzip);
+                }
+            } else {
+                long position = range == null ? 0 : range.start();
+                long remaining = range == null ? size : range.length();
+                WritableByteChannel target = Channels.newChannel(output);
+
+                while (remaining > 0) {
+                    long transferred = channel.transferTo(position, remaining, target);
+                    if (transferred <= 0) break;
+                    position += transferred;
+                    remaining -= transferred;
+                }
+                output.close();
+            }
+
+            DUUIHTTPMetrics.incrementFilesDownloaded();
+            DUUIHTTPMetrics.incrementBytesDownloaded(range == null ? size : range.length());
+        }
+    }
+
+    /**
+     * Stream a document read by a document handler. The handlers of cloud providers return the content as a
+     * whole, so only a single copy of the document is held in memory.
+     *
+     * @param document The document.
+     * @param request  The servlet request containing the Range and Accept-Encoding headers.
+     * @param response The servlet response.
+     * @throws RangeNotSatisfiableException if the requested range lies outside the document.
+     */
+    public static void streamDocument(DUUIDocument document, HttpServletRequest request, HttpServletResponse response)
+        throws IOException, RangeNotSatisfiableException {
+
+        byte[] bytes = document.getBytes();
+        Range range = prepare(document.getName(), bytes.length, request, response);
+
+        OutputStream output = response.getOutputStream();
+        if (isCompressed(response)) {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(output, BUFFER_SIZE)) {
+                gzip.write(bytes);
+            }
+        } else {
+            int start = range == null ? 0 : (int) range.start();
+            int length = range == null ? bytes.length : (int) range.length();
+            output.write(bytes, start, length);
+            output.close();
+        }
+
+        DUUIHTTPMetrics.incrementFilesDownloaded();
+        DUUIHTTPMetrics.incrementBytesDownloaded(range == null ? bytes.length : range.length());
+    }
+
+    /**
+     * Stream multiple documents as a ZIP archive. Local files are copied into the archive directly, all
+     * other documents are read one at a time by the handler. Documents that can not be opened are skipped.
+     * If a document fails after its entry has been started, the response is aborted, so the client receives
+     * a failed download instead of an archive with a truncated entry.
+     *
+     * @param name     The file name of the archive.
+     * @param paths    The paths of the documents.
+     * @param handler  The handler to read documents with or null to read local files.
+     * @param response The servlet response.
+     * @return the number of documents written to the archive.
+     * @throws IOException if writing to the client or reading a started entry failed.
+     */
+    public static int streamZip(String name, List<String> paths, IDUUIDocumentHandler handler, HttpServletResponse response)
+        throws IOException {
+
+        response.setStatus(200);
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", String.format("attachment; filename=\"%s\"", name));
+
+        int count = 0;
+        Set<String> entries = new HashSet<>();
+        CountingOutputStream counter = new CountingOutputStream(response.getOutputStream());
+
+        // Not closed on failure, since closing would finish the archive.
+        ZipOutputStream zip = new ZipOutputStream(counter);
+        for (String path : paths) {
+            boolean started = false;
+            try {
+                InputStream input;
+                String entry;
+                if (handler == null) {
+                    Path file = Path.of(path);
+                    if (!Files.isRegularFile(file)) continue;
+
+                    input = Files.newInputStream(file);
+                    entry = file.getFileName().toString();
+                } else {
+                    DUUIDocument document = handler.readDocument(path);
+                    if (document == null) continue;
+
+                    input = document.toInputStream();
+                    entry = document.getName();
+                }
+
+                try (input) {
+                    zip.putNextEntry(new ZipEntry(entryName(entry, entries)));
+                    started = true;
+                    input.transferTo(zip);
+                }
+
+                zip.closeEntry();
+                count++;
+            } catch (IOException exception) {
+                if (started || counter.closed) {
+                    abort(exception);
+                    throw exception;
+                }
+                System.err.printf("Skipping %s in %s: %s%n", path, name, exception.getMessage());
+            }
+        }
+        zip.close();
+
+        DUUIHTTPMetrics.incrementFilesDownloaded();
+        DUUIHTTPMetrics.incrementBytesDownloaded(counter.count);
+        return count;
+    }
+
+    /**
+     * Parse a Range header. Only a single range is supported. Multiple ranges and malformed headers are
+     * ignored, in which case the whole file is sent.
+     *
+     * @param header The value of the Range header.
+     * @param size   The size of the file.
+     * @return the range or null if the whole file should be sent.
+     * @throws RangeNotSatisfiableException if the range lies outside the file.
+     */
+    public static Range parseRange(String header, long size) throws RangeNotSatisfiableException {
+        if (header == null || !header.startsWith("bytes=") || header.contains(",")) return null;
+
+        String value = header.substring("bytes=".length()).trim();
+        int separator = value.indexOf('-');
+        if (separator < 0) return null;
+
+        try {
+            String first = value.substring(0, separator).trim();
+            String last = value.substring(separator + 1).trim();
+
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                if (last.isEmpty()) return null;
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) throw new RangeNotSatisfiableException("The suffix length must be positive.");
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (start >= size) {
+                    throw new RangeNotSatisfiableException(
+                        String.format("The range starts after the end of the file (%d bytes).", size));
+                }
+                if (end < start) return null;
+            }
+
+            if (size == 0) throw new RangeNotSatisfiableException("The file is empty.");
+            return new Range(start, end);
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * @param header The value of the Accept-Encoding header.
+     * @return if the client accepts gzip with a quality greater than zero.
+     */
+    public static boolean acceptsGzip(String header) {
+        if (header == null) return false;
+
+        for (String coding : header.split(",")) {
+            String[] parameters = coding.trim().split(";");
+            String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+            if (!name.equals("gzip") && !name.equals("*")) continue;
+
+            double quality = 1;
+            for (int index = 1; index < parameters.length; index++) {
+                String parameter = parameters[index].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException ignored) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (quality > 0) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Set the status and headers of the response.
+     *
+     * @return the requested range or null if the whole file is sent.
+     */
+    private static Range prepare(String name, long size, HttpServletRequest request, HttpServletResponse response)
+        throws RangeNotSatisfiableException {
+
+        response.setContentType("application/octet-stream");
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Vary", "Accept-Encoding");
+
+        Range range;
+        try {
+            range = parseRange(request.getHeader("Range"), size);
+        } catch (RangeNotSatisfiableException exception) {
+            response.setStatus(416);
+            response.setHeader("Content-Range", String.format("bytes */%d", size));
+            throw exception;
+        }
+
+        if (range != null) {
+            response.setStatus(206);
+            response.setHeader("Content-Range", String.format("bytes %d-%d/%d", range.start(), range.end(), size));
+            response.setContentLengthLong(range.length());
+            return range;
+        }
+
+        response.setStatus(200);
+        if (compression
+            && size >= compressionMinimumSize
+            && acceptsGzip(request.getHeader("Accept-Encoding"))
+            && !COMPRESSED_EXTENSIONS.contains(extension(name))) {
+            response.setHeader("Content-Encoding", "gzip");
+        } else {
+            response.setContentLengthLong(size);
+        }
+
+        return null;
+    }
+
+    /**
+     * Abort the connection of the current request, so the client does not mistake a partial response for a
+     * complete one.
+     */
+    private static void abort(Throwable failure) {
+        HttpConnection connection = HttpConnection.getCurrentConnection();
+        if (connection != null) connection.getHttpChannel().abort(failure);
+    }
+
+    private static boolean isCompressed(HttpServletResponse response) {
+        return "gzip".equals(response.getHeader("Content-Encoding"));
+    }
+
+    private static String extension(String name) {
+        int index = name == null ? -1 : name.lastIndexOf('.');
+        return index < 0 ? "" : name.substring(index + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return a name that is unique within the archive.
+     */
+    private static String entryName(String name, Set<String> entries) {
+        String candidate = name;
+        for (int index = 1; !entries.add(candidate); index++) {
+            int dot = name.lastIndexOf('.');
+            candidate = dot <= 0
+                ? String.format("%s (%d)", name, index)
+                : String.format("%s (%d)%s", name.substring(0, dot), index, name.substring(dot));
+        }
+        return candidate;
+    }
+
+    /**
+     * Counts the bytes written to the client and remembers whether writing to the client has failed.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream output;
+        private long count = 0;
+        private boolean closed = false;
+
+        private CountingOutputStream(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                output.write(b);
+                count++;
+            } catch (IOException exception) {
+                closed = true;
+                throw exception;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                output.write(b, off, len);
+                count += len;
+            } catch (IOException exception) {
+                closed = true;
+                throw exception;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
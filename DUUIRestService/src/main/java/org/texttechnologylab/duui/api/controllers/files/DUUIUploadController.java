@@ -0,0 +1,406 @@
+package org.texttechnologylab.duui.api.controllers.files;
+
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.IDUUIDocumentHandler;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIHTTPMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Manages file uploads into FILE_UPLOAD_DIRECTORY.
+ * <p>
+ * Every upload is a directory named by a random id. Files are either uploaded as multipart requests or in
+ * chunks that are appended at an offset, so an interrupted upload can be resumed from the size the server
+ * already has. The size of a request, of a single file and the total size of the uploads of a user are
+ * limited. Uploads that have not been completed within UPLOAD_SESSION_TIMEOUT are deleted.
+ * <p>
+ * The bytes of a user are reserved before they are written and released if writing fails, so the quota
+ * holds for concurrent requests without holding a lock while files are written.
+ */
+public class DUUIUploadController {
+
+    private static final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> usage = new ConcurrentHashMap<>();
+
+    /**
+     * Parts of multipart requests larger than this are buffered on disk instead of in memory.
+     */
+    public static final int MULTIPART_THRESHOLD = 1024 * 1024;
+
+    private static Path directory = Paths.get("files/upload");
+    private static long maximumRequestSize = 1L << 30;
+    private static long maximumFileSize = 1L << 30;
+    private static long userQuota = 4L << 30;
+    private static long sessionTimeout = 24 * 60 * 60_000;
+    private static ScheduledExecutorService executor;
+
+    /**
+     * An upload directory and the bytes it holds.
+     */
+    public static class Upload {
+        private final String id;
+        private final String userId;
+        private final Path root;
+        private final AtomicLong bytes = new AtomicLong();
+        private final Set<String> writing = new HashSet<>();
+        private boolean completed = false;
+        private volatile long lastModified = Instant.now().toEpochMilli();
+
+        private Upload(String id, String userId, Path root) {
+            this.id = id;
+            this.userId = userId;
+            this.root = root;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Path getRoot() {
+            return root;
+        }
+
+        public synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        /**
+         * Mark a file as being written.
+         *
+         * @return false if the file is already being written by another request.
+         */
+        private synchronized boolean begin(Path file) {
+            if (completed) throw new IllegalStateException("The upload has already been completed.");
+            return writing.add(file.getFileName().toString());
+        }
+
+        private synchronized void end(Path file) {
+            writing.remove(file.getFileName().toString());
+        }
+
+        /**
+         * @return the size of every file uploaded so far by name.
+         */
+        public Map<String, Long> getSizes() throws IOException {
+            Map<String, Long> sizes = new TreeMap<>();
+            try (Stream<Path> files = Files.list(root)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    sizes.put(file.getFileName().toString(), Files.size(file));
+                }
+            }
+            return sizes;
+        }
+    }
+
+    /**
+     * Configure the limits and start the removal of abandoned uploads.
+     *
+     * @param config The application config.
+     */
+    public static synchronized void init(Config config) {
+        directory = Paths.get(config.getFileUploadPath());
+        maximumRequestSize = config.getUploadMaximumRequestSize();
+        maximumFileSize = config.getUploadMaximumFileSize();
+        userQuota = config.getUploadUserQuota();
+        sessionTimeout = config.getUploadSessionTimeout();
+
+        if (executor != null) executor.shutdownNow();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "duui-uploads");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(60_000, sessionTimeout / 4);
+        executor.scheduleWithFixedDelay(DUUIUploadController::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the directory for parts of multipart requests that exceed {@link #MULTIPART_THRESHOLD}.
+     */
+    public static Path getTemporaryDirectory() throws IOException {
+        return Files.createDirectories(directory.resolve(".tmp"));
+    }
+
+    public static long getMaximumRequestSize() {
+        return maximumRequestSize;
+    }
+
+    public static long getMaximumFileSize() {
+        return maximumFileSize;
+    }
+
+    /**
+     * Create a new upload directory for a user.
+     *
+     * @param userId The id of the user.
+     * @return the upload.
+     */
+    public static Upload create(String userId) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Upload upload = new Upload(id, userId, Files.createDirectories(directory.resolve(id)));
+        uploads.put(id, upload);
+        return upload;
+    }
+
+    /**
+     * @param id     The id of the upload.
+     * @param userId The id of the user requesting the upload.
+     * @return the upload or null if the upload does not exist or belongs to another user.
+     */
+    public static Upload get(String id, String userId) {
+        Upload upload = uploads.get(id);
+        return upload == null || !upload.userId.equals(userId) ? null : upload;
+    }
+
+    /**
+     * Check that a request of the given size fits into the limits before reading it.
+     *
+     * @param userId The id of the user.
+     * @param size   The content length of the request or -1 if it is unknown.
+     * @throws UploadLimitException if the request or the quota of the user would be exceeded.
+     */
+    public static void checkRequest(String userId, long size) throws UploadLimitException {
+        if (size > maximumRequestSize) {
+            throw new UploadLimitException(
+                String.format("The request exceeds the maximum size of %d bytes.", maximumRequestSize));
+        }
+        if (size > 0 && getUsage(userId) > userQuota - size) {
+            throw new UploadLimitException(
+                String.format("The upload exceeds the quota of %d bytes.", userQuota));
+        }
+    }
+
+    /**
+     * Append a chunk to a file of an upload. The chunk is streamed to disk. If the offset does not match the
+     * size of the file on the server, nothing is written and the client resumes from the returned size.
+     *
+     * @param upload The upload.
+     * @param name   The name of the file.
+     * @param offset The offset of the chunk.
+     * @param input  The content of the chunk.
+     * @return the size of the file and whether the chunk has been appended.
+     * @throws UploadLimitException if the file, the request or the quota of the user would be exceeded.
+     */
+    public static Chunk append(Upload upload, String name, long offset, InputStream input)
+        throws IOException, UploadLimitException {
+
+        Path file = resolve(upload, name);
+        if (!upload.begin(file)) {
+            return new Chunk(Files.exists(file) ? Files.size(file) : 0, false);
+        }
+
+        long reserved = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (offset != size) return new Chunk(size, false);
+
+            long limit = Math.min(maximumFileSize - size, maximumRequestSize);
+
+            try (ReadableByteChannel source = Channels.newChannel(input)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    if (reserved + buffer.remaining() > limit) {
+                        throw new UploadLimitException(String.format(
+                            "The chunk exceeds the remaining %d bytes allowed for this file.", Math.max(0, limit)));
+                    }
+
+                    reserve(upload.userId, buffer.remaining());
+                    reserved += buffer.remaining();
+                    while (buffer.hasRemaining()) channel.write(buffer, size + reserved - buffer.remaining());
+                    buffer.clear();
+                }
+            } catch (IOException | UploadLimitException | RuntimeException exception) {
+                channel.truncate(size);
+                release(upload.userId, reserved);
+                reserved = 0;
+                throw exception;
+            }
+
+            upload.bytes.addAndGet(reserved);
+            upload.lastModified = Instant.now().toEpochMilli();
+            DUUIHTTPMetrics.incrementBytesUploaded(reserved);
+            if (offset == 0) DUUIHTTPMetrics.incrementFilesUploaded(1);
+            return new Chunk(size + reserved, true);
+        } finally {
+            upload.end(file);
+        }
+    }
+
+    /**
+     * Copy a file that has been received as part of a multipart request into an upload.
+     *
+     * @param upload The upload.
+     * @param name   The submitted name of the file.
+     * @param input  The content of the file, for example {@link javax.servlet.http.Part#getInputStream()}.
+     * @param size   The size of the file.
+     * @throws UploadLimitException if the file or the quota of the user would be exceeded.
+     */
+    public static void add(Upload upload, String name, InputStream input, long size)
+        throws IOException, UploadLimitException {
+
+        if (size > maximumFileSize) {
+            throw new UploadLimitException(
+                String.format("The file %s exceeds the maximum size of %d bytes.", name, maximumFileSize));
+        }
+
+        Path file = resolve(upload, name);
+        if (!upload.begin(file)) {
+            throw new IOException(String.format("The file %s is already being written.", name));
+        }
+
+        try {
+            reserve(upload.userId, size);
+            try {
+                Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException exception) {
+                release(upload.userId, size);
+                throw exception;
+            }
+
+            upload.bytes.addAndGet(size);
+            upload.lastModified = Instant.now().toEpochMilli();
+        } finally {
+            upload.end(file);
+        }
+
+        DUUIHTTPMetrics.incrementFilesUploaded(1);
+        DUUIHTTPMetrics.incrementBytesUploaded(size);
+    }
+
+    /**
+     * Mark an upload as completed and optionally store its files with a document handler. Files are written
+     * one at a time, so only a single file is held in memory.
+     * <p>
+     * Throws an {@link IllegalStateException} if a chunk or file of the upload is still being written.
+     *
+     * @param upload  The upload.
+     * @param handler The handler to store the files with or null.
+     * @param path    The target path for the handler.
+     */
+    public static void complete(Upload upload, IDUUIDocumentHandler handler, String path) throws IOException {
+        synchronized (upload) {
+            if (!upload.writing.isEmpty()) {
+                throw new IllegalStateException("Files of the upload are still being written.");
+            }
+            upload.completed = true;
+            upload.lastModified = Instant.now().toEpochMilli();
+        }
+
+        if (handler == null) return;
+
+        try (Stream<Path> files = Files.list(upload.root)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                String name = file.getFileName().toString();
+                handler.writeDocument(new DUUIDocument(name, file.toString(), Files.readAllBytes(file)), path);
+            }
+        }
+    }
+
+    /**
+     * Delete an upload and its files.
+     *
+     * @param upload The upload.
+     */
+    public static void delete(Upload upload) throws IOException {
+        forget(upload);
+
+        try (Stream<Path> files = Files.walk(upload.root)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * @param userId The id of the user.
+     * @return the number of bytes in all uploads of the user that have not expired, including bytes reserved
+     * by requests that are still being written.
+     */
+    public static long getUsage(String userId) {
+        AtomicLong bytes = usage.get(userId);
+        return bytes == null ? 0 : bytes.get();
+    }
+
+    /**
+     * Reserve bytes of the quota of a user.
+     *
+     * @throws UploadLimitException if the quota would be exceeded.
+     */
+    private static void reserve(String userId, long bytes) throws UploadLimitException {
+        AtomicLong current = usage.computeIfAbsent(userId, key -> new AtomicLong());
+        long previous;
+        do {
+            previous = current.get();
+            if (previous > userQuota - bytes) {
+                throw new UploadLimitException(String.format("The upload exceeds the quota of %d bytes.", userQuota));
+            }
+        } while (!current.compareAndSet(previous, previous + bytes));
+    }
+
+    private static void release(String userId, long bytes) {
+        if (bytes == 0) return;
+        usage.computeIfPresent(userId, (key, current) -> current.addAndGet(-bytes) <= 0 ? null : current);
+    }
+
+    /**
+     * Remove an upload and release its bytes from the quota of its user.
+     */
+    private static void forget(Upload upload) {
+        if (uploads.remove(upload.id) != null) release(upload.userId, upload.bytes.get());
+    }
+
+    /**
+     * Resolve the name of a file inside an upload. Directories in the name are removed, so that files can
+     * not be written outside the upload.
+     */
+    private static Path resolve(Upload upload, String name) throws IOException {
+        Path fileName = name == null ? null : Paths.get(name).getFileName();
+        if (fileName == null || fileName.toString().isBlank() || fileName.toString().startsWith(".")) {
+            throw new IOException("Invalid file name " + name);
+        }
+        return upload.root.resolve(fileName);
+    }
+
+    /**
+     * Forget uploads after the session timeout. Files of uploads that have never been completed are
+     * deleted, completed uploads are kept as the input of processes.
+     */
+    private static void expire() {
+        long threshold = Instant.now().toEpochMilli() - sessionTimeout;
+
+        for (Upload upload : List.copyOf(uploads.values())) {
+            if (upload.lastModified >= threshold) continue;
+
+            try {
+                if (upload.isCompleted()) forget(upload);
+                else delete(upload);
+            } catch (IOException exception) {
+                System.err.printf("Deleting upload %s failed: %s%n", upload.id, exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The result of appending a chunk.
+     *
+     * @param size     The size of the file on the server.
+     * @param appended Whether the chunk has been written. False if the offset did not match the size.
+     */
+    public record Chunk(long size, boolean appended) {
+    }
+}
@@ -0,0 +1,11 @@
+package org.texttechnologylab.duui.api.controllers.files;
+
+
+/**
+ * A custom {@link Exception} thrown when a requested range lies outside the file.
+ */
+public class RangeNotSatisfiableException extends Throwable {
+    public RangeNotSatisfiableException(String error) {
+        super(error);
+    }
+}
@@ -0,0 +1,12 @@
+package org.texttechnologylab.duui.api.controllers.files;
+
+
+/**
+ * A custom {@link Exception} thrown when an upload exceeds the request size, file size or the quota of
+ * the user.
+ */
+public class UploadLimitException extends Throwable {
+    public UploadLimitException(String error) {
+        super(error);
+    }
+}
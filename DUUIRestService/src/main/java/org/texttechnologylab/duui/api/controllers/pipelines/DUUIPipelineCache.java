@@ -0,0 +1,162 @@
+package org.texttechnologylab.duui.api.controllers.pipelines;
+
+import org.bson.Document;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+
+import java.util.*;
+
+/**
+ * A read-through cache of pipelines including their components, keyed by the id of the pipeline.
+ * <p>
+ * Every write to a pipeline or one of its components must call {@link #invalidate(String)} with the id of
+ * the pipeline after the write. Invalidations are versioned: a loader takes a {@link #stamp()} before reading
+ * from the database and {@link #put(String, Document, long)} discards the result if the pipeline has been
+ * invalidated in the meantime, so a slow read can never restore an outdated pipeline. Only the newest
+ * invalidations are tracked per pipeline. Older ones are folded into a single version that applies to all
+ * pipelines, so a loader older than that is not cached at all. Entries expire after PIPELINE_CACHE_TTL as a
+ * safeguard against writes from other instances.
+ * <p>
+ * Pipelines are copied deeply when they are stored and when they are returned, so callers can modify the
+ * result freely.
+ */
+public class DUUIPipelineCache {
+
+    private static int capacity = 1_000;
+    private static long ttl = 300_000;
+
+    private static long generation = 0;
+    private static long clearedAt = 0;
+
+    // Ordered by version, since every invalidation moves its pipeline to the end.
+    private static final LinkedHashMap<String, Long> versions = new LinkedHashMap<>();
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    /**
+     * @param config The application config.
+     */
+    public static synchronized void init(Config config) {
+        capacity = config.getPipelineCacheSize();
+        ttl = config.getPipelineCacheTTL();
+        invalidateAll();
+    }
+
+    /**
+     * @param id The id of the pipeline.
+     * @return a copy of the cached pipeline including its components or null if the pipeline is not cached.
+     */
+    public static synchronized Document get(String id) {
+        Entry entry = entries.get(id);
+
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            if (entry != null) remove(id);
+            DUUIStorageMetrics.incrementPipelineCacheMisses();
+            return null;
+        }
+
+        DUUIStorageMetrics.incrementPipelineCacheHits();
+        return copy(entry.pipeline);
+    }
+
+    /**
+     * @return the current version of the cache. Must be read before loading a pipeline from the database.
+     */
+    public static synchronized long stamp() {
+        return generation;
+    }
+
+    /**
+     * Cache a pipeline unless it has been invalidated since the stamp was taken.
+     *
+     * @param id       The id of the pipeline.
+     * @param pipeline The pipeline including its components.
+     * @param stamp    The result of {@link #stamp()} taken before the pipeline was read.
+     */
+    public static synchronized void put(String id, Document pipeline, long stamp) {
+        if (ttl <= 0 || capacity <= 0) return;
+        if (Math.max(clearedAt, versions.getOrDefault(id, 0L)) > stamp) return;
+
+        entries.put(id, new Entry(copy(pipeline), System.currentTimeMillis() + ttl));
+        DUUIStorageMetrics.setPipelineCacheSize(entries.size());
+    }
+
+    /**
+     * Remove a pipeline after it or its components have been changed.
+     *
+     * @param id The id of the pipeline.
+     */
+    public static synchronized void invalidate(String id) {
+        if (id == null) return;
+
+        versions.remove(id);
+        versions.put(id, ++generation);
+        remove(id);
+
+        // Versions of pipelines that are no longer tracked are covered by clearedAt.
+        Iterator<Long> iterator = versions.values().iterator();
+        while (versions.size() > Math.max(capacity, 1) && iterator.hasNext()) {
+            clearedAt = iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Update the usage of a cached pipeline after a process has been started. The usage does not change
+     * what a process runs, so the pipeline stays cached.
+     *
+     * @param id       The id of the pipeline.
+     * @param lastUsed The time the pipeline has been used at.
+     */
+    public static synchronized void recordUse(String id, long lastUsed) {
+        Entry entry = entries.get(id);
+        if (entry == null) return;
+
+        entry.pipeline.put("last_used", lastUsed);
+        entry.pipeline.put("times_used", ((Number) entry.pipeline.get("times_used", 0)).intValue() + 1);
+    }
+
+    /**
+     * Remove all pipelines, for example after components have been deleted by an arbitrary filter.
+     */
+    public static synchronized void invalidateAll() {
+        clearedAt = ++generation;
+        versions.clear();
+        entries.clear();
+        DUUIStorageMetrics.setPipelineCacheSize(0);
+    }
+
+    private static void remove(String id) {
+        entries.remove(id);
+        DUUIStorageMetrics.setPipelineCacheSize(entries.size());
+    }
+
+    /**
+     * Copy a value recursively. Documents, maps and lists are copied, all other values are immutable.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T copy(T value) {
+        if (value instanceof Document document) {
+            Document copy = new Document();
+            document.forEach((key, field) -> copy.put(key, copy(field)));
+            return (T) copy;
+        } else if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            map.forEach((key, field) -> copy.put(key, copy(field)));
+            return (T) copy;
+        } else if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(element -> copy.add(copy(element)));
+            return (T) copy;
+        }
+        return value;
+    }
+
+    private record Entry(Document pipeline, long expiresAt) {
+    }
+}
@@ -36,8 +36,6 @@ import static org.texttechnologylab.duui.api.routes.DUUIRequestHelper.isNullOrEm
  * @author Cedric Borkowski
  */
 public class DUUIPipelineController {
-    private static final Map<String, DUUIComposer> reusablePipelines = new HashMap<>();
-
     private static final Set<String> UPDATABLE_FIELDS = Set.of(
         "name",
         "description",
@@ -67,29 +65,54 @@ public class DUUIPipelineController {
      * @return A document containing the pipeline data or null if nothing matched.
      */
     public static Document findOneById(String id, boolean getComponents) {
-        Document result;
+        Document result = DUUIPipelineCache.get(id);
 
-        try {
-            result =
-                DUUIMongoDBStorage
+        if (result == null) {
+            long stamp = DUUIPipelineCache.stamp();
+
+            try {
+                result = DUUIMongoDBStorage
                     .Pipelines()
-                    .find(Filters.eq(new ObjectId(id)))
+                    .aggregate(List.of(
+                        Aggregates.match(Filters.eq(new ObjectId(id))),
+                        lookupComponents()
+                    ))
                     .first();
+            } catch (IllegalArgumentException exception) {
+                result = null;
+            }
+
+            if (result == null) return null;
 
-        } catch (IllegalArgumentException exception) {
-            result = null;
+            convertComponents(result);
+            DUUIMongoDBStorage.convertObjectIdToString(result);
+            DUUIPipelineCache.put(id, result, stamp);
         }
 
-        if (result == null) return null;
+        if (!getComponents) result.remove("components");
+        return result;
+    }
 
-        if (getComponents) {
-            MongoDBFilters componentFilters = new MongoDBFilters();
-            componentFilters.addFilter(Filters.eq("pipeline_id", id));
-            componentFilters.sort("index");
-            List<Document> components = DUUIComponentController.findMany(componentFilters);
-            result.append("components", components);
-        }
-        return DUUIMongoDBStorage.convertObjectIdToString(result);
+    /**
+     * A $lookup stage that joins the components of a pipeline sorted by their index. Uses the
+     * pipeline_index index of the components collection.
+     */
+    private static Bson lookupComponents() {
+        return Aggregates.lookup(
+            "components",
+            List.of(new Variable<>("pipeline_id", new Document("$toString", "$_id"))),
+            List.of(
+                Aggregates.match(Filters.expr(new Document("$eq", List.of("$pipeline_id", "$$pipeline_id")))),
+                Aggregates.sort(Sorts.ascending("index"))
+            ),
+            "components"
+        );
+    }
+
+    private static void convertComponents(Document pipeline) {
+        pipeline
+            .getList("components", Document.class, List.of())
+            .forEach(DUUIMongoDBStorage::convertObjectIdToString);
     }
 
     /**
@@ -161,6 +184,11 @@ public class DUUIPipelineController {
 
         facet.add(Aggregates.sort(Sorts.descending("user_id")));
 
+        // Join the components of the listed pipelines in the same query instead of one query per pipeline.
+        if (getComponents) facet.add(lookupComponents());
+
+        long stamp = DUUIPipelineCache.stamp();
+
         aggregationPipeline.add(Aggregates.facet(
             new Facet("pipelines", facet),
             new Facet("count", Aggregates.count())
@@ -187,10 +215,8 @@ public class DUUIPipelineController {
 
         if (getComponents) {
             for (Document pipeline : findings) {
-                MongoDBFilters componentFilters = new MongoDBFilters();
-                componentFilters.addFilter(Filters.eq("pipeline_id", pipeline.getString("oid")));
-                componentFilters.sort("index");
-                pipeline.append("components", DUUIComponentController.findMany(componentFilters));
+                convertComponents(pipeline);
+                DUUIPipelineCache.put(pipeline.getString("oid"), pipeline, stamp);
             }
         }
 
@@ -213,6 +239,10 @@ public class DUUIPipelineController {
                 updates,
                 UPDATABLE_FIELDS
             );
+        DUUIPipelineCache.invalidate(id);
+
+        // A warm composer of the pipeline was instantiated with the previous settings or components.
+        if (updates.containsKey("settings") || updates.containsKey("components")) DUUIPipelinePool.invalidate(id);
 
         List<Document> components = updates.getList("components", Document.class);
         if (!isNullOrEmpty(components)) {
@@ -238,9 +268,15 @@ public class DUUIPipelineController {
 
         if (pipeline == null) return false;
 
+        // A pipeline kept warm by the pool only has to be pinned.
+        if (DUUIPipelinePool.pin(id)) {
+            setStatus(id, DUUIStatus.IDLE);
+            return true;
+        }
+
         try {
             DUUIComposer composer = instantiatePipeline(pipeline);
-            reusablePipelines.put(id, composer);
+            DUUIPipelinePool.pin(id, composer);
             setStatus(id, DUUIStatus.IDLE);
             return true;
         } catch (Exception exception) {
@@ -256,14 +292,14 @@ public class DUUIPipelineController {
      * @return if the shut-down was successfull
      */
     public static boolean shutdown(String id) {
-        DUUIComposer composer = reusablePipelines.get(id);
+        DUUIComposer composer = DUUIPipelinePool.get(id);
         if (composer == null) return true;
 
         setStatus(id, DUUIStatus.SHUTDOWN);
 
         try {
             shutdownPipeline(id);
-            reusablePipelines.remove(id);
+            DUUIPipelinePool.remove(id, composer);
             setStatus(id, DUUIStatus.INACTIVE);
             return true;
         } catch (Exception e) {
@@ -278,23 +314,25 @@ public class DUUIPipelineController {
      * @param id The pipeline id.
      */
     public static void updateTimesUsed(String id) {
+        long lastUsed = Instant.now().toEpochMilli();
         DUUIMongoDBStorage
             .Pipelines()
             .updateOne(
                 Filters.eq(new ObjectId(id)),
                 Updates.combine(
-                    Updates.set("last_used", Instant.now().toEpochMilli()),
+                    Updates.set("last_used", lastUsed),
                     Updates.inc("times_used", 1))
             );
+        DUUIPipelineCache.recordUse(id, lastUsed);
     }
 
     /**
      * Get the map of reusable/instantiated pipelines.
      *
-     * @return the map of pipelines that are reusable.
+     * @return a snapshot of the pipelines in the {@link DUUIPipelinePool}.
      */
     public static Map<String, DUUIComposer> getReusablePipelines() {
-        return reusablePipelines;
+        return DUUIPipelinePool.snapshot();
     }
 
     /**
@@ -308,10 +346,13 @@ public class DUUIPipelineController {
         boolean deleted = DUUIMongoDBStorage.Pipelines()
             .deleteOne(Filters.eq(new ObjectId(id)))
             .getDeletedCount() > 0;
+        DUUIPipelineCache.invalidate(id);
+        DUUIPipelinePool.invalidate(id);
 
         if (deleted) {
             DUUIComponentController.deleteMany(Filters.eq("pipeline_id", id));
             DUUIProcessController.deleteMany(Filters.eq("pipeline_id", id));
+            DUUIPipelineStatistics.delete(id);
         }
 
         return deleted;
@@ -324,11 +365,10 @@ public class DUUIPipelineController {
      * @param id The id of the pipeline.
      */
     public static void interruptIfRunning(String id) {
-        if (reusablePipelines.containsKey(id)) {
+        if (DUUIPipelinePool.remove(id) != null) {
             for (IDUUIProcessHandler handler : DUUIProcessController.getActiveProcesses(id)) {
                 handler.cancel();
             }
-            reusablePipelines.remove(id);
         }
     }
 
@@ -338,13 +378,14 @@ public class DUUIPipelineController {
      * @param pipelineId The id of the pipeline to shut down.
      */
     public static void shutdownPipeline(String pipelineId) {
-        if (reusablePipelines.containsKey(pipelineId)) {
+        DUUIComposer composer = DUUIPipelinePool.get(pipelineId);
+        if (composer != null) {
             for (IDUUIProcessHandler handler : DUUIProcessController.getActiveProcesses(pipelineId)) {
                 handler.cancel();
             }
             try {
-                reusablePipelines.get(pipelineId).asService(false).shutdown();
-                reusablePipelines.remove(pipelineId);
+                composer.asService(false).shutdown();
+                DUUIPipelinePool.remove(pipelineId, composer);
             } catch (UnknownHostException | InvalidParameterException ignored) {
             }
         }
@@ -361,50 +402,20 @@ public class DUUIPipelineController {
     }
 
     /**
-     * This function performs a set of Aggregations to generate statistics for the usage of a pipeline.
-     * These Aggregations include
+     * Retrieve the usage statistics of a pipeline. These include
      * - a grouping by status (Completed, Failed, etc.)
      * - a grouping by errors
      * - a grouping by input provider
      * - a grouping by output provider
      * - a grouping by usage per month
      * - a sum of the total number documents procesed.
+     * The statistics are maintained incrementally by {@link DUUIPipelineStatistics}.
      *
      * @param pipelineId The identifier for the pipeline
-     * @return A BSON Document with the aggregation result.
+     * @return A BSON Document with the statistics.
      */
     public static Document getPipelineStatistics(String pipelineId) {
-        List<Document> facets = DUUIMongoDBStorage
-            .Processses()
-            .aggregate(
-                List.of(
-                    Aggregates.match(Filters.eq("pipeline_id", pipelineId)),
-                    Aggregates.facet(
-                        new Facet("status", Aggregates.group("$status", Accumulators.sum("count", 1))),
-                        new Facet("errors", Aggregates.match(Filters.ne("error", null)),
-                            Aggregates.addFields(new Field<>("errorName", new Document("$arrayElemAt", Arrays.asList(new Document("$split", Arrays.asList("$error", " - ")), 0)))),
-                            Aggregates.project(Projections.include("errorName")),
-                            Aggregates.group("$errorName", Accumulators.sum("count", 1))
-                        ),
-                        new Facet("usage",
-                            Aggregates.project(Projections.computed("convertedDate", new Document("$toDate", "$started_at"))),
-                            new Document("$group", new Document("_id",
-                                new Document("year", new Document("$year", "$convertedDate"))
-                                    .append("month", new Document("$month", "$convertedDate")))
-                                .append("count", new Document("$sum", 1)))
-                        ),
-                        new Facet("input", Aggregates.group("$input.provider", Accumulators.sum("count", 1))),
-                        new Facet("output", Aggregates.group("$output.provider", Accumulators.sum("count", 1))),
-                        new Facet("size", new Document("$group", new Document("_id", null).append("count", new Document("$sum", new Document("$size", "$document_names")))))
-                    )
-                )
-            ).into(new ArrayList<>());
-
-        Document result = new Document();
-        if (isNullOrEmpty(facets)) return result;
-        result = facets.get(0);
-
-        return result;
+        return DUUIPipelineStatistics.find(pipelineId);
     }
 
     /**
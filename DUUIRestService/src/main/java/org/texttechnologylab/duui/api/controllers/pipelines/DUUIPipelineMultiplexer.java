@@ -0,0 +1,143 @@
+package org.texttechnologylab.duui.api.controllers.pipelines;
+
+import org.bson.Document;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIProcessMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Coordinates the worker slots of processes sharing one instantiated pipeline.
+ * <p>
+ * An instantiated pipeline can serve as many documents at the same time as its smallest component has
+ * replicas (the scale of the component). Processes sharing the pipeline take their workers from a fair
+ * semaphore with this capacity. A process waits for its first slot in arrival order and then takes at most
+ * a fair share of the capacity, so that a single large process can not starve the others. Since every
+ * process runs on its own composer, progress and cancellation stay isolated per process.
+ */
+public class DUUIPipelineMultiplexer {
+
+    private static final Map<String, Slots> pipelines = new ConcurrentHashMap<>();
+
+    /**
+     * The number of documents a pipeline can process at the same time.
+     *
+     * @param pipeline The pipeline.
+     * @return the smallest scale of all components.
+     */
+    public static int getCapacity(Document pipeline) {
+        int capacity = Integer.MAX_VALUE;
+
+        for (Document component : pipeline.getList("components", Document.class)) {
+            Document options = component.get("options", Document.class);
+            Object scale = options == null ? null : options.get("scale");
+
+            try {
+                capacity = Math.min(capacity, scale == null ? 1 : Math.max(1, Integer.parseInt(scale.toString())));
+            } catch (NumberFormatException exception) {
+                capacity = Math.min(capacity, 1);
+            }
+        }
+
+        return capacity == Integer.MAX_VALUE ? 1 : capacity;
+    }
+
+    /**
+     * Wait for at least one slot of the pipeline and take up to the fair share of the remaining slots.
+     *
+     * @param pipeline  The shared pipeline.
+     * @param processId The id of the process.
+     * @param requested The number of workers requested by the process.
+     * @return the number of slots taken.
+     * @throws InterruptedException if the process has been cancelled while waiting.
+     */
+    public static int acquire(Document pipeline, String processId, int requested) throws InterruptedException {
+        String pipelineId = pipeline.getString("oid");
+        int capacity = getCapacity(pipeline);
+
+        Slots slots = pipelines.compute(pipelineId, (id, current) ->
+            current == null || (current.capacity != capacity && current.isIdle()) ? new Slots(capacity) : current);
+
+        return slots.acquire(processId, Math.max(1, requested));
+    }
+
+    /**
+     * Return slots that a process does not need, keeping the given number of slots.
+     *
+     * @param pipelineId The id of the shared pipeline.
+     * @param processId  The id of the process.
+     * @param keep       The number of slots the process keeps.
+     */
+    public static void reduce(String pipelineId, String processId, int keep) {
+        Slots slots = pipelines.get(pipelineId);
+        if (slots != null) slots.reduce(processId, keep);
+    }
+
+    /**
+     * Return all slots of a process. Calling this method more than once has no effect.
+     *
+     * @param pipelineId The id of the shared pipeline.
+     * @param processId  The id of the process.
+     */
+    public static void release(String pipelineId, String processId) {
+        reduce(pipelineId, processId, 0);
+    }
+
+    /**
+     * The slots of a single pipeline.
+     */
+    private static class Slots {
+        private final int capacity;
+        private final Semaphore semaphore;
+        private final Map<String, Integer> holders = new HashMap<>();
+
+        private Slots(int capacity) {
+            this.capacity = capacity;
+            this.semaphore = new Semaphore(capacity, true);
+        }
+
+        private int acquire(String processId, int requested) throws InterruptedException {
+            long start = System.nanoTime();
+            semaphore.acquire();
+            DUUIProcessMetrics.observePipelineSlotWait((System.nanoTime() - start) / 1e9);
+
+            int taken = 1;
+            synchronized (this) {
+                // Processes still waiting for their first slot count towards the share as well.
+                int share = Math.max(1, capacity / (holders.size() + 1 + semaphore.getQueueLength()));
+                int additional = Math.min(requested, share) - 1;
+
+                if (additional > 0) {
+                    int available = Math.min(additional, semaphore.availablePermits());
+                    if (available > 0 && semaphore.tryAcquire(available)) taken += available;
+                }
+
+                holders.merge(processId, taken, Integer::sum);
+            }
+
+            DUUIProcessMetrics.incrementPipelineSlots(taken);
+            return taken;
+        }
+
+        private void reduce(String processId, int keep) {
+            int returned;
+            synchronized (this) {
+                Integer held = holders.get(processId);
+                if (held == null || held <= keep) return;
+
+                returned = held - keep;
+                if (keep > 0) holders.put(processId, keep);
+                else holders.remove(processId);
+            }
+
+            semaphore.release(returned);
+            DUUIProcessMetrics.decrementPipelineSlots(returned);
+        }
+
+        private synchronized boolean isIdle() {
+            return holders.isEmpty();
+        }
+    }
+}
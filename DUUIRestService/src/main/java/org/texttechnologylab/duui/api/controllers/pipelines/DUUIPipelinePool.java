@@ -0,0 +1,475 @@
+package org.texttechnologylab.duui.api.controllers.pipelines;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.DUUIComposer;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIProcessMetrics;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of instantiated pipelines that can be reused by processes to skip the instantiation.
+ * <p>
+ * Pipelines instantiated explicitly through /pipelines/:id/start are pinned and stay in the pool until
+ * they are shut down. Other pipelines are instantiated in the background once they have been used often
+ * enough and are kept within a budget of containers. When the budget is exhausted, the least recently used
+ * (or least frequently used, see WARM_POOL_EVICTION) pipeline without active processes is shut down.
+ * Pipelines that have not been used for the idle timeout are shut down as well. The pool is disabled by
+ * default (WARM_POOL_ENABLED) and pre-warming at startup is opt-in (WARM_POOL_PREWARM).
+ * <p>
+ * Composers are removed from the pool while holding the pool lock, but shut down after it has been
+ * released, so stopping containers never blocks the launch of other processes.
+ * <p>
+ * A composer handed out by {@link #acquire(Document, String)} is leased to the process until
+ * {@link #release(String)} is called and is never shut down while it is leased. When a pipeline or one of
+ * its components changes, {@link #invalidate(String)} removes the outdated composer from the pool, so the
+ * next process instantiates the current pipeline.
+ */
+public class DUUIPipelinePool {
+
+    public static final String LRU = "lru";
+    public static final String LFU = "lfu";
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final Set<String> warming = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Entry> leases = new HashMap<>();
+    private static final Map<String, Object> loads = new HashMap<>();
+
+    private static ScheduledExecutorService executor;
+    private static boolean enabled = false;
+    private static int maximumContainers = 0;
+    private static int minimumUses = 2;
+    private static long idleTimeout = 30 * 60_000;
+    private static String eviction = LRU;
+    private static int reservedContainers = 0;
+
+    /**
+     * Configure the pool, start the idle timeout check and pre-warm the most used pipelines.
+     *
+     * @param config The application config.
+     */
+    public static synchronized void init(Config config) {
+        enabled = config.isWarmPoolEnabled();
+        maximumContainers = Math.min(
+            config.getWarmPoolMaximumContainers(),
+            config.getWarmPoolMaximumMemory() / config.getWarmPoolContainerMemory());
+        minimumUses = config.getWarmPoolMinimumUses();
+        idleTimeout = config.getWarmPoolIdleTimeout();
+        eviction = config.getWarmPoolEviction().equalsIgnoreCase(LFU) ? LFU : LRU;
+
+        if (executor != null) executor.shutdownNow();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "duui-pipeline-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (!enabled) return;
+
+        long period = Math.max(10_000, Math.min(60_000, idleTimeout / 2));
+        executor.scheduleWithFixedDelay(DUUIPipelinePool::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        executor.execute(() -> prewarm(config.getWarmPoolPrewarmCount()));
+    }
+
+    /**
+     * Get an instantiated pipeline for a process and lease it to the process. On a miss the pipeline is
+     * instantiated in the background if it has been used often enough, so that the next process can reuse it.
+     *
+     * @param pipeline  The pipeline used by the process.
+     * @param processId The id of the process. The lease must be returned with {@link #release(String)}.
+     * @return the composer holding the instantiated pipeline or null if the pipeline is not in the pool.
+     */
+    public static DUUIComposer acquire(Document pipeline, String processId) {
+        String id = pipeline.getString("oid");
+
+        synchronized (DUUIPipelinePool.class) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                entry.touch();
+                entry.leases.add(processId);
+                leases.put(processId, entry);
+                DUUIProcessMetrics.incrementPipelinePoolRequests(true);
+                return entry.composer;
+            }
+        }
+
+        DUUIProcessMetrics.incrementPipelinePoolRequests(false);
+        if (enabled && pipeline.getInteger("times_used", 0) + 1 >= minimumUses) warmAsync(id);
+        return null;
+    }
+
+    /**
+     * Return the composer leased to a process. A composer that has been invalidated in the meantime is shut
+     * down once its last lease has been returned. Calling this method more than once has no effect.
+     *
+     * @param processId The id of the process.
+     */
+    public static void release(String processId) {
+        Entry retired;
+        synchronized (DUUIPipelinePool.class) {
+            Entry entry = leases.remove(processId);
+            if (entry == null) return;
+
+            entry.leases.remove(processId);
+            retired = entry.retired && entry.leases.isEmpty() ? entry : null;
+        }
+
+        if (retired != null) shutdownComposer(retired.composer);
+    }
+
+    /**
+     * Remove the instantiated pipeline from the pool because the pipeline or one of its components changed.
+     * The composer is shut down right away unless processes still use it. A pipeline being instantiated in
+     * the background is not added to the pool.
+     *
+     * @param id The id of the pipeline.
+     */
+    public static void invalidate(String id) {
+        if (id == null) return;
+
+        Entry removed;
+        synchronized (DUUIPipelinePool.class) {
+            loads.remove(id);
+
+            removed = entries.remove(id);
+            if (removed == null) return;
+
+            updateGauges();
+            if (!removed.leases.isEmpty()) {
+                removed.retired = true;
+                removed = null;
+            }
+        }
+
+        if (removed != null) shutdownComposer(removed.composer);
+        DUUIPipelineController.setStatus(id, DUUIStatus.INACTIVE);
+    }
+
+    /**
+     * @param id The id of the pipeline.
+     * @return the instantiated pipeline or null if the pipeline is not in the pool.
+     */
+    public static DUUIComposer get(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.composer;
+    }
+
+    /**
+     * Add a pipeline that has been instantiated explicitly. Pinned pipelines are never evicted and are not
+     * counted against the container budget.
+     *
+     * @param id       The id of the pipeline.
+     * @param composer The composer holding the instantiated pipeline.
+     */
+    public static void pin(String id, DUUIComposer composer) {
+        Entry replaced = null;
+        synchronized (DUUIPipelinePool.class) {
+            Entry previous = entries.put(id, new Entry(composer, true, 0, 0, 0));
+            if (previous != null && previous.composer != composer) {
+                if (previous.leases.isEmpty()) replaced = previous;
+                else previous.retired = true;
+            }
+            updateGauges();
+        }
+
+        if (replaced != null) shutdownComposer(replaced.composer);
+    }
+
+    /**
+     * Pin a pipeline that is already in the pool.
+     *
+     * @param id The id of the pipeline.
+     * @return if the pipeline was in the pool.
+     */
+    public static synchronized boolean pin(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null) return false;
+
+        Entry pinned = new Entry(entry.composer, true, 0, entry.lastUsed, entry.uses);
+        pinned.leases.addAll(entry.leases);
+        pinned.leases.forEach(processId -> leases.put(processId, pinned));
+
+        entries.put(id, pinned);
+        updateGauges();
+        return true;
+    }
+
+    /**
+     * Remove a pipeline from the pool without shutting it down.
+     *
+     * @param id The id of the pipeline.
+     * @return the removed composer or null if the pipeline was not in the pool.
+     */
+    public static synchronized DUUIComposer remove(String id) {
+        Entry entry = entries.remove(id);
+        updateGauges();
+        return entry == null ? null : entry.composer;
+    }
+
+    /**
+     * Remove a pipeline from the pool if it is still held by the given composer.
+     *
+     * @param id       The id of the pipeline.
+     * @param composer The composer expected in the pool.
+     */
+    public static synchronized void remove(String id, DUUIComposer composer) {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.composer == composer) entries.remove(id);
+        updateGauges();
+    }
+
+    /**
+     * @return a snapshot of all pipelines in the pool.
+     */
+    public static Map<String, DUUIComposer> snapshot() {
+        Map<String, DUUIComposer> snapshot = new HashMap<>();
+        entries.forEach((id, entry) -> snapshot.put(id, entry.composer));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Stop the background tasks of the pool.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    private static void warmAsync(String id) {
+        if (entries.containsKey(id) || !warming.add(id)) return;
+
+        executor.execute(() -> {
+            try {
+                warm(id);
+            } finally {
+                warming.remove(id);
+            }
+        });
+    }
+
+    /**
+     * Instantiate a pipeline and add it to the pool if its containers fit into the budget.
+     *
+     * @param id The id of the pipeline.
+     */
+    private static void warm(String id) {
+        // An invalidation while the pipeline is read or instantiated removes the token.
+        Object token = new Object();
+        synchronized (DUUIPipelinePool.class) {
+            loads.put(id, token);
+        }
+
+        Document pipeline = DUUIPipelineController.findOneById(id);
+        int containers = pipeline == null ? 0 : countContainers(pipeline);
+
+        List<Evicted> evicted = new ArrayList<>();
+        boolean room;
+        synchronized (DUUIPipelinePool.class) {
+            room = pipeline != null && !entries.containsKey(id) && makeRoom(containers, evicted);
+            if (room) reservedContainers += containers;
+            else loads.remove(id, token);
+        }
+
+        shutdown(evicted);
+        if (!room) return;
+
+        DUUIComposer composer = null;
+        try {
+            composer = DUUIPipelineController.instantiatePipeline(pipeline);
+        } catch (Exception exception) {
+            System.err.printf("Warming pipeline %s failed: %s%n", id, exception.getMessage());
+        }
+
+        boolean added;
+        synchronized (DUUIPipelinePool.class) {
+            reservedContainers -= containers;
+            boolean current = loads.remove(id, token);
+            if (composer == null) return;
+
+            added = current && !entries.containsKey(id);
+            if (added) {
+                entries.put(id, new Entry(
+                    composer,
+                    false,
+                    containers,
+                    getLong(pipeline, "last_used"),
+                    getLong(pipeline, "times_used")));
+                updateGauges();
+            }
+        }
+
+        if (added) DUUIPipelineController.setStatus(id, DUUIStatus.IDLE);
+        else shutdownComposer(composer);
+    }
+
+    /**
+     * Evict pipelines until the given number of containers fits into the budget. Must be called while
+     * holding the pool lock. The evicted pipelines must be shut down with {@link #shutdown(List)} after the
+     * lock has been released.
+     *
+     * @param containers The number of containers to make room for.
+     * @param evicted    Receives the evicted pipelines.
+     * @return if there is enough room.
+     */
+    private static boolean makeRoom(int containers, List<Evicted> evicted) {
+        if (containers > maximumContainers) return false;
+
+        while (usedContainers() + containers > maximumContainers) {
+            Optional<Map.Entry<String, Entry>> victim = entries
+                .entrySet()
+                .stream()
+                .filter(candidate -> isEvictable(candidate.getKey(), candidate.getValue()))
+                .min(eviction.equals(LFU)
+                    ? Comparator.comparingLong((Map.Entry<String, Entry> candidate) -> candidate.getValue().uses)
+                    .thenComparingLong(candidate -> candidate.getValue().lastUsed)
+                    : Comparator.comparingLong(candidate -> candidate.getValue().lastUsed));
+
+            if (victim.isEmpty()) return false;
+            evict(victim.get().getKey(), "capacity", evicted);
+        }
+
+        return true;
+    }
+
+    /**
+     * Shut down pipelines that have not been used for the idle timeout.
+     */
+    private static void evictIdle() {
+        long threshold = Instant.now().toEpochMilli() - idleTimeout;
+
+        List<Evicted> evicted = new ArrayList<>();
+        synchronized (DUUIPipelinePool.class) {
+            entries.entrySet().stream()
+                .filter(entry -> isEvictable(entry.getKey(), entry.getValue()))
+                .filter(entry -> entry.getValue().lastUsed < threshold)
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(id -> evict(id, "idle", evicted));
+        }
+
+        shutdown(evicted);
+    }
+
+    private static void prewarm(int count) {
+        if (count <= 0) return;
+
+        DUUIMongoDBStorage
+            .Pipelines()
+            .find(Filters.gte("times_used", minimumUses))
+            .sort(Sorts.orderBy(Sorts.descending("times_used"), Sorts.descending("last_used")))
+            .limit(count)
+            .forEach(pipeline -> warm(pipeline.getObjectId("_id").toHexString()));
+    }
+
+    private static boolean isEvictable(String id, Entry entry) {
+        return !entry.pinned && entry.leases.isEmpty() && DUUIProcessController.getActiveProcesses(id).isEmpty();
+    }
+
+    /**
+     * Remove a pipeline from the pool. Must be called while holding the pool lock.
+     */
+    private static void evict(String id, String reason, List<Evicted> evicted) {
+        Entry entry = entries.remove(id);
+        if (entry == null) return;
+
+        evicted.add(new Evicted(id, entry.composer));
+        DUUIProcessMetrics.incrementPipelinePoolEvictions(reason);
+        updateGauges();
+    }
+
+    /**
+     * Shut down evicted pipelines. Must be called without holding the pool lock.
+     */
+    private static void shutdown(List<Evicted> evicted) {
+        for (Evicted pipeline : evicted) {
+            shutdownComposer(pipeline.composer());
+            DUUIPipelineController.setStatus(pipeline.id(), DUUIStatus.INACTIVE);
+        }
+    }
+
+    private static void shutdownComposer(DUUIComposer composer) {
+        try {
+            composer.asService(false).shutdown();
+        } catch (Exception exception) {
+            System.err.printf("Shutting down a pooled pipeline failed: %s%n", exception.getMessage());
+        }
+    }
+
+    private static int usedContainers() {
+        int used = reservedContainers;
+        for (Entry entry : entries.values()) used += entry.containers;
+        return used;
+    }
+
+    private static void updateGauges() {
+        DUUIProcessMetrics.setPipelinePoolSize(entries.size());
+        DUUIProcessMetrics.setPipelinePoolContainers(usedContainers());
+    }
+
+    /**
+     * The number of containers a pipeline starts is the sum of the scale of its components.
+     *
+     * @param pipeline The pipeline.
+     * @return the number of containers.
+     */
+    private static int countContainers(Document pipeline) {
+        int containers = 0;
+        for (Document component : pipeline.getList("components", Document.class)) {
+            Document options = component.get("options", Document.class);
+            Object scale = options == null ? null : options.get("scale");
+
+            try {
+                containers += scale == null ? 1 : Math.max(1, Integer.parseInt(scale.toString()));
+            } catch (NumberFormatException exception) {
+                containers += 1;
+            }
+        }
+        return containers;
+    }
+
+    private static long getLong(Document document, String key) {
+        Object value = document.get(key);
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    private record Evicted(String id, DUUIComposer composer) {
+    }
+
+    /**
+     * An instantiated pipeline and its usage.
+     */
+    private static class Entry {
+        private final DUUIComposer composer;
+        private final boolean pinned;
+        private final int containers;
+        private final Set<String> leases = new HashSet<>();
+        private boolean retired = false;
+        private volatile long lastUsed;
+        private volatile long uses;
+
+        /**
+         * @param containers The number of containers counted against the budget. 0 for pinned pipelines.
+         */
+        private Entry(DUUIComposer composer, boolean pinned, int containers, long lastUsed, long uses) {
+            this.composer = composer;
+            this.pinned = pinned;
+            this.containers = containers;
+            this.lastUsed = lastUsed == 0 ? Instant.now().toEpochMilli() : lastUsed;
+            this.uses = uses;
+        }
+
+        private synchronized void touch() {
+            lastUsed = Instant.now().toEpochMilli();
+            uses++;
+        }
+    }
+}
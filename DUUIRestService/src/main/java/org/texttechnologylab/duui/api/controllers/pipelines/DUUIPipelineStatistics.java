@@ -0,0 +1,319 @@
+package org.texttechnologylab.duui.api.controllers.pipelines;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Maintains the usage statistics of pipelines in the pipeline_stats collection.
+ * <p>
+ * Every pipeline has a single document containing counters by status, error, month, input provider and
+ * output provider as well as the number of processes and documents. The counters of a process are added
+ * once it has finished. The statistics_recorded flag of the process guarantees that a process is counted
+ * only once. Reading the statistics of a pipeline is a single lookup by id.
+ * <p>
+ * Statistics are rebuilt from the processes collection if they do not exist yet, on startup for pipelines
+ * without statistics and on request. All writes are executed by a single background thread, so a rebuild
+ * never races with the recording of a process.
+ */
+public class DUUIPipelineStatistics {
+
+    private static final String[] COUNTERS = {"status", "errors", "usage", "input", "output"};
+
+    private static final ExecutorService executor = newExecutor();
+    private static final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Rebuild missing statistics in the background if enabled.
+     *
+     * @param config The application config.
+     */
+    public static void init(Config config) {
+        if (config.getPipelineStatisticsRebuildOnStartup()) {
+            executor.submit(DUUIPipelineStatistics::rebuildMissing);
+        }
+    }
+
+    /**
+     * Stop the background thread after the pending updates have been written.
+     */
+    public static void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Add the counters of a finished process to the statistics of its pipeline. Does nothing if the process
+     * has not finished or has already been recorded.
+     *
+     * @param processId The id of the process.
+     */
+    public static void record(String processId) {
+        submit(() -> {
+            Document process = DUUIMongoDBStorage
+                .Processses()
+                .findOneAndUpdate(
+                    Filters.and(
+                        Filters.eq(new ObjectId(processId)),
+                        Filters.eq("is_finished", true),
+                        Filters.ne("statistics_recorded", true)),
+                    Updates.set("statistics_recorded", true));
+
+            if (process == null) return;
+            increment(process, 1);
+            DUUIStorageMetrics.incrementPipelineStatisticsUpdates("record");
+        });
+    }
+
+    /**
+     * Remove the counters of a process after it has been deleted.
+     *
+     * @param process The process containing at least pipeline_id and statistics_recorded.
+     */
+    public static void forget(Document process) {
+        if (process == null || !process.getBoolean("statistics_recorded", false)) return;
+
+        Document copy = new Document(process);
+        submit(() -> {
+            increment(copy, -1);
+            DUUIStorageMetrics.incrementPipelineStatisticsUpdates("forget");
+        });
+    }
+
+    /**
+     * Delete the statistics of a deleted pipeline.
+     *
+     * @param pipelineId The id of the pipeline.
+     */
+    public static void delete(String pipelineId) {
+        submit(() -> DUUIMongoDBStorage.PipelineStatistics().deleteOne(Filters.eq(pipelineId)));
+    }
+
+    /**
+     * Rebuild the statistics of a pipeline in the background.
+     *
+     * @param pipelineId The id of the pipeline.
+     * @return a future that completes once the statistics have been rebuilt.
+     */
+    public static Future<?> rebuild(String pipelineId) {
+        return executor.submit(() -> rebuildNow(pipelineId));
+    }
+
+    /**
+     * Retrieve the statistics of a pipeline in the shape of the former facet aggregation: lists of
+     * {_id, count} for status, errors, usage ({_id: {year, month}}), input, output and size. If no
+     * statistics exist, a rebuild is scheduled and empty statistics marked with pending are returned, so a
+     * request never waits for the background thread.
+     *
+     * @param pipelineId The id of the pipeline.
+     * @return the statistics.
+     */
+    public static Document find(String pipelineId) {
+        Document statistics = DUUIMongoDBStorage
+            .PipelineStatistics()
+            .find(Filters.eq(pipelineId))
+            .first();
+
+        if (statistics == null) {
+            if (pending.add(pipelineId)) {
+                executor.submit(() -> {
+                    try {
+                        rebuildNow(pipelineId);
+                    } finally {
+                        pending.remove(pipelineId);
+                    }
+                });
+            }
+            return toFacets(new Document()).append("pending", true);
+        }
+
+        return toFacets(statistics);
+    }
+
+    /**
+     * Convert stored counters to the facet shape.
+     */
+    static Document toFacets(Document statistics) {
+        Document result = new Document();
+
+        for (String counter : COUNTERS) {
+            Document counts = statistics.get(counter, new Document());
+            List<Document> entries = new ArrayList<>();
+
+            counts.forEach((key, value) -> {
+                long count = ((Number) value).longValue();
+                if (count <= 0) return;
+
+                Object id = decode(key);
+                if (counter.equals("usage")) {
+                    YearMonth month = YearMonth.parse(key);
+                    id = new Document("year", month.getYear()).append("month", month.getMonthValue());
+                }
+                entries.add(new Document("_id", id).append("count", count));
+            });
+            result.append(counter, entries);
+        }
+
+        Object size = statistics.get("size");
+        result.append("size", List.of(new Document("_id", null)
+            .append("count", size instanceof Number number ? number.longValue() : 0L)));
+
+        return result;
+    }
+
+    /**
+     * Compute the counters of a single process.
+     *
+     * @param process The process.
+     * @param sign    1 to add the process, -1 to remove it.
+     * @return the $inc document.
+     */
+    static Document increments(Document process, int sign) {
+        Document increments = new Document("processes", sign);
+
+        Object status = process.get("status");
+        count(increments, "status", status == null ? null : status.toString(), sign);
+
+        String error = process.getString("error");
+        count(increments, "errors", error == null ? null : error.split(" - ")[0], sign);
+
+        Object startedAt = process.get("started_at");
+        if (startedAt instanceof Number timestamp) {
+            YearMonth month = YearMonth.from(Instant.ofEpochMilli(timestamp.longValue()).atZone(ZoneOffset.UTC));
+            count(increments, "usage", month.toString(), sign);
+        }
+
+        count(increments, "input", process.getEmbedded(List.of("input", "provider"), String.class), sign);
+        count(increments, "output", process.getEmbedded(List.of("output", "provider"), String.class), sign);
+
+        Object count = process.get("count");
+        increments.append("size", sign * (count instanceof Number number ? number.longValue() : 0L));
+
+        return increments;
+    }
+
+    private static void count(Document increments, String counter, String key, int sign) {
+        if (key == null || key.isEmpty()) return;
+        increments.append(counter + "." + encode(key), sign);
+    }
+
+    private static void increment(Document process, int sign) {
+        String pipelineId = process.getString("pipeline_id");
+        if (pipelineId == null) return;
+
+        DUUIMongoDBStorage
+            .PipelineStatistics()
+            .updateOne(
+                Filters.eq(pipelineId),
+                new Document("$inc", increments(process, sign))
+                    .append("$set", new Document("modified_at", Instant.now().toEpochMilli())),
+                new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Mark all finished processes of the pipeline as recorded and replace the statistics with the counters
+     * aggregated from these processes. Processes finishing during the rebuild are not marked and are
+     * recorded afterward.
+     */
+    private static void rebuildNow(String pipelineId) {
+        Bson finished = Filters.and(Filters.eq("pipeline_id", pipelineId), Filters.eq("is_finished", true));
+
+        DUUIMongoDBStorage
+            .Processses()
+            .updateMany(
+                Filters.and(finished, Filters.ne("statistics_recorded", true)),
+                Updates.set("statistics_recorded", true));
+
+        Document statistics = new Document("_id", pipelineId);
+        for (String counter : COUNTERS) statistics.append(counter, new Document());
+        statistics.append("processes", 0L).append("size", 0L);
+
+        DUUIMongoDBStorage
+            .Processses()
+            .find(Filters.and(finished, Filters.eq("statistics_recorded", true)))
+            .projection(Projections.include(
+                "pipeline_id", "status", "error", "started_at", "input.provider", "output.provider", "count"))
+            .forEach(process -> increments(process, 1)
+                .forEach((path, value) -> add(statistics, path, ((Number) value).longValue())));
+
+        statistics.append("modified_at", Instant.now().toEpochMilli());
+
+        DUUIMongoDBStorage
+            .PipelineStatistics()
+            .replaceOne(Filters.eq(pipelineId), statistics, new ReplaceOptions().upsert(true));
+
+        DUUIStorageMetrics.incrementPipelineStatisticsUpdates("rebuild");
+    }
+
+    private static void rebuildMissing() {
+        Set<String> existing = new HashSet<>();
+        DUUIMongoDBStorage
+            .PipelineStatistics()
+            .find()
+            .projection(Projections.include("_id"))
+            .forEach(statistics -> existing.add(statistics.getString("_id")));
+
+        DUUIMongoDBStorage
+            .Pipelines()
+            .find()
+            .projection(Projections.include("_id"))
+            .map(pipeline -> pipeline.getObjectId("_id").toString())
+            .forEach(pipelineId -> {
+                if (!existing.contains(pipelineId)) rebuildNow(pipelineId);
+            });
+    }
+
+    private static void add(Document statistics, String path, long value) {
+        int separator = path.indexOf('.');
+        if (separator < 0) {
+            statistics.put(path, ((Number) statistics.get(path, 0L)).longValue() + value);
+            return;
+        }
+
+        Document counts = statistics.get(path.substring(0, separator), Document.class);
+        String key = path.substring(separator + 1);
+        counts.put(key, ((Number) counts.get(key, 0L)).longValue() + value);
+    }
+
+    /**
+     * Field names must not contain dots or start with a dollar sign.
+     */
+    static String encode(String key) {
+        return key.replace("%", "%25").replace(".", "%2E").replace("$", "%24");
+    }
+
+    static String decode(String key) {
+        return key.replace("%24", "$").replace("%2E", ".").replace("%25", "%");
+    }
+
+    private static void submit(Runnable task) {
+        executor.submit(() -> {
+            try {
+                task.run();
+            } catch (MongoException | IllegalArgumentException exception) {
+                System.err.printf("Updating the pipeline statistics failed: %s%n", exception.getMessage());
+            }
+        });
+    }
+
+    private static ExecutorService newExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "duui-pipeline-statistics");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -4,13 +4,14 @@ import org.texttechnologylab.duui.api.Main;
 import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentController;
 import org.texttechnologylab.duui.api.controllers.events.DUUIEventController;
 import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineController;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelinePool;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineStatistics;
 import org.texttechnologylab.duui.api.controllers.users.DUUIUserController;
 import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
 import org.texttechnologylab.duui.api.storage.MongoDBFilters;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxRequestConfig;
 import com.dropbox.core.oauth.DbxCredential;
-import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.model.*;
 import com.mongodb.client.result.UpdateResult;
 import org.texttechnologylab.duui.api.routes.DUUIRequestHelper;
@@ -27,7 +28,6 @@ import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.time.Instant;
 import java.util.*;
@@ -40,7 +40,7 @@ import java.util.stream.Collectors;
  */
 public class DUUIProcessController {
 
-    private static final Map<String, IDUUIProcessHandler> activeProcesses = new HashMap<>();
+    private static final DUUIProcessRegistry activeProcesses = new DUUIProcessRegistry();
 
     /**
      * Constructs default settings for a process.
@@ -57,6 +57,7 @@ public class DUUIProcessController {
             .append("minimum_size", 0)
             .append("worker_count", 1)
             .append("ignore_errors", true)
+            .append("priority", 0)
             .append("language", "");
     }
 
@@ -104,89 +105,121 @@ public class DUUIProcessController {
 
         if (process == null) return null;
 
-        return DUUIMongoDBStorage.convertObjectIdToString(process.append("count", documentCount(id)));
+        // Same fallback as documentCount() for processes that have not been migrated yet.
+        if (process.get("count") == null && process.get("document_names") instanceof List<?> paths) {
+            process.put("count", paths.size());
+        }
+        process.remove("document_names");
+
+        return DUUIMongoDBStorage.convertObjectIdToString(process);
     }
 
     /**
-     * Counts the number of documents that are analyzed in a given process.
+     * The number of documents of a process. Processes that have not been migrated by
+     * {@link org.texttechnologylab.duui.api.storage.DUUIMigrations} yet have no count but still store the
+     * paths of their documents in document_names.
      *
-     * @param id The id of the process.
-     * @return the number of documents for the process.
+     * @return an expression evaluating to the number of documents of a process.
      */
-    private static long documentCount(String id) {
-        return DUUIMongoDBStorage
-            .Documents()
-            .countDocuments(Filters.eq("process_id", id));
+    private static Document documentCount() {
+        return new Document("$ifNull", List.of(
+            "$count",
+            new Document("$size", new Document("$ifNull", List.of("$document_names", List.of())))));
     }
 
     /**
      * Retrieve one or more processes from the database given a userId and {@link MongoDBFilters} to sort
-     * and filter the results.
+     * and filter the results. The count is read in a separate query and is left out if the filters do not
+     * ask for it.
      *
      * @param filters A {@link MongoDBFilters} object that contains filter options.
-     * @return A Document containing a list of matched processes.
+     * @return A Document containing a list of matched processes, the count if requested and the cursor of
+     * the next page.
      */
     public static Document findMany(MongoDBFilters filters) {
-        List<Bson> aggregationPipeline = new ArrayList<>();
-        List<Bson> processFacet = new ArrayList<>();
+        Bson filter = filters.getFilters().isEmpty() ? new Document() : Filters.and(filters.getFilters());
 
+        // Apply filters to the collection, reducing the number of returned entries.
+        List<Bson> aggregationPipeline = new ArrayList<>();
+        aggregationPipeline.add(Aggregates.match(filter));
 
         /*
-          Add a count and duration field to the matching entries.
-          The dollar sign prefix indicates an aggregation method (size, subtract)
-          or an existing field (document_names, started_at, finished_at)
+          Add a duration field to the matching entries.
+          The dollar sign prefix indicates an aggregation method (subtract)
+          or an existing field (started_at, finished_at)
          */
 
         aggregationPipeline.add(Aggregates.addFields(
-            new Field<>("count",
-                new Document("$size", "$document_names")),
-
             new Field<>("duration",
-                new Document("$subtract", List.of("$finished_at", "$started_at")))
+                new Document("$subtract", List.of("$finished_at", "$started_at"))),
+            new Field<>("count", documentCount())
         ));
+        aggregationPipeline.add(Aggregates.unset("document_names"));
 
+        // The page is read without a $facet, so the filters and the cursor can use the indexes.
+        aggregationPipeline.addAll(filters.toPageStages());
+        List<Document> findings = DUUIMongoDBStorage
+            .Processses()
+            .aggregate(aggregationPipeline)
+            .into(new ArrayList<>());
 
-        // Apply filters to the collection, reducing the number of returned entries.
-        if (!filters.getFilters().isEmpty()) {
-            aggregationPipeline.add(Aggregates.match(Filters.and(filters.getFilters())));
-        }
-
-
-        if (filters.getSort() != null) {
-            processFacet.add(Aggregates.sort(
-                filters.getOrder() == 1
-                    ? Sorts.ascending(filters.getSort())
-                    : Sorts.descending(filters.getSort())));
-        }
-
-        if (filters.getSkip() > 0) processFacet.add(Aggregates.skip(filters.getSkip()));
-        if (filters.getLimit() > 0) processFacet.add(Aggregates.limit(filters.getLimit()));
-
-        aggregationPipeline.add(Aggregates.facet(
-            new Facet("processes", processFacet),
-            new Facet("count", Aggregates.count())
-        ));
+        String next = filters.nextCursor(findings);
+        findings.forEach(DUUIMongoDBStorage::convertObjectIdToString);
 
+        Document result = new Document("processes", findings);
+        if (filters.isCount()) result.append("count", DUUIMongoDBStorage.Processses().countDocuments(filter));
+        return result.append("next", next);
+    }
 
-        AggregateIterable<Document> documents = DUUIMongoDBStorage
+    /**
+     * Retrieve the fields of a process needed to authorize and cache a request for its details in a single
+     * aggregation. The owner is looked up from the pipeline without loading its components.
+     *
+     * @param id The id of the process.
+     * @return a Document containing the pipeline_id, version, user_id of the owner and linked_events, which
+     * is false if the events of the process have been recorded without a document_path. Null if the process
+     * does not exist.
+     */
+    public static Document findSummary(String id) {
+        if (!ObjectId.isValid(id)) return null;
+
+        List<Bson> aggregationPipeline = List.of(
+            Aggregates.match(Filters.eq(new ObjectId(id))),
+            Aggregates.lookup(
+                "pipelines",
+                List.of(new Variable<>("pipeline_id", new Document("$toObjectId", "$pipeline_id"))),
+                List.of(
+                    Aggregates.match(Filters.expr(new Document("$eq", List.of("$_id", "$$pipeline_id")))),
+                    Aggregates.project(Projections.fields(Projections.include("user_id"), Projections.excludeId()))),
+                "pipeline"),
+            Aggregates.lookup(
+                "events",
+                List.of(new Variable<>("process_id", new Document("$toString", "$_id"))),
+                List.of(
+                    Aggregates.match(Filters.and(
+                        Filters.expr(new Document("$eq", List.of("$event.process_id", "$$process_id"))),
+                        Filters.exists("event.document_path"))),
+                    Aggregates.limit(1),
+                    Aggregates.project(Projections.include("_id"))),
+                "linked_events"),
+            Aggregates.project(Projections.fields(
+                Projections.include("pipeline_id", "version"),
+                Projections.computed("user_id", new Document("$arrayElemAt", List.of("$pipeline.user_id", 0))),
+                Projections.computed("linked_events", new Document("$gt", List.of(
+                    new Document("$size", "$linked_events"), 0)))))
+        );
+
+        Document summary = DUUIMongoDBStorage
             .Processses()
-            .aggregate(aggregationPipeline);
-
-        Document result = documents.into(new ArrayList<>()).get(0);
-        List<Document> findings = result.getList("processes", Document.class);
-        findings.forEach(DUUIMongoDBStorage::convertObjectIdToString);
-        int count;
-        try {
-            count = result.getList("count", Document.class).get(0).getInteger("count");
-        } catch (IndexOutOfBoundsException exception) {
-            count = 0;
-        }
+            .aggregate(aggregationPipeline)
+            .first();
 
-        return new Document("processes", findings).append("count", count);
+        return summary == null ? null : DUUIMongoDBStorage.convertObjectIdToString(summary);
     }
 
     /**
-     * Update a process by setting the key value pair.
+     * Update a process by setting the key value pair. The process is only written and its version is
+     * only incremented if the value changed.
      *
      * @param id    The id of the process
      * @param key   The field name
@@ -199,12 +232,29 @@ public class DUUIProcessController {
             .updateOne(
                 Filters.and(
                     Filters.eq(new ObjectId(id)),
-                    Filters.exists(key, true)
+                    Filters.exists(key, true),
+                    Filters.ne(key, value)
                 ),
-                Updates.set(key, value)
+                Updates.combine(
+                    Updates.set(key, value),
+                    Updates.inc("version", 1))
             );
     }
 
+    /**
+     * Increment the version of a process to signal that its documents or events changed. The version is
+     * used to answer requests for unchanged processes with 304 Not Modified.
+     *
+     * @param id The id of the process.
+     */
+    public static void incrementVersion(String id) {
+        DUUIMongoDBStorage
+            .Processses()
+            .updateOne(
+                Filters.eq(new ObjectId(id)),
+                Updates.inc("version", 1));
+    }
+
     /**
      * Delete a process and all documents and events referencing this process.
      *
@@ -212,46 +262,50 @@ public class DUUIProcessController {
      * @return if the process has been deleted successfully.
      */
     public static boolean deleteOne(String id) {
+        Document process = DUUIMongoDBStorage
+            .Processses()
+            .find(Filters.eq(new ObjectId(id)))
+            .first();
+
         DUUIDocumentController.deleteMany(Filters.eq("process_id", id));
         DUUIEventController.deleteMany(Filters.eq("event.process_id", id));
 
-        return DUUIMongoDBStorage
+        boolean deleted = DUUIMongoDBStorage
             .Processses()
             .deleteOne(Filters.eq(new ObjectId(id)))
             .getDeletedCount() > 0;
+
+        // Only the request that actually deleted the process removes it from the statistics.
+        if (deleted) DUUIPipelineStatistics.forget(process);
+        return deleted;
     }
 
     /**
-     * Start and insert a new process.
+     * Insert a new process and add it to the {@link DUUIProcessQueue}. The process is returned with the
+     * status {@link DUUIStatus#WAITING} and started in the background once enough workers are available.
      *
      * @param pipeline The pipeline to execute.
      * @param settings The settings for the process. See {@link #getDefaultSettings()}
-     * @return if the process has been found and stopped.
+     * @return the inserted process.
      */
     public static Document start(
         Document pipeline,
         Document settings,
         DUUIDocumentProvider input,
         DUUIDocumentProvider output
-    ) throws URISyntaxException, IOException, InsufficientWorkersException, InvalidIOException {
+    ) throws InsufficientWorkersException, InvalidIOException {
 
         String error = DUUIDocumentController.validateDocumentProviders(input, output);
         if (!error.isEmpty()) throw new InvalidIOException(error);
 
-
-        int availableWorkers = DUUIUserController
-            .getUserById(pipeline.getString("user_id"), List.of("worker_count"))
-            .getInteger("worker_count");
-
-        if (availableWorkers == 0) {
-            throw new InsufficientWorkersException("This Account is out of workers for now. Wait until your other processes have finished.");
-        }
+        String userId = pipeline.getString("user_id");
+        DUUIProcessQueue.checkCapacity(userId);
 
         String pipelineId = pipeline.getString("oid");
         settings = mergeSettings(settings);
 
         Document process = new Document("pipeline_id", pipelineId)
-            .append("status", DUUIStatus.SETUP)
+            .append("status", DUUIStatus.WAITING)
             .append("error", null)
             .append("progress", 0)
             .append("size", pipeline.getList("components", Document.class).size())
@@ -260,9 +314,11 @@ public class DUUIProcessController {
             .append("input", input.toDocument())
             .append("output", output.toDocument())
             .append("settings", settings)
-            .append("document_names", new HashSet<String>())
+            .append("count", 0)
             .append("pipeline_status", null)
-            .append("is_finished", false);
+            .append("is_finished", false)
+            .append("version", 0)
+            .append("queue", DUUIProcessQueue.createEntry(settings, userId));
 
         DUUIMongoDBStorage
             .Processses()
@@ -271,25 +327,52 @@ public class DUUIProcessController {
         DUUIMongoDBStorage.convertObjectIdToString(process);
         String processId = process.getString("oid");
 
-        Map<String, DUUIComposer> reusablePipelines = DUUIPipelineController.getReusablePipelines();
+        process
+            .get("queue", Document.class)
+            .append("position", DUUIProcessQueue.getPosition(processId));
+        DUUIProcessQueue.enqueue();
+
+        return process;
+    }
+
+    /**
+     * Create a handler for a process that has been dispatched by the {@link DUUIProcessQueue}.
+     *
+     * @param process The process to run.
+     * @throws URISyntaxException Thrown when the minimal TypeSystem can not be loaded.
+     * @throws IOException        Thrown when the Lua Json Library can not be loaded.
+     */
+    static void launch(Document process) throws URISyntaxException, IOException {
+        String pipelineId = process.getString("pipeline_id");
+        Document pipeline = DUUIPipelineController.findOneById(pipelineId);
+        if (pipeline == null) {
+            throw new IllegalStateException(String.format("The pipeline with id %s does not exist.", pipelineId));
+        }
+
+        Document settings = process.get("settings", Document.class);
+        String processId = process.getString("oid");
+
+        DUUIComposer reusablePipeline = DUUIPipelinePool.acquire(pipeline, processId);
 
         IDUUIProcessHandler handler;
 
-        if (reusablePipelines.containsKey(pipelineId)) {
-            handler = new DUUISimpleProcessHandler(
-                pipeline,
-                process,
-                settings,
-                reusablePipelines
-                    .get(pipelineId)
-                    .getInstantiatedPipeline());
-        } else {
-            handler = new DUUISimpleProcessHandler(process, pipeline, settings);
+        try {
+            if (reusablePipeline != null) {
+                handler = new DUUISimpleProcessHandler(
+                    pipeline,
+                    process,
+                    settings,
+                    reusablePipeline.getInstantiatedPipeline());
+            } else {
+                handler = new DUUISimpleProcessHandler(process, pipeline, settings);
+            }
+        } catch (URISyntaxException | IOException | RuntimeException exception) {
+            DUUIPipelinePool.release(processId);
+            throw exception;
         }
 
-        activeProcesses.put(processId, handler);
+        activeProcesses.register(processId, handler);
         DUUIPipelineController.updateTimesUsed(pipelineId);
-        return process;
     }
 
     /**
@@ -309,6 +392,10 @@ public class DUUIProcessController {
 
         if (DUUIRequestHelper.isNullOrEmpty(process)) return null;
 
+        if (DUUIProcessQueue.cancel(id)) {
+            return String.format("Removed process with id %s from the queue", id);
+        }
+
         IDUUIProcessHandler processHandler = activeProcesses.get(id);
 
         if (processHandler == null) {
@@ -332,7 +419,8 @@ public class DUUIProcessController {
      * @param pipelineStatus the new pipeline status.
      */
     public static void updatePipelineStatus(String id, Map<String, String> pipelineStatus) {
-        updateOne(id, "pipeline_status", new Document(pipelineStatus));
+        // Sort the components, so that an unchanged status is recognized as such.
+        updateOne(id, "pipeline_status", new Document(new TreeMap<>(pipelineStatus)));
     }
 
 
@@ -342,7 +430,7 @@ public class DUUIProcessController {
      * @param id The process' id
      */
     public static void removeProcess(String id) {
-        activeProcesses.remove(id);
+        activeProcesses.unregister(id);
     }
 
 
@@ -366,8 +454,12 @@ public class DUUIProcessController {
         DUUIMongoDBStorage
             .Processses()
             .updateOne(
-                Filters.eq(new ObjectId(id)),
-                Updates.set("progress", progress));
+                Filters.and(
+                    Filters.eq(new ObjectId(id)),
+                    Filters.ne("progress", progress)),
+                Updates.combine(
+                    Updates.set("progress", progress),
+                    Updates.inc("version", 1)));
     }
 
     /**
@@ -397,6 +489,7 @@ public class DUUIProcessController {
      */
     public static void setFinished(String id, boolean finished) {
         updateOne(id, "is_finished", finished);
+        if (finished) DUUIPipelineStatistics.record(id);
     }
 
     /**
@@ -410,11 +503,16 @@ public class DUUIProcessController {
     }
 
     /**
+     * Write the paths of the input documents to the documents collection and store their number in the
+     * count field of the process. The process document does not contain the paths, so its size does not
+     * depend on the number of documents.
+     *
      * @param id            The id of the process.
      * @param documentPaths A {@link Set} of {@link String}s holding paths to documents.
      */
     public static void setDocumentPaths(String id, Set<String> documentPaths) {
-        updateOne(id, "document_names", documentPaths);
+        DUUIDocumentController.insertPaths(id, documentPaths, DUUIStatus.WAITING);
+        updateOne(id, "count", documentPaths.size());
     }
 
     /**
@@ -429,7 +527,7 @@ public class DUUIProcessController {
 
     /**
      * Delete all processes matching a given filter. Also deletes all documents and events
-     * that reference this process.
+     * that reference this process and removes the processes from the pipeline statistics.
      *
      * @param filter A {@link Bson} filter to delete only selected processes
      */
@@ -437,17 +535,25 @@ public class DUUIProcessController {
         List<Document> effected = DUUIMongoDBStorage
             .Processses()
             .find(filter)
-            .projection(Projections.include("_id"))
+            .projection(Projections.include(
+                "_id", "pipeline_id", "statistics_recorded", "status", "error", "started_at",
+                "input.provider", "output.provider", "count"))
             .into(new ArrayList<>());
 
+        // Processes are deleted one by one, so that only processes that have actually been deleted by this
+        // call are removed from the statistics.
+        for (Document process : effected) {
+            boolean deleted = DUUIMongoDBStorage
+                .Processses()
+                .deleteOne(Filters.eq(process.getObjectId("_id")))
+                .getDeletedCount() > 0;
 
-        DUUIMongoDBStorage
-            .Processses()
-            .deleteMany(filter);
+            if (deleted) DUUIPipelineStatistics.forget(process);
+        }
 
         effected.forEach(
             document -> DUUIDocumentController.deleteMany(
-                Filters.eq(document.getObjectId("_id").toString())));
+                Filters.eq("process_id", document.getObjectId("_id").toString())));
 
         effected.forEach(
             document -> DUUIEventController.deleteMany(
@@ -456,25 +562,31 @@ public class DUUIProcessController {
 
 
     /**
-     * Store the annotations in the document in the database.
+     * Store the annotations in the document in the database. The updates are sent in unordered bulk writes
+     * and insert the document if it does not exist yet, since the document may still be queued for insertion.
      *
      * @param processId The id of the process the documents are analyzed in.
      * @param documents The documents containing annotation.
      */
     public static void insertAnnotations(String processId, Set<DUUIDocument> documents) {
+        Map<String, UpdateOneModel<Document>> updates = new LinkedHashMap<>();
+
         for (DUUIDocument document : documents) {
             if (document.getError() != null) continue;
 
-            DUUIMongoDBStorage
-                .Documents()
-                .updateOne(
+            updates.put(
+                DUUIDocumentController.getWriteKey(processId, document.getPath(), "annotations"),
+                new UpdateOneModel<>(
                     Filters.and(
                         Filters.eq("process_id", processId),
                         Filters.eq("path", document.getPath())
                     ),
-                    Updates.set("annotations", new Document(document.getAnnotations()))
-                );
+                    Updates.set("annotations", new Document(document.getAnnotations())),
+                    new UpdateOptions().upsert(true)
+                ));
         }
+
+        DUUIMongoDBStorage.DocumentsWriter().submit(updates);
     }
 
     /**
@@ -483,7 +595,7 @@ public class DUUIProcessController {
      * @return a list of {@link IDUUIProcessHandler}s
      */
     public static List<IDUUIProcessHandler> getActiveProcesses() {
-        return activeProcesses.values().stream().toList();
+        return activeProcesses.getAll();
     }
 
 
@@ -494,11 +606,16 @@ public class DUUIProcessController {
      * @return A List of {@link IDUUIProcessHandler}s.
      */
     public static List<IDUUIProcessHandler> getActiveProcesses(String pipelineId) {
-        return activeProcesses
-            .values()
-            .stream()
-            .filter(process -> process.getPipelineID().equals(pipelineId))
-            .collect(Collectors.toList());
+        return activeProcesses.getByPipeline(pipelineId);
+    }
+
+    /**
+     * Get the registry of active processes.
+     *
+     * @return the {@link DUUIProcessRegistry} holding all active processes.
+     */
+    public static DUUIProcessRegistry getRegistry() {
+        return activeProcesses;
     }
 
     /**
@@ -561,15 +678,46 @@ public class DUUIProcessController {
 
 
     /**
-     * Download a file from a cloud storage given the handler and path to the file.
+     * List the output files of a process. Files in the output path are matched to the documents of the
+     * process by their name without extension, since the output extension may differ from the input.
      *
-     * @param handler an instance of an {@link IDUUIDocumentHandler}
-     * @param path    the absolute path to the file in the cloud storage.
-     * @return an {@link InputStream} with the file contents.
-     * @throws IOException when the file is not found or an error occurs while reading.
+     * @param id      The id of the process.
+     * @param output  The output of the process.
+     * @param handler The handler of the output provider.
+     * @param names   The names of the documents to include or an empty list to include all documents.
+     * @return the paths of the output files.
+     * @throws IOException when the output path can not be listed.
      */
-    public static InputStream downloadFile(IDUUIDocumentHandler handler, String path) throws IOException {
-        DUUIDocument document = handler.readDocument(path);
-        return document.toInputStream();
+    public static List<String> findOutputPaths(
+        String id,
+        DUUIDocumentProvider output,
+        IDUUIDocumentHandler handler,
+        List<String> names
+    ) throws IOException {
+        Set<String> included = new HashSet<>();
+        Bson filter = names.isEmpty()
+            ? Filters.eq("process_id", id)
+            : Filters.and(Filters.eq("process_id", id), Filters.in("name", names));
+
+        DUUIMongoDBStorage
+            .Documents()
+            .find(filter)
+            .projection(Projections.include("name"))
+            .forEach(document -> included.add(stripExtension(document.getString("name"))));
+
+        if (included.isEmpty()) return List.of();
+
+        return handler
+            .listDocuments(output.getPath(), Objects.toString(output.getFileExtension(), ""), false)
+            .stream()
+            .filter(document -> included.contains(stripExtension(document.getName())))
+            .map(DUUIDocument::getPath)
+            .toList();
+    }
+
+    private static String stripExtension(String name) {
+        if (name == null) return "";
+        int index = name.lastIndexOf('.');
+        return index <= 0 ? name : name.substring(0, index);
     }
 }
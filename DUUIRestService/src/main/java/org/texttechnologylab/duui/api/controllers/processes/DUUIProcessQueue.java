@@ -0,0 +1,360 @@
+package org.texttechnologylab.duui.api.controllers.processes;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.controllers.users.DUUIUserController;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIProcessMetrics;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineStatistics;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Admission control for processes. Started processes are stored with the status
+ * {@link DUUIStatus#WAITING} and a queue entry in the processes collection and are dispatched once the
+ * global worker budget allows it. Since the queue lives in the database, waiting processes survive a restart.
+ * <p>
+ * The next process is chosen by fair share: the user with the lowest number of running workers relative to
+ * their weight (the queue_weight field of a user, 1 by default) is served first. The processes of a user are
+ * served by priority and then in the order they were started.
+ * <p>
+ * Workers are reserved when a process is dispatched and released in
+ * {@link org.texttechnologylab.duui.analysis.process.IDUUIProcessHandler#exit()}, which triggers the next
+ * dispatch. Dispatching always runs on a single background thread, so request threads never wait for
+ * other processes to be launched. Workers are reserved while holding the queue lock, but processes are
+ * launched after it has been released.
+ * <p>
+ * A dispatched process may return to {@link DUUIStatus#WAITING} while it waits for a slot of a shared
+ * pipeline. Such a process has a dispatched_at timestamp and is owned by its handler, so the queue only
+ * selects, cancels and counts entries that have not been dispatched yet (see {@link #queued()}).
+ */
+public class DUUIProcessQueue {
+
+    private static final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "duui-process-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Map<String, Reservation> reservations = new HashMap<>();
+    private static final Map<String, Integer> userWorkers = new HashMap<>();
+
+    private static int budget = defaultBudget(512);
+    private static int usedWorkers = 0;
+    private static int userLimit = 50;
+    private static int retryAfter = 10;
+
+    /**
+     * Compute the worker budget and dispatch processes that have been waiting before the server started.
+     *
+     * @param config The application config.
+     */
+    public static void init(Config config) {
+        synchronized (DUUIProcessQueue.class) {
+            budget = config.getWorkerBudget() > 0
+                ? config.getWorkerBudget()
+                : defaultBudget(config.getWorkerMemory());
+            userLimit = config.getProcessQueueUserLimit();
+            retryAfter = config.getProcessQueueRetryAfter();
+        }
+
+        DUUIProcessMetrics.setWorkerBudget(budget);
+        scheduleDispatch();
+    }
+
+    /**
+     * The budget derived from the machine is the smaller of twice the number of cores and the number of
+     * workers that fit into the maximum heap size.
+     *
+     * @param workerMemory The memory in megabytes to plan for a single worker.
+     * @return the number of workers that can run at the same time.
+     */
+    private static int defaultBudget(int workerMemory) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long memory = Runtime.getRuntime().maxMemory() / (1024L * 1024L * Math.max(1, workerMemory));
+        return (int) Math.max(1, Math.min(cores * 2L, memory));
+    }
+
+    /**
+     * Create the queue entry for a new process.
+     *
+     * @param settings The merged settings of the process.
+     * @param userId   The id of the user starting the process.
+     * @return the queue entry to be stored with the process.
+     */
+    static Document createEntry(Document settings, String userId) {
+        int priority = Math.max(-10, Math.min(10, settings.getInteger("priority", 0)));
+
+        return new Document("user_id", userId)
+            .append("priority", priority)
+            .append("workers", Math.max(1, settings.getInteger("worker_count", 1)))
+            .append("enqueued_at", Instant.now().toEpochMilli())
+            .append("dispatched_at", null);
+    }
+
+    /**
+     * Check if a user is allowed to add another process to the queue.
+     *
+     * @param userId The id of the user.
+     * @throws InsufficientWorkersException if the user has no workers or has reached the limit of waiting
+     *                                      processes.
+     */
+    static void checkCapacity(String userId) throws InsufficientWorkersException {
+        Document user = DUUIUserController.getUserById(userId, List.of("worker_count"));
+        if (user == null || user.getInteger("worker_count", 0) <= 0) {
+            throw new InsufficientWorkersException(
+                "This Account is out of workers for now. Wait until your other processes have finished.");
+        }
+
+        long waiting = DUUIMongoDBStorage
+            .Processses()
+            .countDocuments(Filters.and(queued(), Filters.eq("queue.user_id", userId)));
+
+        if (waiting >= userLimit) {
+            throw new InsufficientWorkersException(
+                String.format("This Account has %d processes waiting. Wait until some of them have started.", waiting));
+        }
+    }
+
+    /**
+     * Dispatch waiting processes in the background after a process has been stored with its queue entry.
+     */
+    static void enqueue() {
+        scheduleDispatch();
+    }
+
+    /**
+     * Release the workers reserved for a process and dispatch waiting processes in the background.
+     *
+     * @param processId The id of the process that has finished.
+     */
+    public static void release(String processId) {
+        if (unreserve(processId)) scheduleDispatch();
+    }
+
+    private static synchronized boolean unreserve(String processId) {
+        Reservation reservation = reservations.remove(processId);
+        if (reservation == null) return false;
+
+        usedWorkers -= reservation.workers();
+        userWorkers.merge(reservation.userId(), -reservation.workers(), Integer::sum);
+        userWorkers.remove(reservation.userId(), 0);
+        DUUIProcessMetrics.setWorkersReserved(usedWorkers);
+        return true;
+    }
+
+    /**
+     * Remove a waiting process from the queue. Processes that have been dispatched already are left to their
+     * handler.
+     *
+     * @param processId The id of the process.
+     * @return if the process was waiting in the queue and has been cancelled.
+     */
+    public static boolean cancel(String processId) {
+        boolean cancelled = DUUIMongoDBStorage
+            .Processses()
+            .updateOne(
+                Filters.and(Filters.eq(new ObjectId(processId)), queued()),
+                Updates.combine(
+                    Updates.set("status", DUUIStatus.CANCELLED),
+                    Updates.set("is_finished", true),
+                    Updates.set("finished_at", Instant.now().toEpochMilli()),
+                    Updates.inc("version", 1)))
+            .getModifiedCount() > 0;
+
+        if (cancelled) {
+            updateQueueLength();
+            DUUIPipelineStatistics.record(processId);
+        }
+        return cancelled;
+    }
+
+    /**
+     * @param processId The id of the process.
+     * @return the number of waiting processes that have been started before the given process.
+     */
+    public static long getPosition(String processId) {
+        Document process = DUUIMongoDBStorage
+            .Processses()
+            .find(Filters.eq(new ObjectId(processId)))
+            .projection(Projections.include("queue"))
+            .first();
+
+        if (process == null || process.get("queue", Document.class) == null) return 0;
+
+        return DUUIMongoDBStorage
+            .Processses()
+            .countDocuments(Filters.and(
+                queued(),
+                Filters.lt("queue.enqueued_at", process.get("queue", Document.class).getLong("enqueued_at"))));
+    }
+
+    /**
+     * @return the number of seconds clients should wait before asking for the state of a waiting process again.
+     */
+    public static synchronized int getRetryAfter() {
+        return retryAfter;
+    }
+
+    private static void scheduleDispatch() {
+        dispatcher.execute(() -> {
+            try {
+                dispatch();
+            } catch (Exception exception) {
+                System.err.printf("Dispatching processes failed: %s%n", exception.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Start waiting processes until the worker budget is exhausted or no process is waiting. Users whose next
+     * process needs more workers than are currently free are skipped, so they do not block smaller processes
+     * of other users.
+     */
+    private static void dispatch() {
+        Set<String> blocked = new HashSet<>();
+
+        while (true) {
+            Document next = reserveNext(blocked);
+            if (next == null) break;
+
+            String processId = next.getObjectId("_id").toHexString();
+            try {
+                next.put("status", DUUIStatus.SETUP);
+                DUUIProcessController.launch(DUUIMongoDBStorage.convertObjectIdToString(next));
+            } catch (Exception exception) {
+                DUUIProcessController.setStatus(processId, DUUIStatus.FAILED);
+                DUUIProcessController.setError(processId, String.format("%s - %s",
+                    exception.getClass().getCanonicalName(), exception.getMessage()));
+                DUUIProcessController.setFinished(processId, true);
+                DUUIProcessController.setFinishedAt(processId);
+                unreserve(processId);
+            }
+        }
+
+        updateQueueLength();
+    }
+
+    /**
+     * Claim the next waiting process that fits into the worker budget and reserve its workers.
+     *
+     * @param blocked The users whose next process does not fit into the budget. Extended by this method.
+     * @return the claimed process or null if no waiting process can be dispatched.
+     */
+    private static synchronized Document reserveNext(Set<String> blocked) {
+        while (true) {
+            Document next = selectNext(blocked);
+            if (next == null) return null;
+
+            Document entry = next.get("queue", Document.class);
+            String processId = next.getObjectId("_id").toHexString();
+            String userId = entry.getString("user_id");
+            int workers = Math.min(budget, entry.getInteger("workers", 1));
+
+            if (usedWorkers + workers > budget) {
+                blocked.add(userId);
+                continue;
+            }
+
+            // Claim the process, so that a cancelled process is never started.
+            boolean claimed = DUUIMongoDBStorage
+                .Processses()
+                .updateOne(
+                    Filters.and(Filters.eq(next.getObjectId("_id")), queued()),
+                    Updates.combine(
+                        Updates.set("status", DUUIStatus.SETUP),
+                        Updates.set("queue.dispatched_at", Instant.now().toEpochMilli()),
+                        Updates.inc("version", 1)))
+                .getModifiedCount() > 0;
+
+            if (!claimed) continue;
+
+            reservations.put(processId, new Reservation(userId, workers));
+            usedWorkers += workers;
+            userWorkers.merge(userId, workers, Integer::sum);
+            DUUIProcessMetrics.setWorkersReserved(usedWorkers);
+            return next;
+        }
+    }
+
+    /**
+     * Select the first waiting process of the user with the lowest weighted share of running workers.
+     * Users without available workers are skipped.
+     *
+     * @param blocked The users to skip.
+     * @return the next process to dispatch or null if no process can be dispatched.
+     */
+    private static Document selectNext(Set<String> blocked) {
+        Map<String, Document> heads = new LinkedHashMap<>();
+
+        DUUIMongoDBStorage
+            .Processses()
+            .find(queued())
+            .sort(Sorts.orderBy(Sorts.descending("queue.priority"), Sorts.ascending("queue.enqueued_at")))
+            .forEach(process -> {
+                Document entry = process.get("queue", Document.class);
+                if (entry != null && !blocked.contains(entry.getString("user_id"))) heads.putIfAbsent(entry.getString("user_id"), process);
+            });
+
+        if (heads.isEmpty()) return null;
+
+        Map<String, Document> users = new HashMap<>();
+        DUUIMongoDBStorage
+            .Users()
+            .find(Filters.in("_id", heads.keySet().stream().map(ObjectId::new).toList()))
+            .projection(Projections.include("worker_count", "queue_weight"))
+            .forEach(user -> users.put(user.getObjectId("_id").toHexString(), user));
+
+        Document next = null;
+        double lowestShare = Double.MAX_VALUE;
+
+        for (Map.Entry<String, Document> head : heads.entrySet()) {
+            Document user = users.get(head.getKey());
+            if (user == null || user.getInteger("worker_count", 0) <= 0) continue;
+
+            Object queueWeight = user.get("queue_weight");
+            double weight = queueWeight instanceof Number number ? Math.max(0.01, number.doubleValue()) : 1;
+            double share = userWorkers.getOrDefault(head.getKey(), 0) / weight;
+
+            // Heads are ordered by priority and age, so the first user wins ties.
+            if (share < lowestShare) {
+                lowestShare = share;
+                next = head.getValue();
+            }
+        }
+
+        return next;
+    }
+
+    private static void updateQueueLength() {
+        DUUIProcessMetrics.setQueueLength(DUUIMongoDBStorage
+            .Processses()
+            .countDocuments(queued()));
+    }
+
+    /**
+     * @return a filter matching processes that wait in the queue and have not been dispatched yet.
+     */
+    private static Bson queued() {
+        return Filters.and(
+            Filters.eq("status", DUUIStatus.WAITING),
+            Filters.exists("queue.dispatched_at"),
+            Filters.eq("queue.dispatched_at", null));
+    }
+
+    /**
+     * The workers reserved for a running process.
+     */
+    private record Reservation(String userId, int workers) {
+    }
+}
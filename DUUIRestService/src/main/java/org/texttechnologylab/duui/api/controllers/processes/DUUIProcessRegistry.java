@@ -0,0 +1,141 @@
+package org.texttechnologylab.duui.api.controllers.processes;
+
+import org.texttechnologylab.duui.analysis.process.IDUUIProcessHandler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread safe registry of the active processes with indexes by pipeline and by user.
+ * <p>
+ * Lookups by process, pipeline or user do not scan all processes. Iterating over the results is safe while
+ * handlers register and unregister, since all methods return snapshots.
+ */
+public class DUUIProcessRegistry {
+
+    private final Map<String, IDUUIProcessHandler> processes = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byPipeline = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byUser = new ConcurrentHashMap<>();
+
+    /**
+     * Add a process to the registry.
+     *
+     * @param processId The id of the process.
+     * @param handler   The handler running the process.
+     */
+    public void register(String processId, IDUUIProcessHandler handler) {
+        IDUUIProcessHandler previous = processes.put(processId, handler);
+        if (previous != null) unindex(processId, previous);
+
+        index(byPipeline, handler.getPipelineID(), processId);
+        index(byUser, handler.getUserID(), processId);
+    }
+
+    /**
+     * Remove a process from the registry.
+     *
+     * @param processId The id of the process.
+     * @return the handler of the process or null if the process was not registered.
+     */
+    public IDUUIProcessHandler unregister(String processId) {
+        IDUUIProcessHandler handler = processes.remove(processId);
+        if (handler != null) unindex(processId, handler);
+        return handler;
+    }
+
+    /**
+     * @param processId The id of the process.
+     * @return the handler of the process or null if the process is not active.
+     */
+    public IDUUIProcessHandler get(String processId) {
+        return processes.get(processId);
+    }
+
+    /**
+     * @return a snapshot of all active processes.
+     */
+    public List<IDUUIProcessHandler> getAll() {
+        return List.copyOf(processes.values());
+    }
+
+    /**
+     * @param pipelineId The id of the pipeline.
+     * @return a snapshot of the active processes using the pipeline.
+     */
+    public List<IDUUIProcessHandler> getByPipeline(String pipelineId) {
+        return resolve(byPipeline.get(pipelineId));
+    }
+
+    /**
+     * @param userId The id of the user.
+     * @return a snapshot of the active processes started by the user.
+     */
+    public List<IDUUIProcessHandler> getByUser(String userId) {
+        return resolve(byUser.get(userId));
+    }
+
+    /**
+     * @return the number of active processes.
+     */
+    public int size() {
+        return processes.size();
+    }
+
+    /**
+     * @return a snapshot of the number of active processes per pipeline.
+     */
+    public Map<String, Integer> countByPipeline() {
+        return count(byPipeline);
+    }
+
+    /**
+     * @return a snapshot of the number of active processes per user.
+     */
+    public Map<String, Integer> countByUser() {
+        return count(byUser);
+    }
+
+    private void unindex(String processId, IDUUIProcessHandler handler) {
+        unindex(byPipeline, handler.getPipelineID(), processId);
+        unindex(byUser, handler.getUserID(), processId);
+    }
+
+    private static void index(Map<String, Set<String>> index, String key, String processId) {
+        if (key == null) return;
+
+        // compute is atomic per key, so a concurrent removal of the last entry can not drop this one.
+        index.compute(key, (ignored, ids) -> {
+            if (ids == null) ids = ConcurrentHashMap.newKeySet();
+            ids.add(processId);
+            return ids;
+        });
+    }
+
+    private static void unindex(Map<String, Set<String>> index, String key, String processId) {
+        if (key == null) return;
+
+        index.computeIfPresent(key, (ignored, ids) -> {
+            ids.remove(processId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private List<IDUUIProcessHandler> resolve(Set<String> ids) {
+        if (ids == null) return List.of();
+
+        List<IDUUIProcessHandler> handlers = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            IDUUIProcessHandler handler = processes.get(id);
+            if (handler != null) handlers.add(handler);
+        }
+        return handlers;
+    }
+
+    private static Map<String, Integer> count(Map<String, Set<String>> index) {
+        Map<String, Integer> counts = new HashMap<>();
+        index.forEach((key, ids) -> {
+            if (!ids.isEmpty()) counts.put(key, ids.size());
+        });
+        return counts;
+    }
+}
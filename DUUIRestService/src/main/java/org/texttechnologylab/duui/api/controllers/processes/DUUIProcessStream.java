@@ -0,0 +1,107 @@
+package org.texttechnologylab.duui.api.controllers.processes;
+
+import org.bson.Document;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIHTTPMetrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Distributes the progress of active processes to subscribers, for example browser tabs connected
+ * through a web socket.
+ * <p>
+ * Process handlers publish deltas of their in-memory state on every update, but only if the process has
+ * subscribers. A subscriber first receives a snapshot of the process and then every delta published after
+ * the snapshot. Subscribers must not block in {@link Subscriber#offer(Document)}, since deltas are published
+ * while the handler holds its update lock.
+ */
+public class DUUIProcessStream {
+
+    public static final String SNAPSHOT = "snapshot";
+    public static final String DELTA = "delta";
+    public static final String CLOSED = "closed";
+
+    private static final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Receives the messages of the processes it has subscribed to.
+     */
+    public interface Subscriber {
+
+        /**
+         * Accept a snapshot, delta or closed message. Must return immediately.
+         *
+         * @param message The message containing the type and the process_id.
+         */
+        void offer(Document message);
+    }
+
+    /**
+     * Register a subscriber. Handlers call this method while holding their update lock after offering the
+     * snapshot, so that no delta is published between the snapshot and the registration.
+     *
+     * @param processId  The id of the process.
+     * @param subscriber The subscriber.
+     */
+    public static void subscribe(String processId, Subscriber subscriber) {
+        if (subscribers.computeIfAbsent(processId, key -> ConcurrentHashMap.newKeySet()).add(subscriber)) {
+            DUUIHTTPMetrics.incrementStreamSubscriptions();
+        }
+    }
+
+    /**
+     * @param processId  The id of the process.
+     * @param subscriber The subscriber.
+     */
+    public static void unsubscribe(String processId, Subscriber subscriber) {
+        subscribers.computeIfPresent(processId, (key, current) -> {
+            if (current.remove(subscriber)) DUUIHTTPMetrics.decrementStreamSubscriptions();
+            return current.isEmpty() ? null : current;
+        });
+    }
+
+    /**
+     * @param processId The id of the process.
+     * @return if anyone is subscribed to the process.
+     */
+    public static boolean hasSubscribers(String processId) {
+        Set<Subscriber> current = subscribers.get(processId);
+        return current != null && !current.isEmpty();
+    }
+
+    /**
+     * Offer a delta to all subscribers of a process.
+     *
+     * @param processId The id of the process.
+     * @param delta     The changes since the last delta.
+     */
+    public static void publish(String processId, Document delta) {
+        Set<Subscriber> current = subscribers.get(processId);
+        if (current == null) return;
+
+        delta.put("type", DELTA);
+        delta.put("process_id", processId);
+        current.forEach(subscriber -> subscriber.offer(delta));
+    }
+
+    /**
+     * Notify all subscribers that the process has finished and remove them.
+     *
+     * @param processId The id of the process.
+     * @param status    The final status of the process.
+     */
+    public static void close(String processId, String status) {
+        Set<Subscriber> current = subscribers.remove(processId);
+        if (current == null) return;
+
+        Document message = new Document("type", CLOSED)
+            .append("process_id", processId)
+            .append("status", status);
+
+        current.forEach(subscriber -> {
+            subscriber.offer(message);
+            DUUIHTTPMetrics.decrementStreamSubscriptions();
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package org.texttechnologylab.duui.api.controllers.users;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIHTTPMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of authenticated users keyed by session id or API key.
+ * <p>
+ * Entries expire after a fixed time and the least recently used entry is removed once the cache is full.
+ * Changes to a user that affect authentication must call {@link #invalidate(String)}, so that changed or
+ * deleted sessions and keys are not accepted until their entries expire. Only successful authentications
+ * are cached, so a new session or key is valid immediately.
+ */
+public class DUUIAuthenticationCache {
+
+    private static int capacity = 10_000;
+    private static long ttl = 30_000;
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    /**
+     * @param config The application config.
+     */
+    public static synchronized void init(Config config) {
+        capacity = config.getAuthCacheSize();
+        ttl = config.getAuthCacheTTL();
+        entries.clear();
+    }
+
+    /**
+     * Find the user authenticated by a session id or API key.
+     *
+     * @param authorization The session id or API key.
+     * @return a copy of the cached user or null if the authorization is not cached or has expired.
+     */
+    public static synchronized Document get(String authorization) {
+        Entry entry = entries.get(authorization);
+
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            if (entry != null) entries.remove(authorization);
+            DUUIHTTPMetrics.incrementAuthCacheMisses();
+            return null;
+        }
+
+        DUUIHTTPMetrics.incrementAuthCacheHits();
+        return new Document(entry.user);
+    }
+
+    /**
+     * Cache an authenticated user.
+     *
+     * @param authorization The session id or API key.
+     * @param user          The authenticated user.
+     */
+    public static synchronized void put(String authorization, Document user) {
+        if (ttl <= 0 || capacity <= 0) return;
+        entries.put(authorization, new Entry(new Document(user), System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Remove all cached entries of a user.
+     *
+     * @param userId The id of the user.
+     */
+    public static synchronized void invalidate(String userId) {
+        if (!ObjectId.isValid(userId)) return;
+
+        ObjectId id = new ObjectId(userId);
+        entries.values().removeIf(entry -> id.equals(entry.user.getObjectId("_id")));
+    }
+
+    private record Entry(Document user, long expiresAt) {
+    }
+}
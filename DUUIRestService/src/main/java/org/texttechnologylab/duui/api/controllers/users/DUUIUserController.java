@@ -251,6 +251,7 @@ public class DUUIUserController {
             .Users()
             .deleteOne(Filters.eq(new ObjectId(id)));
 
+        DUUIAuthenticationCache.invalidate(id);
         DUUIPipelineController.cascade(id);
 
         response.status(201);
@@ -330,6 +331,8 @@ public class DUUIUserController {
                     Updates.set("password_reset_token", null),
                     Updates.set("reset_token_expiration", null)));
 
+        DUUIAuthenticationCache.invalidate(user.getObjectId("_id").toHexString());
+
         return new Document("message", "Password has been updated")
             .append("email", user.getString("email")).toJson();
     }
@@ -418,6 +421,8 @@ public class DUUIUserController {
             .Users()
             .findOneAndUpdate(Filters.eq(new ObjectId(id)), updates);
 
+        DUUIAuthenticationCache.invalidate(id);
+
         Document user = DUUIUserController.getUserById(id, __updatedFields);
         DUUIMongoDBStorage.convertObjectIdToString(user);
         return new Document("user", user).toJson();
@@ -552,18 +557,21 @@ public class DUUIUserController {
             DbxAuthFinish finish = webAuth.finishFromCode(code, Main.config.getDropboxRedirectUrl());
             String accessToken = finish.getAccessToken();
             String refreshToken = finish.getRefreshToken();
+            String userId = getUserId(request);
             UpdateResult result = DUUIMongoDBStorage
                 .Users()
                 .updateOne(
-                    Filters.eq(new ObjectId(getUserId(request))),
+                    Filters.eq(new ObjectId(userId)),
                     Updates.combine(
                         Updates.set("connections.dropbox.access_token", accessToken),
                         Updates.set("connections.dropbox.refresh_token", refreshToken)
                     )
                 );
 
+            DUUIAuthenticationCache.invalidate(userId);
+
             if (result.getModifiedCount() == 1) {
-                return getUserById(getUserId(request)).toJson();
+                return getUserById(userId).toJson();
             }
 
             return notFound(response);
@@ -0,0 +1,209 @@
+package org.texttechnologylab.duui.api.controllers.users;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.texttechnologylab.duui.api.Config;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIProcessMetrics;
+import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Atomic accounting of the workers of a user.
+ * <p>
+ * Workers are taken from the worker_count of a user as a lease that is stored in the worker_leases array of
+ * the user: {process_id, count, expires_at}. Acquiring and releasing a lease are single conditional updates,
+ * so concurrent processes can never take more workers than a user has and a lease is never returned twice.
+ * <p>
+ * Leases held by this server are renewed periodically. Leases that have not been renewed before they expire,
+ * for example because the server crashed, are returned to their users by a background reaper.
+ */
+public class DUUIWorkerLeases {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final Map<String, String> heldLeases = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService maintenance;
+    private static long ttl = 60_000;
+
+    /**
+     * Start renewing held leases and reclaiming expired ones.
+     *
+     * @param config The application config.
+     */
+    public static synchronized void init(Config config) {
+        ttl = config.getWorkerLeaseTTL();
+
+        if (maintenance != null) maintenance.shutdownNow();
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "duui-worker-leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(1_000, ttl / 3);
+        maintenance.scheduleWithFixedDelay(DUUIWorkerLeases::maintain, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Take up to the requested number of workers from a user.
+     *
+     * @param userId    The id of the user.
+     * @param processId The id of the process the workers are used for.
+     * @param requested The number of workers requested.
+     * @return the number of workers granted. 0 if the user has no workers available.
+     */
+    public static int acquire(String userId, String processId, int requested) {
+        ObjectId id = new ObjectId(userId);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Document user = DUUIMongoDBStorage
+                .Users()
+                .find(Filters.eq(id))
+                .projection(Projections.include("worker_count"))
+                .first();
+
+            if (user == null) return 0;
+
+            int granted = Math.min(requested, user.getInteger("worker_count", 0));
+            if (granted <= 0) return 0;
+
+            Document lease = new Document("process_id", processId)
+                .append("count", granted)
+                .append("expires_at", Instant.now().toEpochMilli() + ttl);
+
+            Document updated = DUUIMongoDBStorage
+                .Users()
+                .findOneAndUpdate(
+                    Filters.and(
+                        Filters.eq(id),
+                        Filters.gte("worker_count", granted),
+                        Filters.ne("worker_leases.process_id", processId)),
+                    Updates.combine(
+                        Updates.inc("worker_count", -granted),
+                        Updates.push("worker_leases", lease)),
+                    new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+
+            if (updated != null) {
+                heldLeases.put(processId, userId);
+                DUUIProcessMetrics.incrementAcquiredWorkers(granted);
+                return granted;
+            }
+
+            // Another process changed the worker count in the meantime or the lease exists already.
+            Integer existing = getLeaseCount(id, processId);
+            if (existing != null) return existing;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Return the workers of a lease to the user. Calling this method more than once has no effect.
+     *
+     * @param userId    The id of the user.
+     * @param processId The id of the process that held the lease.
+     */
+    public static void release(String userId, String processId) {
+        heldLeases.remove(processId);
+        returnLease(new ObjectId(userId), processId, Filters.exists("expires_at"));
+    }
+
+    /**
+     * Return the workers of a lease if the lease matches the condition.
+     *
+     * @param id        The id of the user.
+     * @param processId The id of the process that held the lease.
+     * @param condition An additional condition on the lease.
+     * @return if the lease has been returned.
+     */
+    private static boolean returnLease(ObjectId id, String processId, Bson condition) {
+        Integer count = getLeaseCount(id, processId);
+        if (count == null) return false;
+
+        // Matching the count makes the increment and the removal a single atomic step.
+        boolean returned = DUUIMongoDBStorage
+            .Users()
+            .updateOne(
+                Filters.and(
+                    Filters.eq(id),
+                    Filters.elemMatch("worker_leases", Filters.and(
+                        Filters.eq("process_id", processId),
+                        Filters.eq("count", count),
+                        condition))),
+                Updates.combine(
+                    Updates.inc("worker_count", count),
+                    Updates.pull("worker_leases", new Document("process_id", processId))))
+            .getModifiedCount() > 0;
+
+        if (returned) DUUIProcessMetrics.incrementReturnedWorkers(count);
+        return returned;
+    }
+
+    private static Integer getLeaseCount(ObjectId id, String processId) {
+        Document user = DUUIMongoDBStorage
+            .Users()
+            .find(Filters.and(Filters.eq(id), Filters.eq("worker_leases.process_id", processId)))
+            .projection(Projections.elemMatch("worker_leases", Filters.eq("process_id", processId)))
+            .first();
+
+        if (user == null) return null;
+
+        List<Document> leases = user.getList("worker_leases", Document.class);
+        if (leases == null || leases.isEmpty()) return null;
+        return leases.get(0).getInteger("count");
+    }
+
+    /**
+     * Extend the leases held by this server and return expired leases of other processes.
+     */
+    private static void maintain() {
+        try {
+            long now = Instant.now().toEpochMilli();
+
+            heldLeases.forEach((processId, userId) -> DUUIMongoDBStorage
+                .Users()
+                .updateOne(
+                    Filters.and(
+                        Filters.eq(new ObjectId(userId)),
+                        Filters.eq("worker_leases.process_id", processId)),
+                    Updates.set("worker_leases.$.expires_at", now + ttl)));
+
+            DUUIMongoDBStorage
+                .Users()
+                .find(Filters.lt("worker_leases.expires_at", now))
+                .projection(Projections.include("worker_leases"))
+                .forEach(user -> {
+                    for (Document lease : user.getList("worker_leases", Document.class)) {
+                        String processId = lease.getString("process_id");
+                        if (heldLeases.containsKey(processId) || lease.getLong("expires_at") >= now) continue;
+
+                        if (returnLease(user.getObjectId("_id"), processId, Filters.lt("expires_at", now))) {
+                            DUUIProcessMetrics.incrementReclaimedLeases();
+                        }
+                    }
+                });
+        } catch (Exception exception) {
+            System.err.printf("Maintaining worker leases failed: %s%n", exception.getMessage());
+        }
+    }
+
+    /**
+     * Stop renewing leases. Held leases are not returned, so they expire unless they are released.
+     */
+    public static synchronized void shutdown() {
+        if (maintenance != null) maintenance.shutdownNow();
+    }
+}
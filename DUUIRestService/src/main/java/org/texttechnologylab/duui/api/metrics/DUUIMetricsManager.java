@@ -23,6 +23,7 @@ public class DUUIMetricsManager {
         DUUIProcessMetrics.register();
         DUUISystemMetrics.register();
         DUUIStorageMetrics.register();
+        DUUIProcessRegistryMetrics.register();
     }
 
     /**
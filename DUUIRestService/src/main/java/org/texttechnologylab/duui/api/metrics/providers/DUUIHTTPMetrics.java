@@ -35,6 +35,47 @@ public class DUUIHTTPMetrics {
     private static final Counter requestsComponents = makeRouteCounter("components");
     private static final Counter requestsUsers = makeRouteCounter("users");
 
+    private static final Counter authCacheRequests = Counter.build()
+        .name("duui_auth_cache_requests_total")
+        .help("The total number of authentication cache lookups")
+        .labelNames("result")
+        .register();
+
+    private static final Gauge streamConnections = Gauge.build()
+        .name("duui_process_stream_connections")
+        .help("The number of open process stream connections")
+        .register();
+
+    private static final Gauge streamSubscriptions = Gauge.build()
+        .name("duui_process_stream_subscriptions")
+        .help("The number of processes watched through process stream connections")
+        .register();
+
+    private static final Counter streamMessagesSent = Counter.build()
+        .name("duui_process_stream_messages_sent_total")
+        .help("The number of messages sent to process stream connections")
+        .register();
+
+    private static final Counter streamMessagesMerged = Counter.build()
+        .name("duui_process_stream_messages_merged_total")
+        .help("The number of messages merged into a pending message because the connection was busy")
+        .register();
+
+    private static final Counter uploadsRejected = Counter.build()
+        .name("duui_uploads_rejected_total")
+        .help("The number of uploads rejected because a size limit or quota was exceeded")
+        .register();
+
+    private static final Counter filesDownloaded = Counter.build()
+        .name("duui_files_downloaded_total")
+        .help("The number of files and archives downloaded")
+        .register();
+
+    private static final Counter totalBytesDownloaded = Counter.build()
+        .name("duui_bytes_downloaded_total")
+        .help("The total amount of bytes downloaded")
+        .register();
+
     public static void register() {
     }
 
@@ -80,4 +121,48 @@ public class DUUIHTTPMetrics {
             .help(String.format("The number of requests to /%s", route))
             .register();
     }
+
+    public static void incrementAuthCacheHits() {
+        authCacheRequests.labels("hit").inc();
+    }
+
+    public static void incrementAuthCacheMisses() {
+        authCacheRequests.labels("miss").inc();
+    }
+
+    public static void incrementStreamConnections() {
+        streamConnections.inc();
+    }
+
+    public static void decrementStreamConnections() {
+        streamConnections.dec();
+    }
+
+    public static void incrementStreamSubscriptions() {
+        streamSubscriptions.inc();
+    }
+
+    public static void decrementStreamSubscriptions() {
+        streamSubscriptions.dec();
+    }
+
+    public static void incrementStreamMessagesSent() {
+        streamMessagesSent.inc();
+    }
+
+    public static void incrementStreamMessagesMerged() {
+        streamMessagesMerged.inc();
+    }
+
+    public static void incrementUploadsRejected() {
+        uploadsRejected.inc();
+    }
+
+    public static void incrementFilesDownloaded() {
+        filesDownloaded.inc();
+    }
+
+    public static void incrementBytesDownloaded(double amount) {
+        totalBytesDownloaded.inc(amount);
+    }
 }
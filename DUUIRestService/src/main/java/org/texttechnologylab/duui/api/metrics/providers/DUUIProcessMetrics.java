@@ -2,6 +2,7 @@ package org.texttechnologylab.duui.api.metrics.providers;
 
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 
 /**
  * A class containing process related metrics and means to update them.
@@ -40,6 +41,103 @@ public class DUUIProcessMetrics {
         .help("The toal number of errors during processing")
         .register();
 
+    private static final Gauge scheduledUpdaters = Gauge.build()
+        .name("duui_process_updaters_scheduled")
+        .help("The number of processes with scheduled periodic updates")
+        .register();
+
+    private static final Counter processUpdates = Counter.build()
+        .name("duui_process_updates_total")
+        .help("The total number of periodic process updates")
+        .labelNames("active")
+        .register();
+
+    private static final Histogram processUpdateLag = Histogram.build()
+        .name("duui_process_update_lag_seconds")
+        .help("The delay between the time a periodic process update was due and the time it started")
+        .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+        .register();
+
+    private static final Gauge queuedProcesses = Gauge.build()
+        .name("duui_processes_queued")
+        .help("The number of processes waiting for the executor")
+        .register();
+
+    private static final Gauge runningProcesses = Gauge.build()
+        .name("duui_processes_running")
+        .help("The number of processes running on the executor")
+        .register();
+
+    private static final Histogram lifecyclePhases = Histogram.build()
+        .name("duui_process_phase_duration_seconds")
+        .help("The duration of the phases of a process lifecycle")
+        .labelNames("phase")
+        .buckets(0.1, 1, 10, 60, 300, 1800, 3600)
+        .register();
+
+    private static final Gauge queueLength = Gauge.build()
+        .name("duui_process_queue_length")
+        .help("The number of processes waiting for workers")
+        .register();
+
+    private static final Gauge workerBudget = Gauge.build()
+        .name("duui_worker_budget")
+        .help("The number of workers that may run at the same time")
+        .register();
+
+    private static final Gauge workersReserved = Gauge.build()
+        .name("duui_workers_reserved")
+        .help("The number of workers reserved by dispatched processes")
+        .register();
+
+    private static final Counter acquiredWorkers = Counter.build()
+        .name("duui_workers_acquired_total")
+        .help("The total number of workers taken from users by leases")
+        .register();
+
+    private static final Counter returnedWorkers = Counter.build()
+        .name("duui_workers_returned_total")
+        .help("The total number of workers returned to users by released or expired leases")
+        .register();
+
+    private static final Counter reclaimedLeases = Counter.build()
+        .name("duui_worker_leases_reclaimed_total")
+        .help("The total number of expired worker leases that have been reclaimed")
+        .register();
+
+    private static final Counter pipelinePoolRequests = Counter.build()
+        .name("duui_pipeline_pool_requests_total")
+        .help("The total number of processes looking for an instantiated pipeline")
+        .labelNames("result")
+        .register();
+
+    private static final Counter pipelinePoolEvictions = Counter.build()
+        .name("duui_pipeline_pool_evictions_total")
+        .help("The total number of pipelines shut down by the warm pool")
+        .labelNames("reason")
+        .register();
+
+    private static final Gauge pipelinePoolSize = Gauge.build()
+        .name("duui_pipeline_pool_size")
+        .help("The number of instantiated pipelines in the warm pool")
+        .register();
+
+    private static final Gauge pipelinePoolContainers = Gauge.build()
+        .name("duui_pipeline_pool_containers")
+        .help("The number of containers counted against the warm pool budget")
+        .register();
+
+    private static final Gauge pipelineSlots = Gauge.build()
+        .name("duui_pipeline_slots_in_use")
+        .help("The number of worker slots taken from shared pipelines")
+        .register();
+
+    private static final Histogram pipelineSlotWait = Histogram.build()
+        .name("duui_pipeline_slot_wait_seconds")
+        .help("The time processes wait for a slot of a shared pipeline")
+        .buckets(0.01, 0.1, 1, 10, 60, 300, 1800)
+        .register();
+
     public static void register() {
     }
 
@@ -78,5 +176,92 @@ public class DUUIProcessMetrics {
     public static void incrementErrorCount(double amount) {
         errorCount.inc(amount);
     }
-}
 
+    public static void incrementScheduledUpdaters() {
+        scheduledUpdaters.inc();
+    }
+
+    public static void decrementScheduledUpdaters() {
+        scheduledUpdaters.dec();
+    }
+
+    public static void incrementUpdates(boolean active) {
+        processUpdates.labels(String.valueOf(active)).inc();
+    }
+
+    public static void observeUpdateLag(double seconds) {
+        processUpdateLag.observe(seconds);
+    }
+
+    public static void incrementQueuedProcesses() {
+        queuedProcesses.inc();
+    }
+
+    public static void decrementQueuedProcesses() {
+        queuedProcesses.dec();
+    }
+
+    public static void incrementRunningProcesses() {
+        runningProcesses.inc();
+    }
+
+    public static void decrementRunningProcesses() {
+        runningProcesses.dec();
+    }
+
+    public static void observeLifecyclePhase(String phase, double seconds) {
+        lifecyclePhases.labels(phase).observe(seconds);
+    }
+
+    public static void setQueueLength(double length) {
+        queueLength.set(length);
+    }
+
+    public static void setWorkerBudget(double budget) {
+        workerBudget.set(budget);
+    }
+
+    public static void setWorkersReserved(double workers) {
+        workersReserved.set(workers);
+    }
+
+    public static void incrementAcquiredWorkers(double amount) {
+        acquiredWorkers.inc(amount);
+    }
+
+    public static void incrementReturnedWorkers(double amount) {
+        returnedWorkers.inc(amount);
+    }
+
+    public static void incrementReclaimedLeases() {
+        reclaimedLeases.inc();
+    }
+
+    public static void incrementPipelinePoolRequests(boolean hit) {
+        pipelinePoolRequests.labels(hit ? "hit" : "miss").inc();
+    }
+
+    public static void incrementPipelinePoolEvictions(String reason) {
+        pipelinePoolEvictions.labels(reason).inc();
+    }
+
+    public static void setPipelinePoolSize(double size) {
+        pipelinePoolSize.set(size);
+    }
+
+    public static void setPipelinePoolContainers(double containers) {
+        pipelinePoolContainers.set(containers);
+    }
+
+    public static void incrementPipelineSlots(double amount) {
+        pipelineSlots.inc(amount);
+    }
+
+    public static void decrementPipelineSlots(double amount) {
+        pipelineSlots.dec(amount);
+    }
+
+    public static void observePipelineSlotWait(double seconds) {
+        pipelineSlotWait.observe(seconds);
+    }
+}
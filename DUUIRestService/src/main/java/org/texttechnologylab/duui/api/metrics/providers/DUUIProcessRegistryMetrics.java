@@ -0,0 +1,48 @@
+package org.texttechnologylab.duui.api.metrics.providers;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessRegistry;
+
+import java.util.List;
+
+/**
+ * Exports a snapshot of the active process registry every time metrics are scraped.
+ */
+public class DUUIProcessRegistryMetrics {
+
+    private static final Collector collector = new Collector() {
+        @Override
+        public List<MetricFamilySamples> collect() {
+            return snapshot();
+        }
+    };
+
+    private static boolean registered = false;
+
+    public static synchronized void register() {
+        if (registered) return;
+
+        collector.register();
+        registered = true;
+    }
+
+    private static List<Collector.MetricFamilySamples> snapshot() {
+        DUUIProcessRegistry registry = DUUIProcessController.getRegistry();
+
+        GaugeMetricFamily byUser = new GaugeMetricFamily(
+            "duui_processes_active_by_user",
+            "The number of active processes per user",
+            List.of("user_id"));
+        registry.countByUser().forEach((user, count) -> byUser.addMetric(List.of(user), count));
+
+        GaugeMetricFamily byPipeline = new GaugeMetricFamily(
+            "duui_processes_active_by_pipeline",
+            "The number of active processes per pipeline",
+            List.of("pipeline_id"));
+        registry.countByPipeline().forEach((pipeline, count) -> byPipeline.addMetric(List.of(pipeline), count));
+
+        return List.of(byUser, byPipeline);
+    }
+}
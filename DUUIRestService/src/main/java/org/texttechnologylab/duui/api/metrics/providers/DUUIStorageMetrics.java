@@ -1,6 +1,8 @@
 package org.texttechnologylab.duui.api.metrics.providers;
 
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 
 /**
  * A class containing database related metrics and means to update them.
@@ -16,6 +18,128 @@ public class DUUIStorageMetrics {
     private static final Counter collectionEvents = makeCollectionCounter("events");
     private static final Counter collectionUsers = makeCollectionCounter("users");
 
+    private static final Counter documentSyncWritten = Counter.build()
+        .name("duui_document_sync_written_total")
+        .help("The number of documents written because their state changed")
+        .register();
+
+    private static final Counter documentSyncSkipped = Counter.build()
+        .name("duui_document_sync_skipped_total")
+        .help("The number of document writes skipped because their state did not change")
+        .register();
+
+    private static final Counter bulkWrites = Counter.build()
+        .name("duui_bulk_writes_total")
+        .help("The number of bulk writes sent to the database")
+        .labelNames("writer")
+        .register();
+
+    private static final Counter bulkWriteModels = Counter.build()
+        .name("duui_bulk_write_models_total")
+        .help("The number of write operations sent to the database in bulk writes")
+        .labelNames("writer")
+        .register();
+
+    private static final Counter bulkWriteFailures = Counter.build()
+        .name("duui_bulk_write_failures_total")
+        .help("The number of failed bulk writes")
+        .labelNames("writer")
+        .register();
+
+    private static final Counter bulkWriteDropped = Counter.build()
+        .name("duui_bulk_write_dropped_total")
+        .help("The number of write operations dropped because they failed with a permanent error")
+        .labelNames("writer")
+        .register();
+
+    private static final Gauge bulkWritePending = Gauge.build()
+        .name("duui_bulk_write_pending")
+        .help("The number of write operations waiting to be written by an asynchronous bulk writer")
+        .labelNames("writer")
+        .register();
+
+    private static final Gauge eventsBuffered = Gauge.build()
+        .name("duui_events_buffered")
+        .help("The number of events waiting to be inserted")
+        .register();
+
+    private static final Counter eventsDropped = Counter.build()
+        .name("duui_events_dropped_total")
+        .help("The number of events dropped because the event buffer was full")
+        .register();
+
+    private static final Counter eventsFlushed = Counter.build()
+        .name("duui_events_flushed_total")
+        .help("The number of events inserted from the event buffer")
+        .register();
+
+    private static final Counter indexChanges = Counter.build()
+        .name("duui_index_changes_total")
+        .help("The number of indexes created or dropped while reconciling the declared indexes")
+        .labelNames("action")
+        .register();
+
+    private static final Gauge collectionScans = Gauge.build()
+        .name("duui_query_collection_scan")
+        .help("1 if the query plan of a controller query contains a collection scan, 0 otherwise")
+        .labelNames("query")
+        .register();
+
+    private static final Gauge mongoPoolConnections = Gauge.build()
+        .name("duui_mongo_pool_connections")
+        .help("The number of open connections in the MongoDB connection pool")
+        .register();
+
+    private static final Gauge mongoPoolCheckedOut = Gauge.build()
+        .name("duui_mongo_pool_connections_checked_out")
+        .help("The number of connections in use")
+        .register();
+
+    private static final Gauge mongoPoolMaximumSize = Gauge.build()
+        .name("duui_mongo_pool_max_size")
+        .help("The maximum number of connections in the MongoDB connection pool")
+        .register();
+
+    private static final Gauge mongoPoolWaiting = Gauge.build()
+        .name("duui_mongo_pool_waiting")
+        .help("The number of operations waiting for a connection")
+        .register();
+
+    private static final Histogram mongoPoolCheckOut = Histogram.build()
+        .name("duui_mongo_pool_checkout_seconds")
+        .help("The time operations wait for a connection")
+        .buckets(0.0001, 0.001, 0.01, 0.05, 0.1, 0.5, 1, 5, 30)
+        .register();
+
+    private static final Counter mongoPoolCheckOutFailures = Counter.build()
+        .name("duui_mongo_pool_checkout_failures_total")
+        .help("The number of failed attempts to get a connection")
+        .labelNames("reason")
+        .register();
+
+    private static final Counter pipelineCacheRequests = Counter.build()
+        .name("duui_pipeline_cache_requests_total")
+        .help("The number of pipeline lookups answered by the pipeline cache (hit) or the database (miss)")
+        .labelNames("result")
+        .register();
+
+    private static final Gauge pipelineCacheSize = Gauge.build()
+        .name("duui_pipeline_cache_size")
+        .help("The number of pipelines in the pipeline cache")
+        .register();
+
+    private static final Counter pipelineStatisticsUpdates = Counter.build()
+        .name("duui_pipeline_statistics_updates_total")
+        .help("The number of updates to the pipeline statistics by operation (record, forget or rebuild)")
+        .labelNames("operation")
+        .register();
+
+    private static final Counter storageOperations = Counter.build()
+        .name("duui_storage_operations_total")
+        .help("The number of operations sent to the storage engine by collection and operation")
+        .labelNames("collection", "operation")
+        .register();
+
     private static Counter makeCollectionCounter(String collection) {
         return Counter.build()
             .name(String.format("duui_%s_crud_operations_total", collection))
@@ -49,4 +173,101 @@ public class DUUIStorageMetrics {
     public static void incrementUsersCounter() {
         collectionUsers.inc();
     }
+
+    public static void incrementDocumentSyncWritten(double amount) {
+        documentSyncWritten.inc(amount);
+    }
+
+    public static void incrementDocumentSyncSkipped(double amount) {
+        documentSyncSkipped.inc(amount);
+    }
+
+    public static void incrementBulkWrites(String writer, double models) {
+        bulkWrites.labels(writer).inc();
+        bulkWriteModels.labels(writer).inc(models);
+    }
+
+    public static void incrementBulkWriteFailures(String writer) {
+        bulkWriteFailures.labels(writer).inc();
+    }
+
+    public static void incrementBulkWriteDropped(String writer, double models) {
+        bulkWriteDropped.labels(writer).inc(models);
+    }
+
+    public static void setBulkWritePending(String writer, double pending) {
+        bulkWritePending.labels(writer).set(pending);
+    }
+
+    public static void setEventsBuffered(double buffered) {
+        eventsBuffered.set(buffered);
+    }
+
+    public static void incrementEventsDropped(double amount) {
+        eventsDropped.inc(amount);
+    }
+
+    public static void incrementEventsFlushed(double amount) {
+        eventsFlushed.inc(amount);
+    }
+
+    public static void incrementIndexChanges(String action) {
+        indexChanges.labels(action).inc();
+    }
+
+    public static void setCollectionScan(String query, boolean scan) {
+        collectionScans.labels(query).set(scan ? 1 : 0);
+    }
+
+    public static void incrementMongoPoolConnections() {
+        mongoPoolConnections.inc();
+    }
+
+    public static void decrementMongoPoolConnections() {
+        mongoPoolConnections.dec();
+    }
+
+    public static void incrementMongoPoolCheckedOut() {
+        mongoPoolCheckedOut.inc();
+    }
+
+    public static void decrementMongoPoolCheckedOut() {
+        mongoPoolCheckedOut.dec();
+    }
+
+    public static void setMongoPoolMaximumSize(int size) {
+        mongoPoolMaximumSize.set(size);
+    }
+
+    public static void setMongoPoolWaiting(int waiting) {
+        mongoPoolWaiting.set(waiting);
+    }
+
+    public static void observeMongoPoolCheckOut(double seconds) {
+        mongoPoolCheckOut.observe(seconds);
+    }
+
+    public static void incrementMongoPoolCheckOutFailures(String reason) {
+        mongoPoolCheckOutFailures.labels(reason).inc();
+    }
+
+    public static void incrementPipelineCacheHits() {
+        pipelineCacheRequests.labels("hit").inc();
+    }
+
+    public static void incrementPipelineCacheMisses() {
+        pipelineCacheRequests.labels("miss").inc();
+    }
+
+    public static void setPipelineCacheSize(int size) {
+        pipelineCacheSize.set(size);
+    }
+
+    public static void incrementPipelineStatisticsUpdates(String operation) {
+        pipelineStatisticsUpdates.labels(operation).inc();
+    }
+
+    public static void incrementStorageOperations(String collection, String operation) {
+        storageOperations.labels(collection, operation).inc();
+    }
 }
@@ -1,5 +1,6 @@
 package org.texttechnologylab.duui.api.routes;
 
+import org.texttechnologylab.duui.api.controllers.users.DUUIAuthenticationCache;
 import org.texttechnologylab.duui.api.controllers.users.DUUIUserController;
 import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
 import org.bson.Document;
@@ -86,7 +87,7 @@ public class DUUIRequestHelper {
     public static boolean isAuthorized(Request request) {
         String key = request.headers("Authorization");
         if (key == null) return false;
-        return validateSession(key) || validateApiKey(key);
+        return !isNullOrEmpty(authenticate(key));
     }
 
     /**
@@ -166,6 +167,22 @@ public class DUUIRequestHelper {
         return Integer.parseInt(request.queryParamOrDefault("skip", "0"));
     }
 
+    /**
+     * @param request A spark requests object.
+     * @return the value of the `cursor` query parameter or null.
+     */
+    public static String getCursor(Request request) {
+        return request.queryParamOrDefault("cursor", null);
+    }
+
+    /**
+     * @param request A spark requests object.
+     * @return false if the `count` query parameter is false, otherwise true.
+     */
+    public static boolean getCount(Request request) {
+        return !"false".equalsIgnoreCase(request.queryParamOrDefault("count", "true"));
+    }
+
     /**
      * @param request      A spark requests object.
      * @param defaultValue The default field name to sort by.
@@ -235,11 +252,15 @@ public class DUUIRequestHelper {
     public static Document authenticate(String authorization) {
         if (isNullOrEmpty(authorization)) return null;
 
-        Document user = DUUIUserController.matchApiKey(authorization);
+        Document user = DUUIAuthenticationCache.get(authorization);
+        if (user != null) return user;
+
+        user = DUUIUserController.matchApiKey(authorization);
         if (isNullOrEmpty(user)) {
             user = DUUIUserController.matchSession(authorization);
         }
 
+        if (!isNullOrEmpty(user)) DUUIAuthenticationCache.put(authorization, user);
         return user;
     }
 
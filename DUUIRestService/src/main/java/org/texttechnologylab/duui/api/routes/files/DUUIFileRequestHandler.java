@@ -0,0 +1,298 @@
+package org.texttechnologylab.duui.api.routes.files;
+
+import com.dropbox.core.DbxException;
+import org.bson.Document;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.IDUUIDocumentHandler;
+import org.texttechnologylab.duui.analysis.document.Provider;
+import org.texttechnologylab.duui.api.controllers.files.DUUIDownloadController;
+import org.texttechnologylab.duui.api.controllers.files.DUUIUploadController;
+import org.texttechnologylab.duui.api.controllers.files.RangeNotSatisfiableException;
+import org.texttechnologylab.duui.api.controllers.files.UploadLimitException;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIHTTPMetrics;
+import org.texttechnologylab.duui.api.routes.DUUIRequestHelper;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * A class that is responsible for handling incoming requests to the /files path group.
+ * <p>
+ * Files can be uploaded in a single multipart request (POST /files) or in chunks. A chunked upload is
+ * created with POST /files/uploads, every file is sent in one or more PUT /files/uploads/:id requests
+ * containing the raw bytes at the given offset and the upload is finished with
+ * POST /files/uploads/:id/complete. After a connection loss GET /files/uploads/:id returns the sizes the
+ * server has received, so the client can continue from there.
+ */
+public class DUUIFileRequestHandler {
+
+    /**
+     * Upload one or multiple files to the specified UPLOAD_DIRECTORY path in the config file. Files are stored
+     * under UPLOAD_DIRECTORY/uuid. Parts larger than {@link DUUIUploadController#MULTIPART_THRESHOLD} are
+     * buffered in a temporary directory instead of in memory and copied into the upload.
+     *
+     * @return a JSON Document containing the path to parent folder (uuid).
+     */
+    public static String uploadFile(Request request, Response response) throws IOException, DbxException {
+        String userId = authenticate(request);
+        if (userId == null) return DUUIRequestHelper.unauthorized(response);
+
+        try {
+            DUUIUploadController.checkRequest(userId, request.raw().getContentLengthLong());
+        } catch (UploadLimitException exception) {
+            return tooLarge(response, exception);
+        }
+
+        request.attribute(
+            "org.eclipse.jetty.multipartConfig",
+            new MultipartConfigElement(
+                DUUIUploadController.getTemporaryDirectory().toString(),
+                DUUIUploadController.getMaximumFileSize(),
+                DUUIUploadController.getMaximumRequestSize(),
+                DUUIUploadController.MULTIPART_THRESHOLD)
+        );
+
+        Collection<Part> parts;
+        try {
+            parts = request.raw().getParts();
+        } catch (IllegalStateException exception) {
+            DUUIHTTPMetrics.incrementUploadsRejected();
+            response.status(413);
+            return "The request exceeds the maximum size.";
+        } catch (ServletException exception) {
+            return DUUIRequestHelper.badRequest(response, "The request is not a multipart request.");
+        }
+
+        if (parts.isEmpty()) return DUUIRequestHelper.notFound(response);
+
+        DUUIUploadController.Upload upload = DUUIUploadController.create(userId);
+
+        try {
+            for (Part part : parts) {
+                if (!part.getName().equals("file")) continue;
+
+                try (InputStream input = part.getInputStream()) {
+                    DUUIUploadController.add(upload, part.getSubmittedFileName(), input, part.getSize());
+                }
+            }
+
+            DUUIUploadController.complete(upload, getHandler(request, userId), request.queryParamOrDefault("path", ""));
+        } catch (UploadLimitException exception) {
+            DUUIUploadController.delete(upload);
+            return tooLarge(response, exception);
+        } catch (IOException exception) {
+            DUUIUploadController.delete(upload);
+            response.status(500);
+            return "Failed to upload file " + exception;
+        } finally {
+            for (Part part : parts) part.delete();
+        }
+
+        response.status(200);
+        return new Document("path", upload.getRoot().toString()).toJson();
+    }
+
+    /**
+     * Create a chunked upload.
+     *
+     * @return a JSON Document containing the id of the upload and the path to its folder.
+     */
+    public static String createUpload(Request request, Response response) throws IOException {
+        String userId = authenticate(request);
+        if (userId == null) return DUUIRequestHelper.unauthorized(response);
+
+        DUUIUploadController.Upload upload = DUUIUploadController.create(userId);
+
+        response.status(201);
+        return new Document("id", upload.getId())
+            .append("path", upload.getRoot().toString())
+            .toJson();
+    }
+
+    /**
+     * Retrieve the files of a chunked upload and their sizes to resume an interrupted upload.
+     *
+     * @return a JSON Document containing the sizes of the files by name.
+     */
+    public static String findUpload(Request request, Response response) throws IOException {
+        String userId = authenticate(request);
+        if (userId == null) return DUUIRequestHelper.unauthorized(response);
+
+        DUUIUploadController.Upload upload = DUUIUploadController.get(request.params(":id"), userId);
+        if (upload == null) return DUUIRequestHelper.notFound(response);
+
+        response.status(200);
+        return new Document("id", upload.getId())
+            .append("path", upload.getRoot().toString())
+            .append("completed", upload.isCompleted())
+            .append("files", new Document(new LinkedHashMap<>(upload.getSizes())))
+            .toJson();
+    }
+
+    /**
+     * Append the body of the request to a file of a chunked upload. The query parameters name and offset
+     * specify the file and the position of the chunk. If the offset does not match the size of the file on
+     * the server, a 409 - Conflict containing the expected offset is returned.
+     *
+     * @return a JSON Document containing the size of the file.
+     */
+    public static String uploadChunk(Request request, Response response) throws IOException {
+        String userId = authenticate(request);
+        if (userId == null) return DUUIRequestHelper.unauthorized(response);
+
+        DUUIUploadController.Upload upload = DUUIUploadController.get(request.params(":id"), userId);
+        if (upload == null) return DUUIRequestHelper.notFound(response);
+        if (upload.isCompleted()) return DUUIRequestHelper.badRequest(response, "The upload has been completed.");
+
+        String name = request.queryParamOrDefault("name", null);
+        if (DUUIRequestHelper.isNullOrEmpty(name)) return DUUIRequestHelper.missingField(response, "name");
+
+        long offset;
+        try {
+            offset = Long.parseLong(request.queryParamOrDefault("offset", "0"));
+        } catch (NumberFormatException exception) {
+            return DUUIRequestHelper.badRequest(response, "The offset must be a number.");
+        }
+
+        try (InputStream input = request.raw().getInputStream()) {
+            DUUIUploadController.checkRequest(userId, request.raw().getContentLengthLong());
+
+            DUUIUploadController.Chunk chunk = DUUIUploadController.append(upload, name, offset, input);
+
+            response.status(chunk.appended() ? 200 : 409);
+            return new Document("name", name).append("size", chunk.size()).toJson();
+        } catch (UploadLimitException exception) {
+            return tooLarge(response, exception);
+        } catch (IllegalStateException exception) {
+            response.status(409);
+            return exception.getMessage();
+        } catch (IOException exception) {
+            return DUUIRequestHelper.badRequest(response, exception.getMessage());
+        }
+    }
+
+    /**
+     * Complete a chunked upload. If store is true, the files are written to the provider and path given in
+     * the query parameters.
+     *
+     * @return a JSON Document containing the path to the folder of the upload.
+     */
+    public static String completeUpload(Request request, Response response) throws IOException, DbxException {
+        String userId = authenticate(request);
+        if (userId == null) return DUUIRequestHelper.unauthorized(response);
+
+        DUUIUploadController.Upload upload = DUUIUploadController.get(request.params(":id"), userId);
+        if (upload == null) return DUUIRequestHelper.notFound(response);
+
+        try {
+            DUUIUploadController.complete(upload, getHandler(request, userId), request.queryParamOrDefault("path", ""));
+        } catch (IllegalStateException exception) {
+            response.status(409);
+            return exception.getMessage();
+        } catch (IOException exception) {
+            response.status(500);
+            return "Failed to store the uploaded files " + exception;
+        }
+
+        response.status(200);
+        return new Document("path", upload.getRoot().toString()).toJson();
+    }
+
+    /**
+     * Delete a chunked upload and its files.
+     *
+     * @return a response containing the success status.
+     */
+    public static String deleteUpload(Request request, Response response) throws IOException {
+        String userId = authenticate(request);
+        if (userId == null) return DUUIRequestHelper.unauthorized(response);
+
+        DUUIUploadController.Upload upload = DUUIUploadController.get(request.params(":id"), userId);
+        if (upload == null) return DUUIRequestHelper.notFound(response);
+
+        DUUIUploadController.delete(upload);
+        response.status(200);
+        return "Deleted";
+    }
+
+    /**
+     * Download a file given a cloud provider and a path. Local files are streamed from disk, documents of
+     * cloud providers are streamed after they have been read by the handler.
+     * See {@link DUUIDownloadController#streamFile}
+     *
+     * @return a response containing the file content as bytes.
+     */
+    public static String downloadFile(Request request, Response response) {
+        String userId = authenticate(request);
+        if (userId == null) return DUUIRequestHelper.unauthorized(response);
+
+        String provider = request.queryParamOrDefault("provider", null);
+        String path = request.queryParamOrDefault("path", null);
+
+        if (DUUIRequestHelper.isNullOrEmpty(provider))
+            return DUUIRequestHelper.badRequest(response, "Missing provider in query params.");
+        if (DUUIRequestHelper.isNullOrEmpty(path))
+            return DUUIRequestHelper.badRequest(response, "Missing path in query params.");
+
+        try {
+            if (provider.equalsIgnoreCase(Provider.FILE)) {
+                Path file = Paths.get(path);
+                if (!Files.isRegularFile(file)) return DUUIRequestHelper.notFound(response);
+
+                DUUIDownloadController.streamFile(file, request.raw(), response.raw());
+                return "";
+            }
+
+            IDUUIDocumentHandler handler = DUUIProcessController.getHandler(provider, userId);
+            if (handler == null) return DUUIRequestHelper.notFound(response);
+
+            DUUIDocument document = handler.readDocument(path);
+            if (document == null) return DUUIRequestHelper.notFound(response);
+
+            DUUIDownloadController.streamDocument(document, request.raw(), response.raw());
+            return "";
+        } catch (RangeNotSatisfiableException exception) {
+            return exception.getMessage();
+        } catch (DbxException | IOException e) {
+            if (response.raw().isCommitted()) return "";
+
+            response.status(500);
+            return "The file could not be downloaded.";
+        }
+    }
+
+    /**
+     * @return the id of the authenticated user or null.
+     */
+    private static String authenticate(Request request) {
+        Document user = DUUIRequestHelper.authenticate(request.headers("Authorization"));
+        return DUUIRequestHelper.isNullOrEmpty(user) ? null : user.getObjectId("_id").toString();
+    }
+
+    /**
+     * @return the handler of the provider in the query parameters if the files should be stored or null.
+     */
+    private static IDUUIDocumentHandler getHandler(Request request, String userId) throws DbxException {
+        boolean storeFiles = request.queryParamOrDefault("store", "false").equals("true");
+        if (!storeFiles) return null;
+
+        return DUUIProcessController.getHandler(request.queryParamOrDefault("provider", ""), userId);
+    }
+
+    private static String tooLarge(Response response, UploadLimitException exception) {
+        DUUIHTTPMetrics.incrementUploadsRejected();
+        response.status(413);
+        return exception.getMessage();
+    }
+}
@@ -1,7 +1,9 @@
 package org.texttechnologylab.duui.api.routes.pipelines;
 
 import org.texttechnologylab.duui.api.controllers.components.DUUIComponentController;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineCache;
 import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineController;
+import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineStatistics;
 import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
 import org.texttechnologylab.duui.api.controllers.users.Role;
 import org.texttechnologylab.duui.api.routes.DUUIRequestHelper;
@@ -188,6 +190,7 @@ public class DUUIPipelineRequestHandler {
         DUUIMongoDBStorage
             .Components()
             .insertMany(components);
+        DUUIPipelineCache.invalidate(id);
 
 
         Document insert = DUUIPipelineController.findOneById(id);
@@ -307,4 +310,30 @@ public class DUUIPipelineRequestHandler {
         response.status(200);
         return new Document("status", DUUIStatus.INACTIVE).toJson();
     }
+
+    /**
+     * Rebuild the statistics of a pipeline from its processes in the background.
+     * See {@link DUUIPipelineStatistics#rebuild(String)}.
+     *
+     * @return A 202 - Accepted response.
+     */
+    public static String rebuildStatistics(Request request, Response response) {
+        String userId = DUUIRequestHelper.getUserId(request);
+        String userRole = DUUIRequestHelper.getUserProps(request, Set.of("role")).getString("role");
+        String pipelineId = request.params(":id");
+
+        Document pipeline = DUUIPipelineController.findOneById(pipelineId, false);
+        if (pipeline == null) return DUUIRequestHelper.notFound(response);
+
+        String pipelineOwnerId = pipeline.getString("user_id");
+        if (
+            (pipelineOwnerId == null && !userRole.equalsIgnoreCase(Role.ADMIN))
+                || (pipelineOwnerId != null && !userId.equals(pipelineOwnerId))) {
+            return DUUIRequestHelper.notFound(response);
+        }
+
+        DUUIPipelineStatistics.rebuild(pipelineId);
+        response.status(202);
+        return "Rebuilding statistics.";
+    }
 }
@@ -1,24 +1,29 @@
 package org.texttechnologylab.duui.api.routes.processes;
 
 import com.mongodb.client.model.Filters;
+import com.dropbox.core.DbxException;
 import org.bson.Document;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.IDUUIDocumentHandler;
 import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
 import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentController;
 import org.texttechnologylab.duui.api.controllers.events.DUUIEventController;
+import org.texttechnologylab.duui.api.controllers.files.DUUIDownloadController;
 import org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineController;
 import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessQueue;
 import org.texttechnologylab.duui.api.controllers.processes.InsufficientWorkersException;
 import org.texttechnologylab.duui.api.controllers.processes.InvalidIOException;
 import org.texttechnologylab.duui.api.routes.DUUIRequestHelper;
 import org.texttechnologylab.duui.api.storage.DUUIMongoDBStorage;
 import org.texttechnologylab.duui.api.storage.MongoDBFilters;
 import org.texttechnologylab.duui.analysis.document.DUUIDocumentProvider;
+import org.texttechnologylab.duui.analysis.document.Provider;
 import spark.Request;
 import spark.Response;
 
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.util.List;
+import java.util.Objects;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -76,6 +81,7 @@ public class DUUIProcessRequestHandler {
             .skip(skip)
             .order(order)
             .sort(sort)
+            .count(DUUIRequestHelper.getCount(request))
             .addFilter(Filters.and(
                 Filters.eq("pipeline_id", pipelineId),
                 (!statusFilter.contains("Any") ?
@@ -89,6 +95,12 @@ public class DUUIProcessRequestHandler {
                     Filters.exists("output.provider"))
             ));
 
+        try {
+            filters.cursor(DUUIRequestHelper.getCursor(request));
+        } catch (IllegalArgumentException exception) {
+            return DUUIRequestHelper.badRequest(response, exception.getMessage());
+        }
+
         Document result = DUUIProcessController.findMany(filters);
 
         if (result == null) return DUUIRequestHelper.notFound(response);
@@ -143,12 +155,16 @@ public class DUUIProcessRequestHandler {
                 output
             );
 
+            // The process is waiting for workers. Tell clients how long to wait before checking again.
+            if (process.getString("status").equals(DUUIStatus.WAITING)) {
+                response.status(202);
+                response.header("Retry-After", String.valueOf(DUUIProcessQueue.getRetryAfter()));
+            }
+
             return process.toJson();
-        } catch (URISyntaxException | IOException exception) {
-            response.status(500);
-            return exception.getMessage();
         } catch (InsufficientWorkersException exception) {
             response.status(429);
+            response.header("Retry-After", String.valueOf(DUUIProcessQueue.getRetryAfter()));
             return exception.getMessage();
         } catch (InvalidIOException exception) {
             response.status(400);
@@ -175,6 +191,9 @@ public class DUUIProcessRequestHandler {
      * Retrieve a limited number of documents from the database.
      * See {@link DUUIDocumentController#findMany(MongoDBFilters)}.
      *
+     * The response carries an ETag built from the version of the process and the query. Requests with a
+     * matching If-None-Match header are answered with 304 Not Modified without reading the documents.
+     *
      * @return A JSON Document containing {@link org.texttechnologylab.DockerUnifiedUIMAInterface.document_handler.DUUIDocument}s
      * and the total count.
      */
@@ -182,13 +201,24 @@ public class DUUIProcessRequestHandler {
         String processId = request.params(":id");
         String userID = DUUIRequestHelper.getUserId(request);
 
-        Document process = DUUIProcessController.findOneById(processId);
+        Document process = DUUIProcessController.findSummary(processId);
         if (DUUIRequestHelper.isNullOrEmpty(process)) return DUUIRequestHelper.notFound(response);
 
-        Document pipeline = DUUIPipelineController.findOneById(process.getString("pipeline_id"));
-        if (DUUIRequestHelper.isNullOrEmpty(pipeline)) return DUUIRequestHelper.notFound(response);
+        if (userID == null || !userID.equals(process.getString("user_id"))) return DUUIRequestHelper.notFound(response);
+
+        Object version = process.get("version");
+        String etag = String.format("W/\"%s-%d-%08x\"",
+            processId,
+            version instanceof Number number ? number.longValue() : 0,
+            Objects.hashCode(request.queryString()));
 
-        if (!pipeline.getString("user_id").equals(userID)) return DUUIRequestHelper.notFound(response);
+        response.header("ETag", etag);
+        response.header("Cache-Control", "no-cache");
+
+        if (etag.equals(request.headers("If-None-Match"))) {
+            response.status(304);
+            return "";
+        }
 
         String statusNames = request.queryParamOrDefault("status", "Any");
         if (DUUIRequestHelper.isNullOrEmpty(statusNames)) statusNames = "Any";
@@ -202,6 +232,7 @@ public class DUUIProcessRequestHandler {
         filters.skip(DUUIRequestHelper.getSkip(request));
         filters.order(DUUIRequestHelper.getOrder(request, 1));
         filters.sort(DUUIRequestHelper.getSort(request, "name"));
+        filters.count(DUUIRequestHelper.getCount(request));
         filters.search(request.queryParamOrDefault("search", ""));
         filters.addFilter(Filters.and(
             Filters.eq("process_id", processId),
@@ -211,26 +242,94 @@ public class DUUIProcessRequestHandler {
                 Filters.in("status", statusFilter)
         ));
 
-        return DUUIDocumentController.findMany(filters).toJson();
+        try {
+            filters.cursor(DUUIRequestHelper.getCursor(request));
+        } catch (IllegalArgumentException exception) {
+            return DUUIRequestHelper.badRequest(response, exception.getMessage());
+        }
+
+        return DUUIDocumentController.findMany(filters, process.getBoolean("linked_events", false)).toJson();
     }
 
     /**
      * Retrieve events associated with the process.
      * See {@link DUUIEventController#findManyByProcess(String)}
+     * <p>
+     * If a limit or cursor is given, a page of events is returned instead of the whole timeline.
+     * See {@link DUUIEventController#findMany(MongoDBFilters)}.
      *
      * @return a timeline ({@link List}) of events.
      */
     public static String findEvents(Request request, Response response) {
         String authorization = request.headers("Authorization");
-        DUUIRequestHelper.authenticate(authorization);
-
         Document user = DUUIRequestHelper.authenticate(authorization);
         if (DUUIRequestHelper.isNullOrEmpty(user)) return DUUIRequestHelper.unauthorized(response);
 
         String id = request.params(":id");
+        int limit = DUUIRequestHelper.getLimit(request);
+        String cursor = DUUIRequestHelper.getCursor(request);
+
+        if (limit <= 0 && cursor == null) {
+            response.status(200);
+            return new Document("timeline", DUUIEventController.findManyByProcess(id)).toJson();
+        }
+
+        MongoDBFilters filters = new MongoDBFilters();
+        filters.limit(limit)
+            .order(DUUIRequestHelper.getOrder(request, 1))
+            .sort("timestamp")
+            .count(DUUIRequestHelper.getCount(request))
+            .addFilter(Filters.eq("event.process_id", id));
+
+        try {
+            filters.cursor(cursor);
+        } catch (IllegalArgumentException exception) {
+            return DUUIRequestHelper.badRequest(response, exception.getMessage());
+        }
+
         response.status(200);
-        return new Document("timeline", DUUIEventController.findManyByProcess(id)).toJson();
+        return DUUIEventController.findMany(filters).toJson();
     }
 
+    /**
+     * Download the output of a process as a ZIP archive. The archive is written while the output files are
+     * read, so no file is staged on the server. The query parameter name can be repeated to limit the archive
+     * to specific documents.
+     * See {@link DUUIDownloadController#streamZip(String, List, IDUUIDocumentHandler, javax.servlet.http.HttpServletResponse)}
+     *
+     * @return A response containing the archive.
+     */
+    public static String downloadOutput(Request request, Response response) {
+        String id = request.params(":id");
+        String userId = DUUIRequestHelper.getUserId(request);
+
+        Document process = findOneById(id);
+        Document summary = DUUIProcessController.findSummary(id);
+        if (process == null || summary == null || !userId.equals(summary.getString("user_id")))
+            return DUUIRequestHelper.notFound(response);
 
+        DUUIDocumentProvider output = new DUUIDocumentProvider(process.get("output", Document.class));
+        if (output.hasNoOutput() || output.isDatabaseProvider())
+            return DUUIRequestHelper.badRequest(response, "The process has no file output.");
+
+        String[] names = request.queryParamsValues("name");
+
+        try {
+            boolean local = output.getProvider().equalsIgnoreCase(Provider.FILE);
+            IDUUIDocumentHandler handler = DUUIProcessController.getHandler(output.getProvider(), userId);
+            if (handler == null) return DUUIRequestHelper.notFound(response);
+
+            List<String> paths = DUUIProcessController.findOutputPaths(
+                id, output, handler, names == null ? List.of() : List.of(names));
+            if (paths.isEmpty()) return DUUIRequestHelper.notFound(response);
+
+            DUUIDownloadController.streamZip(id + ".zip", paths, local ? null : handler, response.raw());
+            return "";
+        } catch (DbxException | IOException exception) {
+            if (response.raw().isCommitted()) return "";
+
+            response.status(500);
+            return "The output could not be downloaded.";
+        }
+    }
 }
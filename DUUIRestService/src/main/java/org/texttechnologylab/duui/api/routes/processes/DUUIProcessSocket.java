@@ -0,0 +1,368 @@
+package org.texttechnologylab.duui.api.routes.processes;
+
+import org.bson.Document;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.texttechnologylab.duui.analysis.process.IDUUIProcessHandler;
+import org.texttechnologylab.duui.api.Main;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessController;
+import org.texttechnologylab.duui.api.controllers.processes.DUUIProcessStream;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIHTTPMetrics;
+import org.texttechnologylab.duui.api.routes.DUUIRequestHelper;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A web socket that pushes the progress of active processes to the web interface, replacing the polling
+ * of /processes/:id, /processes/:id/documents and /processes/:id/events.
+ * <p>
+ * Clients send {"type": "subscribe", "process_id": "..."} and {"type": "unsubscribe", "process_id": "..."}
+ * messages. The session id or API key is read from the Authorization header, the session cookie set by
+ * the web interface or the authorization field of a message. Credentials in the query string are rejected
+ * since URLs end up in access logs and browser histories. Connections from other origins than the web
+ * interface (ALLOWED_ORIGINS or the host of the request) are closed immediately, since browsers send the
+ * session cookie with connections opened by any site. For every subscription the client first receives a
+ * snapshot and then deltas containing the status, progress, changed documents and new events. A closed
+ * message is sent once the process has finished.
+ * <p>
+ * Every connection sends at most one message at a time. Deltas published while a message is being sent
+ * are merged, so slow clients receive fewer but larger messages and never slow down the processes.
+ */
+@WebSocket
+public class DUUIProcessSocket {
+
+    private static final String SUBSCRIBE = "subscribe";
+    private static final String UNSUBSCRIBE = "unsubscribe";
+    private static final String SESSION_COOKIE = "session";
+    private static final int MAXIMUM_SUBSCRIPTIONS = 16;
+
+    private final Map<Session, Connection> connections = new ConcurrentHashMap<>();
+
+    @OnWebSocketConnect
+    public void onConnect(Session session) {
+        String authorization = session.getUpgradeRequest().getHeader("Authorization");
+        if (!isAllowedOrigin(session.getUpgradeRequest(), !DUUIRequestHelper.isNullOrEmpty(authorization))) {
+            session.close(StatusCode.POLICY_VIOLATION, "The origin is not allowed.");
+            return;
+        }
+
+        if (DUUIRequestHelper.isNullOrEmpty(authorization)) {
+            authorization = getSessionCookie(session);
+        }
+
+        connections.put(session, new Connection(session, authorization));
+        DUUIHTTPMetrics.incrementStreamConnections();
+    }
+
+    @OnWebSocketClose
+    public void onClose(Session session, int statusCode, String reason) {
+        Connection connection = connections.remove(session);
+        if (connection == null) return;
+
+        connection.close();
+        DUUIHTTPMetrics.decrementStreamConnections();
+    }
+
+    @OnWebSocketMessage
+    public void onMessage(Session session, String text) {
+        Connection connection = connections.get(session);
+        if (connection == null) return;
+
+        Document message;
+        try {
+            message = Document.parse(text);
+        } catch (RuntimeException exception) {
+            connection.error(null, "Messages must be JSON objects.");
+            return;
+        }
+
+        String processId = message.getString("process_id");
+        if (DUUIRequestHelper.isNullOrEmpty(processId)) {
+            connection.error(null, "Missing field process_id.");
+            return;
+        }
+
+        switch (Objects.toString(message.getString("type"), "")) {
+            case SUBSCRIBE -> connection.subscribe(processId, message.getString("authorization"));
+            case UNSUBSCRIBE -> connection.unsubscribe(processId);
+            default -> connection.error(processId, "The type must be subscribe or unsubscribe.");
+        }
+    }
+
+    /**
+     * Check the origin of a connection to prevent cross-site web socket hijacking. Browsers always send the
+     * origin, so a connection without one is only accepted from clients authenticating with the
+     * Authorization header.
+     *
+     * @param request             The upgrade request.
+     * @param authorizationHeader If the request has an Authorization header.
+     * @return if the origin is one of the ALLOWED_ORIGINS or, if none are configured, the host of the request.
+     */
+    private static boolean isAllowedOrigin(UpgradeRequest request, boolean authorizationHeader) {
+        String origin = request.getOrigin();
+        if (DUUIRequestHelper.isNullOrEmpty(origin)) return authorizationHeader;
+
+        List<String> allowed = Main.config.getAllowedOrigins();
+        if (!allowed.isEmpty()) {
+            return allowed.stream().anyMatch(entry -> normalizeOrigin(entry).equals(normalizeOrigin(origin)));
+        }
+
+        String host = request.getHeader("Host");
+        try {
+            return host != null && host.equalsIgnoreCase(new URI(origin).getRawAuthority());
+        } catch (URISyntaxException exception) {
+            return false;
+        }
+    }
+
+    private static String normalizeOrigin(String origin) {
+        String normalized = origin.trim().toLowerCase(Locale.ROOT);
+        return normalized.endsWith("/") ? normalized.substring(0, normalized.length() - 1) : normalized;
+    }
+
+    /**
+     * @param session The web socket session.
+     * @return the value of the session cookie sent with the upgrade request or null.
+     */
+    private static String getSessionCookie(Session session) {
+        List<HttpCookie> cookies = session.getUpgradeRequest().getCookies();
+        if (cookies == null) return null;
+
+        return cookies.stream()
+            .filter(cookie -> SESSION_COOKIE.equals(cookie.getName()))
+            .map(HttpCookie::getValue)
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * The state of a single web socket connection.
+     */
+    private static class Connection {
+
+        private final Session session;
+        private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+        private final LinkedHashMap<String, Document> pending = new LinkedHashMap<>();
+        private final int maximumPendingEvents = Main.config.getProcessStreamMaximumPendingEvents();
+        private String authorization;
+        private String userId;
+        private boolean sending = false;
+        private boolean closed = false;
+
+        private Connection(Session session, String authorization) {
+            this.session = session;
+            this.authorization = authorization;
+        }
+
+        private void subscribe(String processId, String messageAuthorization) {
+            if (userId == null) {
+                if (!DUUIRequestHelper.isNullOrEmpty(messageAuthorization)) authorization = messageAuthorization;
+
+                Document user = DUUIRequestHelper.authenticate(authorization);
+                if (DUUIRequestHelper.isNullOrEmpty(user)) {
+                    error(processId, "Unauthorized.");
+                    return;
+                }
+                userId = user.getObjectId("_id").toString();
+            }
+
+            if (subscriptions.containsKey(processId)) return;
+            if (subscriptions.size() >= MAXIMUM_SUBSCRIPTIONS) {
+                error(processId, String.format("At most %d processes can be watched at once.", MAXIMUM_SUBSCRIPTIONS));
+                return;
+            }
+
+            IDUUIProcessHandler handler = DUUIProcessController.getRegistry().get(processId);
+
+            if (handler == null) {
+                // The process is not active, the client reads its final state through the REST API.
+                Document process = DUUIProcessController.findSummary(processId);
+                if (process == null || !userId.equals(process.getString("user_id"))) {
+                    error(processId, "Not found.");
+                    return;
+                }
+
+                offer(new Document("type", DUUIProcessStream.CLOSED).append("process_id", processId));
+                return;
+            }
+
+            if (!userId.equals(handler.getUserID())) {
+                error(processId, "Not found.");
+                return;
+            }
+
+            Subscription subscription = new Subscription(this, processId);
+            subscriptions.put(processId, subscription);
+            handler.subscribe(subscription);
+        }
+
+        private void unsubscribe(String processId) {
+            Subscription subscription = subscriptions.remove(processId);
+            if (subscription != null) DUUIProcessStream.unsubscribe(processId, subscription);
+
+            synchronized (this) {
+                pending.keySet().removeIf(key -> key.equals(processId) || key.startsWith(processId + "#"));
+            }
+        }
+
+        private void error(String processId, String message) {
+            offer(new Document("type", "error").append("process_id", processId).append("message", message));
+        }
+
+        /**
+         * Queue a message. A pending message for the same process is merged with the new one.
+         */
+        private void offer(Document message) {
+            String processId = Objects.toString(message.getString("process_id"), "");
+            String type = message.getString("type");
+            boolean closing = DUUIProcessStream.CLOSED.equals(type);
+
+            // Only snapshots and deltas are merged. Other messages are queued behind them.
+            String key = DUUIProcessStream.SNAPSHOT.equals(type) || DUUIProcessStream.DELTA.equals(type)
+                ? processId
+                : processId + "#" + type;
+
+            synchronized (this) {
+                if (closed) return;
+
+                Document current = pending.get(key);
+                if (current == null) {
+                    current = copy(message);
+                    pending.put(key, current);
+                } else {
+                    merge(current, message);
+                    DUUIHTTPMetrics.incrementStreamMessagesMerged();
+                }
+                truncate(current);
+
+                if (closing) subscriptions.remove(processId);
+                if (sending) return;
+                sending = true;
+            }
+
+            sendNext();
+        }
+
+        /**
+         * Send the oldest pending message. The next one is sent once the write has completed.
+         */
+        private void sendNext() {
+            String text;
+            synchronized (this) {
+                Iterator<Document> iterator = pending.values().iterator();
+                if (closed || !iterator.hasNext()) {
+                    sending = false;
+                    return;
+                }
+
+                Document message = iterator.next();
+                iterator.remove();
+
+                if (message.get("documents") instanceof Map<?, ?> documents) {
+                    message.put("documents", new ArrayList<>(documents.values()));
+                }
+                text = message.toJson();
+            }
+
+            try {
+                session.getRemote().sendString(text, new WriteCallback() {
+                    @Override
+                    public void writeFailed(Throwable throwable) {
+                        session.close();
+                    }
+
+                    @Override
+                    public void writeSuccess() {
+                        DUUIHTTPMetrics.incrementStreamMessagesSent();
+                        sendNext();
+                    }
+                });
+            } catch (RuntimeException exception) {
+                session.close();
+            }
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+                pending.clear();
+            }
+
+            subscriptions.forEach((processId, subscription) -> DUUIProcessStream.unsubscribe(processId, subscription));
+            subscriptions.clear();
+        }
+
+        private Document copy(Document message) {
+            Document copy = new Document(message);
+            Object events = copy.get("events");
+            if (events instanceof List<?> list) copy.put("events", new ArrayList<>(list));
+
+            Object documents = copy.get("documents");
+            if (documents instanceof List<?> list) {
+                Map<Object, Object> byPath = new LinkedHashMap<>();
+                list.forEach(document -> byPath.put(((Document) document).get("path"), document));
+                copy.put("documents", byPath);
+            }
+            return copy;
+        }
+
+        /**
+         * Drop the oldest events of a pending message if it holds more than the configured maximum and mark
+         * the message with events_truncated.
+         */
+        @SuppressWarnings("unchecked")
+        private void truncate(Document message) {
+            List<Object> events = (List<Object>) message.get("events");
+            if (events == null || events.size() <= maximumPendingEvents) return;
+
+            events.subList(0, events.size() - maximumPendingEvents).clear();
+            message.put("events_truncated", true);
+        }
+
+        /**
+         * Merge a message into a pending one. Fields are replaced by the newer values, documents are merged
+         * by path and events are appended. A pending snapshot stays a snapshot.
+         */
+        @SuppressWarnings("unchecked")
+        private void merge(Document current, Document message) {
+            String type = current.getString("type");
+            Document update = copy(message);
+
+            Map<Object, Object> documents = (Map<Object, Object>) current.get("documents");
+            Map<Object, Object> updatedDocuments = (Map<Object, Object>) update.remove("documents");
+            if (documents != null && updatedDocuments != null) documents.putAll(updatedDocuments);
+            else if (updatedDocuments != null) current.put("documents", updatedDocuments);
+
+            List<Object> events = (List<Object>) current.get("events");
+            List<Object> updatedEvents = (List<Object>) update.remove("events");
+            if (events != null && updatedEvents != null) events.addAll(updatedEvents);
+            else if (updatedEvents != null) current.put("events", events = updatedEvents);
+
+            current.putAll(update);
+            if (DUUIProcessStream.SNAPSHOT.equals(type) && DUUIProcessStream.DELTA.equals(update.getString("type"))) {
+                current.put("type", type);
+            }
+        }
+    }
+
+    /**
+     * The subscription of a connection to a single process.
+     */
+    private record Subscription(Connection connection, String processId) implements DUUIProcessStream.Subscriber {
+
+        @Override
+        public void offer(Document message) {
+            connection.offer(message);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Writes {@link WriteModel}s to a collection using unordered bulk writes of a fixed batch size.
+ * <p>
+ * In asynchronous mode submitted models are queued and written by a background thread, so callers never
+ * wait for the database. Queued models are coalesced by key, meaning that only the latest model submitted
+ * for a key is written if the previous one has not been flushed yet. Failed writes are queued again unless
+ * a newer model for the same key has been submitted in the meantime.
+ * <p>
+ * Only transient errors are retried. Models rejected with a permanent error, for example a duplicate key or
+ * a failed validation, are logged and dropped, so a single bad model cannot block the writer. A batch that
+ * fails with an exception of the driver that is not a {@link MongoException}, for example a value that can
+ * not be encoded, is written model by model to drop only the bad models. The background thread logs every
+ * other failure and keeps running.
+ */
+public class DUUIBulkWriter {
+
+    private static final long FLUSH_TIMEOUT = 30_000;
+    private static final long RETRY_DELAY = 1_000;
+
+    /**
+     * Error codes of write errors that may succeed when the write is repeated.
+     */
+    private static final Set<Integer> TRANSIENT_ERRORS = Set.of(
+        6,     // HostUnreachable
+        7,     // HostNotFound
+        89,    // NetworkTimeout
+        91,    // ShutdownInProgress
+        112,   // WriteConflict
+        189,   // PrimarySteppedDown
+        262,   // ExceededTimeLimit
+        10107, // NotWritablePrimary
+        11600, // InterruptedAtShutdown
+        11602, // InterruptedDueToReplStateChange
+        13435, // NotPrimaryNoSecondaryOk
+        13436  // NotPrimaryOrSecondary
+    );
+
+    private final String name;
+    private final Supplier<IDUUICollection> collection;
+    private final int batchSize;
+    private final boolean async;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, WriteModel<Document>> pending = new LinkedHashMap<>();
+    private long submitted = 0;
+    private long flushed = 0;
+    private boolean stopped = false;
+    private Thread flusher;
+
+    /**
+     * @param name       The name of the writer used for the flusher thread.
+     * @param collection A supplier for the collection to write to.
+     * @param batchSize  The maximum number of models in a single bulk write.
+     * @param async      Wether to write models in a background thread.
+     */
+    public DUUIBulkWriter(String name, Supplier<IDUUICollection> collection, int batchSize, boolean async) {
+        this.name = name;
+        this.collection = collection;
+        this.batchSize = Math.max(1, batchSize);
+        this.async = async;
+
+        if (async) {
+            flusher = new Thread(this::run, String.format("duui-bulk-writer-%s", name));
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Write the models or queue them for writing if the writer is asynchronous.
+     *
+     * @param models A map of keys to models. Models with the same key replace queued ones.
+     */
+    public void submit(Map<String, ? extends WriteModel<Document>> models) {
+        if (models.isEmpty()) return;
+
+        if (!async) {
+            int failed = write(new ArrayList<>(models.values())).size();
+            if (failed > 0) {
+                throw new MongoException(String.format("%d models could not be written to %s.", failed, name));
+            }
+            return;
+        }
+
+        synchronized (lock) {
+            if (stopped) {
+                throw new IllegalStateException(String.format("The bulk writer %s has been shut down.", name));
+            }
+
+            for (Map.Entry<String, ? extends WriteModel<Document>> entry : models.entrySet()) {
+                pending.remove(entry.getKey());
+                pending.put(entry.getKey(), entry.getValue());
+            }
+
+            submitted++;
+            DUUIStorageMetrics.setBulkWritePending(name, pending.size());
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Block until every model submitted before this call has been written or the timeout has passed.
+     * Returns immediately if the writer is synchronous.
+     *
+     * @return if all models have been written.
+     */
+    public boolean flush() {
+        if (!async) return true;
+
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+        synchronized (lock) {
+            long target = submitted;
+            lock.notifyAll();
+
+            while (flushed < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !flusher.isAlive()) return false;
+
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write all queued models and stop the background thread.
+     */
+    public void shutdown() {
+        if (!async) return;
+
+        flush();
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Write the models in batches of {@link #batchSize} using unordered bulk writes. Models that fail with a
+     * permanent error are dropped.
+     *
+     * @param models The models to write.
+     * @return the indexes of the models that failed with a transient error.
+     * @throws MongoException if a batch could not be written at all.
+     */
+    private List<Integer> write(List<WriteModel<Document>> models) {
+        IDUUICollection target = collection.get();
+        List<Integer> failed = new ArrayList<>();
+
+        for (int start = 0; start < models.size(); start += batchSize) {
+            List<WriteModel<Document>> batch = models.subList(start, Math.min(models.size(), start + batchSize));
+
+            try {
+                target.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+
+                DUUIStorageMetrics.incrementBulkWrites(name, batch.size());
+            } catch (MongoBulkWriteException exception) {
+                // The write concern was not satisfied, so none of the writes is known to be durable.
+                if (exception.getWriteConcernError() != null) throw exception;
+
+                int dropped = 0;
+                for (BulkWriteError error : exception.getWriteErrors()) {
+                    if (isTransient(error)) {
+                        failed.add(start + error.getIndex());
+                    } else {
+                        dropped++;
+                        System.err.printf("Dropped a write to %s: %s%n", name, error.getMessage());
+                    }
+                }
+
+                DUUIStorageMetrics.incrementBulkWrites(name, batch.size() - exception.getWriteErrors().size());
+                DUUIStorageMetrics.incrementBulkWriteFailures(name);
+                if (dropped > 0) DUUIStorageMetrics.incrementBulkWriteDropped(name, dropped);
+            } catch (MongoException exception) {
+                throw exception;
+            } catch (RuntimeException exception) {
+                DUUIStorageMetrics.incrementBulkWriteFailures(name);
+                if (batch.size() == 1) {
+                    DUUIStorageMetrics.incrementBulkWriteDropped(name, 1);
+                    System.err.printf("Dropped a write to %s: %s%n", name, exception);
+                    continue;
+                }
+
+                System.err.printf("Bulk write to %s failed, writing models one by one: %s%n", name, exception);
+                for (int index = 0; index < batch.size(); index++) {
+                    int offset = start + index;
+                    write(List.of(batch.get(index))).forEach(single -> failed.add(offset));
+                }
+            }
+        }
+
+        return failed;
+    }
+
+    private static boolean isTransient(BulkWriteError error) {
+        return TRANSIENT_ERRORS.contains(error.getCode())
+            || ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.EXECUTION_TIMEOUT;
+    }
+
+    /**
+     * The loop of the background thread. Drains the queue and writes its content until the writer is stopped.
+     */
+    private void run() {
+        while (true) {
+            LinkedHashMap<String, WriteModel<Document>> drained;
+            long target;
+
+            synchronized (lock) {
+                while (pending.isEmpty() && flushed == submitted && !stopped) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException exception) {
+                        return;
+                    }
+                }
+
+                if (pending.isEmpty() && stopped) return;
+
+                drained = new LinkedHashMap<>(pending);
+                pending.clear();
+                target = submitted;
+                DUUIStorageMetrics.setBulkWritePending(name, 0);
+            }
+
+            try {
+                List<Map.Entry<String, WriteModel<Document>>> entries = new ArrayList<>(drained.entrySet());
+                List<Integer> failed = write(entries.stream().map(Map.Entry::getValue).toList());
+
+                if (failed.isEmpty()) {
+                    synchronized (lock) {
+                        flushed = target;
+                        lock.notifyAll();
+                    }
+                    continue;
+                }
+
+                System.err.printf("%d writes to %s failed, retrying.%n", failed.size(), name);
+                synchronized (lock) {
+                    failed.forEach(index -> pending.putIfAbsent(entries.get(index).getKey(), entries.get(index).getValue()));
+                    DUUIStorageMetrics.setBulkWritePending(name, pending.size());
+                }
+            } catch (RuntimeException exception) {
+                DUUIStorageMetrics.incrementBulkWriteFailures(name);
+                System.err.printf("Bulk write to %s failed, retrying: %s%n", name, exception);
+
+                synchronized (lock) {
+                    drained.forEach(pending::putIfAbsent);
+                    DUUIStorageMetrics.setBulkWritePending(name, pending.size());
+                }
+            }
+
+            try {
+                Thread.sleep(RETRY_DELAY);
+            } catch (InterruptedException exception) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.event.*;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exports the events of the MongoDB connection pool as metrics.
+ * <p>
+ * The metrics show how many connections are open and in use, how many operations are waiting for a
+ * connection, how long they wait and why a check out failed. An exhausted pool shows up as a growing
+ * number of waiting operations and check outs failing with a timeout.
+ */
+public class DUUIConnectionPoolListener implements ConnectionPoolListener {
+
+    /**
+     * The start of every check out in progress by operation id.
+     */
+    private final Map<Long, Long> checkOuts = new ConcurrentHashMap<>();
+
+    @Override
+    public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+        DUUIStorageMetrics.setMongoPoolMaximumSize(event.getSettings().getMaxSize());
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        DUUIStorageMetrics.incrementMongoPoolConnections();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        DUUIStorageMetrics.decrementMongoPoolConnections();
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        checkOuts.put(event.getOperationId(), System.nanoTime());
+        DUUIStorageMetrics.setMongoPoolWaiting(checkOuts.size());
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        Long start = checkOuts.remove(event.getOperationId());
+        if (start != null) DUUIStorageMetrics.observeMongoPoolCheckOut((System.nanoTime() - start) / 1e9);
+
+        DUUIStorageMetrics.setMongoPoolWaiting(checkOuts.size());
+        DUUIStorageMetrics.incrementMongoPoolCheckedOut();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        checkOuts.remove(event.getOperationId());
+        DUUIStorageMetrics.setMongoPoolWaiting(checkOuts.size());
+        DUUIStorageMetrics.incrementMongoPoolCheckOutFailures(event.getReason().name().toLowerCase());
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        DUUIStorageMetrics.decrementMongoPoolCheckedOut();
+    }
+}
@@ -0,0 +1,258 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Declares the indexes the controllers rely on and reconciles them with the database at startup.
+ * <p>
+ * All indexes created here carry the {@link #PREFIX} so that indexes created by hand are never touched.
+ * The declared set is versioned. Whenever {@link #VERSION} changes, managed indexes that are no longer
+ * declared are dropped and indexes whose keys or options changed are rebuilt. Missing indexes are
+ * always created.
+ * <p>
+ * In self-test mode the query plans of the controller queries are checked with explain() and every query
+ * that scans a whole collection is reported as a warning and through the metrics.
+ */
+public class DUUIIndexManager {
+
+    public static final String PREFIX = "duui_";
+
+    /**
+     * Increment when the declared indexes change.
+     */
+    public static final int VERSION = 3;
+
+    private static final List<Index> indexes = List.of(
+        new Index("documents", "process_path", Indexes.ascending("process_id", "path")),
+        new Index("documents", "process_name", Indexes.ascending("process_id", "name", "_id")),
+        new Index("events", "process_timestamp", Indexes.ascending("event.process_id", "timestamp", "_id")),
+        new Index("events", "process_document", Indexes.ascending("event.process_id", "event.document_path", "timestamp")),
+        new Index("processes", "pipeline_started", Indexes.compoundIndex(
+            Indexes.ascending("pipeline_id"),
+            Indexes.descending("started_at", "_id"))),
+        new Index("processes", "queue", Indexes.compoundIndex(
+            Indexes.ascending("status"),
+            Indexes.descending("queue.priority"),
+            Indexes.ascending("queue.enqueued_at"))),
+        new Index("components", "pipeline_index", Indexes.ascending("pipeline_id", "index")),
+        new Index("components", "user", Indexes.ascending("user_id")),
+        new Index("pipelines", "user", Indexes.ascending("user_id")),
+        new Index("pipelines", "usage", Indexes.descending("times_used", "last_used")),
+        new Index("users", "session", Indexes.ascending("session"), true),
+        new Index("users", "api_keys", Indexes.ascending("connections.key"), true),
+        new Index("users", "email", Indexes.ascending("email")),
+        new Index("users", "reset_token", Indexes.ascending("password_reset_token"), true)
+    );
+
+    private DUUIIndexManager() {
+    }
+
+    /**
+     * Create missing indexes and, if the declared version has changed, drop or rebuild outdated ones.
+     * Failures are reported but do not prevent the application from starting.
+     */
+    public static void reconcile() {
+        Document state;
+        try {
+            state = DUUIMongoDBStorage
+                .Schema()
+                .find(Filters.eq("indexes"))
+                .first();
+        } catch (MongoException exception) {
+            System.err.printf("Reading the index version failed: %s%n", exception.getMessage());
+            return;
+        }
+
+        boolean outdated = state == null || state.getInteger("version", 0) != VERSION;
+
+        Map<String, List<Index>> byCollection = new LinkedHashMap<>();
+        indexes.forEach(index -> byCollection.computeIfAbsent(index.collection, key -> new ArrayList<>()).add(index));
+
+        boolean failed = false;
+        for (Map.Entry<String, List<Index>> entry : byCollection.entrySet()) {
+            try {
+                reconcile(DUUIMongoDBStorage.getMongoCollection(entry.getKey()), entry.getValue(), outdated);
+            } catch (MongoException exception) {
+                failed = true;
+                System.err.printf("Reconciling the indexes of %s failed: %s%n", entry.getKey(), exception.getMessage());
+            }
+        }
+
+        if (outdated && !failed) {
+            DUUIMongoDBStorage
+                .Schema()
+                .updateOne(
+                    Filters.eq("indexes"),
+                    Updates.combine(
+                        Updates.set("version", VERSION),
+                        Updates.set("updated_at", Instant.now().toEpochMilli())),
+                    new UpdateOptions().upsert(true));
+        }
+    }
+
+    private static void reconcile(MongoCollection<Document> collection, List<Index> declared, boolean outdated) {
+        Map<String, Document> existing = new HashMap<>();
+        collection.listIndexes().forEach(index -> existing.put(index.getString("name"), index));
+
+        Set<String> names = new HashSet<>();
+        for (Index index : declared) {
+            names.add(index.name());
+            Document current = existing.get(index.name());
+
+            if (current != null && outdated && !index.matches(current)) {
+                collection.dropIndex(index.name());
+                DUUIStorageMetrics.incrementIndexChanges("dropped");
+                current = null;
+            }
+
+            if (current == null) {
+                collection.createIndex(index.keys, index.options());
+                DUUIStorageMetrics.incrementIndexChanges("created");
+            }
+        }
+
+        if (!outdated) return;
+
+        for (String name : existing.keySet()) {
+            if (name.startsWith(PREFIX) && !names.contains(name)) {
+                collection.dropIndex(name);
+                DUUIStorageMetrics.incrementIndexChanges("dropped");
+            }
+        }
+    }
+
+    /**
+     * Explain the queries issued by the controllers and report every query that is answered by a
+     * collection scan.
+     *
+     * @return the names of the queries that scan a whole collection.
+     */
+    public static List<String> selfTest() {
+        String id = new ObjectId().toHexString();
+        Map<String, Supplier<Document>> queries = new LinkedHashMap<>();
+
+        queries.put("documents_by_process", () -> DUUIMongoDBStorage.getMongoCollection("documents")
+            .find(Filters.eq("process_id", id)).explain());
+        queries.put("documents_by_path", () -> DUUIMongoDBStorage.getMongoCollection("documents")
+            .find(Filters.and(Filters.eq("process_id", id), Filters.eq("path", id))).explain());
+        queries.put("documents_by_name", () -> DUUIMongoDBStorage.getMongoCollection("documents")
+            .find(Filters.and(Filters.eq("process_id", id), Filters.gt("name", id)))
+            .sort(Sorts.ascending("name", "_id"))
+            .explain());
+        queries.put("events_by_process", () -> DUUIMongoDBStorage.getMongoCollection("events")
+            .find(Filters.eq("event.process_id", id)).sort(Sorts.ascending("timestamp", "_id")).explain());
+        queries.put("events_by_document", () -> DUUIMongoDBStorage.getMongoCollection("events")
+            .find(Filters.and(Filters.eq("event.process_id", id), Filters.in("event.document_path", id, id)))
+            .sort(Sorts.ascending("timestamp"))
+            .explain());
+        queries.put("processes_by_pipeline", () -> DUUIMongoDBStorage.getMongoCollection("processes")
+            .find(Filters.eq("pipeline_id", id)).sort(Sorts.descending("started_at", "_id")).explain());
+        queries.put("processes_queue", () -> DUUIMongoDBStorage.getMongoCollection("processes")
+            .find(Filters.eq("status", DUUIStatus.WAITING))
+            .sort(Sorts.orderBy(Sorts.descending("queue.priority"), Sorts.ascending("queue.enqueued_at")))
+            .explain());
+        queries.put("components_by_pipeline", () -> DUUIMongoDBStorage.getMongoCollection("components")
+            .find(Filters.eq("pipeline_id", id)).sort(Sorts.ascending("index")).explain());
+        queries.put("components_by_user", () -> DUUIMongoDBStorage.getMongoCollection("components")
+            .find(Filters.eq("user_id", id)).explain());
+        queries.put("pipelines_by_user", () -> DUUIMongoDBStorage.getMongoCollection("pipelines")
+            .find(Filters.eq("user_id", id)).explain());
+        queries.put("pipelines_by_usage", () -> DUUIMongoDBStorage.getMongoCollection("pipelines")
+            .find(Filters.gte("times_used", 1))
+            .sort(Sorts.orderBy(Sorts.descending("times_used"), Sorts.descending("last_used")))
+            .explain());
+        queries.put("users_by_session", () -> DUUIMongoDBStorage.getMongoCollection("users")
+            .find(Filters.eq("session", id)).explain());
+        queries.put("users_by_api_key", () -> DUUIMongoDBStorage.getMongoCollection("users")
+            .find(Filters.eq("connections.key", id)).explain());
+        queries.put("users_by_email", () -> DUUIMongoDBStorage.getMongoCollection("users")
+            .find(Filters.eq("email", id)).explain());
+        queries.put("users_by_reset_token", () -> DUUIMongoDBStorage.getMongoCollection("users")
+            .find(Filters.eq("password_reset_token", id)).explain());
+
+        List<String> scans = new ArrayList<>();
+        queries.forEach((name, explain) -> {
+            try {
+                boolean scan = containsStage(explain.get(), "COLLSCAN");
+                DUUIStorageMetrics.setCollectionScan(name, scan);
+                if (scan) {
+                    scans.add(name);
+                    System.err.printf("Query %s is answered by a collection scan.%n", name);
+                }
+            } catch (MongoException exception) {
+                System.err.printf("Explaining query %s failed: %s%n", name, exception.getMessage());
+            }
+        });
+
+        return scans;
+    }
+
+    /**
+     * Search the plans of an explain() output for a stage.
+     *
+     * @param explain The output of explain() or one of its nested plans.
+     * @param stage   The name of the stage, for example COLLSCAN.
+     * @return if any plan contains the stage.
+     */
+    static boolean containsStage(Object explain, String stage) {
+        if (explain instanceof Document document) {
+            if (stage.equals(document.get("stage"))) return true;
+
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                // Rejected plans are never executed.
+                if (entry.getKey().equals("rejectedPlans")) continue;
+                if (containsStage(entry.getValue(), stage)) return true;
+            }
+        } else if (explain instanceof List<?> list) {
+            for (Object element : list) {
+                if (containsStage(element, stage)) return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * An index declared by the application.
+     *
+     * @param collection The name of the collection.
+     * @param suffix     The name of the index without {@link #PREFIX}.
+     * @param keys       The keys of the index.
+     * @param sparse     If documents without the indexed fields are left out of the index.
+     */
+    private record Index(String collection, String suffix, Bson keys, boolean sparse) {
+
+        private Index(String collection, String suffix, Bson keys) {
+            this(collection, suffix, keys, false);
+        }
+
+        private String name() {
+            return PREFIX + collection + "_" + suffix;
+        }
+
+        private IndexOptions options() {
+            return new IndexOptions()
+                .name(name())
+                .sparse(sparse)
+                .background(true);
+        }
+
+        private boolean matches(Document existing) {
+            Document key = existing.get("key", Document.class);
+            return key != null
+                && key.toBsonDocument().equals(keys.toBsonDocument())
+                && existing.getBoolean("sparse", false) == sparse;
+        }
+    }
+}
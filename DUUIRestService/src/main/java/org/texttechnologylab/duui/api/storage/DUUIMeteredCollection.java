@@ -0,0 +1,107 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
+
+import java.util.List;
+
+/**
+ * Counts the operations sent to a collection by collection and operation, independent of the storage
+ * engine. A bulk write counts as a single operation.
+ */
+public class DUUIMeteredCollection implements IDUUICollection {
+
+    private final IDUUICollection collection;
+
+    public DUUIMeteredCollection(IDUUICollection collection) {
+        this.collection = collection;
+    }
+
+    @Override
+    public String getName() {
+        return collection.getName();
+    }
+
+    @Override
+    public IDUUIFindIterable find(Bson filter) {
+        count("find");
+        return collection.find(filter);
+    }
+
+    @Override
+    public IDUUIIterable<Document> aggregate(List<? extends Bson> pipeline) {
+        count("aggregate");
+        return collection.aggregate(pipeline);
+    }
+
+    @Override
+    public long countDocuments(Bson filter) {
+        count("count");
+        return collection.countDocuments(filter);
+    }
+
+    @Override
+    public InsertOneResult insertOne(Document document) {
+        count("insert");
+        return collection.insertOne(document);
+    }
+
+    @Override
+    public InsertManyResult insertMany(List<? extends Document> documents, InsertManyOptions options) {
+        count("insert");
+        return collection.insertMany(documents, options);
+    }
+
+    @Override
+    public UpdateResult updateOne(Bson filter, Bson update, UpdateOptions options) {
+        count("update");
+        return collection.updateOne(filter, update, options);
+    }
+
+    @Override
+    public UpdateResult updateMany(Bson filter, Bson update, UpdateOptions options) {
+        count("update");
+        return collection.updateMany(filter, update, options);
+    }
+
+    @Override
+    public UpdateResult replaceOne(Bson filter, Document replacement, ReplaceOptions options) {
+        count("update");
+        return collection.replaceOne(filter, replacement, options);
+    }
+
+    @Override
+    public Document findOneAndUpdate(Bson filter, Bson update, FindOneAndUpdateOptions options) {
+        count("find_and_modify");
+        return collection.findOneAndUpdate(filter, update, options);
+    }
+
+    @Override
+    public DeleteResult deleteOne(Bson filter) {
+        count("delete");
+        return collection.deleteOne(filter);
+    }
+
+    @Override
+    public DeleteResult deleteMany(Bson filter) {
+        count("delete");
+        return collection.deleteMany(filter);
+    }
+
+    @Override
+    public BulkWriteResult bulkWrite(List<? extends WriteModel<? extends Document>> requests, BulkWriteOptions options) {
+        count("bulk_write");
+        return collection.bulkWrite(requests, options);
+    }
+
+    private void count(String operation) {
+        DUUIStorageMetrics.incrementStorageOperations(collection.getName(), operation);
+    }
+}
@@ -0,0 +1,150 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.texttechnologylab.DockerUnifiedUIMAInterface.monitoring.DUUIStatus;
+import org.texttechnologylab.duui.api.controllers.documents.DUUIDocumentController;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migrates the stored data to the shape the controllers expect at startup.
+ * <p>
+ * The version of the data is stored in the schema collection next to the version of the indexes
+ * (see {@link DUUIIndexManager}). Migrations run once and in order for every version above the stored one.
+ * They run in a background thread, so a large database does not delay the startup, and must therefore
+ * leave the data readable while they are in progress. A migration that fails is retried on the next
+ * startup, so every migration must be safe to run again.
+ */
+public class DUUIMigrations {
+
+    /**
+     * Increment when a migration is added.
+     */
+    public static final int VERSION = 1;
+
+    private static final int BATCH_SIZE = 100;
+
+    private DUUIMigrations() {
+    }
+
+    /**
+     * Run all migrations above the stored version in a background thread. Failures are reported but do
+     * not prevent the application from starting.
+     */
+    public static void migrate() {
+        Thread thread = new Thread(DUUIMigrations::migrateNow, "duui-migrations");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void migrateNow() {
+        int version;
+        try {
+            Document state = DUUIMongoDBStorage
+                .Schema()
+                .find(Filters.eq("data"))
+                .first();
+
+            version = state == null ? 0 : state.getInteger("version", 0);
+        } catch (MongoException exception) {
+            System.err.printf("Reading the data version failed: %s%n", exception.getMessage());
+            return;
+        }
+
+        for (int next = version + 1; next <= VERSION; next++) {
+            try {
+                migrate(next);
+            } catch (MongoException | IllegalStateException exception) {
+                System.err.printf("Migrating the data to version %d failed: %s%n", next, exception.getMessage());
+                return;
+            }
+
+            DUUIMongoDBStorage
+                .Schema()
+                .updateOne(
+                    Filters.eq("data"),
+                    Updates.combine(
+                        Updates.set("version", next),
+                        Updates.set("updated_at", Instant.now().toEpochMilli())),
+                    new UpdateOptions().upsert(true));
+        }
+    }
+
+    private static void migrate(int version) {
+        switch (version) {
+            case 1 -> moveDocumentNames();
+            default -> throw new IllegalStateException(String.format("No migration to version %d exists.", version));
+        }
+    }
+
+    /**
+     * Version 1: Processes no longer store the paths of their documents in the document_names array. The paths
+     * are written to the documents collection and their number is stored in the count field of the process.
+     * Paths of finished processes that have no document yet are inserted with the status
+     * {@link DUUIStatus#UNKNOWN}. Processes are migrated one at a time, so only the paths of a single process
+     * are held in memory. Until a process has been migrated, its paths stay in document_names.
+     */
+    static void moveDocumentNames() {
+        long total = DUUIMongoDBStorage
+            .Processses()
+            .countDocuments(Filters.exists("document_names"));
+        if (total == 0) return;
+
+        System.err.printf("Moving the document paths of %d processes to the documents collection.%n", total);
+
+        long migrated = 0;
+        List<Object> ids;
+        do {
+            // Migrated processes no longer match the filter, so every batch starts at the first match.
+            ids = DUUIMongoDBStorage
+                .Processses()
+                .find(Filters.exists("document_names"))
+                .projection(Projections.include("_id"))
+                .limit(BATCH_SIZE)
+                .map(process -> process.get("_id"))
+                .into(new ArrayList<>());
+
+            for (Object id : ids) migrateDocumentNames(id);
+
+            migrated += ids.size();
+            if (!ids.isEmpty()) {
+                System.err.printf("Moved the document paths of %d of %d processes.%n", migrated, Math.max(total, migrated));
+            }
+        } while (ids.size() == BATCH_SIZE);
+    }
+
+    private static void migrateDocumentNames(Object id) {
+        Document process = DUUIMongoDBStorage
+            .Processses()
+            .find(Filters.eq(id))
+            .projection(Projections.include("document_names", "is_finished"))
+            .first();
+
+        if (process == null) return;
+
+        List<String> paths = process.getList("document_names", String.class, List.of());
+        DUUIDocumentController.insertPaths(
+            id.toString(),
+            paths,
+            process.getBoolean("is_finished", false) ? DUUIStatus.UNKNOWN : DUUIStatus.WAITING);
+
+        if (!DUUIMongoDBStorage.DocumentsWriter().flush()) {
+            throw new IllegalStateException("Writing the document paths did not finish in time.");
+        }
+
+        DUUIMongoDBStorage
+            .Processses()
+            .updateOne(
+                Filters.eq(id),
+                Updates.combine(
+                    Updates.set("count", paths.size()),
+                    Updates.unset("document_names")));
+    }
+}
@@ -0,0 +1,173 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * An {@link IDUUICollection} backed by a {@link MongoCollection}. Every call is delegated to the driver.
+ */
+public class DUUIMongoDBCollection implements IDUUICollection {
+
+    private final MongoCollection<Document> collection;
+
+    public DUUIMongoDBCollection(MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    /**
+     * @return the underlying collection for operations that are specific to MongoDB, for example index
+     * management.
+     */
+    public MongoCollection<Document> getMongoCollection() {
+        return collection;
+    }
+
+    @Override
+    public String getName() {
+        return collection.getNamespace().getCollectionName();
+    }
+
+    @Override
+    public IDUUIFindIterable find(Bson filter) {
+        return new FindResult(collection.find(filter));
+    }
+
+    @Override
+    public IDUUIIterable<Document> aggregate(List<? extends Bson> pipeline) {
+        return new Result<>(collection.aggregate(pipeline));
+    }
+
+    @Override
+    public long countDocuments(Bson filter) {
+        return collection.countDocuments(filter);
+    }
+
+    @Override
+    public InsertOneResult insertOne(Document document) {
+        return collection.insertOne(document);
+    }
+
+    @Override
+    public InsertManyResult insertMany(List<? extends Document> documents, InsertManyOptions options) {
+        return collection.insertMany(documents, options);
+    }
+
+    @Override
+    public UpdateResult updateOne(Bson filter, Bson update, UpdateOptions options) {
+        return collection.updateOne(filter, update, options);
+    }
+
+    @Override
+    public UpdateResult updateMany(Bson filter, Bson update, UpdateOptions options) {
+        return collection.updateMany(filter, update, options);
+    }
+
+    @Override
+    public UpdateResult replaceOne(Bson filter, Document replacement, ReplaceOptions options) {
+        return collection.replaceOne(filter, replacement, options);
+    }
+
+    @Override
+    public Document findOneAndUpdate(Bson filter, Bson update, FindOneAndUpdateOptions options) {
+        return collection.findOneAndUpdate(filter, update, options);
+    }
+
+    @Override
+    public DeleteResult deleteOne(Bson filter) {
+        return collection.deleteOne(filter);
+    }
+
+    @Override
+    public DeleteResult deleteMany(Bson filter) {
+        return collection.deleteMany(filter);
+    }
+
+    @Override
+    public BulkWriteResult bulkWrite(List<? extends WriteModel<? extends Document>> requests, BulkWriteOptions options) {
+        return collection.bulkWrite(requests, options);
+    }
+
+    /**
+     * Delegates to a {@link MongoIterable}, so that first() and into() close their cursors.
+     */
+    private static class Result<T> implements IDUUIIterable<T> {
+        private final MongoIterable<T> iterable;
+
+        private Result(MongoIterable<T> iterable) {
+            this.iterable = iterable;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return iterable.iterator();
+        }
+
+        @Override
+        public void forEach(Consumer<? super T> action) {
+            iterable.forEach(action);
+        }
+
+        @Override
+        public T first() {
+            return iterable.first();
+        }
+
+        @Override
+        public <C extends Collection<? super T>> C into(C target) {
+            return iterable.into(target);
+        }
+
+        @Override
+        public <U> IDUUIIterable<U> map(Function<? super T, ? extends U> mapper) {
+            return new Result<>(iterable.map(mapper::apply));
+        }
+    }
+
+    private static class FindResult extends Result<Document> implements IDUUIFindIterable {
+        private final FindIterable<Document> iterable;
+
+        private FindResult(FindIterable<Document> iterable) {
+            super(iterable);
+            this.iterable = iterable;
+        }
+
+        @Override
+        public IDUUIFindIterable projection(Bson projection) {
+            iterable.projection(projection);
+            return this;
+        }
+
+        @Override
+        public IDUUIFindIterable sort(Bson sort) {
+            iterable.sort(sort);
+            return this;
+        }
+
+        @Override
+        public IDUUIFindIterable skip(int skip) {
+            iterable.skip(skip);
+            return this;
+        }
+
+        @Override
+        public IDUUIFindIterable limit(int limit) {
+            iterable.limit(limit);
+            return this;
+        }
+    }
+}
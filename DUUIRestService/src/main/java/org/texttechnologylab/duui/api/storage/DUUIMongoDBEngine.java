@@ -0,0 +1,28 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * The storage engine backed by a MongoDB database. This is the default engine (STORAGE_ENGINE=mongodb).
+ */
+public class DUUIMongoDBEngine implements IDUUIStorage {
+
+    private final MongoClient client;
+    private final MongoDatabase database;
+
+    public DUUIMongoDBEngine(MongoClient client, MongoDatabase database) {
+        this.client = client;
+        this.database = database;
+    }
+
+    @Override
+    public DUUIMongoDBCollection getCollection(String name) {
+        return new DUUIMongoDBCollection(database.getCollection(name));
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
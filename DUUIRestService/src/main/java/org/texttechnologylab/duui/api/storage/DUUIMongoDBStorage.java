@@ -5,15 +5,24 @@ import org.texttechnologylab.duui.api.Main;
 import org.texttechnologylab.duui.api.controllers.users.DUUIUserController;
 import org.texttechnologylab.duui.api.metrics.providers.DUUIStorageMetrics;
 import org.texttechnologylab.duui.api.routes.DUUIRequestHelper;
+import org.texttechnologylab.duui.api.storage.memory.DUUIMemoryStorage;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCredential;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Updates;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import spark.Request;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static org.texttechnologylab.duui.api.routes.DUUIRequestHelper.isNullOrEmpty;
@@ -21,13 +30,20 @@ import static org.texttechnologylab.duui.api.routes.DUUIRequestHelper.isNullOrEm
 /**
  * A utility class for setting up and retrieving information about the database including its collections. Also
  * contains utility methods for database operations.
+ * <p>
+ * Collections are provided by an {@link IDUUIStorage} engine selected with STORAGE_ENGINE. The default engine
+ * is MongoDB, the memory engine runs the service without a database.
  *
  * @author Cedric Borkowski
  */
 public class DUUIMongoDBStorage {
 
-    private static MongoClient mongoClient;
+    private static volatile MongoClient mongoClient;
+    private static MongoDatabase database;
+    private static volatile IDUUIStorage storage;
+    private static final Map<String, IDUUICollection> collections = new ConcurrentHashMap<>();
     private static Config config;
+    private static DUUIBulkWriter documentsWriter;
 
     /**
      * Replaces the ObjectID object by a plain text representation of the id called
@@ -93,74 +109,221 @@ public class DUUIMongoDBStorage {
      * @return A {@link MongoClient} instance.
      */
     public static MongoClient getClient() {
-        if (mongoClient == null) {
-            //mongodb://[username:password@]host1[:port1][,...hostN[:portN]][/[defaultauthdb][?options]]
-
-            StringBuilder sb = new StringBuilder();
-            sb.append("mongodb://");
-            sb.append(config.getMongoUser());
-            sb.append(":");
-            sb.append(config.getMongoPassword());
-            sb.append("@");
-            sb.append(config.getMongoHost());
-            sb.append(":").append(config.getMongoPort());
-            sb.append("/?authSource=").append(config.getMongoDatabase());
-
-            mongoClient = MongoClients.create(sb.toString());
-//            mongoClient = MongoClients.create(getConnectionURI());
+        MongoClient client = mongoClient;
+        if (client != null) return client;
+
+        synchronized (DUUIMongoDBStorage.class) {
+            if (mongoClient == null) {
+                client = MongoClients.create(buildSettings(config));
+                database = client
+                    .getDatabase(config.getMongoDatabase())
+                    .withCodecRegistry(MongoClientSettings.getDefaultCodecRegistry());
+                mongoClient = client;
+            }
+            return mongoClient;
+        }
+    }
+
+    /**
+     * Build the client settings from the {@link Config}. MONGO_DB_CONNECTION_STRING is used if it is set,
+     * otherwise the connection is built from host, port and credentials. Pool, timeout, read preference and
+     * write concern settings from the config are defaults: options set in the connection string take
+     * precedence, since the connection string is applied last and only overrides the options it contains.
+     *
+     * @param config the configuration for the application.
+     * @return the settings for the {@link MongoClient}.
+     */
+    static MongoClientSettings buildSettings(Config config) {
+        MongoClientSettings.Builder builder = MongoClientSettings.builder();
+
+        builder
+            .codecRegistry(MongoClientSettings.getDefaultCodecRegistry())
+            .applyToConnectionPoolSettings(pool -> pool
+                .maxSize(config.getMongoPoolMaximumSize())
+                .minSize(config.getMongoPoolMinimumSize())
+                .maxWaitTime(config.getMongoPoolMaximumWaitTime(), TimeUnit.MILLISECONDS)
+                .maxConnectionIdleTime(config.getMongoPoolMaximumIdleTime(), TimeUnit.MILLISECONDS)
+                .addConnectionPoolListener(new DUUIConnectionPoolListener()))
+            .applyToSocketSettings(socket -> socket
+                .connectTimeout(config.getMongoConnectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getMongoSocketTimeout(), TimeUnit.MILLISECONDS))
+            .applyToClusterSettings(cluster -> cluster
+                .serverSelectionTimeout(config.getMongoServerSelectionTimeout(), TimeUnit.MILLISECONDS));
+
+        String readPreference = config.getMongoReadPreference();
+        if (readPreference != null) builder.readPreference(ReadPreference.valueOf(readPreference));
+
+        String writeConcern = config.getMongoWriteConcern();
+        if (writeConcern != null) {
+            WriteConcern concern = writeConcern.matches("\\d+")
+                ? new WriteConcern(Integer.parseInt(writeConcern))
+                : WriteConcern.valueOf(writeConcern);
+
+            if (concern == null) throw new IllegalArgumentException("Unknown write concern " + writeConcern);
+            builder.writeConcern(concern);
+        }
+
+        String connectionString = config.getMongoDBConnectionString();
+        if (!isNullOrEmpty(connectionString)) {
+            builder.applyConnectionString(new ConnectionString(connectionString.trim()));
+        } else {
+            //mongodb://host1[:port1][/?options]
+            builder.applyConnectionString(new ConnectionString(
+                String.format("mongodb://%s:%d", config.getMongoHost(), config.getMongoPort())));
+
+            if (!isNullOrEmpty(config.getMongoUser())) {
+                builder.credential(MongoCredential.createCredential(
+                    config.getMongoUser(),
+                    config.getMongoDatabase(),
+                    isNullOrEmpty(config.getMongoPassword())
+                        ? new char[0]
+                        : config.getMongoPassword().toCharArray()));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Retrieve the storage engine. Connects to MongoDB if no engine has been selected yet.
+     *
+     * @return the storage engine.
+     */
+    public static IDUUIStorage getStorage() {
+        IDUUIStorage current = storage;
+        if (current != null) return current;
+
+        synchronized (DUUIMongoDBStorage.class) {
+            if (storage == null) storage = new DUUIMongoDBEngine(getClient(), database);
+            return storage;
         }
-        return mongoClient;
     }
 
     /**
-     * Inject the {@link Config} for the application and initialize a {@link com.mongodb.MongoClient}.
+     * @return if the collections are held in memory instead of MongoDB.
+     */
+    public static boolean isEmbedded() {
+        return getStorage() instanceof DUUIMemoryStorage;
+    }
+
+    /**
+     * Retrieve a collection by name. Collection handles are thread-safe and are created only once.
+     * Operations on the collection are counted by {@link DUUIMeteredCollection}.
+     *
+     * @param name The name of the collection.
+     * @return the collection of the storage engine.
+     */
+    public static IDUUICollection getCollection(String name) {
+        return collections.computeIfAbsent(name, key -> new DUUIMeteredCollection(getStorage().getCollection(key)));
+    }
+
+    /**
+     * Retrieve a collection of the MongoDB database for operations that are specific to MongoDB, for example
+     * index management. Must not be called if the service is embedded.
+     *
+     * @param name The name of the collection.
+     * @return A MongoCollection object.
+     */
+    public static MongoCollection<Document> getMongoCollection(String name) {
+        getClient();
+        return database.getCollection(name);
+    }
+
+    /**
+     * Inject the {@link Config} for the application and select the storage engine. For MongoDB a
+     * {@link com.mongodb.MongoClient} is initialized, the indexes are reconciled (see {@link DUUIIndexManager}) and
+     * the stored data is migrated (see {@link DUUIMigrations}).
      *
      * @param config the configuration for the application.
      */
     public static void init(Config config) {
         DUUIMongoDBStorage.config = config;
-        getClient();
+
+        synchronized (DUUIMongoDBStorage.class) {
+            storage = config.getStorageEngine().equals("memory") ? new DUUIMemoryStorage() : null;
+            collections.clear();
+        }
+        getStorage();
+
+        documentsWriter = new DUUIBulkWriter(
+            "documents",
+            DUUIMongoDBStorage::Documents,
+            config.getMongoBulkBatchSize(),
+            config.useAsyncDocumentWrites());
+
+        if (isEmbedded()) return;
+
+        if (config.reconcileIndexes()) DUUIIndexManager.reconcile();
+        DUUIMigrations.migrate();
+        if (config.isQuerySelfTestEnabled()) DUUIIndexManager.selfTest();
+    }
+
+    /**
+     * Retrieve the {@link DUUIBulkWriter} for the documents collection. Progress and annotations of documents
+     * are written through this writer.
+     *
+     * @return the writer for the documents collection.
+     */
+    public static DUUIBulkWriter DocumentsWriter() {
+        return documentsWriter;
     }
 
     /**
      * Utility functions for fast access to collections in the database.
      *
-     * @return A MongoCollection object.
+     * @return the collection of the storage engine.
      */
-    public static MongoCollection<Document> Pipelines() {
+    public static IDUUICollection Pipelines() {
         DUUIStorageMetrics.incrementPipelinesCounter();
-        return getClient().getDatabase(config.getMongoDatabase()).getCollection("pipelines");
+        return getCollection("pipelines");
     }
 
-    public static MongoCollection<Document> Components() {
+    public static IDUUICollection Components() {
         DUUIStorageMetrics.incrementComponentsCounter();
-        return getClient().getDatabase(config.getMongoDatabase()).getCollection("components");
+        return getCollection("components");
     }
 
-    public static MongoCollection<Document> Users() {
+    public static IDUUICollection Users() {
         DUUIStorageMetrics.incrementUsersCounter();
-        return getClient().getDatabase(config.getMongoDatabase()).getCollection("users");
+        return getCollection("users");
     }
 
-    public static MongoCollection<Document> Documents() {
+    public static IDUUICollection Documents() {
         DUUIStorageMetrics.incrementDocumentsCounter();
-        return getClient().getDatabase(config.getMongoDatabase()).getCollection("documents");
+        return getCollection("documents");
     }
 
-    public static MongoCollection<Document> Processses() {
+    public static IDUUICollection Processses() {
         DUUIStorageMetrics.incrementProcesssesCounter();
-        return getClient().getDatabase(config.getMongoDatabase()).getCollection("processes");
+        return getCollection("processes");
     }
 
-    public static MongoCollection<Document> Events() {
+    public static IDUUICollection Events() {
         DUUIStorageMetrics.incrementEventsCounter();
-        return getClient().getDatabase(config.getMongoDatabase()).getCollection("events");
+        return getCollection("events");
+    }
+
+    public static IDUUICollection Feedback() {
+        return getCollection("feedback");
     }
 
-    public static MongoCollection<Document> Feedback() {
-        return getClient().getDatabase(config.getMongoDatabase()).getCollection("feedback");
+    /**
+     * The pipeline_stats collection holds the usage statistics of every pipeline maintained by
+     * {@link org.texttechnologylab.duui.api.controllers.pipelines.DUUIPipelineStatistics}.
+     */
+    public static IDUUICollection PipelineStatistics() {
+        return getCollection("pipeline_stats");
     }
 
+    /**
+     * The schema collection holds the state of the database schema, for example the version of the
+     * indexes created by {@link DUUIIndexManager} and of the data migrated by {@link DUUIMigrations}.
+     */
+    public static IDUUICollection Schema() {
+        return getCollection("schema");
+    }
+
+
     /**
      * Combine a Document containing key value pairs representing an update action
      * into a merged BSON object.
@@ -173,7 +336,7 @@ public class DUUIMongoDBStorage {
      * @param skipInvalid    Wether to skip invalid keys or return when encountered.
      *                       Default true.
      */
-    public static void updateDocument(MongoCollection<Document> collection,
+    public static void updateDocument(IDUUICollection collection,
                                       Bson filter,
                                       Document updates,
                                       Set<String> allowedUpdates,
@@ -200,9 +363,9 @@ public class DUUIMongoDBStorage {
     }
 
     /**
-     * See {@link #updateDocument(MongoCollection, Bson, Document, Set, boolean)}
+     * See {@link #updateDocument(IDUUICollection, Bson, Document, Set, boolean)}
      */
-    public static void updateDocument(MongoCollection<Document> collection,
+    public static void updateDocument(IDUUICollection collection,
                                       Bson filter,
                                       Document updates,
                                       Set<String> allowedUpdates) {
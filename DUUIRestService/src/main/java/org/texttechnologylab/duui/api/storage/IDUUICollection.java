@@ -0,0 +1,90 @@
+package org.texttechnologylab.duui.api.storage;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+
+/**
+ * A collection of documents in an {@link IDUUIStorage}.
+ * <p>
+ * The interface covers the operations the controllers use. Filters, updates, projections, sorts and
+ * aggregation stages are expressed with the builders of the MongoDB driver ({@link Filters}, {@link Updates},
+ * {@link Projections}, {@link Sorts} and {@link Aggregates}) and results use the result types of the driver,
+ * so every engine understands the same queries.
+ */
+public interface IDUUICollection {
+
+    /**
+     * @return the name of the collection.
+     */
+    String getName();
+
+    default IDUUIFindIterable find() {
+        return find(new Document());
+    }
+
+    IDUUIFindIterable find(Bson filter);
+
+    IDUUIIterable<Document> aggregate(List<? extends Bson> pipeline);
+
+    default long countDocuments() {
+        return countDocuments(new Document());
+    }
+
+    long countDocuments(Bson filter);
+
+    /**
+     * Insert a document. Like the MongoDB driver, an _id is added to the document if it has none.
+     */
+    InsertOneResult insertOne(Document document);
+
+    default InsertManyResult insertMany(List<? extends Document> documents) {
+        return insertMany(documents, new InsertManyOptions());
+    }
+
+    InsertManyResult insertMany(List<? extends Document> documents, InsertManyOptions options);
+
+    default UpdateResult updateOne(Bson filter, Bson update) {
+        return updateOne(filter, update, new UpdateOptions());
+    }
+
+    UpdateResult updateOne(Bson filter, Bson update, UpdateOptions options);
+
+    default UpdateResult updateMany(Bson filter, Bson update) {
+        return updateMany(filter, update, new UpdateOptions());
+    }
+
+    UpdateResult updateMany(Bson filter, Bson update, UpdateOptions options);
+
+    default UpdateResult replaceOne(Bson filter, Document replacement) {
+        return replaceOne(filter, replacement, new ReplaceOptions());
+    }
+
+    UpdateResult replaceOne(Bson filter, Document replacement, ReplaceOptions options);
+
+    /**
+     * @return the document before the update or null if no document matched.
+     */
+    default Document findOneAndUpdate(Bson filter, Bson update) {
+        return findOneAndUpdate(filter, update, new FindOneAndUpdateOptions());
+    }
+
+    Document findOneAndUpdate(Bson filter, Bson update, FindOneAndUpdateOptions options);
+
+    DeleteResult deleteOne(Bson filter);
+
+    DeleteResult deleteMany(Bson filter);
+
+    default BulkWriteResult bulkWrite(List<? extends WriteModel<? extends Document>> requests) {
+        return bulkWrite(requests, new BulkWriteOptions());
+    }
+
+    BulkWriteResult bulkWrite(List<? extends WriteModel<? extends Document>> requests, BulkWriteOptions options);
+}
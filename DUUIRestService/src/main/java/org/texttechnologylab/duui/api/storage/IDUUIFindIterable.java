@@ -0,0 +1,19 @@
+package org.texttechnologylab.duui.api.storage;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * The result of {@link IDUUICollection#find(Bson)}. The query is executed once the results are iterated, so
+ * projection, sort, skip and limit can be chained in any order like in {@link com.mongodb.client.FindIterable}.
+ */
+public interface IDUUIFindIterable extends IDUUIIterable<Document> {
+
+    IDUUIFindIterable projection(Bson projection);
+
+    IDUUIFindIterable sort(Bson sort);
+
+    IDUUIFindIterable skip(int skip);
+
+    IDUUIFindIterable limit(int limit);
+}
@@ -0,0 +1,56 @@
+package org.texttechnologylab.duui.api.storage;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * The result of a query against an {@link IDUUICollection}. Mirrors the subset of
+ * {@link com.mongodb.client.MongoIterable} the controllers use.
+ *
+ * @param <T> The type of the results.
+ */
+public interface IDUUIIterable<T> extends Iterable<T> {
+
+    /**
+     * @return the first result or null if there is none.
+     */
+    default T first() {
+        Iterator<T> iterator = iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * Add all results to a collection.
+     *
+     * @param target The collection to add the results to.
+     * @return the target collection.
+     */
+    default <C extends Collection<? super T>> C into(C target) {
+        forEach(target::add);
+        return target;
+    }
+
+    /**
+     * Lazily transform the results.
+     *
+     * @param mapper The function to apply to every result.
+     * @return an iterable of the transformed results.
+     */
+    default <U> IDUUIIterable<U> map(Function<? super T, ? extends U> mapper) {
+        return () -> {
+            Iterator<T> iterator = iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public U next() {
+                    return mapper.apply(iterator.next());
+                }
+            };
+        };
+    }
+}
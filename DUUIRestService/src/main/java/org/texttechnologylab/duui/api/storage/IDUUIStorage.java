@@ -0,0 +1,21 @@
+package org.texttechnologylab.duui.api.storage;
+
+/**
+ * A storage engine holding the collections of the application. The engine is selected with STORAGE_ENGINE,
+ * see {@link DUUIMongoDBStorage#init(org.texttechnologylab.duui.api.Config)}.
+ */
+public interface IDUUIStorage {
+
+    /**
+     * Retrieve a collection by name. Collections are created on first access.
+     *
+     * @param name The name of the collection.
+     * @return the collection.
+     */
+    IDUUICollection getCollection(String name);
+
+    /**
+     * Release the resources of the engine.
+     */
+    void close();
+}
@@ -1,14 +1,29 @@
 package org.texttechnologylab.duui.api.storage;
 
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * A convenience class that groups common filters applied to collections including limit, skip, sort,
  * order, search, and comparison filters into a single object for easy access.
+ * <p>
+ * Besides skip and limit, pages can be selected with a cursor (keyset pagination). A cursor is an opaque
+ * string that holds the sort field, the order and the values of the sort field and _id of the last entry of
+ * the previous page. The next page starts after that entry, so reading a page costs the same no matter how
+ * deep it is. Entries are always sorted by _id after the sort field to give the order a tiebreaker.
  *
  * @author Cedric Borkowski
  */
@@ -23,6 +38,8 @@ public class MongoDBFilters {
             .append("sort", null)                      // Sort criteria
             .append("order", 1)                        // Sort order
             .append("search", null)                    // Search text
+            .append("cursor", null)                    // Position of the last entry of the previous page
+            .append("count", true)                     // Count all matches
             .append("filters", new ArrayList<Bson>()); // Filters to apply
     }
 
@@ -74,6 +91,140 @@ public class MongoDBFilters {
         return aggregates.getString("search");
     }
 
+    /**
+     * Start the page after the entry a cursor points to. Must be called after {@link #sort(String)} and
+     * {@link #order(int)}, since a cursor is only valid for the sort it has been created with.
+     *
+     * @param cursor A cursor returned by {@link #nextCursor(List)} or null to start at the beginning.
+     * @throws IllegalArgumentException if the cursor is malformed or belongs to a different sort.
+     */
+    public MongoDBFilters cursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            aggregates.put("cursor", null);
+            return this;
+        }
+
+        Document position;
+        try {
+            position = Document.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException | JsonParseException exception) {
+            throw new IllegalArgumentException("The cursor is invalid.");
+        }
+
+        Object value = position.get("value");
+        if (!(position.get("id") instanceof ObjectId)
+            || value instanceof Document
+            || value instanceof List<?>
+            || !Objects.equals(position.getString("sort"), getSortField())
+            || !Objects.equals(position.get("order"), getOrder())) {
+            throw new IllegalArgumentException("The cursor is invalid or belongs to a different sort.");
+        }
+
+        aggregates.put("cursor", position);
+        return this;
+    }
+
+    public Document getCursor() {
+        return aggregates.get("cursor", Document.class);
+    }
+
+    /**
+     * @param count If the total number of matches should be counted. Counting reads every match, so pages
+     *              that are read with a cursor can leave it out.
+     */
+    public MongoDBFilters count(boolean count) {
+        aggregates.put("count", count);
+        return this;
+    }
+
+    public boolean isCount() {
+        return aggregates.getBoolean("count");
+    }
+
+    /**
+     * Build the stages that cut a page out of the matches: the position of the cursor, the sort, skip and
+     * limit. One more entry than the limit is read to find out if there is a next page (see
+     * {@link #nextCursor(List)}).
+     *
+     * @return a list of aggregation stages.
+     */
+    public List<Bson> toPageStages() {
+        List<Bson> stages = new ArrayList<>();
+
+        Document position = getCursor();
+        if (position != null) stages.add(Aggregates.match(toCursorFilter(position)));
+
+        stages.add(Aggregates.sort(getOrder() == 1
+            ? Sorts.ascending(getSortField(), "_id")
+            : Sorts.descending(getSortField(), "_id")));
+
+        if (getSkip() > 0) stages.add(Aggregates.skip(getSkip()));
+        if (getLimit() > 0) stages.add(Aggregates.limit(getLimit() + 1));
+        return stages;
+    }
+
+    /**
+     * Remove the additional entry read by {@link #toPageStages()} and create the cursor of the next page.
+     * Must be called before the ObjectIds of the entries are converted to strings.
+     *
+     * @param page The entries read with the stages of {@link #toPageStages()}.
+     * @return the cursor of the next page or null if this is the last page.
+     */
+    public String nextCursor(List<Document> page) {
+        if (getLimit() <= 0 || page.size() <= getLimit()) return null;
+
+        page.subList(getLimit(), page.size()).clear();
+        Document last = page.get(page.size() - 1);
+
+        Document position = new Document("sort", getSortField())
+            .append("order", getOrder())
+            .append("value", valueAt(last, getSortField()))
+            .append("id", last.get("_id"));
+
+        String json = position.toJson(JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Match the entries after a position in the sort order. Like MongoDB, null and missing values sort
+     * before all other values.
+     */
+    private Bson toCursorFilter(Document position) {
+        String field = getSortField();
+        Object value = position.get("value");
+        Object id = position.get("id");
+        boolean ascending = getOrder() == 1;
+
+        Bson afterId = ascending ? Filters.gt("_id", id) : Filters.lt("_id", id);
+        if (field.equals("_id")) return afterId;
+
+        if (value == null) {
+            return ascending
+                ? Filters.or(Filters.ne(field, null), Filters.and(Filters.eq(field, null), afterId))
+                : Filters.and(Filters.eq(field, null), afterId);
+        }
+
+        List<Bson> after = new ArrayList<>(List.of(
+            ascending ? Filters.gt(field, value) : Filters.lt(field, value),
+            Filters.and(Filters.eq(field, value), afterId)));
+        if (!ascending) after.add(Filters.eq(field, null));
+
+        return Filters.or(after);
+    }
+
+    private String getSortField() {
+        return getSort() == null ? "_id" : getSort();
+    }
+
+    private static Object valueAt(Document document, String path) {
+        Object value = document;
+        for (String part : path.split("\\.")) {
+            if (!(value instanceof Document current)) return null;
+            value = current.get(part);
+        }
+        return value;
+    }
+
     /**
      * Add a filter to the object.
      *
@@ -0,0 +1,608 @@
+package org.texttechnologylab.duui.api.storage.memory;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+
+import static org.texttechnologylab.duui.api.storage.memory.DUUIMemoryQuery.*;
+
+/**
+ * Executes aggregation pipelines and evaluates aggregation expressions on documents held in memory.
+ * <p>
+ * The stages $match, $sort, $skip, $limit, $count, $facet, $addFields, $set, $project, $unset, $lookup,
+ * $unwind, $group and $replaceRoot are supported. Expressions cover the operators used by the controllers
+ * and the common arithmetic, comparison, string, array and conversion operators.
+ */
+final class DUUIMemoryAggregation {
+
+    private DUUIMemoryAggregation() {
+    }
+
+    /**
+     * Run a pipeline.
+     *
+     * @param storage   The storage holding the collections for $lookup.
+     * @param documents The input documents. They are modified by the stages, so they must be copies.
+     * @param stages    The rendered stages.
+     * @param variables The variables defined by an enclosing $lookup.
+     * @return the output documents.
+     */
+    static List<Document> aggregate(DUUIMemoryStorage storage, List<Document> documents, List<Document> stages,
+                                    Map<String, Object> variables) {
+        List<Document> current = documents;
+
+        for (Document stage : stages) {
+            if (stage.size() != 1) throw new IllegalArgumentException("A stage must contain exactly one field: " + stage.toJson());
+
+            String name = stage.keySet().iterator().next();
+            Object argument = stage.get(name);
+
+            current = switch (name) {
+                case "$match" -> current.stream()
+                    .filter(document -> matches((Document) argument, document, variables))
+                    .collect(ArrayList::new, List::add, List::addAll);
+                case "$sort" -> {
+                    List<Document> sorted = new ArrayList<>(current);
+                    sorted.sort(comparator((Document) argument));
+                    yield sorted;
+                }
+                case "$skip" -> current.subList(Math.min(current.size(), ((Number) argument).intValue()), current.size());
+                case "$limit" -> current.subList(0, Math.min(current.size(), ((Number) argument).intValue()));
+                case "$count" -> current.isEmpty()
+                    ? new ArrayList<>()
+                    : new ArrayList<>(List.of(new Document((String) argument, current.size())));
+                case "$facet" -> facet(storage, current, (Document) argument, variables);
+                case "$addFields", "$set" -> {
+                    for (Document document : current) {
+                        Map<String, Object> scope = scope(variables, document);
+                        ((Document) argument).forEach((path, expression) ->
+                            DUUIMemoryQuery.set(document, path, evaluate(expression, document, scope)));
+                    }
+                    yield current;
+                }
+                case "$project" -> current.stream()
+                    .map(document -> project((Document) argument, document, scope(variables, document)))
+                    .collect(ArrayList::new, List::add, List::addAll);
+                case "$unset" -> {
+                    List<?> paths = argument instanceof List<?> list ? list : List.of(argument);
+                    for (Document document : current) paths.forEach(path -> remove(document, (String) path));
+                    yield current;
+                }
+                case "$lookup" -> lookup(storage, current, (Document) argument, variables);
+                case "$unwind" -> unwind(current, argument);
+                case "$group" -> group(current, (Document) argument, variables);
+                case "$replaceRoot", "$replaceWith" -> current.stream()
+                    .map(document -> {
+                        Object root = argument instanceof Document spec && spec.containsKey("newRoot")
+                            ? spec.get("newRoot")
+                            : argument;
+                        Object value = evaluate(root, document, scope(variables, document));
+                        if (!(value instanceof Document replacement)) {
+                            throw new IllegalArgumentException("The new root must be a document: " + value);
+                        }
+                        return replacement;
+                    })
+                    .collect(ArrayList::new, List::add, List::addAll);
+                default -> throw unsupported("aggregation stage", name);
+            };
+        }
+
+        return current;
+    }
+
+    /**
+     * Run a pipeline on stored documents. Leading $match stages are evaluated on the stored documents, so
+     * only the matching documents are copied.
+     *
+     * @param storage   The storage holding the collections for $lookup.
+     * @param documents The stored documents, which are not modified.
+     * @param stages    The rendered stages.
+     * @param variables The variables defined by an enclosing $lookup.
+     * @return the output documents.
+     */
+    static List<Document> execute(DUUIMemoryStorage storage, List<Document> documents, List<Document> stages,
+                                  Map<String, Object> variables) {
+        int start = 0;
+        List<Document> matched = documents;
+        while (start < stages.size() && stages.get(start).containsKey("$match")) {
+            Document filter = stages.get(start++).get("$match", Document.class);
+            matched = matched.stream().filter(document -> matches(filter, document, variables)).toList();
+        }
+
+        List<Document> copies = new ArrayList<>(matched.size());
+        for (Document document : matched) copies.add(copy(document));
+        return aggregate(storage, copies, stages.subList(start, stages.size()), variables);
+    }
+
+    private static List<Document> facet(DUUIMemoryStorage storage, List<Document> documents, Document facets,
+                                        Map<String, Object> variables) {
+        Document result = new Document();
+        facets.forEach((name, stages) -> result.put(name, aggregate(
+            storage,
+            documents.stream().map(DUUIMemoryQuery::copy).collect(ArrayList::new, List::add, List::addAll),
+            stages(stages),
+            variables)));
+        return new ArrayList<>(List.of(result));
+    }
+
+    private static List<Document> lookup(DUUIMemoryStorage storage, List<Document> documents, Document spec,
+                                         Map<String, Object> variables) {
+        DUUIMemoryCollection from = storage.getCollection(spec.getString("from"));
+        String as = spec.getString("as");
+
+        for (Document document : documents) {
+            List<Document> foreign = from.snapshot();
+            Map<String, Object> scope = new HashMap<>(variables);
+
+            if (spec.containsKey("localField")) {
+                List<Object> local = values(document, spec.getString("localField"));
+                Document condition = new Document("$in", local.isEmpty() ? Collections.singletonList(null) : flatten(local));
+                String foreignField = spec.getString("foreignField");
+                foreign = foreign.stream()
+                    .filter(candidate -> matchesCondition(values(candidate, foreignField), condition))
+                    .toList();
+            }
+
+            Document let = spec.get("let", new Document());
+            let.forEach((name, expression) -> scope.put(name, evaluate(expression, document, scope(variables, document))));
+
+            List<Document> joined = execute(storage, foreign, stages(spec.getOrDefault("pipeline", List.of())), scope);
+            DUUIMemoryQuery.set(document, as, new ArrayList<>(joined));
+        }
+        return documents;
+    }
+
+    private static List<Document> unwind(List<Document> documents, Object spec) {
+        String path = spec instanceof Document options ? options.getString("path") : (String) spec;
+        boolean preserve = spec instanceof Document options && options.getBoolean("preserveNullAndEmptyArrays", false);
+        String index = spec instanceof Document options ? options.getString("includeArrayIndex") : null;
+        path = path.substring(1);
+
+        List<Document> result = new ArrayList<>();
+        for (Document document : documents) {
+            Object value = get(document, path);
+            if (value instanceof List<?> list && !list.isEmpty()) {
+                for (int position = 0; position < list.size(); position++) {
+                    Document copy = copy(document);
+                    DUUIMemoryQuery.set(copy, path, copy(list.get(position)));
+                    if (index != null) copy.put(index, (long) position);
+                    result.add(copy);
+                }
+            } else if (value != null && !(value instanceof List<?>)) {
+                if (index != null) document.put(index, null);
+                result.add(document);
+            } else if (preserve) {
+                if (value != null) remove(document, path);
+                if (index != null) document.put(index, null);
+                result.add(document);
+            }
+        }
+        return result;
+    }
+
+    private static List<Document> group(List<Document> documents, Document spec, Map<String, Object> variables) {
+        Map<GroupKey, Document> groups = new LinkedHashMap<>();
+        Map<GroupKey, Map<String, long[]>> counts = new HashMap<>();
+
+        for (Document document : documents) {
+            Map<String, Object> scope = scope(variables, document);
+            Object id = evaluate(spec.get("_id"), document, scope);
+            GroupKey key = new GroupKey(id);
+            Document group = groups.computeIfAbsent(key, ignored -> new Document("_id", id));
+            Map<String, long[]> groupCounts = counts.computeIfAbsent(key, ignored -> new HashMap<>());
+
+            for (Map.Entry<String, Object> entry : spec.entrySet()) {
+                if (entry.getKey().equals("_id")) continue;
+
+                Document accumulator = (Document) entry.getValue();
+                String operator = accumulator.keySet().iterator().next();
+                Object value = operator.equals("$count") ? 1 : evaluate(accumulator.get(operator), document, scope);
+                accumulate(group, groupCounts, entry.getKey(), operator, value);
+            }
+        }
+
+        groups.forEach((key, group) -> counts.get(key).forEach((field, count) -> {
+            if (group.get(field) instanceof Number sum) group.put(field, count[0] == 0 ? null : sum.doubleValue() / count[0]);
+        }));
+
+        return new ArrayList<>(groups.values());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void accumulate(Document group, Map<String, long[]> counts, String field, String operator, Object value) {
+        boolean first = !group.containsKey(field);
+
+        switch (operator) {
+            case "$sum", "$count" -> group.put(field, add(first ? 0 : group.get(field), value instanceof Number ? value : 0));
+            case "$avg" -> {
+                if (!(value instanceof Number)) {
+                    if (first) group.put(field, null);
+                    return;
+                }
+                long[] count = counts.computeIfAbsent(field, ignored -> new long[1]);
+                count[0]++;
+                group.put(field, add(group.get(field) == null ? 0 : group.get(field), value));
+            }
+            case "$min" -> {
+                if (value != null && (first || group.get(field) == null || compare(value, group.get(field)) < 0)) group.put(field, value);
+                else if (first) group.put(field, null);
+            }
+            case "$max" -> {
+                if (value != null && (first || group.get(field) == null || compare(value, group.get(field)) > 0)) group.put(field, value);
+                else if (first) group.put(field, null);
+            }
+            case "$first" -> {
+                if (first) group.put(field, value);
+            }
+            case "$last" -> group.put(field, value);
+            case "$push" -> {
+                if (first) group.put(field, new ArrayList<>());
+                ((List<Object>) group.get(field)).add(value);
+            }
+            case "$addToSet" -> {
+                if (first) group.put(field, new ArrayList<>());
+                List<Object> set = (List<Object>) group.get(field);
+                if (set.stream().noneMatch(element -> DUUIMemoryQuery.equal(element, value))) set.add(value);
+            }
+            default -> throw unsupported("accumulator", operator);
+        }
+    }
+
+    /**
+     * Wraps the _id of a group so that equal values of different numeric types end up in the same group.
+     */
+    private record GroupKey(Object id) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof GroupKey key && DUUIMemoryQuery.equal(id, key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id instanceof Number number ? Double.hashCode(number.doubleValue()) : Objects.hashCode(id);
+        }
+    }
+
+    private static Map<String, Object> scope(Map<String, Object> variables, Document document) {
+        Map<String, Object> scope = new HashMap<>(variables);
+        scope.put("ROOT", document);
+        scope.put("CURRENT", document);
+        return scope;
+    }
+
+    private static List<Document> stages(Object stages) {
+        List<Document> result = new ArrayList<>();
+        for (Object stage : list(stages)) result.add((Document) stage);
+        return result;
+    }
+
+    private static List<Object> flatten(List<Object> values) {
+        List<Object> result = new ArrayList<>();
+        for (Object value : values) {
+            if (value instanceof List<?> list) result.addAll(list);
+            else result.add(value);
+        }
+        return result;
+    }
+
+    /* ---------------------------------------------------------------------------------------------------- */
+    /* Expressions                                                                                          */
+    /* ---------------------------------------------------------------------------------------------------- */
+
+    /**
+     * Evaluate an aggregation expression.
+     *
+     * @param expression The expression: a field path ("$a.b"), a variable ("$$name"), a literal, an array, an
+     *                   operator document or a document of expressions.
+     * @param document   The current document.
+     * @param variables  The variables in scope.
+     * @return the value. Missing fields evaluate to null.
+     */
+    static Object evaluate(Object expression, Document document, Map<String, Object> variables) {
+        if (expression instanceof String string && string.startsWith("$")) {
+            if (string.startsWith("$$")) {
+                String name = string.substring(2);
+                int separator = name.indexOf('.');
+                String variable = separator < 0 ? name : name.substring(0, separator);
+
+                Object value = variable.equals("ROOT") || variable.equals("CURRENT")
+                    ? variables.getOrDefault(variable, document)
+                    : variables.get(variable);
+                if (value == null && !variables.containsKey(variable) && !variable.equals("ROOT") && !variable.equals("CURRENT")) {
+                    throw new IllegalArgumentException("Undefined variable " + variable);
+                }
+                return separator < 0 ? value : field(value, name.substring(separator + 1));
+            }
+            return field(document, string.substring(1));
+        }
+
+        if (expression instanceof List<?> list) {
+            List<Object> result = new ArrayList<>(list.size());
+            for (Object element : list) result.add(evaluate(element, document, variables));
+            return result;
+        }
+
+        if (expression instanceof Document expressions) {
+            if (isOperatorDocument(expressions)) {
+                if (expressions.size() != 1) {
+                    throw new IllegalArgumentException("An expression must contain exactly one operator: " + expressions.toJson());
+                }
+                String operator = expressions.keySet().iterator().next();
+                return operator(operator, expressions.get(operator), document, variables);
+            }
+
+            Document result = new Document();
+            expressions.forEach((key, value) -> result.put(key, evaluate(value, document, variables)));
+            return result;
+        }
+
+        return expression;
+    }
+
+    /**
+     * Resolve a field path of an expression. Unlike a query, a path through an array yields an array of the
+     * values of its elements.
+     */
+    private static Object field(Object value, String path) {
+        for (String part : path.split("\\.")) {
+            if (value instanceof Document document) {
+                value = document.get(part);
+            } else if (value instanceof List<?> list) {
+                List<Object> result = new ArrayList<>();
+                for (Object element : list) {
+                    Object child = field(element, part);
+                    if (child != null) result.add(child);
+                }
+                value = result;
+            } else {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private static Object operator(String operator, Object argument, Document document, Map<String, Object> variables) {
+        switch (operator) {
+            case "$literal":
+                return argument;
+            case "$cond": {
+                Object condition;
+                Object then;
+                Object otherwise;
+                if (argument instanceof Document spec) {
+                    condition = spec.get("if");
+                    then = spec.get("then");
+                    otherwise = spec.get("else");
+                } else {
+                    List<?> arguments = list(argument);
+                    condition = arguments.get(0);
+                    then = arguments.get(1);
+                    otherwise = arguments.get(2);
+                }
+                return isTrue(evaluate(condition, document, variables))
+                    ? evaluate(then, document, variables)
+                    : evaluate(otherwise, document, variables);
+            }
+            case "$ifNull": {
+                List<?> arguments = list(argument);
+                for (int index = 0; index < arguments.size() - 1; index++) {
+                    Object value = evaluate(arguments.get(index), document, variables);
+                    if (value != null) return value;
+                }
+                return evaluate(arguments.get(arguments.size() - 1), document, variables);
+            }
+            case "$and":
+                for (Object clause : arguments(argument)) {
+                    if (!isTrue(evaluate(clause, document, variables))) return false;
+                }
+                return true;
+            case "$or":
+                for (Object clause : arguments(argument)) {
+                    if (isTrue(evaluate(clause, document, variables))) return true;
+                }
+                return false;
+            case "$reduce": {
+                Document spec = (Document) argument;
+                Object input = evaluate(spec.get("input"), document, variables);
+                if (input == null) return null;
+
+                Object value = evaluate(spec.get("initialValue"), document, variables);
+                Map<String, Object> scope = new HashMap<>(variables);
+                for (Object element : list(input)) {
+                    scope.put("value", value);
+                    scope.put("this", element);
+                    value = evaluate(spec.get("in"), document, scope);
+                }
+                return value;
+            }
+            case "$map": {
+                Document spec = (Document) argument;
+                Object input = evaluate(spec.get("input"), document, variables);
+                if (input == null) return null;
+
+                String name = spec.getString("as") == null ? "this" : spec.getString("as");
+                Map<String, Object> scope = new HashMap<>(variables);
+                List<Object> result = new ArrayList<>();
+                for (Object element : list(input)) {
+                    scope.put(name, element);
+                    result.add(evaluate(spec.get("in"), document, scope));
+                }
+                return result;
+            }
+            case "$filter": {
+                Document spec = (Document) argument;
+                Object input = evaluate(spec.get("input"), document, variables);
+                if (input == null) return null;
+
+                String name = spec.getString("as") == null ? "this" : spec.getString("as");
+                Map<String, Object> scope = new HashMap<>(variables);
+                List<Object> result = new ArrayList<>();
+                for (Object element : list(input)) {
+                    scope.put(name, element);
+                    if (isTrue(evaluate(spec.get("cond"), document, scope))) result.add(element);
+                }
+                return result;
+            }
+            default:
+                break;
+        }
+
+        List<Object> values = new ArrayList<>();
+        for (Object value : arguments(argument)) values.add(evaluate(value, document, variables));
+        Object first = values.isEmpty() ? null : values.get(0);
+
+        return switch (operator) {
+            case "$eq" -> DUUIMemoryQuery.equal(first, values.get(1));
+            case "$ne" -> !DUUIMemoryQuery.equal(first, values.get(1));
+            case "$gt" -> compare(first, values.get(1)) > 0;
+            case "$gte" -> compare(first, values.get(1)) >= 0;
+            case "$lt" -> compare(first, values.get(1)) < 0;
+            case "$lte" -> compare(first, values.get(1)) <= 0;
+            case "$cmp" -> Integer.signum(compare(first, values.get(1)));
+            case "$not" -> !isTrue(first);
+            case "$in" -> list(values.get(1)).stream().anyMatch(element -> DUUIMemoryQuery.equal(element, first));
+            case "$concat" -> {
+                StringBuilder builder = new StringBuilder();
+                for (Object value : values) {
+                    if (value == null) yield null;
+                    if (!(value instanceof String string)) {
+                        throw new IllegalArgumentException("$concat only supports strings, not " + value);
+                    }
+                    builder.append(string);
+                }
+                yield builder.toString();
+            }
+            case "$toLower" -> first == null ? "" : first.toString().toLowerCase(Locale.ROOT);
+            case "$toUpper" -> first == null ? "" : first.toString().toUpperCase(Locale.ROOT);
+            case "$split" -> first == null ? null : new ArrayList<>(List.of(
+                ((String) first).split(java.util.regex.Pattern.quote((String) values.get(1)), -1)));
+            case "$strLenCP" -> ((String) first).codePointCount(0, ((String) first).length());
+            case "$toString" -> first == null ? null : first instanceof Date date
+                ? date.toInstant().toString()
+                : first instanceof ObjectId id ? id.toHexString() : first.toString();
+            case "$toObjectId" -> first == null || first instanceof ObjectId ? first : new ObjectId((String) first);
+            case "$toInt" -> first == null ? null : first instanceof Number number ? number.intValue() : Integer.parseInt(first.toString().trim());
+            case "$toLong" -> first == null ? null : first instanceof Number number ? number.longValue() : Long.parseLong(first.toString().trim());
+            case "$toDouble" -> first == null ? null : first instanceof Number number ? number.doubleValue() : Double.parseDouble(first.toString().trim());
+            case "$toBool" -> first == null ? null : isTrue(first);
+            case "$toDate" -> toDate(first);
+            case "$year" -> first == null ? null : utc(first).getYear();
+            case "$month" -> first == null ? null : utc(first).getMonthValue();
+            case "$dayOfMonth" -> first == null ? null : utc(first).getDayOfMonth();
+            case "$size" -> {
+                if (!(first instanceof List<?> list)) throw new IllegalArgumentException("The argument to $size must be an array");
+                yield list.size();
+            }
+            case "$arrayElemAt" -> {
+                if (!(first instanceof List<?> list)) yield null;
+                int index = ((Number) values.get(1)).intValue();
+                if (index < 0) index += list.size();
+                yield index < 0 || index >= list.size() ? null : list.get(index);
+            }
+            case "$first" -> first instanceof List<?> list && !list.isEmpty() ? list.get(0) : null;
+            case "$last" -> first instanceof List<?> list && !list.isEmpty() ? list.get(list.size() - 1) : null;
+            case "$concatArrays" -> {
+                List<Object> result = new ArrayList<>();
+                for (Object value : values) {
+                    if (value == null) yield null;
+                    result.addAll(list(value));
+                }
+                yield result;
+            }
+            case "$sum" -> {
+                Object sum = 0;
+                for (Object value : values.size() == 1 && first instanceof List<?> list ? list : values) {
+                    if (value instanceof Number) sum = add(sum, value);
+                }
+                yield sum;
+            }
+            case "$max", "$min" -> {
+                Object result = null;
+                for (Object value : values.size() == 1 && first instanceof List<?> list ? list : values) {
+                    if (value == null) continue;
+                    int order = result == null ? 0 : compare(value, result);
+                    if (result == null || (operator.equals("$max") ? order > 0 : order < 0)) result = value;
+                }
+                yield result;
+            }
+            case "$add" -> {
+                Object sum = 0;
+                for (Object value : values) {
+                    if (value == null) yield null;
+                    if (value instanceof Date date) sum = new Date(date.getTime() + ((Number) sum).longValue());
+                    else sum = sum instanceof Date date ? new Date(date.getTime() + ((Number) value).longValue()) : add(sum, value);
+                }
+                yield sum;
+            }
+            case "$subtract" -> {
+                Object second = values.get(1);
+                if (first == null || second == null) yield null;
+                if (first instanceof Date a && second instanceof Date b) yield a.getTime() - b.getTime();
+                if (first instanceof Date a) yield new Date(a.getTime() - ((Number) second).longValue());
+                yield add(first, negate((Number) second));
+            }
+            case "$multiply" -> {
+                Object product = 1;
+                for (Object value : values) {
+                    if (value == null) yield null;
+                    product = multiply((Number) product, (Number) value);
+                }
+                yield product;
+            }
+            case "$divide" -> first == null || values.get(1) == null
+                ? null
+                : ((Number) first).doubleValue() / ((Number) values.get(1)).doubleValue();
+            default -> throw unsupported("expression operator", operator);
+        };
+    }
+
+    private static List<?> arguments(Object argument) {
+        return argument instanceof List<?> list ? list : Collections.singletonList(argument);
+    }
+
+    static boolean isTrue(Object value) {
+        return isTruthy(value);
+    }
+
+    /**
+     * Add two numbers keeping integers integral like MongoDB. Integers overflow into longs.
+     */
+    static Object add(Object left, Object right) {
+        Number a = (Number) left;
+        Number b = (Number) right;
+        if (isIntegral(a) && isIntegral(b)) {
+            long sum = Math.addExact(a.longValue(), b.longValue());
+            return a instanceof Long || b instanceof Long || sum != (int) sum ? (Object) sum : (Object) (int) sum;
+        }
+        return a.doubleValue() + b.doubleValue();
+    }
+
+    private static Number negate(Number number) {
+        if (number instanceof Integer value) return value == Integer.MIN_VALUE ? -(long) value : -value;
+        if (number instanceof Long value) return -value;
+        return -number.doubleValue();
+    }
+
+    private static Object multiply(Number left, Number right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            long product = Math.multiplyExact(left.longValue(), right.longValue());
+            return left instanceof Long || right instanceof Long || product != (int) product ? (Object) product : (Object) (int) product;
+        }
+        return left.doubleValue() * right.doubleValue();
+    }
+
+    private static Date toDate(Object value) {
+        if (value == null || value instanceof Date) return (Date) value;
+        if (value instanceof Number number) return new Date(number.longValue());
+        if (value instanceof ObjectId id) return id.getDate();
+        return Date.from(Instant.parse(value.toString()));
+    }
+
+    private static ZonedDateTime utc(Object value) {
+        return toDate(value).toInstant().atZone(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,521 @@
+package org.texttechnologylab.duui.api.storage.memory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteInsert;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.texttechnologylab.duui.api.storage.IDUUICollection;
+import org.texttechnologylab.duui.api.storage.IDUUIFindIterable;
+import org.texttechnologylab.duui.api.storage.IDUUIIterable;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A collection held in memory.
+ * <p>
+ * Documents are stored in insertion order and are never modified in place: a write replaces the stored
+ * document with an updated copy. Readers therefore take a snapshot of the stored documents under a read lock
+ * and evaluate queries without holding the lock, while writers serialize on the write lock. Every document
+ * leaving the collection is a copy. Only _id is unique. Filters on process_id (and path) select their
+ * candidates with a {@link DUUIMemoryIndex}, all other filters scan the collection.
+ */
+public class DUUIMemoryCollection implements IDUUICollection {
+
+    private static final int BAD_VALUE = 2;
+
+    private final String name;
+    private final DUUIMemoryStorage storage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LinkedHashMap<Object, Document> documents = new LinkedHashMap<>();
+    private final DUUIMemoryIndex index = new DUUIMemoryIndex();
+
+    DUUIMemoryCollection(String name, DUUIMemoryStorage storage) {
+        this.name = name;
+        this.storage = storage;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the stored documents. They must not be modified.
+     */
+    List<Document> snapshot() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(documents.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param filter The rendered filter.
+     * @return the stored documents that may match the filter. They must not be modified.
+     */
+    List<Document> snapshot(Document filter) {
+        lock.readLock().lock();
+        try {
+            return candidates(filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of stored documents.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public IDUUIFindIterable find(Bson filter) {
+        return new FindResult(DUUIMemoryQuery.toDocument(filter));
+    }
+
+    @Override
+    public IDUUIIterable<Document> aggregate(List<? extends Bson> pipeline) {
+        List<Document> stages = new ArrayList<>(pipeline.size());
+        for (Bson stage : pipeline) stages.add(DUUIMemoryQuery.toDocument(stage));
+
+        // A leading $match selects its candidates with the index.
+        Document filter = !stages.isEmpty() && stages.get(0).get("$match") instanceof Document match ? match : null;
+        return () -> DUUIMemoryAggregation.execute(
+            storage, filter == null ? snapshot() : snapshot(filter), stages, Map.of()).iterator();
+    }
+
+    @Override
+    public long countDocuments(Bson filter) {
+        Document query = DUUIMemoryQuery.toDocument(filter);
+        return snapshot(query).stream().filter(document -> DUUIMemoryQuery.matches(query, document)).count();
+    }
+
+    @Override
+    public InsertOneResult insertOne(Document document) {
+        lock.writeLock().lock();
+        try {
+            return InsertOneResult.acknowledged(insert(document));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public InsertManyResult insertMany(List<? extends Document> documents, InsertManyOptions options) {
+        if (documents.isEmpty()) throw new IllegalArgumentException("state should be: documents list is not empty");
+
+        Map<Integer, BsonValue> ids = new HashMap<>();
+        List<BulkWriteError> errors = new ArrayList<>();
+
+        lock.writeLock().lock();
+        try {
+            for (int index = 0; index < documents.size(); index++) {
+                try {
+                    ids.put(index, insert(documents.get(index)));
+                } catch (RuntimeException exception) {
+                    errors.add(toWriteError(exception, index));
+                    if (options.isOrdered()) break;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (!errors.isEmpty()) {
+            List<BulkWriteInsert> inserts = new ArrayList<>();
+            ids.forEach((index, id) -> inserts.add(new BulkWriteInsert(index, id)));
+            inserts.sort(Comparator.comparingInt(BulkWriteInsert::getIndex));
+            throw new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(ids.size(), 0, 0, 0, List.of(), inserts),
+                errors, null, new ServerAddress(), Set.of());
+        }
+        return InsertManyResult.acknowledged(ids);
+    }
+
+    @Override
+    public UpdateResult updateOne(Bson filter, Bson update, UpdateOptions options) {
+        lock.writeLock().lock();
+        try {
+            return update(DUUIMemoryQuery.toDocument(filter), DUUIMemoryQuery.toDocument(update), options.isUpsert(), false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public UpdateResult updateMany(Bson filter, Bson update, UpdateOptions options) {
+        lock.writeLock().lock();
+        try {
+            return update(DUUIMemoryQuery.toDocument(filter), DUUIMemoryQuery.toDocument(update), options.isUpsert(), true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public UpdateResult replaceOne(Bson filter, Document replacement, ReplaceOptions options) {
+        lock.writeLock().lock();
+        try {
+            return replace(DUUIMemoryQuery.toDocument(filter), replacement, options.isUpsert());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Document findOneAndUpdate(Bson filter, Bson update, FindOneAndUpdateOptions options) {
+        Document query = DUUIMemoryQuery.toDocument(filter);
+        Document changes = DUUIMemoryQuery.toDocument(update);
+
+        lock.writeLock().lock();
+        try {
+            List<Document> matched = match(query);
+            if (options.getSort() != null) matched.sort(DUUIMemoryQuery.comparator(DUUIMemoryQuery.toDocument(options.getSort())));
+
+            Document before = matched.isEmpty() ? null : matched.get(0);
+            Document after;
+            if (before == null) {
+                if (!options.isUpsert()) return null;
+                after = upsert(query, changes);
+            } else {
+                after = DUUIMemoryQuery.copy(before);
+                DUUIMemoryUpdate.apply(changes, after, query, false);
+                store(before, after);
+            }
+
+            Document result = options.getReturnDocument() == ReturnDocument.AFTER ? after : before;
+            if (result == null) return null;
+            return options.getProjection() == null
+                ? DUUIMemoryQuery.copy(result)
+                : DUUIMemoryQuery.project(DUUIMemoryQuery.toDocument(options.getProjection()), result, Map.of());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public DeleteResult deleteOne(Bson filter) {
+        lock.writeLock().lock();
+        try {
+            return DeleteResult.acknowledged(delete(DUUIMemoryQuery.toDocument(filter), false));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public DeleteResult deleteMany(Bson filter) {
+        lock.writeLock().lock();
+        try {
+            return DeleteResult.acknowledged(delete(DUUIMemoryQuery.toDocument(filter), true));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Execute the requests under a single write lock. Like MongoDB, failed requests are reported in a
+     * {@link MongoBulkWriteException} containing a {@link BulkWriteError} with the index of every failed
+     * request and the result of the successful ones. Ordered writes stop at the first failure, unordered
+     * writes continue with the next request.
+     */
+    @Override
+    public BulkWriteResult bulkWrite(List<? extends WriteModel<? extends Document>> requests, BulkWriteOptions options) {
+        if (requests.isEmpty()) throw new IllegalArgumentException("state should be: writes is not an empty list");
+
+        int inserted = 0;
+        int matched = 0;
+        int modified = 0;
+        int removed = 0;
+        List<BulkWriteUpsert> upserts = new ArrayList<>();
+        List<BulkWriteInsert> inserts = new ArrayList<>();
+        List<BulkWriteError> errors = new ArrayList<>();
+
+        lock.writeLock().lock();
+        try {
+            for (int index = 0; index < requests.size(); index++) {
+                WriteModel<? extends Document> request = requests.get(index);
+                try {
+                    if (request instanceof InsertOneModel<? extends Document> insert) {
+                        inserts.add(new BulkWriteInsert(index, insert(insert.getDocument())));
+                        inserted++;
+                        continue;
+                    }
+
+                    UpdateResult result;
+                    if (request instanceof UpdateOneModel<? extends Document> update) {
+                        result = update(DUUIMemoryQuery.toDocument(update.getFilter()),
+                            DUUIMemoryQuery.toDocument(update.getUpdate()), update.getOptions().isUpsert(), false);
+                    } else if (request instanceof UpdateManyModel<? extends Document> update) {
+                        result = update(DUUIMemoryQuery.toDocument(update.getFilter()),
+                            DUUIMemoryQuery.toDocument(update.getUpdate()), update.getOptions().isUpsert(), true);
+                    } else if (request instanceof ReplaceOneModel<? extends Document> replace) {
+                        result = replace(DUUIMemoryQuery.toDocument(replace.getFilter()),
+                            replace.getReplacement(), replace.getReplaceOptions().isUpsert());
+                    } else if (request instanceof DeleteOneModel<? extends Document> delete) {
+                        removed += (int) delete(DUUIMemoryQuery.toDocument(delete.getFilter()), false);
+                        continue;
+                    } else if (request instanceof DeleteManyModel<? extends Document> delete) {
+                        removed += (int) delete(DUUIMemoryQuery.toDocument(delete.getFilter()), true);
+                        continue;
+                    } else {
+                        throw DUUIMemoryQuery.unsupported("write model", request.getClass().getSimpleName());
+                    }
+
+                    matched += (int) result.getMatchedCount();
+                    modified += (int) result.getModifiedCount();
+                    if (result.getUpsertedId() != null) upserts.add(new BulkWriteUpsert(index, result.getUpsertedId()));
+                } catch (RuntimeException exception) {
+                    errors.add(toWriteError(exception, index));
+                    if (options.isOrdered()) break;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        BulkWriteResult result = BulkWriteResult.acknowledged(inserted, matched, removed, modified, upserts, inserts);
+        if (!errors.isEmpty()) throw new MongoBulkWriteException(result, errors, null, new ServerAddress(), Set.of());
+        return result;
+    }
+
+    /**
+     * Convert the failure of a request to a write error. Errors raised by the in-memory engine itself are
+     * reported with the BadValue code of MongoDB.
+     */
+    private static BulkWriteError toWriteError(RuntimeException exception, int index) {
+        int code = exception instanceof MongoException mongo ? mongo.getCode() : BAD_VALUE;
+        return new BulkWriteError(code, exception.getMessage(), new BsonDocument(), index);
+    }
+
+    /* The following methods must be called while holding the write lock. */
+
+    private BsonValue insert(Document document) {
+        if (!document.containsKey("_id")) document.put("_id", new ObjectId());
+
+        Document stored = DUUIMemoryQuery.normalize(document);
+        Object id = stored.get("_id");
+        if (documents.containsKey(id)) {
+            throw new MongoException(11000, String.format("E11000 duplicate key error collection: %s index: _id_ dup key: { _id: %s }", name, id));
+        }
+
+        documents.put(id, stored);
+        index.add(id, stored);
+        return DUUIMemoryQuery.toBsonValue(id);
+    }
+
+    private UpdateResult update(Document filter, Document update, boolean upsert, boolean multiple) {
+        List<Document> matched = match(filter);
+        if (!multiple && matched.size() > 1) matched = matched.subList(0, 1);
+
+        if (matched.isEmpty()) {
+            if (!upsert) return UpdateResult.acknowledged(0, 0L, null);
+            Document inserted = upsert(filter, update);
+            return UpdateResult.acknowledged(0, 0L, DUUIMemoryQuery.toBsonValue(inserted.get("_id")));
+        }
+
+        long modified = 0;
+        for (Document before : matched) {
+            Document after = DUUIMemoryQuery.copy(before);
+            DUUIMemoryUpdate.apply(update, after, filter, false);
+            if (store(before, after)) modified++;
+        }
+        return UpdateResult.acknowledged(matched.size(), modified, null);
+    }
+
+    private UpdateResult replace(Document filter, Document replacement, boolean upsert) {
+        for (String key : replacement.keySet()) {
+            if (key.startsWith("$")) throw new IllegalArgumentException("Invalid BSON field name " + key + " in a replacement");
+        }
+
+        List<Document> matched = match(filter);
+        if (matched.isEmpty()) {
+            if (!upsert) return UpdateResult.acknowledged(0, 0L, null);
+
+            Document document = DUUIMemoryUpdate.seed(filter);
+            Document inserted = new Document();
+            if (document.containsKey("_id")) inserted.put("_id", document.get("_id"));
+            inserted.putAll(replacement);
+            insert(inserted);
+            return UpdateResult.acknowledged(0, 0L, DUUIMemoryQuery.toBsonValue(inserted.get("_id")));
+        }
+
+        Document before = matched.get(0);
+        Document after = new Document("_id", before.get("_id"));
+        replacement.forEach((key, value) -> {
+            if (!key.equals("_id")) after.put(key, DUUIMemoryQuery.copy(value));
+        });
+        if (replacement.containsKey("_id") && !DUUIMemoryQuery.equal(replacement.get("_id"), before.get("_id"))) {
+            throw new IllegalArgumentException("The _id field cannot be changed by a replacement");
+        }
+        return UpdateResult.acknowledged(1, store(before, after) ? 1L : 0L, null);
+    }
+
+    private Document upsert(Document filter, Document update) {
+        Document document = DUUIMemoryUpdate.seed(filter);
+        DUUIMemoryUpdate.apply(update, document, filter, true);
+        insert(document);
+        return documents.get(document.get("_id"));
+    }
+
+    private long delete(Document filter, boolean multiple) {
+        List<Document> matched = match(filter);
+        if (!multiple && matched.size() > 1) matched = matched.subList(0, 1);
+
+        for (Document document : matched) {
+            documents.remove(document.get("_id"));
+            index.remove(document.get("_id"), document);
+        }
+        return matched.size();
+    }
+
+    private List<Document> match(Document filter) {
+        Object id = filter.size() == 1 && !DUUIMemoryQuery.isOperatorDocument(filter.get("_id")) ? filter.get("_id") : null;
+        if (id != null) {
+            Document document = documents.get(id);
+            return document == null || !DUUIMemoryQuery.matches(filter, document)
+                ? new ArrayList<>()
+                : new ArrayList<>(List.of(document));
+        }
+
+        List<Document> matched = new ArrayList<>();
+        for (Document document : candidates(filter)) {
+            if (DUUIMemoryQuery.matches(filter, document)) matched.add(document);
+        }
+        return matched;
+    }
+
+    /**
+     * Must be called while holding the read or write lock.
+     *
+     * @return the stored documents that may match the filter in insertion order.
+     */
+    private List<Document> candidates(Document filter) {
+        List<Object> ids = index.lookup(filter);
+        if (ids == null) return new ArrayList<>(documents.values());
+
+        List<Document> candidates = new ArrayList<>(ids.size());
+        for (Object id : ids) candidates.add(documents.get(id));
+        return candidates;
+    }
+
+    /**
+     * Replace a stored document with its updated copy.
+     *
+     * @return if the document has changed.
+     */
+    private boolean store(Document before, Document after) {
+        Document normalized = DUUIMemoryQuery.normalize(after);
+        if (!DUUIMemoryQuery.equal(before.get("_id"), normalized.get("_id"))) {
+            throw new IllegalArgumentException("Performing an update on the path '_id' would modify the immutable field '_id'");
+        }
+        if (normalized.equals(before)) return false;
+
+        documents.put(before.get("_id"), normalized);
+        index.update(before.get("_id"), before, normalized);
+        return true;
+    }
+
+    /**
+     * A lazily executed find.
+     */
+    private class FindResult implements IDUUIFindIterable {
+        private final Document filter;
+        private Document projection;
+        private Document sort;
+        private int skip = 0;
+        private int limit = 0;
+
+        private FindResult(Document filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public IDUUIFindIterable projection(Bson projection) {
+            this.projection = projection == null ? null : DUUIMemoryQuery.toDocument(projection);
+            return this;
+        }
+
+        @Override
+        public IDUUIFindIterable sort(Bson sort) {
+            this.sort = sort == null ? null : DUUIMemoryQuery.toDocument(sort);
+            return this;
+        }
+
+        @Override
+        public IDUUIFindIterable skip(int skip) {
+            this.skip = Math.max(0, skip);
+            return this;
+        }
+
+        @Override
+        public IDUUIFindIterable limit(int limit) {
+            this.limit = Math.abs(limit);
+            return this;
+        }
+
+        @Override
+        public Iterator<Document> iterator() {
+            List<Document> matched;
+            if (sort == null && limit > 0) {
+                matched = new ArrayList<>();
+                int skipped = 0;
+                for (Document document : snapshot(filter)) {
+                    if (!DUUIMemoryQuery.matches(filter, document)) continue;
+                    if (skipped++ < skip) continue;
+                    matched.add(document);
+                    if (matched.size() == limit) break;
+                }
+            } else {
+                matched = new ArrayList<>();
+                for (Document document : snapshot(filter)) {
+                    if (DUUIMemoryQuery.matches(filter, document)) matched.add(document);
+                }
+                if (sort != null) matched.sort(DUUIMemoryQuery.comparator(sort));
+
+                int from = Math.min(skip, matched.size());
+                int to = limit > 0 ? Math.min(matched.size(), from + limit) : matched.size();
+                matched = matched.subList(from, to);
+            }
+
+            Iterator<Document> iterator = matched.iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Document next() {
+                    Document document = iterator.next();
+                    return projection == null
+                        ? DUUIMemoryQuery.copy(document)
+                        : DUUIMemoryQuery.project(projection, document, Map.of());
+                }
+            };
+        }
+    }
+}
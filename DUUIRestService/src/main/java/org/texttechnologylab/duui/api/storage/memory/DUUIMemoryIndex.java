@@ -0,0 +1,136 @@
+package org.texttechnologylab.duui.api.storage.memory;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+/**
+ * A hash index on process_id and on process_id and path of the documents in a {@link DUUIMemoryCollection}.
+ * <p>
+ * Documents and events of a process are written by their process_id and path on every update of the
+ * process, which would otherwise scan the whole collection for every write. The index selects the candidates
+ * of a filter with an equality condition on process_id (and path). Candidates are always checked against the
+ * full filter by the collection, so the index only has to return a superset of the matching documents.
+ * <p>
+ * Only strings and object ids are indexed, since their equality in Java is the equality of MongoDB. As soon
+ * as a document has another value in one of the fields (for example an array), the index is not used until
+ * that document has been removed or changed. Candidates are returned in insertion order like a scan of the
+ * collection. All methods must be called while holding the lock of the collection.
+ */
+final class DUUIMemoryIndex {
+
+    private final Map<Object, Long> positions = new HashMap<>();
+    private final Map<Object, TreeMap<Long, Object>> processes = new HashMap<>();
+    private final Map<List<Object>, TreeMap<Long, Object>> paths = new HashMap<>();
+    private final Set<Object> unindexed = new HashSet<>();
+    private long sequence = 0;
+
+    /**
+     * Add a new document.
+     */
+    void add(Object id, Document document) {
+        long position = sequence++;
+        positions.put(id, position);
+        put(id, position, document);
+    }
+
+    /**
+     * Update the entries of a stored document that has been replaced with a changed copy.
+     */
+    void update(Object id, Document before, Document after) {
+        if (Objects.equals(before.get("process_id"), after.get("process_id"))
+            && Objects.equals(before.get("path"), after.get("path"))) return;
+
+        long position = positions.get(id);
+        remove(id, position, before);
+        put(id, position, after);
+    }
+
+    /**
+     * Remove a deleted document.
+     */
+    void remove(Object id, Document document) {
+        Long position = positions.remove(id);
+        if (position != null) remove(id, position, document);
+    }
+
+    /**
+     * @param filter The rendered filter.
+     * @return the ids of the candidates in insertion order or null if the index can not be used for the filter.
+     */
+    List<Object> lookup(Document filter) {
+        if (!unindexed.isEmpty()) return null;
+
+        Map<String, Object> conditions = new HashMap<>();
+        equalities(filter, conditions);
+
+        Object processId = conditions.get("process_id");
+        if (processId == null) return null;
+
+        Object path = conditions.get("path");
+        TreeMap<Long, Object> candidates = path == null
+            ? processes.get(processId)
+            : paths.get(Arrays.asList(processId, path));
+
+        return candidates == null ? List.of() : new ArrayList<>(candidates.values());
+    }
+
+    private void put(Object id, long position, Document document) {
+        Object processId = document.get("process_id");
+        Object path = document.get("path");
+        if (!isIndexable(processId) || !isIndexable(path)) {
+            unindexed.add(id);
+            return;
+        }
+
+        processes.computeIfAbsent(processId, key -> new TreeMap<>()).put(position, id);
+        paths.computeIfAbsent(Arrays.asList(processId, path), key -> new TreeMap<>()).put(position, id);
+    }
+
+    private void remove(Object id, long position, Document document) {
+        if (unindexed.remove(id)) return;
+
+        Object processId = document.get("process_id");
+        List<Object> key = Arrays.asList(processId, document.get("path"));
+        removeEntry(processes, processId, position);
+        removeEntry(paths, key, position);
+    }
+
+    private static <K> void removeEntry(Map<K, TreeMap<Long, Object>> entries, K key, long position) {
+        TreeMap<Long, Object> bucket = entries.get(key);
+        if (bucket == null) return;
+
+        bucket.remove(position);
+        if (bucket.isEmpty()) entries.remove(key);
+    }
+
+    /**
+     * Collect the fields of a filter that must be equal to an indexable value, including the conditions
+     * of a top-level $and.
+     */
+    private static void equalities(Document filter, Map<String, Object> conditions) {
+        filter.forEach((field, condition) -> {
+            if (field.equals("$and") && condition instanceof List<?> clauses) {
+                for (Object clause : clauses) {
+                    if (clause instanceof Document document) equalities(document, conditions);
+                }
+                return;
+            }
+            if (field.startsWith("$")) return;
+
+            Object value = condition;
+            if (DUUIMemoryQuery.isOperatorDocument(condition)) {
+                Document operators = (Document) condition;
+                if (operators.size() != 1 || !operators.containsKey("$eq")) return;
+                value = operators.get("$eq");
+            }
+
+            if (value != null && isIndexable(value)) conditions.putIfAbsent(field, value);
+        });
+    }
+
+    private static boolean isIndexable(Object value) {
+        return value == null || value instanceof String || value instanceof ObjectId;
+    }
+}
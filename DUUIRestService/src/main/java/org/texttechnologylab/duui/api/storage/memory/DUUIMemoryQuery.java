@@ -0,0 +1,574 @@
+package org.texttechnologylab.duui.api.storage.memory;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.*;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.bson.types.Symbol;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates filters, projections and sorts on documents held in memory following the semantics of MongoDB.
+ * <p>
+ * Queries are built with the builders of the driver and rendered to plain {@link Document}s with the default
+ * codec registry, so the values of a query have the same Java types as the values of stored documents.
+ */
+final class DUUIMemoryQuery {
+
+    static final CodecRegistry REGISTRY = MongoClientSettings.getDefaultCodecRegistry();
+    private static final Codec<Document> CODEC = REGISTRY.get(Document.class);
+    private static final Set<String> LOGICAL = Set.of("$and", "$or", "$nor", "$expr");
+
+    private DUUIMemoryQuery() {
+    }
+
+    /**
+     * Render a filter, update, projection, sort or stage to a {@link Document}.
+     */
+    static Document toDocument(Bson bson) {
+        if (bson == null) return new Document();
+        BsonDocument document = bson.toBsonDocument(Document.class, REGISTRY);
+        return CODEC.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    /**
+     * Copy a document into the representation of stored documents: maps become documents, values are
+     * converted to their BSON counterparts and _id is moved to the front.
+     *
+     * @throws org.bson.codecs.configuration.CodecConfigurationException if a value can not be stored.
+     */
+    static Document normalize(Document document) {
+        BsonDocument bson = new BsonDocument();
+        CODEC.encode(
+            new BsonDocumentWriter(bson),
+            document,
+            EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+        return CODEC.decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+    }
+
+    static BsonValue toBsonValue(Object value) {
+        return new Document("value", value).toBsonDocument(Document.class, REGISTRY).get("value");
+    }
+
+    /**
+     * Copy documents and lists recursively. Stored documents are never modified, so every document leaving
+     * the engine is a copy.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T copy(T value) {
+        if (value instanceof Document document) {
+            Document copy = new Document();
+            document.forEach((key, field) -> copy.put(key, copy(field)));
+            return (T) copy;
+        } else if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(element -> copy.add(copy(element)));
+            return (T) copy;
+        }
+        return value;
+    }
+
+    /* ---------------------------------------------------------------------------------------------------- */
+    /* Paths                                                                                                */
+    /* ---------------------------------------------------------------------------------------------------- */
+
+    /**
+     * Collect the values at a dotted path. Arrays on the path are traversed, so a.b matches the field b of
+     * every document in the array a. Missing fields contribute no value.
+     */
+    static List<Object> values(Object root, String path) {
+        List<Object> values = new ArrayList<>();
+        collect(root, path.split("\\."), 0, values);
+        return values;
+    }
+
+    private static void collect(Object value, String[] parts, int index, List<Object> values) {
+        if (index == parts.length) {
+            values.add(value);
+            return;
+        }
+
+        if (value instanceof Document document) {
+            if (document.containsKey(parts[index])) collect(document.get(parts[index]), parts, index + 1, values);
+        } else if (value instanceof List<?> list) {
+            Integer position = position(parts[index]);
+            if (position != null) {
+                if (position < list.size()) collect(list.get(position), parts, index + 1, values);
+                return;
+            }
+            for (Object element : list) {
+                if (element instanceof Document) collect(element, parts, index, values);
+            }
+        }
+    }
+
+    /**
+     * @return the value at a dotted path without traversing arrays or null if it does not exist.
+     */
+    static Object get(Document document, String path) {
+        Object value = document;
+        for (String part : path.split("\\.")) {
+            if (value instanceof Document current) {
+                value = current.get(part);
+            } else if (value instanceof List<?> list && position(part) != null && position(part) < list.size()) {
+                value = list.get(position(part));
+            } else {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    static Integer position(String part) {
+        if (part.isEmpty() || part.length() > 9) return null;
+        for (int index = 0; index < part.length(); index++) {
+            if (!Character.isDigit(part.charAt(index))) return null;
+        }
+        return Integer.parseInt(part);
+    }
+
+    /* ---------------------------------------------------------------------------------------------------- */
+    /* Filters                                                                                              */
+    /* ---------------------------------------------------------------------------------------------------- */
+
+    /**
+     * @param filter   The rendered filter.
+     * @param document The document to test.
+     * @return if the document matches the filter.
+     */
+    static boolean matches(Document filter, Document document) {
+        return matches(filter, document, Map.of());
+    }
+
+    static boolean matches(Document filter, Document document, Map<String, Object> variables) {
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            Object condition = entry.getValue();
+
+            boolean matched = switch (key) {
+                case "$and" -> list(condition).stream()
+                    .allMatch(clause -> matches((Document) clause, document, variables));
+                case "$or" -> list(condition).stream()
+                    .anyMatch(clause -> matches((Document) clause, document, variables));
+                case "$nor" -> list(condition).stream()
+                    .noneMatch(clause -> matches((Document) clause, document, variables));
+                case "$expr" -> DUUIMemoryAggregation.isTrue(
+                    DUUIMemoryAggregation.evaluate(condition, document, variables));
+                case "$comment" -> true;
+                default -> {
+                    if (key.startsWith("$")) throw unsupported("query operator", key);
+                    yield matchesCondition(values(document, key), condition);
+                }
+            };
+
+            if (!matched) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Test the values found at a path against a condition, which is either a value or a document of
+     * operators.
+     */
+    static boolean matchesCondition(List<Object> values, Object condition) {
+        if (isOperatorDocument(condition)) {
+            Document operators = (Document) condition;
+            for (Map.Entry<String, Object> operator : operators.entrySet()) {
+                if (operator.getKey().equals("$options")) continue;
+                if (!matchesOperator(values, operator.getKey(), operator.getValue(), operators)) return false;
+            }
+            return true;
+        }
+        return matchesValue(values, condition);
+    }
+
+    private static boolean matchesOperator(List<Object> values, String operator, Object argument, Document operators) {
+        return switch (operator) {
+            case "$eq" -> matchesValue(values, argument);
+            case "$ne" -> !matchesValue(values, argument);
+            case "$gt" -> anyCompares(values, argument, result -> result > 0);
+            case "$gte" -> anyCompares(values, argument, result -> result >= 0);
+            case "$lt" -> anyCompares(values, argument, result -> result < 0);
+            case "$lte" -> anyCompares(values, argument, result -> result <= 0);
+            case "$in" -> list(argument).stream().anyMatch(candidate -> matchesValue(values, candidate));
+            case "$nin" -> list(argument).stream().noneMatch(candidate -> matchesValue(values, candidate));
+            case "$all" -> list(argument).stream().allMatch(candidate -> matchesValue(values, candidate));
+            case "$exists" -> isTruthy(argument) != values.isEmpty();
+            case "$size" -> values.stream()
+                .anyMatch(value -> value instanceof List<?> list && list.size() == ((Number) argument).intValue());
+            case "$regex" -> {
+                Pattern pattern = pattern(argument, operators.getString("$options"));
+                yield expand(values).stream().anyMatch(value -> value instanceof String string && pattern.matcher(string).find());
+            }
+            case "$not" -> !matchesCondition(values, argument instanceof Document ? argument : new Document("$regex", argument));
+            case "$elemMatch" -> values.stream().anyMatch(value -> value instanceof List<?> list
+                && list.stream().anyMatch(element -> matchesElement(element, (Document) argument)));
+            default -> throw unsupported("query operator", operator);
+        };
+    }
+
+    /**
+     * Test an element of an array against the condition of $elemMatch or $pull.
+     */
+    static boolean matchesElement(Object element, Document condition) {
+        boolean query = condition.keySet().stream().anyMatch(key -> !key.startsWith("$") || LOGICAL.contains(key));
+        if (!query) return matchesCondition(List.of(element), condition);
+        return element instanceof Document document && matches(condition, document);
+    }
+
+    /**
+     * Equality with the array semantics of MongoDB: an array matches if it is equal to the value or
+     * contains the value. Null matches missing fields. Regular expressions match strings.
+     */
+    private static boolean matchesValue(List<Object> values, Object expected) {
+        if (expected == null && values.isEmpty()) return true;
+
+        if (expected instanceof BsonRegularExpression || expected instanceof Pattern) {
+            Pattern pattern = pattern(expected, null);
+            return expand(values).stream().anyMatch(value -> value instanceof String string && pattern.matcher(string).find());
+        }
+
+        for (Object value : values) {
+            if (equal(value, expected)) return true;
+            if (value instanceof List<?> list && list.stream().anyMatch(element -> equal(element, expected))) return true;
+        }
+        return false;
+    }
+
+    private static boolean anyCompares(List<Object> values, Object argument, java.util.function.IntPredicate test) {
+        for (Object value : expand(values)) {
+            if (bracket(value) == bracket(argument) && test.test(compare(value, argument))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the values including the elements of arrays.
+     */
+    private static List<Object> expand(List<Object> values) {
+        List<Object> expanded = new ArrayList<>(values);
+        for (Object value : values) {
+            if (value instanceof List<?> list) expanded.addAll(list);
+        }
+        return expanded;
+    }
+
+    static boolean isOperatorDocument(Object value) {
+        return value instanceof Document document
+            && !document.isEmpty()
+            && document.keySet().iterator().next().startsWith("$");
+    }
+
+    private static Pattern pattern(Object value, String options) {
+        String regex;
+        String flags = options == null ? "" : options;
+        if (value instanceof BsonRegularExpression expression) {
+            regex = expression.getPattern();
+            flags += expression.getOptions();
+        } else if (value instanceof Pattern pattern) {
+            return pattern;
+        } else {
+            regex = String.valueOf(value);
+        }
+
+        int bits = 0;
+        if (flags.contains("i")) bits |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        if (flags.contains("m")) bits |= Pattern.MULTILINE;
+        if (flags.contains("s")) bits |= Pattern.DOTALL;
+        if (flags.contains("x")) bits |= Pattern.COMMENTS;
+        return Pattern.compile(regex, bits);
+    }
+
+    /* ---------------------------------------------------------------------------------------------------- */
+    /* Comparison                                                                                           */
+    /* ---------------------------------------------------------------------------------------------------- */
+
+    static boolean equal(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) return compare(left, right) == 0;
+        if (left instanceof Document || left instanceof List<?>) {
+            return bracket(left) == bracket(right) && compare(left, right) == 0;
+        }
+        return Objects.equals(left, right);
+    }
+
+    /**
+     * Compare two values in the sort order of MongoDB. Values of different types are ordered by type.
+     */
+    static int compare(Object left, Object right) {
+        int bracket = Integer.compare(bracket(left), bracket(right));
+        if (bracket != 0) return bracket;
+
+        if (left instanceof Number a && right instanceof Number b) return compareNumbers(a, b);
+        if (left instanceof String a && right instanceof String b) return a.compareTo(b);
+        if (left instanceof ObjectId a && right instanceof ObjectId b) return a.compareTo(b);
+        if (left instanceof Boolean a && right instanceof Boolean b) return a.compareTo(b);
+        if (left instanceof Date a && right instanceof Date b) return a.compareTo(b);
+
+        if (left instanceof Document a && right instanceof Document b) {
+            Iterator<Map.Entry<String, Object>> first = a.entrySet().iterator();
+            Iterator<Map.Entry<String, Object>> second = b.entrySet().iterator();
+            while (first.hasNext() && second.hasNext()) {
+                Map.Entry<String, Object> x = first.next();
+                Map.Entry<String, Object> y = second.next();
+                int result = compare(x.getValue(), y.getValue());
+                if (result == 0) result = x.getKey().compareTo(y.getKey());
+                if (result != 0) return result;
+            }
+            return Boolean.compare(first.hasNext(), second.hasNext());
+        }
+
+        if (left instanceof List<?> a && right instanceof List<?> b) {
+            for (int index = 0; index < Math.min(a.size(), b.size()); index++) {
+                int result = compare(a.get(index), b.get(index));
+                if (result != 0) return result;
+            }
+            return Integer.compare(a.size(), b.size());
+        }
+
+        return left == null ? 0 : left.toString().compareTo(String.valueOf(right));
+    }
+
+    static int compareNumbers(Number left, Number right) {
+        if (isIntegral(left) && isIntegral(right)) return Long.compare(left.longValue(), right.longValue());
+        return new BigDecimal(left.toString()).compareTo(new BigDecimal(right.toString()));
+    }
+
+    static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+    }
+
+    private static int bracket(Object value) {
+        if (value == null) return 1;
+        if (value instanceof Number) return 2;
+        if (value instanceof String || value instanceof Symbol) return 3;
+        if (value instanceof Document) return 4;
+        if (value instanceof List<?>) return 5;
+        if (value instanceof Binary) return 6;
+        if (value instanceof ObjectId) return 7;
+        if (value instanceof Boolean) return 8;
+        if (value instanceof Date) return 9;
+        if (value instanceof BsonTimestamp) return 10;
+        if (value instanceof BsonRegularExpression || value instanceof Pattern) return 11;
+        return 12;
+    }
+
+    static boolean isTruthy(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean bool) return bool;
+        if (value instanceof Number number) return number.doubleValue() != 0;
+        return true;
+    }
+
+    /* ---------------------------------------------------------------------------------------------------- */
+    /* Sorts and projections                                                                                */
+    /* ---------------------------------------------------------------------------------------------------- */
+
+    /**
+     * @param sort The rendered sort, for example {started_at: -1}.
+     * @return a comparator of documents. Missing fields sort like null.
+     */
+    static Comparator<Document> comparator(Document sort) {
+        Comparator<Document> comparator = (a, b) -> 0;
+        for (Map.Entry<String, Object> entry : sort.entrySet()) {
+            String path = entry.getKey();
+            boolean descending = entry.getValue() instanceof Number number && number.intValue() < 0;
+            Comparator<Document> field = (a, b) -> compare(sortValue(a, path, descending), sortValue(b, path, descending));
+            comparator = comparator.thenComparing(descending ? field.reversed() : field);
+        }
+        return comparator;
+    }
+
+    /**
+     * Arrays sort by their smallest element in ascending and by their largest element in descending order.
+     */
+    private static Object sortValue(Document document, String path, boolean descending) {
+        List<Object> values = values(document, path);
+        if (values.isEmpty()) return null;
+
+        Object result = null;
+        boolean first = true;
+        for (Object value : expand(values)) {
+            if (value instanceof List<?>) continue;
+            if (first || (descending ? compare(value, result) > 0 : compare(value, result) < 0)) result = value;
+            first = false;
+        }
+        return first ? values.get(0) : result;
+    }
+
+    /**
+     * Apply a projection of find() or $project. Inclusions, exclusions, $elemMatch, $slice and computed
+     * fields are supported.
+     *
+     * @param projection The rendered projection.
+     * @param document   The document, which is not modified.
+     * @param variables  The variables for computed fields.
+     * @return the projected copy.
+     */
+    static Document project(Document projection, Document document, Map<String, Object> variables) {
+        if (projection.isEmpty()) return copy(document);
+
+        boolean exclusion = projection.entrySet().stream()
+            .filter(entry -> !entry.getKey().equals("_id"))
+            .allMatch(entry -> isFlag(entry.getValue()) && !isTruthy(entry.getValue()));
+
+        if (exclusion) {
+            Document result = copy(document);
+            projection.forEach((path, value) -> {
+                if (!isTruthy(value)) remove(result, path);
+            });
+            return result;
+        }
+
+        Document result = new Document();
+        boolean includeId = !projection.containsKey("_id") || isTruthy(projection.get("_id"));
+        if (includeId && !(projection.get("_id") instanceof Document) && document.containsKey("_id")) {
+            result.put("_id", copy(document.get("_id")));
+        }
+
+        for (Map.Entry<String, Object> entry : projection.entrySet()) {
+            String path = entry.getKey();
+            Object value = entry.getValue();
+            if (path.equals("_id") && isFlag(value)) continue;
+
+            if (isFlag(value)) {
+                if (isTruthy(value)) include(document, result, path.split("\\."), 0);
+            } else if (value instanceof Document operator && operator.containsKey("$elemMatch")) {
+                Object array = get(document, path);
+                if (array instanceof List<?> list) {
+                    list.stream()
+                        .filter(element -> matchesElement(element, operator.get("$elemMatch", Document.class)))
+                        .findFirst()
+                        .ifPresent(element -> set(result, path, new ArrayList<>(List.of(copy(element)))));
+                }
+            } else if (value instanceof Document operator && operator.containsKey("$slice")) {
+                Object array = get(document, path);
+                if (array instanceof List<?> list) set(result, path, copy(slice(list, operator.get("$slice"))));
+            } else {
+                set(result, path, DUUIMemoryAggregation.evaluate(value, document, variables));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isFlag(Object value) {
+        return value instanceof Number || value instanceof Boolean;
+    }
+
+    private static void include(Object source, Document target, String[] parts, int index) {
+        if (!(source instanceof Document document) || !document.containsKey(parts[index])) return;
+
+        String key = parts[index];
+        Object value = document.get(key);
+        if (index == parts.length - 1) {
+            target.put(key, copy(value));
+        } else if (value instanceof Document) {
+            Document child = target.get(key) instanceof Document existing ? existing : new Document();
+            include(value, child, parts, index + 1);
+            target.put(key, child);
+        } else if (value instanceof List<?> list) {
+            List<Object> children = new ArrayList<>();
+            for (int position = 0; position < list.size(); position++) {
+                if (!(list.get(position) instanceof Document)) continue;
+                Document child = target.get(key) instanceof List<?> existing && existing.size() > children.size()
+                    && existing.get(children.size()) instanceof Document current ? current : new Document();
+                include(list.get(position), child, parts, index + 1);
+                children.add(child);
+            }
+            target.put(key, children);
+        }
+    }
+
+    private static List<?> slice(List<?> list, Object argument) {
+        if (argument instanceof Number number) {
+            int count = number.intValue();
+            return count >= 0
+                ? list.subList(0, Math.min(count, list.size()))
+                : list.subList(Math.max(0, list.size() + count), list.size());
+        }
+        List<?> range = (List<?>) argument;
+        int skip = ((Number) range.get(0)).intValue();
+        int start = skip < 0 ? Math.max(0, list.size() + skip) : Math.min(skip, list.size());
+        return list.subList(start, Math.min(list.size(), start + ((Number) range.get(1)).intValue()));
+    }
+
+    /**
+     * Set the value at a dotted path, creating documents on the way.
+     */
+    @SuppressWarnings("unchecked")
+    static void set(Document document, String path, Object value) {
+        String[] parts = path.split("\\.");
+        Object current = document;
+
+        for (int index = 0; index < parts.length - 1; index++) {
+            Object next;
+            if (current instanceof Document parent) {
+                next = parent.get(parts[index]);
+                if (!(next instanceof Document || next instanceof List<?>)) {
+                    next = new Document();
+                    parent.put(parts[index], next);
+                }
+            } else if (current instanceof List<?> list && position(parts[index]) != null) {
+                List<Object> elements = (List<Object>) list;
+                int position = position(parts[index]);
+                while (elements.size() <= position) elements.add(null);
+                next = elements.get(position);
+                if (!(next instanceof Document || next instanceof List<?>)) {
+                    next = new Document();
+                    elements.set(position, next);
+                }
+            } else {
+                throw new IllegalArgumentException(String.format("Cannot create field %s in %s", parts[index], path));
+            }
+            current = next;
+        }
+
+        String last = parts[parts.length - 1];
+        if (current instanceof Document parent) {
+            parent.put(last, value);
+        } else if (current instanceof List<?> list && position(last) != null) {
+            List<Object> elements = (List<Object>) list;
+            int position = position(last);
+            while (elements.size() <= position) elements.add(null);
+            elements.set(position, value);
+        } else {
+            throw new IllegalArgumentException(String.format("Cannot create field %s in %s", last, path));
+        }
+    }
+
+    /**
+     * Remove the value at a dotted path. Arrays on the path are traversed.
+     */
+    static void remove(Object value, String path) {
+        int separator = path.indexOf('.');
+        String key = separator < 0 ? path : path.substring(0, separator);
+
+        if (value instanceof Document document) {
+            if (separator < 0) document.remove(key);
+            else remove(document.get(key), path.substring(separator + 1));
+        } else if (value instanceof List<?> list) {
+            Integer position = position(key);
+            if (position != null && separator >= 0 && position < list.size()) {
+                remove(list.get(position), path.substring(separator + 1));
+            } else if (position == null) {
+                list.forEach(element -> remove(element, path));
+            }
+        }
+    }
+
+    static List<?> list(Object value) {
+        if (value instanceof List<?> list) return list;
+        throw new IllegalArgumentException(String.format("Expected an array but got %s", value));
+    }
+
+    static IllegalArgumentException unsupported(String kind, String name) {
+        return new IllegalArgumentException(String.format("The in-memory storage does not support the %s %s", kind, name));
+    }
+}
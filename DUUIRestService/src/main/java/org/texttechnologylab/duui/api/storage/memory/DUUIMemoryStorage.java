@@ -0,0 +1,29 @@
+package org.texttechnologylab.duui.api.storage.memory;
+
+import org.texttechnologylab.duui.api.storage.IDUUIStorage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A storage engine that keeps all collections in memory. Used with STORAGE_ENGINE=memory to run the service
+ * as a single node without MongoDB and to isolate the cost of the application from the cost of the
+ * database in benchmarks and load tests. The content is lost when the application stops.
+ */
+public class DUUIMemoryStorage implements IDUUIStorage {
+
+    private final Map<String, DUUIMemoryCollection> collections = new ConcurrentHashMap<>();
+
+    @Override
+    public DUUIMemoryCollection getCollection(String name) {
+        return collections.computeIfAbsent(name, key -> new DUUIMemoryCollection(key, this));
+    }
+
+    /**
+     * Remove all collections.
+     */
+    @Override
+    public void close() {
+        collections.clear();
+    }
+}
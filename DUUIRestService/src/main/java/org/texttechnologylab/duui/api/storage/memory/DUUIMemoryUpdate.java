@@ -0,0 +1,232 @@
+package org.texttechnologylab.duui.api.storage.memory;
+
+import org.bson.Document;
+
+import java.util.*;
+
+import static org.texttechnologylab.duui.api.storage.memory.DUUIMemoryQuery.*;
+
+/**
+ * Applies update documents to documents held in memory following the semantics of MongoDB.
+ * <p>
+ * The operators $set, $unset, $inc, $mul, $min, $max, $push, $addToSet, $pull, $pullAll, $pop, $rename,
+ * $currentDate and $setOnInsert are supported, including the positional operator $ for arrays that are
+ * matched by the filter.
+ */
+final class DUUIMemoryUpdate {
+
+    private DUUIMemoryUpdate() {
+    }
+
+    /**
+     * Apply an update to a document in place.
+     *
+     * @param update   The rendered update.
+     * @param document The document to modify.
+     * @param filter   The rendered filter that matched the document. Used to resolve the positional operator.
+     * @param insert   Whether the document is being inserted by an upsert. Enables $setOnInsert.
+     */
+    @SuppressWarnings("unchecked")
+    static void apply(Document update, Document document, Document filter, boolean insert) {
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            String operator = entry.getKey();
+            if (!operator.startsWith("$")) {
+                throw new IllegalArgumentException("Invalid BSON field name " + operator + " in an update");
+            }
+
+            for (Map.Entry<String, Object> field : ((Document) entry.getValue()).entrySet()) {
+                String path = positional(field.getKey(), document, filter);
+                Object argument = field.getValue();
+
+                if (path.equals("_id") || path.startsWith("_id.")) {
+                    if (operator.equals("$setOnInsert") || (insert && operator.equals("$set"))) {
+                        DUUIMemoryQuery.set(document, path, copy(argument));
+                        continue;
+                    }
+                    throw new IllegalArgumentException("Performing an update on the path '_id' would modify the immutable field '_id'");
+                }
+
+                switch (operator) {
+                    case "$set" -> DUUIMemoryQuery.set(document, path, copy(argument));
+                    case "$setOnInsert" -> {
+                        if (insert) DUUIMemoryQuery.set(document, path, copy(argument));
+                    }
+                    case "$unset" -> remove(document, path);
+                    case "$inc" -> {
+                        Object current = get(document, path);
+                        DUUIMemoryQuery.set(document, path, current == null ? argument : DUUIMemoryAggregation.add(number(current, path), argument));
+                    }
+                    case "$mul" -> {
+                        Object current = get(document, path);
+                        Number factor = (Number) argument;
+                        Number value = current == null ? 0 : number(current, path);
+                        DUUIMemoryQuery.set(document, path, isIntegral(value) && isIntegral(factor)
+                            ? (Object) Math.multiplyExact(value.longValue(), factor.longValue())
+                            : (Object) (value.doubleValue() * factor.doubleValue()));
+                    }
+                    case "$min", "$max" -> {
+                        Object current = get(document, path);
+                        int order = current == null ? 0 : compare(argument, current);
+                        if (current == null || (operator.equals("$min") ? order < 0 : order > 0)) {
+                            DUUIMemoryQuery.set(document, path, copy(argument));
+                        }
+                    }
+                    case "$currentDate" -> DUUIMemoryQuery.set(document, path, new Date());
+                    case "$rename" -> {
+                        Object current = get(document, path);
+                        if (current != null) {
+                            remove(document, path);
+                            DUUIMemoryQuery.set(document, (String) argument, current);
+                        }
+                    }
+                    case "$push", "$addToSet" -> {
+                        List<Object> array = array(document, path, true);
+                        List<?> values = argument instanceof Document each && each.containsKey("$each")
+                            ? list(each.get("$each"))
+                            : List.of(argument);
+
+                        if (operator.equals("$addToSet")) {
+                            for (Object value : values) {
+                                if (array.stream().noneMatch(element -> DUUIMemoryQuery.equal(element, value))) array.add(copy(value));
+                            }
+                        } else {
+                            Document modifiers = argument instanceof Document each && each.containsKey("$each") ? each : new Document();
+                            int position = modifiers.get("$position") instanceof Number number
+                                ? Math.max(0, Math.min(array.size(), number.intValue() < 0 ? array.size() + number.intValue() : number.intValue()))
+                                : array.size();
+                            array.addAll(position, copy(new ArrayList<>(values)));
+
+                            if (modifiers.get("$sort") != null) {
+                                Object sort = modifiers.get("$sort");
+                                if (sort instanceof Document fields) {
+                                    ((List<Document>) (List<?>) array).sort(comparator(fields));
+                                } else {
+                                    array.sort(((Number) sort).intValue() < 0 ? (a, b) -> compare(b, a) : DUUIMemoryQuery::compare);
+                                }
+                            }
+                            if (modifiers.get("$slice") instanceof Number slice) {
+                                int count = slice.intValue();
+                                List<Object> kept = count >= 0
+                                    ? new ArrayList<>(array.subList(0, Math.min(count, array.size())))
+                                    : new ArrayList<>(array.subList(Math.max(0, array.size() + count), array.size()));
+                                array.clear();
+                                array.addAll(kept);
+                            }
+                        }
+                    }
+                    case "$pull" -> {
+                        List<Object> array = array(document, path, false);
+                        if (array == null) continue;
+
+                        if (argument instanceof Document condition) {
+                            array.removeIf(element -> matchesElement(element, condition));
+                        } else {
+                            array.removeIf(element -> DUUIMemoryQuery.equal(element, argument));
+                        }
+                    }
+                    case "$pullAll" -> {
+                        List<Object> array = array(document, path, false);
+                        if (array == null) continue;
+                        array.removeIf(element -> list(argument).stream().anyMatch(value -> DUUIMemoryQuery.equal(element, value)));
+                    }
+                    case "$pop" -> {
+                        List<Object> array = array(document, path, false);
+                        if (array == null || array.isEmpty()) continue;
+                        array.remove(((Number) argument).intValue() < 0 ? 0 : array.size() - 1);
+                    }
+                    default -> throw unsupported("update operator", operator);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the document inserted by an upsert from the equality conditions of the filter.
+     *
+     * @param filter The rendered filter.
+     * @return the document containing the fields the filter compares for equality.
+     */
+    static Document seed(Document filter) {
+        Document document = new Document();
+        seed(filter, document);
+        return document;
+    }
+
+    private static void seed(Document filter, Document document) {
+        filter.forEach((key, condition) -> {
+            if (key.equals("$and")) {
+                list(condition).forEach(clause -> seed((Document) clause, document));
+            } else if (!key.startsWith("$")) {
+                if (!isOperatorDocument(condition)) {
+                    DUUIMemoryQuery.set(document, key, copy(condition));
+                } else if (((Document) condition).containsKey("$eq")) {
+                    DUUIMemoryQuery.set(document, key, copy(((Document) condition).get("$eq")));
+                }
+            }
+        });
+    }
+
+    /**
+     * Replace the positional operator $ in a path by the index of the first array element matched by the
+     * conditions of the filter on that array.
+     */
+    private static String positional(String path, Document document, Document filter) {
+        int marker = path.indexOf(".$");
+        if (marker < 0 || !(path.length() == marker + 2 || path.charAt(marker + 2) == '.')) return path;
+
+        String arrayPath = path.substring(0, marker);
+        Object array = get(document, arrayPath);
+        if (!(array instanceof List<?> list)) {
+            throw new IllegalArgumentException("The positional operator did not find the match needed from the query");
+        }
+
+        for (int index = 0; index < list.size(); index++) {
+            if (matchesPosition(filter, arrayPath, list.get(index))) {
+                return arrayPath + "." + index + path.substring(marker + 2);
+            }
+        }
+        throw new IllegalArgumentException("The positional operator did not find the match needed from the query");
+    }
+
+    private static boolean matchesPosition(Document filter, String arrayPath, Object element) {
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            Object condition = entry.getValue();
+
+            if (key.equals("$and")) {
+                for (Object clause : list(condition)) {
+                    if (!matchesPosition((Document) clause, arrayPath, element)) return false;
+                }
+            } else if (key.equals(arrayPath)) {
+                if (condition instanceof Document operators && operators.containsKey("$elemMatch")) {
+                    if (!matchesElement(element, operators.get("$elemMatch", Document.class))) return false;
+                } else if (!matchesCondition(List.of(element), condition)) {
+                    return false;
+                }
+            } else if (key.startsWith(arrayPath + ".")) {
+                if (!matchesCondition(values(element, key.substring(arrayPath.length() + 1)), condition)) return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Document document, String path, boolean create) {
+        Object current = get(document, path);
+        if (current == null) {
+            if (!create) return null;
+            List<Object> array = new ArrayList<>();
+            DUUIMemoryQuery.set(document, path, array);
+            return array;
+        }
+        if (!(current instanceof List<?>)) {
+            throw new IllegalArgumentException(String.format("The field %s must be an array", path));
+        }
+        return (List<Object>) current;
+    }
+
+    private static Number number(Object value, String path) {
+        if (value instanceof Number number) return number;
+        throw new IllegalArgumentException(String.format("Cannot apply a numeric update to the non-numeric field %s", path));
+    }
+}
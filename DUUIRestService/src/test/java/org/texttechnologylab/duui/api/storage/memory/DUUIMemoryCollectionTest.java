@@ -0,0 +1,226 @@
+package org.texttechnologylab.duui.api.storage.memory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the in-memory engine with the behavior of MongoDB for the queries and writes used by the
+ * controllers.
+ */
+public class DUUIMemoryCollectionTest {
+
+    private DUUIMemoryStorage storage;
+    private DUUIMemoryCollection documents;
+
+    @BeforeEach
+    public void setup() {
+        storage = new DUUIMemoryStorage();
+        documents = storage.getCollection("documents");
+
+        for (int index = 0; index < 10; index++) {
+            documents.insertOne(new Document("process_id", index < 6 ? "a" : "b")
+                .append("path", "/input/" + index + ".txt")
+                .append("name", index + ".txt")
+                .append("size", index * 10)
+                .append("tags", List.of("tag" + index % 2)));
+        }
+    }
+
+    private List<String> names(Bson filter) {
+        List<String> names = new ArrayList<>();
+        documents.find(filter).forEach(document -> names.add(document.getString("name")));
+        return names;
+    }
+
+    @Test
+    public void testFilters() {
+        assertEquals(List.of("0.txt", "1.txt", "2.txt", "3.txt", "4.txt", "5.txt"), names(Filters.eq("process_id", "a")));
+        assertEquals(List.of("2.txt"), names(Filters.and(Filters.eq("process_id", "a"), Filters.eq("path", "/input/2.txt"))));
+        assertEquals(List.of(), names(Filters.and(Filters.eq("process_id", "b"), Filters.eq("path", "/input/2.txt"))));
+        assertEquals(List.of("7.txt", "8.txt", "9.txt"), names(Filters.gt("size", 60)));
+        assertEquals(List.of("0.txt", "9.txt"), names(Filters.in("size", 0, 90)));
+        assertEquals(List.of("1.txt", "3.txt", "5.txt"), names(Filters.and(Filters.eq("process_id", "a"), Filters.eq("tags", "tag1"))));
+        assertEquals(List.of("6.txt", "8.txt"), names(Filters.or(Filters.eq("size", 60), Filters.eq("name", "8.txt"))));
+        assertEquals(List.of("3.txt"), names(Filters.regex("path", Pattern.compile("3\\.TXT$", Pattern.CASE_INSENSITIVE))));
+        assertEquals(10, documents.countDocuments(Filters.exists("path")));
+        assertEquals(4, documents.countDocuments(Filters.eq("process_id", "b")));
+    }
+
+    @Test
+    public void testFindOptions() {
+        List<Document> page = documents
+            .find(Filters.eq("process_id", "a"))
+            .sort(Sorts.descending("size"))
+            .skip(1)
+            .limit(2)
+            .projection(Projections.include("name"))
+            .into(new ArrayList<>());
+
+        assertEquals(2, page.size());
+        assertEquals("4.txt", page.get(0).getString("name"));
+        assertFalse(page.get(0).containsKey("path"));
+        assertTrue(page.get(0).containsKey("_id"));
+    }
+
+    @Test
+    public void testUpdates() {
+        UpdateResult result = documents.updateOne(
+            Filters.and(Filters.eq("process_id", "a"), Filters.eq("path", "/input/1.txt")),
+            Updates.combine(Updates.set("status", "Completed"), Updates.inc("size", 5)));
+
+        assertEquals(1, result.getMatchedCount());
+        assertEquals(1, result.getModifiedCount());
+
+        Document document = documents.find(Filters.eq("path", "/input/1.txt")).first();
+        assertEquals("Completed", document.getString("status"));
+        assertEquals(15, document.getInteger("size"));
+
+        // Setting the same value again does not modify the document.
+        assertEquals(0, documents.updateOne(Filters.eq("path", "/input/1.txt"), Updates.set("status", "Completed")).getModifiedCount());
+
+        assertEquals(4, documents.updateMany(Filters.eq("process_id", "b"), Updates.inc("size", 1)).getModifiedCount());
+        assertEquals(91, documents.find(Filters.eq("path", "/input/9.txt")).first().getInteger("size"));
+    }
+
+    @Test
+    public void testUpsert() {
+        UpdateResult result = documents.updateOne(
+            Filters.and(Filters.eq("process_id", "c"), Filters.eq("path", "/input/new.txt")),
+            Updates.combine(Updates.set("status", "Waiting"), Updates.inc("count", 1)),
+            new UpdateOptions().upsert(true));
+
+        assertEquals(0, result.getMatchedCount());
+        assertNotNull(result.getUpsertedId());
+
+        Document document = documents.find(Filters.eq("process_id", "c")).first();
+        assertEquals("/input/new.txt", document.getString("path"));
+        assertEquals("Waiting", document.getString("status"));
+        assertEquals(1, document.getInteger("count"));
+    }
+
+    @Test
+    public void testIndexFollowsWrites() {
+        documents.updateOne(Filters.eq("path", "/input/0.txt"), Updates.set("process_id", "b"));
+        documents.updateOne(Filters.eq("path", "/input/9.txt"), Updates.set("path", "/input/moved.txt"));
+        documents.deleteOne(Filters.and(Filters.eq("process_id", "a"), Filters.eq("path", "/input/5.txt")));
+
+        assertEquals(List.of("1.txt", "2.txt", "3.txt", "4.txt"), names(Filters.eq("process_id", "a")));
+        // The order of the candidates is the insertion order, even if a document has been moved to another process.
+        assertEquals(List.of("0.txt", "6.txt", "7.txt", "8.txt", "9.txt"), names(Filters.eq("process_id", "b")));
+        assertEquals(List.of("9.txt"), names(Filters.and(Filters.eq("process_id", "b"), Filters.eq("path", "/input/moved.txt"))));
+        assertEquals(List.of(), names(Filters.and(Filters.eq("process_id", "b"), Filters.eq("path", "/input/9.txt"))));
+
+        // Values that are not indexed fall back to a scan.
+        documents.insertOne(new Document("process_id", List.of("a", "b")).append("name", "shared.txt"));
+        assertEquals(List.of("1.txt", "2.txt", "3.txt", "4.txt", "shared.txt"), names(Filters.eq("process_id", "a")));
+
+        // The shared document is deleted as well, since one of its values matches.
+        assertEquals(6, documents.deleteMany(Filters.eq("process_id", "b")).getDeletedCount());
+        assertEquals(List.of("1.txt", "2.txt", "3.txt", "4.txt"), names(Filters.eq("process_id", "a")));
+    }
+
+    @Test
+    public void testOrderedBulkWriteStopsAtFirstError() {
+        Object id = documents.find(Filters.eq("path", "/input/0.txt")).first().get("_id");
+
+        MongoBulkWriteException exception = assertThrows(MongoBulkWriteException.class, () -> documents.bulkWrite(List.of(
+            new UpdateOneModel<>(Filters.eq("path", "/input/1.txt"), Updates.set("status", "Completed")),
+            new InsertOneModel<>(new Document("_id", id)),
+            new UpdateOneModel<>(Filters.eq("path", "/input/2.txt"), Updates.set("status", "Completed")))));
+
+        assertEquals(1, exception.getWriteErrors().size());
+        assertEquals(1, exception.getWriteErrors().get(0).getIndex());
+        assertEquals(11000, exception.getWriteErrors().get(0).getCode());
+        assertEquals(1, exception.getWriteResult().getModifiedCount());
+        assertTrue(exception.getErrorLabels().isEmpty());
+        assertNull(documents.find(Filters.eq("path", "/input/2.txt")).first().get("status"));
+    }
+
+    @Test
+    public void testUnorderedBulkWriteContinuesAfterError() {
+        MongoBulkWriteException exception = assertThrows(MongoBulkWriteException.class, () -> documents.bulkWrite(List.of(
+                new UpdateOneModel<>(Filters.eq("path", "/input/1.txt"), new Document("$inc", new Document("size", "one"))),
+                new UpdateOneModel<>(Filters.eq("path", "/input/2.txt"), Updates.set("status", "Completed"))),
+            new BulkWriteOptions().ordered(false)));
+
+        assertEquals(1, exception.getWriteErrors().size());
+        assertEquals(0, exception.getWriteErrors().get(0).getIndex());
+        assertEquals(1, exception.getWriteResult().getModifiedCount());
+        assertEquals("Completed", documents.find(Filters.eq("path", "/input/2.txt")).first().getString("status"));
+    }
+
+    @Test
+    public void testInsertManyReportsDuplicates() {
+        Object id = documents.find().first().get("_id");
+
+        MongoBulkWriteException exception = assertThrows(MongoBulkWriteException.class, () -> documents.insertMany(
+            List.of(new Document("name", "new.txt"), new Document("_id", id), new Document("name", "other.txt")),
+            new InsertManyOptions().ordered(false)));
+
+        assertEquals(1, exception.getWriteErrors().get(0).getIndex());
+        assertEquals(2, exception.getWriteResult().getInsertedCount());
+        assertEquals(12, documents.countDocuments());
+    }
+
+    @Test
+    public void testAggregation() {
+        DUUIMemoryCollection events = storage.getCollection("events");
+        events.insertOne(new Document("event", new Document("process_id", "a").append("document_path", "/input/1.txt")).append("timestamp", 2));
+        events.insertOne(new Document("event", new Document("process_id", "a").append("document_path", "/input/1.txt")).append("timestamp", 1));
+
+        List<Document> page = documents.aggregate(List.of(
+            Aggregates.match(Filters.eq("process_id", "a")),
+            Aggregates.addFields(new Field<>("double", new Document("$multiply", List.of("$size", 2)))),
+            Aggregates.sort(Sorts.descending("size")),
+            Aggregates.skip(4),
+            Aggregates.limit(5),
+            Aggregates.lookup(
+                "events",
+                List.of(new Variable<>("process_id", "$process_id"), new Variable<>("path", "$path")),
+                List.of(
+                    Aggregates.match(Filters.expr(new Document("$and", List.of(
+                        new Document("$eq", List.of("$event.process_id", "$$process_id")),
+                        new Document("$eq", List.of("$event.document_path", "$$path")))))),
+                    Aggregates.sort(Sorts.ascending("timestamp"))),
+                "events"),
+            Aggregates.project(Projections.fields(Projections.include("name", "double", "events"), Projections.excludeId()))
+        )).into(new ArrayList<>());
+
+        assertEquals(2, page.size());
+        assertEquals("1.txt", page.get(0).getString("name"));
+        assertEquals(20, ((Number) page.get(0).get("double")).intValue());
+        assertEquals(List.of(1, 2), page.get(0).getList("events", Document.class).stream().map(event -> event.getInteger("timestamp")).toList());
+        assertEquals("0.txt", page.get(1).getString("name"));
+        assertTrue(page.get(1).getList("events", Document.class).isEmpty());
+
+        Document facets = documents.aggregate(List.of(
+            Aggregates.match(Filters.eq("process_id", "b")),
+            Aggregates.facet(
+                new Facet("documents", Aggregates.limit(1)),
+                new Facet("count", Aggregates.count()))
+        )).first();
+
+        assertEquals(1, facets.getList("documents", Document.class).size());
+        assertEquals(4, facets.getList("count", Document.class).get(0).getInteger("count"));
+
+        Document group = documents.aggregate(List.of(
+            Aggregates.group("$process_id", Accumulators.sum("size", "$size"), Accumulators.sum("count", 1)),
+            Aggregates.sort(Sorts.ascending("_id"))
+        )).first();
+
+        assertEquals("a", group.getString("_id"));
+        assertEquals(150, ((Number) group.get("size")).intValue());
+        assertEquals(6, ((Number) group.get("count")).intValue());
+    }
+}
@@ -40,7 +40,6 @@ export interface DUUIProcess {
 		ignore_errors: boolean
 		language: string
 	}
-	document_names: string[]
 	is_finished: boolean
 	duration_setup: number
 	duration_instantiation: number
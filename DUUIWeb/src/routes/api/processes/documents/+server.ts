@@ -25,20 +25,25 @@ export const GET: RequestHandler = async ({ cookies, fetch, url }) => {
 
 	let text: string = searchParams.get('search') || ''
 	let statusFilters: string = searchParams.get('status') || 'Any'
+	let cursor: string = searchParams.get('cursor') || ''
+	let count: boolean = searchParams.get('count') !== 'false'
 
 	const fetchDocuments = async (): Promise<{
 		documents: DUUIDocument[]
 		pipelineProgress: Object
-		count: number
+		count?: number
+		next: string | null
 	}> => {
 		const response = await fetch(
 			`${API_URL}/processes/${processId}/documents
 			?limit=${limit}
-			&skip=${skip}
+			&skip=${cursor ? 0 : skip}
 			&sort=${sort}
 			&order=${order}
 			&search=${text}
-			&status=${statusFilters}`,
+			&status=${statusFilters}
+			&count=${count}
+			&cursor=${encodeURIComponent(cursor)}`,
 			{
 				method: 'GET',
 				headers: {
@@ -55,6 +60,7 @@ export const GET: RequestHandler = async ({ cookies, fetch, url }) => {
 		return {
 			documents: [],
 			count: 0,
+			next: null,
 			pipelineProgress: {}
 		}
 	}
@@ -376,7 +376,7 @@ const endpoints: { [key: string]: APIEndpoint[] } = {
 			method: 'GET' as APIMethod,
 			route: '/processes',
 			description:
-				'Retrieve multiple processes. Requires pipeline_id as a query parameters. Accepts limit, skip, sort, order, status, input and output query parameters.',
+				'Retrieve multiple processes. Requires pipeline_id as a query parameters. Accepts limit, skip, cursor, count, sort, order, status, input and output query parameters. The response contains a next cursor if there are more processes.',
 			returns: [
 				{ code: 200, message: 'Processes' },
 				{ code: 400, message: 'Missing parameter pipeline_id' }
@@ -388,6 +388,17 @@ const endpoints: { [key: string]: APIEndpoint[] } = {
 					description: 'The processes to skip before a limit is applied.',
 					type: 'Query'
 				},
+				{
+					name: 'cursor',
+					description:
+						'The next value of a previous response. Starts the page after the last process of that page at constant cost. The sort and order must not change.',
+					type: 'Query'
+				},
+				{
+					name: 'count',
+					description: 'Set to false to leave out the total count of matching processes.',
+					type: 'Query'
+				},
 				{
 					name: 'sort',
 					description:
@@ -428,7 +439,7 @@ const endpoints: { [key: string]: APIEndpoint[] } = {
 			method: 'GET' as APIMethod,
 			route: '/processes/id/documents',
 			description:
-				'Retrieve one or multiple documents belonging to a process. Accepts limit, skip, sort, order, status, and search parameters.',
+				'Retrieve one or multiple documents belonging to a process. Accepts limit, skip, cursor, count, sort, order, status, and search parameters. The response contains a next cursor if there are more documents.',
 			returns: [
 				{ code: 200, message: 'Documents' },
 				{ code: 404, message: 'Not found' }
@@ -440,6 +451,17 @@ const endpoints: { [key: string]: APIEndpoint[] } = {
 					description: 'The documents to skip before a limit is applied.',
 					type: 'Query'
 				},
+				{
+					name: 'cursor',
+					description:
+						'The next value of a previous response. Starts the page after the last document of that page at constant cost. The sort and order must not change.',
+					type: 'Query'
+				},
+				{
+					name: 'count',
+					description: 'Set to false to leave out the total count of matching documents.',
+					type: 'Query'
+				},
 				{
 					name: 'sort',
 					description: 'The field to sort by. Can be name, progress, status, size and duration.',
@@ -472,12 +494,31 @@ const endpoints: { [key: string]: APIEndpoint[] } = {
 		{
 			method: 'GET' as APIMethod,
 			route: '/processes/id/events',
-			description: 'Retrieve events for a processes given its id.',
+			description:
+				'Retrieve events for a processes given its id. Returns the whole timeline unless limit or cursor is given.',
 			returns: [
 				{ code: 200, message: 'Events' },
 				{ code: 404, message: 'Not found' }
 			],
-			parameters: [{ name: 'id', description: "The processes' id.", type: 'Query' }],
+			parameters: [
+				{ name: 'id', description: "The processes' id.", type: 'Query' },
+				{ name: 'limit', description: 'The maximum number of events to return.', type: 'Query' },
+				{
+					name: 'cursor',
+					description: 'The next value of a previous response. Starts the page after its last event.',
+					type: 'Query'
+				},
+				{
+					name: 'order',
+					description: 'The order of the timestamps. 1 is ascending and -1 is descending.',
+					type: 'Query'
+				},
+				{
+					name: 'count',
+					description: 'Set to false to leave out the total count of events.',
+					type: 'Query'
+				}
+			],
 			exampleRequest: `const response = await fetch('/pipelines/65b3dba48c997c4ce3c4f09e', {
 	method: 'GET',
 	headers: {
@@ -105,7 +105,7 @@ def fetch_status(process_id: str) -> None:
         result = CLIENT.processes.documents(
             process_id, status_filter=["Failed"], include_count=True
         )
-        total = len(process["document_names"])
+        total = max(process.get("count") or 0, 1)
 
         print(
             f"""Progress: {round(process['progress'] / total * 100)}%\t{result['count']} Documents have failed.\r""",